@@ -0,0 +1,54 @@
+package org.example.userservice.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Запускает бенчмарки для каждого числа потоков из -Djmh.threads (по умолчанию 1,4)
+ * и пишет результаты в JSON: {jmh.resultDir}/result-t{потоки}.json.
+ * Остальные аргументы передаются JMH как есть, например "-p tableSize=1000 -f 1 UserDaoBenchmark.findById".
+ * Системные свойства hibernate.* пробрасываются в форкнутые JVM.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        File resultDir = new File(System.getProperty("jmh.resultDir", "target/jmh"));
+        if (!resultDir.isDirectory() && !resultDir.mkdirs()) {
+            throw new IllegalStateException("Не удалось создать каталог результатов: " + resultDir);
+        }
+
+        List<String> jvmArgs = new ArrayList<>();
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("hibernate.")) {
+                jvmArgs.add("-D" + key + "=" + System.getProperty(key));
+            }
+        }
+
+        for (String value : System.getProperty("jmh.threads", "1,4").split(",")) {
+            int threads = Integer.parseInt(value.trim());
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultDir, "result-t" + threads + ".json").getPath())
+                    .jvmArgsAppend(jvmArgs.toArray(new String[0]));
+            if (commandLine.getIncludes().isEmpty()) {
+                options.include(UserDaoBenchmark.class.getSimpleName());
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.example.userservice.benchmark;
+
+import java.util.Map;
+
+/**
+ * Настройки Hibernate для встроенной H2 в режиме совместимости с PostgreSQL.
+ * Задаются через системные свойства hibernate.*, поэтому переопределяют hibernate.cfg.xml,
+ * но уступают свойствам, переданным явно (например, -Dhibernate.connection.url для настоящего PostgreSQL).
+ * Параметры драйвера PostgreSQL из hibernate.hikari.dataSource.* H2 просто игнорирует.
+ */
+final class EmbeddedDatabase {
+
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "hibernate.connection.driver_class", "org.h2.Driver",
+            "hibernate.connection.url", "jdbc:h2:mem:user_service_bench;MODE=PostgreSQL;"
+                    + "DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1",
+            "hibernate.connection.username", "sa",
+            "hibernate.connection.password", "",
+            "hibernate.show_sql", "false",
+            "hibernate.format_sql", "false",
+            "hibernate.highlight_sql", "false");
+
+    private EmbeddedDatabase() {
+    }
+
+    static void configure() {
+        DEFAULTS.forEach((key, value) -> {
+            if (System.getProperty(key) == null) {
+                System.setProperty(key, value);
+            }
+        });
+    }
+}
@@ -0,0 +1,202 @@
+package org.example.userservice.benchmark;
+
+import org.example.userservice.dao.UserDao;
+import org.example.userservice.dao.UserDaoImpl;
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.dao.UserSummary;
+import org.example.userservice.entity.User;
+import org.example.userservice.service.CachingUserService;
+import org.example.userservice.service.UserService;
+import org.example.userservice.service.UserServiceImpl;
+import org.example.userservice.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Бенчмарки основных операций UserDao и UserService.
+ * Режим SampleTime: в JSON попадают среднее время и перцентили одной операции.
+ * Пары для сравнения: save и saveAll (время на строку), findAll и findAllSummaries
+ * (выделение памяти на операцию, gc.alloc.rate.norm с -prof gc).
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserDaoBenchmark {
+
+    private static final int BATCH = 50;
+
+    /**
+     * Общая для всех потоков база: таблица users заполняется tableSize строками один раз на прогон.
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        @Param({"1000", "10000"})
+        public int tableSize;
+
+        UserDao userDao;
+        UserService userService;
+        UserService cachedUserService;
+        long[] ids;
+        final AtomicLong sequence = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            EmbeddedDatabase.configure();
+            HibernateUtil.rebuildSessionFactory();
+            clearTable();
+
+            userDao = new UserDaoImpl();
+            userService = new UserServiceImpl(userDao);
+            cachedUserService = new CachingUserService(userService, 10_000, Duration.ofMinutes(5), false);
+
+            List<User> users = new ArrayList<>(tableSize);
+            for (int i = 0; i < tableSize; i++) {
+                users.add(newUser("seed"));
+            }
+            userDao.saveAll(users);
+            ids = users.stream().mapToLong(User::getId).toArray();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            HibernateUtil.shutdown();
+        }
+
+        long randomId() {
+            return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        }
+
+        User newUser(String prefix) {
+            long n = sequence.incrementAndGet();
+            return new User(prefix + n, prefix + n + "@bench.example.com", 20 + (int) (n % 50));
+        }
+
+        private static void clearTable() {
+            Transaction tx = null;
+            try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+                tx = session.beginTransaction();
+                session.createMutationQuery("delete from User").executeUpdate();
+                tx.commit();
+            } catch (RuntimeException ex) {
+                if (tx != null) {
+                    tx.rollback();
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Строка для удаления: вставляется перед каждым вызовом и не входит в измеренное время.
+     */
+    @State(Scope.Thread)
+    public static class DeleteTarget {
+
+        long id;
+
+        @Setup(Level.Invocation)
+        public void insert(Database db) {
+            User user = db.newUser("delete");
+            db.userDao.save(user);
+            id = user.getId();
+        }
+    }
+
+    /**
+     * Своя строка у каждого потока: update проверяет версию, и чужие изменения той же строки давали бы
+     * OptimisticLockException. После update у объекта новая версия, поэтому перечитывать его не нужно.
+     */
+    @State(Scope.Thread)
+    public static class UpdateTarget {
+
+        User user;
+
+        @Setup(Level.Trial)
+        public void insert(Database db) {
+            user = db.newUser("update");
+            db.userDao.save(user);
+        }
+    }
+
+    @Benchmark
+    public User save(Database db) {
+        User user = db.newUser("save");
+        db.userDao.save(user);
+        return user;
+    }
+
+    // Время на одну строку, сравнимо с save
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<User> saveAll(Database db) {
+        List<User> users = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            users.add(db.newUser("batch"));
+        }
+        db.userDao.saveAll(users);
+        return users;
+    }
+
+    @Benchmark
+    public Optional<User> findById(Database db) {
+        return db.userDao.findById(db.randomId());
+    }
+
+    @Benchmark
+    public Optional<User> getUserByIdCached(Database db) {
+        return db.cachedUserService.getUserById(db.randomId());
+    }
+
+    @Benchmark
+    public List<User> findAll(Database db) {
+        return db.userDao.findAll();
+    }
+
+    @Benchmark
+    public List<UserSummary> findAllSummaries(Database db) {
+        return db.userDao.findAllSummaries();
+    }
+
+    // merge загруженного объекта: SELECT с проверкой версии и UPDATE измененных колонок
+    @Benchmark
+    public User update(Database db, UpdateTarget target) {
+        target.user.setName("updated" + db.sequence.incrementAndGet());
+        db.userDao.update(target.user);
+        return target.user;
+    }
+
+    @Benchmark
+    public Optional<User> patch(Database db) {
+        return db.userDao.patch(new UserPatch(db.randomId(), null, null, 30));
+    }
+
+    @Benchmark
+    public boolean delete(Database db, DeleteTarget target) {
+        return db.userDao.deleteById(target.id);
+    }
+}
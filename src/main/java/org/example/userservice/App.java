@@ -1,31 +1,91 @@
 package org.example.userservice;
 
+import org.example.userservice.dao.CsvImportResult;
+import org.example.userservice.dao.EmailConflictPolicy;
+import org.example.userservice.dao.InMemoryUserDao;
+import org.example.userservice.dao.MeteredUserDao;
+import org.example.userservice.dao.UserDao;
+import org.example.userservice.dao.UserCsvCopyDao;
 import org.example.userservice.dao.UserDaoImpl;
+import org.example.userservice.dao.UserQuery;
+import org.example.userservice.dao.UserSearchResult;
+import org.example.userservice.dao.UserSummary;
 import org.example.userservice.entity.User;
+import org.example.userservice.load.LoadGenerator;
+import org.example.userservice.load.LoadReport;
+import org.example.userservice.load.LoadSettings;
+import org.example.userservice.metrics.MetricsRegistry;
+import org.example.userservice.service.CachingUserService;
+import org.example.userservice.service.EmailFilteringUserService;
+import org.example.userservice.service.MeteredUserService;
 import org.example.userservice.service.UserService;
 import org.example.userservice.service.UserServiceImpl;
+import org.example.userservice.service.WriteBehindUserService;
 import org.example.userservice.util.HibernateUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.Set;
 
 public class App {
 
     private static final Logger log = LoggerFactory.getLogger(App.class);
     private static final Scanner scanner = new Scanner(System.in);
+    private static final int PAGE_SIZE = 50;
+    // Пункты меню, которые работают с базой данных напрямую, а не через UserService
+    private static final Set<Integer> DATABASE_MENU_ITEMS = Set.of(6, 10, 11, 13);
+    // Создание и обновление через отложенную запись; null - запись синхронная
+    private static WriteBehindUserService writeBehind;
+    // Фильтр email перед кешем; null - выключен
+    private static EmailFilteringUserService emailFilter;
 
     public static void main(String[] args) {
         log.info("Запуск консольного приложения user-service");
 
-        UserService userService = new UserServiceImpl(new UserDaoImpl());
+        MetricsRegistry metrics = new MetricsRegistry(true);
+        CachingUserService cachingService = new CachingUserService(
+                new UserServiceImpl(new MeteredUserDao(createUserDao(), metrics)),
+                Integer.getInteger("user-service.cache.max-size", 10_000),
+                Duration.ofSeconds(Long.getLong("user-service.cache.ttl-seconds", 300)),
+                Boolean.getBoolean("user-service.cache.cache-absent"));
+        // -Duser-service.email-filter=true: проверки отсутствующих email без запроса к БД, фильтр строится в фоне
+        if (Boolean.getBoolean("user-service.email-filter")) {
+            emailFilter = new EmailFilteringUserService(cachingService,
+                    Double.parseDouble(System.getProperty("user-service.email-filter.false-positive-rate", "0.01")),
+                    Duration.ofMinutes(Long.getLong("user-service.email-filter.rebuild-minutes", 60)));
+        }
+        UserService userService = new MeteredUserService(emailFilter != null ? emailFilter : cachingService, metrics);
+        // -Duser-service.write-behind=true: очередь дописывается в HibernateUtil.shutdown()
+        if (Boolean.getBoolean("user-service.write-behind")) {
+            writeBehind = new WriteBehindUserService(userService,
+                    Integer.getInteger("user-service.write-behind.queue-capacity", 10_000),
+                    Integer.getInteger("user-service.write-behind.batch-size", UserDaoImpl.DEFAULT_BATCH_SIZE),
+                    Duration.ofMillis(Long.getLong("user-service.write-behind.max-delay-ms", 20)));
+        }
+
+        // --load [--threads=8 --rate=200 --duration=60s ...]: нагрузка без меню, параметры - LoadSettings
+        if (args.length > 0 && "--load".equals(args[0])) {
+            runLoad(userService, metrics, Arrays.copyOfRange(args, 1, args.length));
+            HibernateUtil.shutdown();
+            return;
+        }
 
         boolean running = true;
         while (running) {
             printMenu();
             int choice = readInt("Выберите пункт меню: ");
+            // Без этой проверки пункт построил бы SessionFactory и открыл соединение с PostgreSQL
+            if (isMemoryStorage() && DATABASE_MENU_ITEMS.contains(choice)) {
+                System.out.println("Пункт недоступен: пользователи хранятся в памяти процесса");
+                continue;
+            }
 
             try {
                 switch (choice) {
@@ -34,6 +94,14 @@ public class App {
                     case 3 -> listAllUsers(userService);
                     case 4 -> updateUser(userService);
                     case 5 -> deleteUser(userService);
+                    case 6 -> printPoolStats();
+                    case 7 -> printCacheStats(cachingService);
+                    case 8 -> findUserByEmail(userService);
+                    case 9 -> printOperationStats(metrics);
+                    case 10 -> importCsv(cachingService);
+                    case 11 -> exportCsv();
+                    case 12 -> searchUsers(userService);
+                    case 13 -> printSqlStats();
                     case 0 -> {
                         running = false;
                         log.info("Завершение работы приложения");
@@ -50,7 +118,27 @@ public class App {
         scanner.close();
     }
 
+    // -Duser-service.storage=memory: пользователи хранятся в памяти процесса, база данных не нужна
+    private static UserDao createUserDao() {
+        if (isMemoryStorage()) {
+            log.info("Хранилище пользователей: память процесса");
+            return new InMemoryUserDao();
+        }
+        // SessionFactory строится, пока пользователь читает меню
+        HibernateUtil.bootstrapAsync(UserDaoImpl::warmUp);
+        // Лента изменений отстает на самую долгую пишущую транзакцию, см. UserDao.findChangedSince
+        return new UserDaoImpl(UserDaoImpl.DEFAULT_BATCH_SIZE, UserDaoImpl.DEFAULT_FETCH_SIZE,
+                Duration.ofMillis(Long.getLong("user-service.change-feed.lag-ms",
+                        UserDaoImpl.DEFAULT_CHANGE_FEED_LAG.toMillis())));
+    }
+
+    private static boolean isMemoryStorage() {
+        return "memory".equalsIgnoreCase(System.getProperty("user-service.storage"));
+    }
+
+    // При хранении в памяти пункты DATABASE_MENU_ITEMS не показываются
     private static void printMenu() {
+        boolean database = !isMemoryStorage();
         System.out.println();
         System.out.println("==== USER SERVICE ====");
         System.out.println("1. Создать пользователя");
@@ -58,6 +146,20 @@ public class App {
         System.out.println("3. Показать всех пользователей");
         System.out.println("4. Обновить пользователя");
         System.out.println("5. Удалить пользователя");
+        if (database) {
+            System.out.println("6. Статистика пула соединений");
+        }
+        System.out.println("7. Статистика кеша");
+        System.out.println("8. Найти пользователя по email");
+        System.out.println("9. Метрики операций");
+        if (database) {
+            System.out.println("10. Импорт пользователей из CSV");
+            System.out.println("11. Экспорт пользователей в CSV");
+        }
+        System.out.println("12. Поиск пользователей");
+        if (database) {
+            System.out.println("13. Статистика SQL");
+        }
         System.out.println("0. Выход");
     }
 
@@ -71,7 +173,9 @@ public class App {
 
         int age = readInt("Возраст: ");
 
-        User user = userService.createUser(name, email, age);
+        User user = writeBehind != null
+                ? writeBehind.createUser(name, email, age).join()
+                : userService.createUser(name, email, age);
         System.out.println("Пользователь создан с id: " + user.getId());
     }
 
@@ -87,13 +191,43 @@ public class App {
         }
     }
 
+    private static void findUserByEmail(UserService userService) {
+        System.out.println("--- Поиск пользователя по email ---");
+        System.out.print("Email (без учета регистра): ");
+        String email = scanner.nextLine().trim();
+
+        Optional<User> userOpt = userService.getUserByEmailIgnoreCase(email);
+        if (userOpt.isPresent()) {
+            System.out.println("Найден пользователь: " + userOpt.get());
+        } else {
+            System.out.println("Пользователь с email " + email + " не найден");
+        }
+    }
+
     private static void listAllUsers(UserService userService) {
         System.out.println("--- Список всех пользователей ---");
-        List<User> users = userService.getAllUsers();
-        if (users.isEmpty()) {
+        // Постраничный вывод: в памяти одновременно не больше одной страницы; для списка хватает краткого вида
+        Long afterId = null;
+        int shown = 0;
+        while (true) {
+            List<UserSummary> page = userService.getUserSummariesPage(afterId, PAGE_SIZE);
+            if (page.isEmpty()) {
+                break;
+            }
+            page.forEach(user -> System.out.println(user.id() + ": " + user.name() + " <" + user.email() + ">"));
+            shown += page.size();
+            afterId = page.get(page.size() - 1).id();
+
+            if (page.size() < PAGE_SIZE) {
+                break;
+            }
+            System.out.print("Показано " + shown + ". Enter - следующая страница, q - выход: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+        }
+        if (shown == 0) {
             System.out.println("Пользователи отсутствуют");
-        } else {
-            users.forEach(System.out::println);
         }
     }
 
@@ -133,7 +267,9 @@ public class App {
             }
         }
 
-        Optional<User> updatedOpt = userService.updateUser(id, newName, newEmail, newAge);
+        Optional<User> updatedOpt = writeBehind != null
+                ? writeBehind.updateUser(id, newName, newEmail, newAge).join()
+                : userService.updateUser(id, newName, newEmail, newAge);
         if (updatedOpt.isPresent()) {
             System.out.println("Пользователь обновлен: " + updatedOpt.get());
         } else {
@@ -153,6 +289,109 @@ public class App {
         }
     }
 
+    private static void printPoolStats() {
+        System.out.println("--- Статистика пула соединений ---");
+        System.out.println(HibernateUtil.getPoolStats());
+        System.out.println(HibernateUtil.getBootTimings());
+    }
+
+    private static void runLoad(UserService userService, MetricsRegistry metrics, String[] args) {
+        LoadSettings settings = LoadSettings.parse(args);
+        try {
+            LoadReport report = new LoadGenerator(userService, settings).run();
+            System.out.print(report);
+            printOperationStats(metrics);
+            if (!isMemoryStorage()) {
+                printPoolStats();
+                printSqlStats();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.warn("Нагрузка прервана");
+        }
+    }
+
+    private static void printCacheStats(CachingUserService cachingService) {
+        System.out.println("Кеш пользователей: " + cachingService.getCacheStats());
+        if (emailFilter != null) {
+            System.out.println("Фильтр email: " + emailFilter.getStats());
+        }
+    }
+
+    private static void printSqlStats() {
+        System.out.println("--- Статистика SQL ---");
+        System.out.println(HibernateUtil.getSqlStats());
+    }
+
+    private static void printOperationStats(MetricsRegistry metrics) {
+        System.out.println("--- Метрики операций ---");
+        metrics.snapshot().forEach(System.out::println);
+    }
+
+    private static void importCsv(CachingUserService cachingService) throws IOException {
+        System.out.println("--- Импорт пользователей из CSV ---");
+        System.out.print("Путь к файлу (колонки name,email,age): ");
+        Path file = Path.of(scanner.nextLine().trim());
+        System.out.print("Если email уже есть: s - пропустить, u - обновить [s]: ");
+        EmailConflictPolicy policy = scanner.nextLine().trim().equalsIgnoreCase("u")
+                ? EmailConflictPolicy.UPDATE
+                : EmailConflictPolicy.SKIP;
+
+        CsvImportResult result = new UserCsvCopyDao().importCsv(file, policy,
+                rows -> System.out.println("Прочитано строк: " + rows));
+        // Импорт меняет строки в обход сервиса
+        cachingService.invalidateAll();
+        if (emailFilter != null) {
+            emailFilter.rebuild();
+        }
+        System.out.println("Импорт завершен: добавлено " + result.inserted() + ", обновлено " + result.updated()
+                + ", пропущено " + result.skipped());
+    }
+
+    private static void exportCsv() throws IOException {
+        System.out.println("--- Экспорт пользователей в CSV ---");
+        System.out.print("Путь к файлу: ");
+        Path file = Path.of(scanner.nextLine().trim());
+
+        long exported = new UserCsvCopyDao().exportCsv(file,
+                rows -> System.out.println("Выгружено строк: " + rows));
+        System.out.println("Экспорт завершен: " + exported + " пользователей в " + file.toAbsolutePath());
+    }
+
+    private static void searchUsers(UserService userService) {
+        System.out.println("--- Поиск пользователей ---");
+        System.out.print("Начало имени (пусто - любое): ");
+        String namePrefix = scanner.nextLine().trim();
+        System.out.print("Домен email (пусто - любой): ");
+        String emailDomain = scanner.nextLine().trim();
+        Integer minAge = readOptionalInt("Возраст от (пусто - без ограничения): ");
+        Integer maxAge = readOptionalInt("Возраст до (пусто - без ограничения): ");
+
+        UserSearchResult result = userService.searchUsers(UserQuery.builder()
+                .namePrefix(namePrefix.isEmpty() ? null : namePrefix)
+                .emailDomain(emailDomain.isEmpty() ? null : emailDomain)
+                .ageBetween(minAge, maxAge)
+                .limit(PAGE_SIZE)
+                .build());
+        result.users().forEach(System.out::println);
+        System.out.println("Показано " + result.users().size() + " из " + result.totalCount());
+    }
+
+    private static Integer readOptionalInt(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String line = scanner.nextLine().trim();
+            if (line.isEmpty()) {
+                return null;
+            }
+            try {
+                return Integer.parseInt(line);
+            } catch (NumberFormatException ex) {
+                System.out.println("Введите целое число");
+            }
+        }
+    }
+
     private static int readInt(String prompt) {
         while (true) {
             System.out.print(prompt);
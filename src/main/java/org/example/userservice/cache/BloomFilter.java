@@ -0,0 +1,123 @@
+package org.example.userservice.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Фильтр Блума для строк с параллельным добавлением без блокировок.
+ * <p>
+ * {@link #mightContain} = false означает, что строка точно не добавлялась; true - что добавлялась
+ * или совпала по битам с другими (ложное срабатывание). Удалить строку нельзя: устаревшие значения
+ * уходят только при построении нового фильтра.
+ * <p>
+ * Число бит и хеш-функций рассчитывается по ожидаемому числу строк и доле ложных срабатываний;
+ * при переполнении фильтр не отказывает, но доля ложных срабатываний растет.
+ * Позиции бит - двойное хеширование (h1 + i * h2) одного 64-битного хеша строки.
+ */
+public class BloomFilter {
+
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final double LN2 = Math.log(2);
+
+    private final long[] words;
+    private final long bitSize;
+    private final int hashFunctions;
+    private final long expectedInsertions;
+    private final LongAdder insertions = new LongAdder();
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("Ожидаемое число строк должно быть положительным: " + expectedInsertions);
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("Доля ложных срабатываний должна быть в (0, 1): " + falsePositiveRate);
+        }
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (LN2 * LN2));
+        this.words = new long[Math.toIntExact(Math.max(1, (bits + Long.SIZE - 1) / Long.SIZE))];
+        this.bitSize = (long) words.length * Long.SIZE;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * LN2));
+        this.expectedInsertions = expectedInsertions;
+    }
+
+    /**
+     * @return true, если изменился хотя бы один бит: строки точно не было
+     */
+    public boolean put(String value) {
+        long h1 = hash(value);
+        long h2 = mix(h1) | 1;
+        boolean changed = false;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitSize);
+            long mask = 1L << bit;
+            long previous = (long) WORDS.getAndBitwiseOr(words, (int) (bit >>> 6), mask);
+            changed |= (previous & mask) == 0;
+        }
+        insertions.increment();
+        return changed;
+    }
+
+    public boolean mightContain(String value) {
+        long h1 = hash(value);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitSize);
+            if (((long) WORDS.getVolatile(words, (int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long expectedInsertions() {
+        return expectedInsertions;
+    }
+
+    /**
+     * Число вызовов {@link #put}, включая повторы одной строки.
+     */
+    public long insertions() {
+        return insertions.sum();
+    }
+
+    public long bitSize() {
+        return bitSize;
+    }
+
+    public int hashFunctions() {
+        return hashFunctions;
+    }
+
+    public long memoryBytes() {
+        return (long) words.length * Long.BYTES;
+    }
+
+    /**
+     * Доля ложных срабатываний при текущем заполнении: (доля единичных бит)^k. Просматривает все биты.
+     */
+    public double expectedFalsePositiveRate() {
+        long setBits = 0;
+        for (int i = 0; i < words.length; i++) {
+            setBits += Long.bitCount((long) WORDS.getVolatile(words, i));
+        }
+        return Math.pow((double) setBits / bitSize, hashFunctions);
+    }
+
+    // FNV-1a по символам и финальное перемешивание MurmurHash3: близкие строки дают далекие хеши
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
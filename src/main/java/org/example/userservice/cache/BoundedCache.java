@@ -0,0 +1,210 @@
+package org.example.userservice.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Ограниченный по размеру кеш с TTL.
+ * Ключи распределяются по независимым сегментам (lock striping), внутри сегмента работает
+ * Segmented LRU: новые записи попадают в испытательную область, повторно запрошенные -
+ * в защищенную. Однократно прочитанные ключи вытесняются раньше "горячих".
+ */
+public class BoundedCache<K, V> {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final List<Segment> segments;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public BoundedCache(int maximumSize, Duration ttl) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Размер кеша должен быть положительным: " + maximumSize);
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("TTL кеша должен быть положительным: " + ttl);
+        }
+        this.ttlNanos = ttl.toNanos();
+
+        int segmentCount = Integer.highestOneBit(Math.min(MAX_SEGMENTS, maximumSize));
+        int segmentCapacity = (maximumSize + segmentCount - 1) / segmentCount;
+        this.segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments.add(new Segment(segmentCapacity));
+        }
+    }
+
+    public V getIfPresent(K key) {
+        V value = segmentFor(key).get(key, System.nanoTime());
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Возвращает значение из кеша или загружает его через {@code loader}.
+     * Загруженное значение не кладется в кеш, если ключи сегмента инвалидировались во время загрузки:
+     * так устаревшее чтение не перезапишет результат параллельного обновления.
+     * Значение null от загрузчика не кешируется.
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        Segment segment = segmentFor(key);
+        V cached = segment.get(key, System.nanoTime());
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        long epoch = segment.epoch();
+        V loaded = loader.apply(key);
+        if (loaded != null) {
+            segment.putIfEpoch(key, loaded, epoch, System.nanoTime());
+        }
+        return loaded;
+    }
+
+    public void put(K key, V value) {
+        segmentFor(key).put(key, value, System.nanoTime());
+    }
+
+    public void invalidate(K key) {
+        segmentFor(key).invalidate(key);
+    }
+
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), size());
+    }
+
+    private Segment segmentFor(K key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments.get(hash & (segments.size() - 1));
+    }
+
+    private record Entry<V>(V value, long expiresAtNanos) {
+
+        boolean isExpired(long now) {
+            return now - expiresAtNanos >= 0;
+        }
+    }
+
+    private final class Segment {
+
+        private final LinkedHashMap<K, Entry<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<K, Entry<V>> protectedArea = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacity;
+        private final int protectedCapacity;
+        private long epoch;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = Math.max(1, (int) (capacity * PROTECTED_SHARE));
+        }
+
+        synchronized V get(K key, long now) {
+            Entry<V> entry = protectedArea.get(key);
+            if (entry != null) {
+                if (entry.isExpired(now)) {
+                    protectedArea.remove(key);
+                    expirations.increment();
+                    return null;
+                }
+                return entry.value();
+            }
+
+            entry = probation.remove(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(now)) {
+                expirations.increment();
+                return null;
+            }
+            // Повторное обращение: переводим запись в защищенную область
+            protectedArea.put(key, entry);
+            if (protectedArea.size() > protectedCapacity) {
+                Iterator<Map.Entry<K, Entry<V>>> eldest = protectedArea.entrySet().iterator();
+                Map.Entry<K, Entry<V>> demoted = eldest.next();
+                eldest.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+            return entry.value();
+        }
+
+        synchronized void put(K key, V value, long now) {
+            Entry<V> entry = new Entry<>(value, now + ttlNanos);
+            if (protectedArea.containsKey(key)) {
+                protectedArea.put(key, entry);
+                return;
+            }
+            probation.put(key, entry);
+            evictIfNeeded();
+        }
+
+        synchronized void putIfEpoch(K key, V value, long expectedEpoch, long now) {
+            if (epoch == expectedEpoch) {
+                put(key, value, now);
+            }
+        }
+
+        synchronized void invalidate(K key) {
+            epoch++;
+            if (protectedArea.remove(key) == null) {
+                probation.remove(key);
+            }
+        }
+
+        synchronized void clear() {
+            epoch++;
+            probation.clear();
+            protectedArea.clear();
+        }
+
+        synchronized long epoch() {
+            return epoch;
+        }
+
+        synchronized int size() {
+            return probation.size() + protectedArea.size();
+        }
+
+        private void evictIfNeeded() {
+            while (probation.size() + protectedArea.size() > capacity) {
+                Map<K, Entry<V>> victims = probation.isEmpty() ? protectedArea : probation;
+                Iterator<K> eldest = victims.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+}
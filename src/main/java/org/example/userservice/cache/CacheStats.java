@@ -0,0 +1,18 @@
+package org.example.userservice.cache;
+
+/**
+ * Снимок счетчиков кеша.
+ */
+public record CacheStats(long hitCount, long missCount, long evictionCount, long expirationCount, long size) {
+
+    public double hitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, expirations=%d",
+                size, hitCount, missCount, hitRate() * 100, evictionCount, expirationCount);
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.userservice.dao;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+
+/**
+ * Позиция в ленте изменений: время и id последнего прочитанного изменения. Изменения упорядочены
+ * по (время, id), поэтому курсор однозначен, даже если у нескольких строк одно время.
+ * Строковый вид ({@link #toString()}, {@link #parse}) потребитель может сохранить и продолжить с него позже.
+ */
+public record ChangeCursor(LocalDateTime changedAt, long id) implements Comparable<ChangeCursor> {
+
+    private static final Comparator<ChangeCursor> ORDER =
+            Comparator.comparing(ChangeCursor::changedAt).thenComparingLong(ChangeCursor::id);
+
+    public ChangeCursor {
+        if (changedAt == null) {
+            throw new IllegalArgumentException("У курсора ленты изменений должно быть время");
+        }
+    }
+
+    /**
+     * Курсор перед всеми изменениями начиная с watermark включительно.
+     */
+    public static ChangeCursor since(LocalDateTime watermark) {
+        return new ChangeCursor(watermark, 0);
+    }
+
+    public static ChangeCursor parse(String text) {
+        int separator = text.lastIndexOf('#');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Курсор задается как время#id: " + text);
+        }
+        try {
+            return new ChangeCursor(LocalDateTime.parse(text.substring(0, separator)),
+                    Long.parseLong(text.substring(separator + 1)));
+        } catch (DateTimeParseException | NumberFormatException ex) {
+            throw new IllegalArgumentException("Некорректный курсор ленты изменений: " + text, ex);
+        }
+    }
+
+    @Override
+    public int compareTo(ChangeCursor other) {
+        return ORDER.compare(this, other);
+    }
+
+    @Override
+    public String toString() {
+        return changedAt + "#" + id;
+    }
+}
@@ -0,0 +1,12 @@
+package org.example.userservice.dao;
+
+/**
+ * Итог импорта CSV.
+ *
+ * @param read       строк данных в файле
+ * @param inserted   создано новых пользователей
+ * @param updated    обновлено существующих (только для {@link EmailConflictPolicy#UPDATE})
+ * @param skipped    пропущено: email уже был в таблице или повторялся в файле
+ */
+public record CsvImportResult(long read, long inserted, long updated, long skipped) {
+}
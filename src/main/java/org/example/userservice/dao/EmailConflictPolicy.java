@@ -0,0 +1,17 @@
+package org.example.userservice.dao;
+
+/**
+ * Что делать при импорте со строкой, email которой уже есть в таблице users.
+ */
+public enum EmailConflictPolicy {
+
+    /**
+     * Оставить существующего пользователя без изменений.
+     */
+    SKIP,
+
+    /**
+     * Обновить имя и возраст существующего пользователя значениями из файла.
+     */
+    UPDATE
+}
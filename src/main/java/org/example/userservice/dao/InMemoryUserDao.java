@@ -0,0 +1,536 @@
+package org.example.userservice.dao;
+
+import jakarta.persistence.OptimisticLockException;
+import org.example.userservice.entity.User;
+import org.hibernate.PropertyValueException;
+import org.hibernate.StaleObjectStateException;
+import org.hibernate.exception.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * UserDao в памяти процесса, без Hibernate и базы данных: для нагрузочного тестирования
+ * и узлов, которые держат полную копию пользователей.
+ * <p>
+ * Строки хранятся неизменяемыми {@link Row} в {@link StripedLongMap} по id; email уникален,
+ * как и в таблице users, нарушение дает тот же {@link ConstraintViolationException}.
+ * Наружу отдаются копии, поэтому изменение возвращенного объекта не меняет хранилище
+ * (как у отсоединенной сущности).
+ * <p>
+ * Единица работы ({@link #inTransaction}) не изолирует и не откатывает изменения: каждая операция
+ * применяется сразу, как вне транзакции.
+ */
+public class InMemoryUserDao implements UserDao {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryUserDao.class);
+
+    // SQLSTATE unique_violation, как у PostgreSQL
+    private static final String UNIQUE_VIOLATION = "23505";
+    private static final String EMAIL_CONSTRAINT = "users_email_key";
+    private static final Comparator<Row> BY_ID = Comparator.comparingLong(Row::id);
+
+    private final StripedLongMap<Row> rows = new StripedLongMap<>();
+    private final ConcurrentHashMap<String, Row> byEmail = new ConcurrentHashMap<>();
+    // lower(email) -> строки; разные по регистру email допустимы, поэтому значение - массив
+    private final ConcurrentHashMap<String, Row[]> byEmailIgnoreCase = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // id удаленного пользователя -> время удаления, как user_tombstones
+    private final ConcurrentHashMap<Long, LocalDateTime> tombstones = new ConcurrentHashMap<>();
+    // Поток внутри inReadOnlyTransaction: запись запрещена, как и в UserDaoImpl
+    private final ThreadLocal<Boolean> readOnly = ThreadLocal.withInitial(() -> false);
+
+    @Override
+    public <T> T inTransaction(Function<UserDao, T> work) {
+        checkWritable();
+        return work.apply(this);
+    }
+
+    @Override
+    public <T> T inReadOnlyTransaction(Function<UserDao, T> work) {
+        if (readOnly.get()) {
+            return work.apply(this);
+        }
+        readOnly.set(true);
+        try {
+            return work.apply(this);
+        } finally {
+            readOnly.remove();
+        }
+    }
+
+    @Override
+    public void save(User user) {
+        checkWritable();
+        insert(user);
+        log.debug("Пользователь сохранен в памяти: id={}", user.getId());
+    }
+
+    @Override
+    public void saveAll(Collection<User> users) {
+        checkWritable();
+        // Все или ничего, как одна транзакция UserDaoImpl.saveAll
+        List<Row> inserted = new ArrayList<>(users.size());
+        try {
+            for (User user : users) {
+                inserted.add(insert(user));
+            }
+        } catch (RuntimeException ex) {
+            inserted.forEach(row -> rows.remove(row.id(), this::unindex));
+            log.debug("Пакетное сохранение в памяти отменено после {} строк", inserted.size());
+            throw ex;
+        }
+        log.debug("Пакетное сохранение в памяти завершено: сохранено={}", inserted.size());
+    }
+
+    private Row insert(User user) {
+        if (user.getId() != null) {
+            throw new IllegalArgumentException("Пользователь уже сохранен: id=" + user.getId());
+        }
+        checkNotNull(user.getName(), user.getEmail(), user.getAge());
+
+        long id = sequence.incrementAndGet();
+        LocalDateTime now = LocalDateTime.now();
+        Row row = new Row(id, user.getName(), user.getEmail(), user.getAge(), now, now, 0L);
+        // Сначала строка, потом индекс: найденный по email id всегда есть в rows.
+        // Индексация под блокировкой строки, чтобы параллельное обновление по только что выданному id
+        // не переиндексировало ее раньше; дубликат email убирает опубликованную строку.
+        rows.putIfAbsent(id, row);
+        try {
+            rows.computeIfPresent(id, published -> {
+                index(published);
+                return published;
+            });
+        } catch (ConstraintViolationException ex) {
+            rows.remove(id, unindexed -> { });
+            throw ex;
+        }
+
+        user.setId(id);
+        user.setCreatedAt(row.createdAt());
+        user.setUpdatedAt(row.updatedAt());
+        user.setVersion(row.version());
+        return row;
+    }
+
+    @Override
+    public UpsertResult upsertByEmail(User user) {
+        checkWritable();
+        checkNotNull(user.getName(), user.getEmail(), user.getAge());
+        while (true) {
+            Row current = byEmail.get(user.getEmail());
+            if (current == null) {
+                try {
+                    return new UpsertResult(insert(new User(user.getName(), user.getEmail(), user.getAge())).toUser(),
+                            UpsertResult.Outcome.INSERTED);
+                } catch (ConstraintViolationException ex) {
+                    // Email занял параллельный вызов: теперь это обновление
+                    continue;
+                }
+            }
+            Row[] previousAndUpdated = new Row[2];
+            rows.computeIfPresent(current.id(), row -> {
+                // Строку успели удалить или сменить ей email - повторяем поиск по email
+                if (!row.email().equals(user.getEmail())) {
+                    return row;
+                }
+                previousAndUpdated[0] = row;
+                previousAndUpdated[1] = row.name().equals(user.getName()) && row.age() == user.getAge()
+                        ? row
+                        : reindex(row, row.with(user.getName(), row.email(), user.getAge()));
+                return previousAndUpdated[1];
+            });
+            if (previousAndUpdated[1] != null) {
+                return new UpsertResult(previousAndUpdated[1].toUser(), previousAndUpdated[1] == previousAndUpdated[0]
+                        ? UpsertResult.Outcome.UNCHANGED
+                        : UpsertResult.Outcome.UPDATED);
+            }
+        }
+    }
+
+    @Override
+    public List<UpsertResult> upsertAllByEmail(Collection<User> users) {
+        checkWritable();
+        // Проверка до первой записи: как и в UserDaoImpl, некорректный пользователь не оставляет частичного результата
+        Map<String, User> lastByEmail = new LinkedHashMap<>();
+        for (User user : users) {
+            checkNotNull(user.getName(), user.getEmail(), user.getAge());
+            lastByEmail.put(user.getEmail(), user);
+        }
+        Map<String, UpsertResult> results = new HashMap<>();
+        lastByEmail.forEach((email, user) -> results.put(email, upsertByEmail(user)));
+        return users.stream().map(user -> results.get(user.getEmail())).toList();
+    }
+
+    @Override
+    public Optional<User> findById(Long id) {
+        return toUser(rows.get(id));
+    }
+
+    @Override
+    public Optional<User> findByEmail(String email) {
+        return toUser(byEmail.get(email));
+    }
+
+    @Override
+    public Optional<User> findByEmailIgnoreCase(String email) {
+        Row[] matches = byEmailIgnoreCase.get(email.toLowerCase(Locale.ROOT));
+        return toUser(matches == null ? null : matches[0]);
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        return byEmail.containsKey(email);
+    }
+
+    @Override
+    public List<User> findAll() {
+        return snapshotOrderedById().stream().map(Row::toUser).toList();
+    }
+
+    /**
+     * Поток по согласованному снимку: закрывать его не обязательно, но контракт UserDao это допускает.
+     */
+    @Override
+    public Stream<User> streamAll() {
+        return snapshotOrderedById().stream().map(Row::toUser);
+    }
+
+    /**
+     * id выдаются последовательно, поэтому страницу обычно дешевле собрать пробами id подряд.
+     * Если подряд много удаленных id, переходим к выборке limit наименьших id из снимка.
+     */
+    @Override
+    public List<User> findPage(Long afterId, int limit) {
+        return pageRows(afterId, limit).stream().map(Row::toUser).toList();
+    }
+
+    @Override
+    public List<UserSummary> findAllSummaries() {
+        return snapshotOrderedById().stream().map(Row::toSummary).toList();
+    }
+
+    @Override
+    public List<UserSummary> findSummaryPage(Long afterId, int limit) {
+        return pageRows(afterId, limit).stream().map(Row::toSummary).toList();
+    }
+
+    /**
+     * Полный просмотр снимка: индексов по фильтрам в памяти нет. Имена сравниваются по коду символов,
+     * поэтому порядок по имени может отличаться от порядка по правилам сортировки (collation) БД.
+     */
+    @Override
+    public UserSearchResult search(UserQuery query) {
+        String namePrefix = query.namePrefix() == null ? null : query.namePrefix().toLowerCase(Locale.ROOT);
+        String emailSuffix = query.emailDomain() == null ? null : "@" + query.emailDomain().toLowerCase(Locale.ROOT);
+        List<Row> matches = new ArrayList<>();
+        for (Row row : rows.snapshot()) {
+            if ((query.minAge() == null || row.age() >= query.minAge())
+                    && (query.maxAge() == null || row.age() <= query.maxAge())
+                    && (namePrefix == null || row.name().toLowerCase(Locale.ROOT).startsWith(namePrefix))
+                    && (emailSuffix == null || row.lowerEmail().endsWith(emailSuffix))
+                    && (query.createdFrom() == null
+                        || row.createdAt() != null && !row.createdAt().isBefore(query.createdFrom()))
+                    && (query.createdBefore() == null
+                        || row.createdAt() != null && row.createdAt().isBefore(query.createdBefore()))) {
+                matches.add(row);
+            }
+        }
+        matches.sort(ordering(query));
+
+        Stream<Row> page = matches.stream();
+        if (query.afterId() != null) {
+            long afterId = query.afterId();
+            page = page.filter(row -> query.descending() ? row.id() < afterId : row.id() > afterId);
+        }
+        List<User> users = page.skip(query.offset()).limit(query.limit()).map(Row::toUser).toList();
+        return new UserSearchResult(users, matches.size());
+    }
+
+    // Как в PostgreSQL: по возрастанию строки без created_at в конце, по убыванию - в начале
+    private static Comparator<Row> ordering(UserQuery query) {
+        Comparator<Row> ordering = switch (query.sortBy()) {
+            case ID -> BY_ID;
+            case NAME -> Comparator.comparing(Row::name).thenComparing(BY_ID);
+            case AGE -> Comparator.comparingInt(Row::age).thenComparing(BY_ID);
+            case CREATED_AT -> Comparator.comparing(Row::createdAt, Comparator.nullsLast(Comparator.<LocalDateTime>naturalOrder()))
+                    .thenComparing(BY_ID);
+        };
+        return query.descending() ? ordering.reversed() : ordering;
+    }
+
+    private List<Row> pageRows(Long afterId, int limit) {
+        long from = afterId == null ? 0L : afterId;
+        long last = sequence.get();
+        List<Row> page = new ArrayList<>(Math.min(limit, 1024));
+        long maxProbes = 4L * limit + 64;
+        long id = from + 1;
+        for (long probes = 0; id <= last && page.size() < limit && probes < maxProbes; id++, probes++) {
+            Row row = rows.get(id);
+            if (row != null) {
+                page.add(row);
+            }
+        }
+        if (page.size() < limit && id <= last) {
+            page.addAll(smallestIdsAfter(id - 1, limit - page.size()));
+        }
+        return page;
+    }
+
+    private List<Row> smallestIdsAfter(long afterId, int limit) {
+        PriorityQueue<Row> largestFirst = new PriorityQueue<>(limit, BY_ID.reversed());
+        for (Row row : rows.snapshot()) {
+            if (row.id() > afterId) {
+                largestFirst.add(row);
+                if (largestFirst.size() > limit) {
+                    largestFirst.poll();
+                }
+            }
+        }
+        List<Row> result = new ArrayList<>(largestFirst);
+        result.sort(BY_ID);
+        return result;
+    }
+
+    /**
+     * Полный просмотр строк и отметок об удалении: индекса по времени изменения в памяти нет.
+     */
+    @Override
+    public UserChangePage findChangedSince(ChangeCursor after, int limit) {
+        List<UserChange> changes = new ArrayList<>();
+        for (Row row : rows.snapshot()) {
+            if (after == null || row.cursor().compareTo(after) > 0) {
+                changes.add(UserChange.upsert(row.toUser()));
+            }
+        }
+        tombstones.forEach((id, deletedAt) -> {
+            if (after == null || new ChangeCursor(deletedAt, id).compareTo(after) > 0) {
+                changes.add(UserChange.delete(id, deletedAt));
+            }
+        });
+        changes.sort(Comparator.comparing(UserChange::cursor));
+        return UserChangePage.first(changes, after, limit);
+    }
+
+    @Override
+    public void update(User user) {
+        checkWritable();
+        checkNotNull(user.getName(), user.getEmail(), user.getAge());
+        Row updated = rows.computeIfPresent(user.getId(), current -> {
+            // Та же проверка версии, что у merge в UserDaoImpl
+            if (user.getVersion() != null && user.getVersion() != current.version()) {
+                throw new OptimisticLockException("Пользователь изменен другой транзакцией",
+                        new StaleObjectStateException(User.class.getName(), user.getId()), user);
+            }
+            return reindex(current, current.with(user.getName(), user.getEmail(), user.getAge()));
+        });
+        if (updated == null) {
+            log.debug("Пользователь с id={} не найден в памяти, обновление не выполнено", user.getId());
+        } else {
+            user.setUpdatedAt(updated.updatedAt());
+            user.setVersion(updated.version());
+        }
+    }
+
+    @Override
+    public Optional<User> patch(UserPatch patch) {
+        checkWritable();
+        Row updated = rows.computeIfPresent(patch.id(), current -> reindex(current, current.with(
+                patch.name() != null ? patch.name() : current.name(),
+                patch.email() != null ? patch.email() : current.email(),
+                patch.age() != null ? patch.age() : current.age())));
+        return toUser(updated);
+    }
+
+    @Override
+    public List<Optional<User>> patchAll(List<UserPatch> patches) {
+        // Все или ничего: при ошибке уже примененные изменения возвращаются в обратном порядке
+        List<Row> previous = new ArrayList<>(patches.size());
+        try {
+            for (UserPatch patch : patches) {
+                Row current = rows.get(patch.id());
+                if (patch(patch).isPresent()) {
+                    previous.add(current);
+                }
+            }
+        } catch (RuntimeException ex) {
+            for (int i = previous.size() - 1; i >= 0; i--) {
+                Row row = previous.get(i);
+                rows.computeIfPresent(row.id(), current -> reindex(current, row));
+            }
+            log.debug("Пакетное частичное обновление в памяти отменено после {} строк", previous.size());
+            throw ex;
+        }
+        // Как и в UserDaoImpl, при повторе id каждый результат показывает итоговое состояние строки
+        return patches.stream().map(patch -> findById(patch.id())).toList();
+    }
+
+    @Override
+    public int updateAll(Collection<UserPatch> patches) {
+        checkWritable();
+        int updated = 0;
+        for (UserPatch patch : UserPatch.mergeById(patches)) {
+            if (patch(patch).isPresent()) {
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    @Override
+    public boolean deleteById(Long id) {
+        checkWritable();
+        if (rows.remove(id, this::unindex) == null) {
+            return false;
+        }
+        tombstones.put(id, LocalDateTime.now());
+        return true;
+    }
+
+    @Override
+    public int deleteAllById(Collection<Long> ids) {
+        checkWritable();
+        int deleted = 0;
+        for (Long id : ids) {
+            if (deleteById(id)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    private List<Row> snapshotOrderedById() {
+        List<Row> snapshot = rows.snapshot();
+        snapshot.sort(BY_ID);
+        return snapshot;
+    }
+
+    // Вызывается под блокировкой сегмента строки: индексы по email меняются атомарно вместе со строкой
+    private Row reindex(Row current, Row updated) {
+        if (current.email().equals(updated.email())) {
+            byEmail.replace(current.email(), current, updated);
+            replaceIgnoreCase(current, updated);
+            return updated;
+        }
+        index(updated);
+        unindex(current);
+        return updated;
+    }
+
+    private void index(Row row) {
+        if (byEmail.putIfAbsent(row.email(), row) != null) {
+            throw new ConstraintViolationException("Пользователь с email " + row.email() + " уже существует",
+                    new SQLException("duplicate key value violates unique constraint \"" + EMAIL_CONSTRAINT + "\"",
+                            UNIQUE_VIOLATION),
+                    EMAIL_CONSTRAINT);
+        }
+        byEmailIgnoreCase.merge(row.lowerEmail(), new Row[]{row}, InMemoryUserDao::concat);
+    }
+
+    private void unindex(Row row) {
+        byEmail.remove(row.email(), row);
+        byEmailIgnoreCase.computeIfPresent(row.lowerEmail(), (key, matches) -> without(matches, row));
+    }
+
+    private void replaceIgnoreCase(Row current, Row updated) {
+        byEmailIgnoreCase.computeIfPresent(current.lowerEmail(), (key, matches) -> {
+            Row[] copy = matches.clone();
+            for (int i = 0; i < copy.length; i++) {
+                if (copy[i] == current) {
+                    copy[i] = updated;
+                }
+            }
+            return copy;
+        });
+    }
+
+    private static Row[] concat(Row[] existing, Row[] added) {
+        Row[] result = new Row[existing.length + added.length];
+        System.arraycopy(existing, 0, result, 0, existing.length);
+        System.arraycopy(added, 0, result, existing.length, added.length);
+        return result;
+    }
+
+    private static Row[] without(Row[] matches, Row row) {
+        List<Row> rest = new ArrayList<>(matches.length);
+        for (Row match : matches) {
+            if (match != row) {
+                rest.add(match);
+            }
+        }
+        return rest.isEmpty() ? null : rest.toArray(new Row[0]);
+    }
+
+    // Те же проверки nullable = false, что Hibernate выполняет перед INSERT/UPDATE
+    private void checkWritable() {
+        if (readOnly.get()) {
+            throw new IllegalStateException("Запись внутри транзакции только для чтения");
+        }
+    }
+
+    private static void checkNotNull(String name, String email, Integer age) {
+        if (name == null) {
+            throw new PropertyValueException("not-null property references a null value", User.class.getName(), "name");
+        }
+        if (email == null) {
+            throw new PropertyValueException("not-null property references a null value", User.class.getName(), "email");
+        }
+        if (age == null) {
+            throw new PropertyValueException("not-null property references a null value", User.class.getName(), "age");
+        }
+    }
+
+    private static Optional<User> toUser(Row row) {
+        return row == null ? Optional.empty() : Optional.of(row.toUser());
+    }
+
+    private record Row(long id, String name, String email, int age, LocalDateTime createdAt,
+                       LocalDateTime updatedAt, long version) {
+
+        // Каждое изменение строки увеличивает версию и время изменения
+        Row with(String name, String email, int age) {
+            return new Row(id, name, email, age, createdAt, LocalDateTime.now(), version + 1);
+        }
+
+        ChangeCursor cursor() {
+            return new ChangeCursor(updatedAt, id);
+        }
+
+        String lowerEmail() {
+            return email.toLowerCase(Locale.ROOT);
+        }
+
+        UserSummary toSummary() {
+            return new UserSummary(id, name, email);
+        }
+
+        User toUser() {
+            User user = new User(name, email, age);
+            user.setId(id);
+            user.setCreatedAt(createdAt);
+            user.setUpdatedAt(updatedAt);
+            user.setVersion(version);
+            return user;
+        }
+    }
+}
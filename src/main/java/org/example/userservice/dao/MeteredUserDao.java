@@ -0,0 +1,197 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.entity.User;
+import org.example.userservice.metrics.MetricsRegistry;
+import org.example.userservice.metrics.OperationMetrics;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Декоратор UserDao, который записывает число вызовов, ошибки и задержку каждой операции.
+ */
+public class MeteredUserDao implements UserDao {
+
+    private static final String LAYER = "dao";
+
+    private final UserDao delegate;
+    private final OperationMetrics inTransaction;
+    private final OperationMetrics inReadOnlyTransaction;
+    private final OperationMetrics save;
+    private final OperationMetrics saveAll;
+    private final OperationMetrics upsertByEmail;
+    private final OperationMetrics upsertAllByEmail;
+    private final OperationMetrics findById;
+    private final OperationMetrics findByEmail;
+    private final OperationMetrics findByEmailIgnoreCase;
+    private final OperationMetrics existsByEmail;
+    private final OperationMetrics findAll;
+    private final OperationMetrics streamAll;
+    private final OperationMetrics findPage;
+    private final OperationMetrics findAllSummaries;
+    private final OperationMetrics findSummaryPage;
+    private final OperationMetrics search;
+    private final OperationMetrics findChangedSince;
+    private final OperationMetrics update;
+    private final OperationMetrics patch;
+    private final OperationMetrics patchAll;
+    private final OperationMetrics updateAll;
+    private final OperationMetrics deleteById;
+    private final OperationMetrics deleteAllById;
+
+    public MeteredUserDao(UserDao delegate, MetricsRegistry registry) {
+        this.delegate = delegate;
+        this.inTransaction = registry.operation(LAYER, "inTransaction");
+        this.inReadOnlyTransaction = registry.operation(LAYER, "inReadOnlyTransaction");
+        this.save = registry.operation(LAYER, "save");
+        this.saveAll = registry.operation(LAYER, "saveAll");
+        this.upsertByEmail = registry.operation(LAYER, "upsertByEmail");
+        this.upsertAllByEmail = registry.operation(LAYER, "upsertAllByEmail");
+        this.findById = registry.operation(LAYER, "findById");
+        this.findByEmail = registry.operation(LAYER, "findByEmail");
+        this.findByEmailIgnoreCase = registry.operation(LAYER, "findByEmailIgnoreCase");
+        this.existsByEmail = registry.operation(LAYER, "existsByEmail");
+        this.findAll = registry.operation(LAYER, "findAll");
+        this.streamAll = registry.operation(LAYER, "streamAll");
+        this.findPage = registry.operation(LAYER, "findPage");
+        this.findAllSummaries = registry.operation(LAYER, "findAllSummaries");
+        this.findSummaryPage = registry.operation(LAYER, "findSummaryPage");
+        this.search = registry.operation(LAYER, "search");
+        this.findChangedSince = registry.operation(LAYER, "findChangedSince");
+        this.update = registry.operation(LAYER, "update");
+        this.patch = registry.operation(LAYER, "patch");
+        this.patchAll = registry.operation(LAYER, "patchAll");
+        this.updateAll = registry.operation(LAYER, "updateAll");
+        this.deleteById = registry.operation(LAYER, "deleteById");
+        this.deleteAllById = registry.operation(LAYER, "deleteAllById");
+    }
+
+    // Операции внутри work идут через этот декоратор и тоже попадают в метрики
+    @Override
+    public <T> T inTransaction(Function<UserDao, T> work) {
+        return inTransaction.record(() -> delegate.inTransaction(dao -> work.apply(this)));
+    }
+
+    @Override
+    public <T> T inReadOnlyTransaction(Function<UserDao, T> work) {
+        return inReadOnlyTransaction.record(() -> delegate.inReadOnlyTransaction(dao -> work.apply(this)));
+    }
+
+    @Override
+    public void save(User user) {
+        save.record(() -> delegate.save(user));
+    }
+
+    @Override
+    public void saveAll(Collection<User> users) {
+        saveAll.record(() -> delegate.saveAll(users));
+    }
+
+    @Override
+    public UpsertResult upsertByEmail(User user) {
+        return upsertByEmail.record(() -> delegate.upsertByEmail(user));
+    }
+
+    @Override
+    public List<UpsertResult> upsertAllByEmail(Collection<User> users) {
+        return upsertAllByEmail.record(() -> delegate.upsertAllByEmail(users));
+    }
+
+    @Override
+    public Optional<User> findById(Long id) {
+        return findById.record(() -> delegate.findById(id));
+    }
+
+    @Override
+    public Optional<User> findByEmail(String email) {
+        return findByEmail.record(() -> delegate.findByEmail(email));
+    }
+
+    @Override
+    public Optional<User> findByEmailIgnoreCase(String email) {
+        return findByEmailIgnoreCase.record(() -> delegate.findByEmailIgnoreCase(email));
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        return existsByEmail.record(() -> delegate.existsByEmail(email));
+    }
+
+    @Override
+    public List<User> findAll() {
+        return findAll.record(delegate::findAll);
+    }
+
+    /**
+     * Время потокового чтения считается от открытия до закрытия потока:
+     * пока поток не закрыт, он учитывается как выполняющийся вызов.
+     */
+    @Override
+    public Stream<User> streamAll() {
+        long start = streamAll.start();
+        try {
+            return delegate.streamAll().onClose(() -> streamAll.stop(start, true));
+        } catch (RuntimeException ex) {
+            streamAll.stop(start, false);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<User> findPage(Long afterId, int limit) {
+        return findPage.record(() -> delegate.findPage(afterId, limit));
+    }
+
+    @Override
+    public List<UserSummary> findAllSummaries() {
+        return findAllSummaries.record(delegate::findAllSummaries);
+    }
+
+    @Override
+    public List<UserSummary> findSummaryPage(Long afterId, int limit) {
+        return findSummaryPage.record(() -> delegate.findSummaryPage(afterId, limit));
+    }
+
+    @Override
+    public UserSearchResult search(UserQuery query) {
+        return search.record(() -> delegate.search(query));
+    }
+
+    @Override
+    public UserChangePage findChangedSince(ChangeCursor after, int limit) {
+        return findChangedSince.record(() -> delegate.findChangedSince(after, limit));
+    }
+
+    @Override
+    public void update(User user) {
+        update.record(() -> delegate.update(user));
+    }
+
+    @Override
+    public Optional<User> patch(UserPatch userPatch) {
+        return patch.record(() -> delegate.patch(userPatch));
+    }
+
+    @Override
+    public List<Optional<User>> patchAll(List<UserPatch> patches) {
+        return patchAll.record(() -> delegate.patchAll(patches));
+    }
+
+    @Override
+    public int updateAll(Collection<UserPatch> patches) {
+        return updateAll.record(() -> delegate.updateAll(patches));
+    }
+
+    @Override
+    public boolean deleteById(Long id) {
+        return deleteById.record(() -> delegate.deleteById(id));
+    }
+
+    @Override
+    public int deleteAllById(Collection<Long> ids) {
+        return deleteAllById.record(() -> delegate.deleteAllById(ids));
+    }
+}
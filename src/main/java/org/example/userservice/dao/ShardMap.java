@@ -0,0 +1,231 @@
+package org.example.userservice.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Распределение корзин ShardedUserDao по шардам. Пользователь и запись индекса email принадлежат
+ * корзине: пользователь - корзине из младших разрядов id, запись индекса - корзине хеша email.
+ * Шарды не хешируются напрямую: при добавлении шарда переносятся отдельные корзины, а не все строки.
+ * <p>
+ * Неизменяемый: изменения дают новую карту, которую ShardedUserDao публикует целиком.
+ * Корзина в состоянии переноса принадлежит владельцу, но ее копия может быть и на другом шарде.
+ * Сохраняется в базе строкой {@link #format()} и читается обратно {@link #parse}.
+ */
+public final class ShardMap {
+
+    // Корзина строки - остаток от деления id на число корзин; столько же может быть и шардов
+    public static final int BUCKETS = 1024;
+
+    // Условие HQL, которым шард скрывает строки корзин из параметра hiddenBuckets
+    private static final String HIDDEN_BUCKETS_HQL = "mod(%s.id, " + BUCKETS + ") not in :hiddenBuckets";
+
+    private final int shardCount;
+    private final int[] owners;
+    private final BitSet moving;
+
+    private ShardMap(int shardCount, int[] owners, BitSet moving) {
+        this.shardCount = shardCount;
+        this.owners = owners;
+        this.moving = moving;
+    }
+
+    /**
+     * @param owners шард-владелец каждой из {@link #BUCKETS} корзин
+     * @param moving переносимые корзины
+     */
+    public static ShardMap of(int[] owners, BitSet moving, int shardCount) {
+        if (shardCount <= 0 || shardCount > BUCKETS) {
+            throw new IllegalArgumentException("Число шардов должно быть от 1 до " + BUCKETS + ": " + shardCount);
+        }
+        if (owners.length != BUCKETS) {
+            throw new IllegalArgumentException("Нужно " + BUCKETS + " владельцев корзин, передано " + owners.length);
+        }
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (owners[bucket] < 0 || owners[bucket] >= shardCount) {
+                throw new IllegalArgumentException("Корзина " + bucket + " принадлежит несуществующему шарду "
+                        + owners[bucket] + ", всего шардов " + shardCount);
+            }
+        }
+        if (moving.length() > BUCKETS) {
+            throw new IllegalArgumentException("Нет корзины " + (moving.length() - 1));
+        }
+        return new ShardMap(shardCount, owners.clone(), (BitSet) moving.clone());
+    }
+
+    /**
+     * Карта из строки {@link #format()}.
+     */
+    public static ShardMap parse(String text) {
+        String[] parts = text.split(";", -1);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Некорректная карта шардов: " + text);
+        }
+        try {
+            int shardCount = Integer.parseInt(parts[0]);
+            String[] ownerValues = parts[1].split(",");
+            int[] owners = new int[ownerValues.length];
+            for (int bucket = 0; bucket < owners.length; bucket++) {
+                owners[bucket] = Integer.parseInt(ownerValues[bucket]);
+            }
+            BitSet moving = new BitSet(BUCKETS);
+            if (!parts[2].isEmpty()) {
+                for (String bucket : parts[2].split(",")) {
+                    moving.set(Integer.parseInt(bucket));
+                }
+            }
+            return of(owners, moving, shardCount);
+        } catch (IndexOutOfBoundsException | NumberFormatException ex) {
+            throw new IllegalArgumentException("Некорректная карта шардов: " + text, ex);
+        }
+    }
+
+    /**
+     * Корзины по кругу: корзина b принадлежит шарду b % shards.
+     */
+    public static ShardMap uniform(int shards) {
+        if (shards <= 0 || shards > BUCKETS) {
+            throw new IllegalArgumentException("Число шардов должно быть от 1 до " + BUCKETS + ": " + shards);
+        }
+        int[] owners = new int[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            owners[bucket] = bucket % shards;
+        }
+        return new ShardMap(shards, owners, new BitSet(BUCKETS));
+    }
+
+    public static int bucketOf(long id) {
+        return (int) Math.floorMod(id, (long) BUCKETS);
+    }
+
+    public static int bucketOf(String email) {
+        return Math.floorMod(email.hashCode(), BUCKETS);
+    }
+
+    /**
+     * id пользователя из значения последовательности шарда, на котором он создан: старшие разряды - значение
+     * последовательности, средние - номер шарда, младшие - корзина. Последовательности шардов независимы,
+     * а номер шарда делает id уникальным и после переноса корзины на другой шард. Порядок id совпадает
+     * с порядком создания только среди пользователей одного шарда.
+     */
+    public static long idFor(long sequenceValue, int shard, int bucket) {
+        if (sequenceValue <= 0 || sequenceValue > Long.MAX_VALUE / BUCKETS / BUCKETS) {
+            throw new IllegalArgumentException("Значение последовательности вне диапазона: " + sequenceValue);
+        }
+        if (shard < 0 || shard >= BUCKETS || bucket < 0 || bucket >= BUCKETS) {
+            throw new IllegalArgumentException("Нет шарда " + shard + " или корзины " + bucket);
+        }
+        return (sequenceValue * BUCKETS + shard) * BUCKETS + bucket;
+    }
+
+    /**
+     * Условие HQL для сущности с псевдонимом alias: строки корзин из параметра-списка hiddenBuckets не видны.
+     */
+    static String hiddenBucketsCondition(String alias) {
+        return HIDDEN_BUCKETS_HQL.formatted(alias);
+    }
+
+    public int shardCount() {
+        return shardCount;
+    }
+
+    public int shardOf(int bucket) {
+        return owners[bucket];
+    }
+
+    public int shardOfId(long id) {
+        return owners[bucketOf(id)];
+    }
+
+    public int shardOfEmail(String email) {
+        return owners[bucketOf(email)];
+    }
+
+    public boolean isMoving(int bucket) {
+        return moving.get(bucket);
+    }
+
+    /**
+     * Переносимые корзины, копии которых могут быть на шарде, хотя он ими не владеет:
+     * чтение с шарда их исключает.
+     */
+    public List<Integer> foreignMovingBuckets(int shard) {
+        List<Integer> buckets = new ArrayList<>();
+        for (int bucket = moving.nextSetBit(0); bucket >= 0; bucket = moving.nextSetBit(bucket + 1)) {
+            if (owners[bucket] != shard) {
+                buckets.add(bucket);
+            }
+        }
+        return buckets;
+    }
+
+    public List<Integer> movingBuckets() {
+        return moving.stream().boxed().toList();
+    }
+
+    public List<Integer> bucketsOf(int shard) {
+        List<Integer> buckets = new ArrayList<>();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (owners[bucket] == shard) {
+                buckets.add(bucket);
+            }
+        }
+        return buckets;
+    }
+
+    public ShardMap withShard() {
+        return new ShardMap(shardCount + 1, owners, moving);
+    }
+
+    public ShardMap withOwner(int bucket, int shard) {
+        if (shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException("Нет шарда " + shard + ", всего шардов " + shardCount);
+        }
+        int[] changed = owners.clone();
+        changed[bucket] = shard;
+        return new ShardMap(shardCount, changed, moving);
+    }
+
+    public ShardMap withMoving(int bucket, boolean isMoving) {
+        BitSet changed = (BitSet) moving.clone();
+        changed.set(bucket, isMoving);
+        return new ShardMap(shardCount, owners, changed);
+    }
+
+    /**
+     * Строка вида "число шардов;владельцы корзин через запятую;переносимые корзины через запятую".
+     */
+    public String format() {
+        StringBuilder text = new StringBuilder(BUCKETS * 3).append(shardCount).append(';');
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            text.append(bucket == 0 ? "" : ",").append(owners[bucket]);
+        }
+        text.append(';');
+        for (int bucket = moving.nextSetBit(0); bucket >= 0; bucket = moving.nextSetBit(bucket + 1)) {
+            text.append(text.charAt(text.length() - 1) == ';' ? "" : ",").append(bucket);
+        }
+        return text.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ShardMap map && shardCount == map.shardCount
+                && Arrays.equals(owners, map.owners) && moving.equals(map.moving);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * shardCount + Arrays.hashCode(owners)) + moving.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        int[] counts = new int[shardCount];
+        for (int owner : owners) {
+            counts[owner]++;
+        }
+        return "ShardMap{корзин по шардам=" + Arrays.toString(counts) + ", переносится=" + moving + '}';
+    }
+}
@@ -0,0 +1,255 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.entity.User;
+import org.example.userservice.entity.UserEmailRoute;
+import org.example.userservice.entity.UserTombstone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Перенос корзин {@link ShardedUserDao} между шардами, например после {@link ShardedUserDao#addShard}.
+ * <p>
+ * Корзина переносится так: запись в нее запрещается (чтение продолжается), строки пользователей,
+ * отметки об удалении и записи индекса email копируются на новый шард пакетами по batchSize, затем
+ * корзина переходит новому шарду и удаляется со старого тоже пакетами. Пока копия не полная, чтение
+ * с нового шарда ее не видит, а после переключения не видна уже старая копия. Перед копированием и перед
+ * удалением старой копии перенос ждет период перечитывания карты ({@link ShardedUserDao#getMapRefresh}),
+ * чтобы другие процессы успели узнать о нем. Ошибка до переключения удаляет копию, и корзина остается на месте.
+ * Если перенос прервался после переключения или процесс упал, корзина остается отмеченной переносимой
+ * в сохраненной карте, и перенос завершает {@link #recover}.
+ */
+public class ShardRebalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    // Литерал, а не параметр: на PostgreSQL запросы используют индексы по остатку id из SchemaExtensions
+    private static final String BUCKET = "mod(%s.id, " + ShardMap.BUCKETS + ") = :bucket";
+    private static final String USERS_HQL =
+            "from User u where " + BUCKET.formatted("u") + " and u.id > :afterId order by u.id";
+    private static final String USER_IDS_HQL =
+            "select u.id from User u where " + BUCKET.formatted("u") + " order by u.id";
+    private static final String DELETE_USERS_HQL = "delete from User u where u.id in :ids";
+    private static final String TOMBSTONES_HQL =
+            "from UserTombstone t where " + BUCKET.formatted("t") + " and t.id > :afterId order by t.id";
+    private static final String TOMBSTONE_IDS_HQL =
+            "select t.id from UserTombstone t where " + BUCKET.formatted("t") + " order by t.id";
+    private static final String DELETE_TOMBSTONES_HQL = "delete from UserTombstone t where t.id in :ids";
+    private static final String ROUTES_HQL =
+            "from UserEmailRoute r where r.bucket = :bucket and r.email > :afterEmail order by r.email";
+    private static final String ROUTE_EMAILS_HQL =
+            "select r.email from UserEmailRoute r where r.bucket = :bucket order by r.email";
+    private static final String DELETE_ROUTES_HQL = "delete from UserEmailRoute r where r.email in :emails";
+
+    /**
+     * Итог переноса одной корзины: сколько строк каждой таблицы скопировано.
+     */
+    public record MoveResult(int bucket, int fromShard, int toShard, long users, long tombstones, long routes) {
+    }
+
+    private final ShardedUserDao dao;
+    private final int batchSize;
+
+    public ShardRebalancer(ShardedUserDao dao, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Размер пакета должен быть положительным: " + batchSize);
+        }
+        this.dao = dao;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Переносит корзины так, чтобы у каждого шарда их было поровну (с разницей не больше одной).
+     * С каждого перегруженного шарда уходят корзины с наибольшими номерами.
+     */
+    public List<MoveResult> rebalance() throws InterruptedException {
+        ShardMap map = dao.getShardMap();
+        int shards = map.shardCount();
+        Deque<Integer> surplus = new ArrayDeque<>();
+        int[] deficit = new int[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            List<Integer> owned = map.bucketsOf(shard);
+            int target = ShardMap.BUCKETS / shards + (shard < ShardMap.BUCKETS % shards ? 1 : 0);
+            surplus.addAll(owned.subList(Math.min(target, owned.size()), owned.size()));
+            deficit[shard] = Math.max(0, target - owned.size());
+        }
+        log.info("Перебалансировка {}: переносится корзин {}", map, surplus.size());
+
+        List<MoveResult> moves = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            for (; deficit[shard] > 0 && !surplus.isEmpty(); deficit[shard]--) {
+                moves.add(moveBucket(surplus.poll(), shard));
+            }
+        }
+        log.info("Перебалансировка завершена: {}", dao.getShardMap());
+        return moves;
+    }
+
+    public MoveResult moveBucket(int bucket, int targetShard) throws InterruptedException {
+        if (targetShard < 0 || targetShard >= dao.getShardMap().shardCount()) {
+            throw new IllegalArgumentException("Нет шарда " + targetShard);
+        }
+        dao.beginMove(bucket);
+        int source = dao.getShardMap().shardOf(bucket);
+        if (source == targetShard) {
+            dao.endMove(bucket);
+            return new MoveResult(bucket, source, targetShard, 0, 0, 0);
+        }
+        MoveResult result;
+        try {
+            awaitMapRefresh();
+            // Остаток прерванного ранее переноса
+            deleteBucket(targetShard, bucket);
+            result = new MoveResult(bucket, source, targetShard,
+                    copyUsers(source, targetShard, bucket),
+                    copyTombstones(source, targetShard, bucket),
+                    copyRoutes(source, targetShard, bucket));
+        } catch (RuntimeException | InterruptedException ex) {
+            try {
+                deleteBucket(targetShard, bucket);
+                dao.endMove(bucket);
+            } catch (RuntimeException cleanupFailure) {
+                ex.addSuppressed(cleanupFailure);
+            }
+            throw ex;
+        }
+        dao.switchOwner(bucket, targetShard);
+        // Процессы, еще не перечитавшие карту, читают корзину со старого шарда
+        awaitMapRefresh();
+        deleteBucket(source, bucket);
+        dao.endMove(bucket);
+        log.info("Корзина {} перенесена с шарда {} на шард {}: пользователей {}, отметок {}, записей индекса {}",
+                bucket, source, targetShard, result.users(), result.tombstones(), result.routes());
+        return result;
+    }
+
+    /**
+     * Завершает переносы, прерванные ошибкой или падением процесса: копии переносимых корзин удаляются
+     * со всех шардов, кроме владельца по сохраненной карте, и запись в корзины снова разрешается.
+     * Вызывать, когда переносов в других процессах нет.
+     *
+     * @return корзины, перенос которых был прерван
+     */
+    public List<Integer> recover() {
+        ShardMap map = dao.reloadMap();
+        List<Integer> buckets = map.movingBuckets();
+        for (int bucket : buckets) {
+            int owner = map.shardOf(bucket);
+            for (int shard = 0; shard < map.shardCount(); shard++) {
+                if (shard != owner) {
+                    deleteBucket(shard, bucket);
+                }
+            }
+            dao.endMove(bucket);
+            log.warn("Прерванный перенос корзины {} завершен, корзина осталась на шарде {}", bucket, owner);
+        }
+        return buckets;
+    }
+
+    private void awaitMapRefresh() throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(dao.getMapRefresh().toNanos());
+    }
+
+    private long copyUsers(int source, int target, int bucket) {
+        long copied = 0;
+        long afterId = Long.MIN_VALUE;
+        List<User> batch;
+        do {
+            long from = afterId;
+            batch = dao.inShard(source, session -> session.createQuery(USERS_HQL, User.class)
+                    .setParameter("bucket", bucket)
+                    .setParameter("afterId", from)
+                    .setMaxResults(batchSize)
+                    .getResultList());
+            if (!batch.isEmpty()) {
+                List<User> rows = batch;
+                dao.inShard(target, session -> {
+                    ShardedUserDao.insertUsers(session, rows);
+                    return null;
+                });
+                copied += rows.size();
+                afterId = rows.get(rows.size() - 1).getId();
+            }
+        } while (batch.size() == batchSize);
+        return copied;
+    }
+
+    private long copyTombstones(int source, int target, int bucket) {
+        long copied = 0;
+        long afterId = Long.MIN_VALUE;
+        List<UserTombstone> batch;
+        do {
+            long from = afterId;
+            batch = dao.inShard(source, session -> session.createQuery(TOMBSTONES_HQL, UserTombstone.class)
+                    .setParameter("bucket", bucket)
+                    .setParameter("afterId", from)
+                    .setMaxResults(batchSize)
+                    .getResultList());
+            if (!batch.isEmpty()) {
+                List<UserTombstone> rows = batch;
+                dao.inShard(target, session -> {
+                    rows.forEach(row -> session.persist(new UserTombstone(row.getId(), row.getDeletedAt())));
+                    return null;
+                });
+                copied += rows.size();
+                afterId = rows.get(rows.size() - 1).getId();
+            }
+        } while (batch.size() == batchSize);
+        return copied;
+    }
+
+    private long copyRoutes(int source, int target, int bucket) {
+        long copied = 0;
+        String afterEmail = "";
+        List<UserEmailRoute> batch;
+        do {
+            String from = afterEmail;
+            batch = dao.inShard(source, session -> session.createQuery(ROUTES_HQL, UserEmailRoute.class)
+                    .setParameter("bucket", bucket)
+                    .setParameter("afterEmail", from)
+                    .setMaxResults(batchSize)
+                    .getResultList());
+            if (!batch.isEmpty()) {
+                List<UserEmailRoute> rows = batch;
+                dao.inShard(target, session -> {
+                    rows.forEach(row -> session.persist(
+                            new UserEmailRoute(row.getEmail(), row.getUserId(), row.getBucket())));
+                    return null;
+                });
+                copied += rows.size();
+                afterEmail = rows.get(rows.size() - 1).getEmail();
+            }
+        } while (batch.size() == batchSize);
+        return copied;
+    }
+
+    // Пакетами: долгий DELETE всей корзины держал бы блокировки строк до конца транзакции
+    private void deleteBucket(int shard, int bucket) {
+        deleteInBatches(shard, bucket, USER_IDS_HQL, Long.class, DELETE_USERS_HQL, "ids");
+        deleteInBatches(shard, bucket, TOMBSTONE_IDS_HQL, Long.class, DELETE_TOMBSTONES_HQL, "ids");
+        deleteInBatches(shard, bucket, ROUTE_EMAILS_HQL, String.class, DELETE_ROUTES_HQL, "emails");
+    }
+
+    private <K> void deleteInBatches(int shard, int bucket, String keysHql, Class<K> keyType,
+                                     String deleteHql, String keysParameter) {
+        int deleted;
+        do {
+            deleted = dao.inShard(shard, session -> {
+                List<K> keys = session.createQuery(keysHql, keyType)
+                        .setParameter("bucket", bucket)
+                        .setMaxResults(batchSize)
+                        .getResultList();
+                if (keys.isEmpty()) {
+                    return 0;
+                }
+                session.createMutationQuery(deleteHql).setParameter(keysParameter, keys).executeUpdate();
+                return keys.size();
+            });
+        } while (deleted == batchSize);
+    }
+}
@@ -0,0 +1,1412 @@
+package org.example.userservice.dao;
+
+import jakarta.persistence.OptimisticLockException;
+import org.example.userservice.entity.User;
+import org.example.userservice.entity.UserEmailRoute;
+import org.example.userservice.entity.UserShardBucket;
+import org.example.userservice.entity.UserShardMap;
+import org.example.userservice.entity.UserTombstone;
+import org.hibernate.FlushMode;
+import org.hibernate.LockMode;
+import org.hibernate.PropertyValueException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StaleObjectStateException;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.generator.EventType;
+import org.hibernate.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * UserDao поверх нескольких баз (шардов) с одинаковой схемой; фабрики шардов строит
+ * {@link org.example.userservice.util.HibernateUtil#buildShard}.
+ * <p>
+ * Строка пользователя живет на шарде своей корзины ({@link ShardMap}): корзина - младшие разряды id,
+ * поэтому операции по id идут на один шард без поиска. Корзину нового пользователя задает хеш email, а id -
+ * последовательность users_seq шарда, на который он записывается, и номер этого шарда ({@link ShardMap#idFor}):
+ * общей точки выдачи id нет. Уникальность email держит индекс маршрутизации
+ * user_email_routes: запись email -> id хранится на шарде корзины email, и ее первичный ключ не дает занять
+ * email дважды. У нового пользователя обе корзины совпадают, поэтому строка и запись индекса вставляются
+ * одной транзакцией; после смены email запись индекса может оказаться на другом шарде.
+ * <p>
+ * Чтение всех пользователей, страниц, поиска и ленты изменений опрашивает шарды параллельно и сливает
+ * упорядоченные ответы. Смена email затрагивает два шарда: новая запись индекса занимается до изменения
+ * строки и освобождается при ошибке, старая удаляется после фиксации.
+ * <p>
+ * Карта шардов хранится на шарде 0 (таблица user_shard_map) и переживает перезапуск, в том числе посреди
+ * переноса корзины: копию переносимой корзины чтение не видит, пока {@link ShardRebalancer} не завершит перенос
+ * или не уберет ее ({@link ShardRebalancer#recover}). Изменения карты, сделанные другими процессами, становятся
+ * видны не позже чем через mapRefresh. Запись в корзину разрешает строка user_shard_buckets на шарде: разрешение
+ * есть только у владельца непереносимой корзины, и транзакция записи читает его с блокировкой, поэтому запрет
+ * записи на время переноса действует на все процессы, даже с устаревшей картой.
+ * <p>
+ * Единица работы ({@link #inTransaction}), а также пакетные операции и порции updateAll и deleteAllById
+ * открывают по транзакции на каждый шард, которого касаются, и держат их до конца: изменения не видны другим,
+ * пока не зафиксированы, и ошибка откатывает транзакции всех шардов. Фиксация идет по шардам по очереди:
+ * если она не удалась на одном шарде, уже зафиксированные шарды остаются зафиксированными, остальные
+ * откатываются. Ожидание блокировки строки в такой транзакции ограничено {@link #UNIT_LOCK_TIMEOUT}
+ * (на PostgreSQL): взаимную блокировку транзакций на разных шардах базы не обнаруживают.
+ * Фабрики шардов DAO не закрывает.
+ */
+public class ShardedUserDao implements UserDao, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedUserDao.class);
+
+    private static final int BATCH_SIZE = UserDaoImpl.DEFAULT_BATCH_SIZE;
+    private static final int CHUNK_SIZE = UserDao.MUTATION_CHUNK_SIZE;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final Duration DEFAULT_MAP_REFRESH = Duration.ofSeconds(1);
+    static final Duration UNIT_LOCK_TIMEOUT = Duration.ofSeconds(5);
+    private static final String INSERT_USER_SQL =
+            "insert into users (id, name, email, age, created_at, updated_at, version) values (?, ?, ?, ?, ?, ?, ?)";
+    private static final String FIND_FIRST_BY_EMAIL_IGNORE_CASE_HQL =
+            UserDaoImpl.FIND_BY_EMAIL_IGNORE_CASE_HQL + " order by u.id";
+    // Запросы чтения шарда, у которого есть копии чужих переносимых корзин: копии запрос не видит
+    private static final String VISIBLE = ShardMap.hiddenBucketsCondition("u");
+    private static final String VISIBLE_FIRST_BY_EMAIL_IGNORE_CASE_HQL =
+            UserDaoImpl.FIND_BY_EMAIL_IGNORE_CASE_HQL + " and " + VISIBLE + " order by u.id";
+    private static final String VISIBLE_STREAM_ALL_HQL = "from User u where " + VISIBLE + " order by u.id";
+    private static final String VISIBLE_PAGE_HQL =
+            "from User u where u.id > :afterId and " + VISIBLE + " order by u.id";
+    private static final String VISIBLE_SUMMARIES_HQL =
+            UserDaoImpl.SUMMARY_SELECT + " where " + VISIBLE + " order by u.id";
+    private static final String VISIBLE_SUMMARY_PAGE_HQL =
+            UserDaoImpl.SUMMARY_SELECT + " where u.id > :afterId and " + VISIBLE + " order by u.id";
+    private static final String LOCK_TIMEOUT_SQL = "select set_config('lock_timeout', :timeout, true)";
+    private static final String RELEASE_ROUTE_HQL =
+            "delete from UserEmailRoute r where r.email = :email and r.userId = :userId";
+    private static final String DELETE_USERS_HQL = "delete from User u where u.id in :ids";
+    // Email - первичный ключ записи индекса, поэтому пара email из списка и id из списка может принадлежать
+    // только удаленному пользователю
+    private static final String RELEASE_ROUTES_HQL =
+            "delete from UserEmailRoute r where r.email in :emails and r.userId in :ids";
+    // Строку меняет только отличие значений, как WHERE в ON CONFLICT DO UPDATE у UserDaoImpl
+    private static final String UPSERT_UPDATE_HQL = "update versioned User u"
+            + " set u.name = :name, u.age = :age, u.updatedAt = :updatedAt"
+            + " where u.id = :id and u.email = :email and (u.name <> :name or u.age <> :age)";
+    private static final String FENCES_HQL =
+            "from UserShardBucket b where b.bucket in :buckets order by b.bucket";
+    private static final String FENCE_BUCKETS_HQL = "select b.bucket from UserShardBucket b";
+    private static final String SET_WRITABLE_HQL =
+            "update UserShardBucket b set b.writable = :writable where b.bucket = :bucket";
+
+    private final List<SessionFactory> shards;
+    private final int fetchSize;
+    private final long mapRefreshNanos;
+    private final Duration changeFeedLag;
+    // Карта и версия ее строки на шарде 0 публикуются вместе под блокировкой this: более старая не заменяет новую
+    private volatile ShardMap map;
+    private long mapVersion = -1;
+    private volatile long mapLoadedAt;
+    private final ExecutorService scatter;
+    // Поток внутри inReadOnlyTransaction: запись запрещена, как и в UserDaoImpl
+    private final ThreadLocal<Boolean> readOnly = ThreadLocal.withInitial(() -> false);
+    // Сессии единицы работы потока по номерам шардов, у каждой открыта транзакция
+    private final ThreadLocal<Map<Integer, Session>> unit = new ThreadLocal<>();
+
+    public ShardedUserDao(List<SessionFactory> shards) {
+        this(shards, ShardMap.uniform(shards.size()));
+    }
+
+    public ShardedUserDao(List<SessionFactory> shards, ShardMap map) {
+        this(shards, map, UserDaoImpl.DEFAULT_FETCH_SIZE);
+    }
+
+    public ShardedUserDao(List<SessionFactory> shards, ShardMap map, int fetchSize) {
+        this(shards, map, fetchSize, DEFAULT_MAP_REFRESH);
+    }
+
+    /**
+     * @param initialMap карта новой установки; если на шарде 0 карта уже сохранена, действует она
+     * @param mapRefresh как часто перечитывать сохраненную карту: так процесс узнает о переносах корзин,
+     *                   начатых другими процессами
+     */
+    public ShardedUserDao(List<SessionFactory> shards, ShardMap initialMap, int fetchSize, Duration mapRefresh) {
+        this(shards, initialMap, fetchSize, mapRefresh, UserDaoImpl.DEFAULT_CHANGE_FEED_LAG);
+    }
+
+    /**
+     * @param changeFeedLag насколько {@link #findChangedSince} отстает от текущего времени, как у UserDaoImpl
+     */
+    public ShardedUserDao(List<SessionFactory> shards, ShardMap initialMap, int fetchSize, Duration mapRefresh,
+                          Duration changeFeedLag) {
+        if (shards.isEmpty() || initialMap.shardCount() != shards.size()) {
+            throw new IllegalArgumentException("Карта рассчитана на " + initialMap.shardCount() + " шардов, передано "
+                    + shards.size());
+        }
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Размер выборки должен быть положительным: " + fetchSize);
+        }
+        if (mapRefresh.isNegative()) {
+            throw new IllegalArgumentException("Период перечитывания карты не может быть отрицательным: " + mapRefresh);
+        }
+        if (changeFeedLag.isNegative()) {
+            throw new IllegalArgumentException("Отставание ленты изменений не может быть отрицательным: "
+                    + changeFeedLag);
+        }
+        this.shards = new CopyOnWriteArrayList<>(shards);
+        this.fetchSize = fetchSize;
+        this.mapRefreshNanos = mapRefresh.toNanos();
+        this.changeFeedLag = changeFeedLag;
+        StoredMap stored = loadOrStoreMap(initialMap);
+        if (stored.map().shardCount() != shards.size()) {
+            throw new IllegalArgumentException("Сохраненная карта рассчитана на " + stored.map().shardCount()
+                    + " шардов, передано " + shards.size());
+        }
+        publish(stored);
+        for (int shard = 0; shard < shards.size(); shard++) {
+            initFences(shard, stored.map());
+        }
+        AtomicInteger threads = new AtomicInteger();
+        this.scatter = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "user-service-shard-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public ShardMap getShardMap() {
+        return currentMap();
+    }
+
+    Duration getMapRefresh() {
+        return Duration.ofNanos(mapRefreshNanos);
+    }
+
+    /**
+     * Подключает пустой шард. Корзин у него нет, пока их не перенесет {@link ShardRebalancer}.
+     * Если этот шард уже подключил другой процесс, сохраненная карта не меняется.
+     *
+     * @return номер шарда
+     */
+    public synchronized int addShard(SessionFactory shard) {
+        int index = shards.size();
+        shards.add(shard);
+        ShardMap updated;
+        try {
+            updated = updateMap(stored -> stored.shardCount() > index ? stored : stored.withShard());
+        } catch (RuntimeException ex) {
+            shards.remove(index);
+            throw ex;
+        }
+        initFences(index, updated);
+        log.info("Подключен шард {}: {}", index, updated);
+        return index;
+    }
+
+    @Override
+    public void close() {
+        scatter.shutdownNow();
+    }
+
+    @Override
+    public <T> T inTransaction(Function<UserDao, T> work) {
+        checkWritable();
+        return unitOfWork(() -> work.apply(this));
+    }
+
+    /**
+     * Выполняет work в единице работы потока или, если ее нет, в новой: операции work на каждом шарде
+     * идут в одной его транзакции. Ошибка откатывает транзакции всех шардов, иначе они фиксируются по очереди.
+     */
+    private <T> T unitOfWork(Supplier<T> work) {
+        if (unit.get() != null) {
+            return work.get();
+        }
+        Map<Integer, Session> sessions = new TreeMap<>();
+        unit.set(sessions);
+        T result;
+        try {
+            result = work.get();
+        } catch (RuntimeException | Error ex) {
+            unit.remove();
+            closeUnit(sessions, ex);
+            throw ex;
+        }
+        unit.remove();
+        commitUnit(sessions);
+        return result;
+    }
+
+    private void commitUnit(Map<Integer, Session> sessions) {
+        List<Integer> committed = new ArrayList<>();
+        try {
+            for (Map.Entry<Integer, Session> entry : sessions.entrySet()) {
+                entry.getValue().getTransaction().commit();
+                committed.add(entry.getKey());
+            }
+        } catch (RuntimeException ex) {
+            if (!committed.isEmpty()) {
+                log.error("Фиксация единицы работы не удалась после шардов {}: их изменения остались", committed, ex);
+            }
+            closeUnit(sessions, ex);
+            throw ex;
+        }
+        closeUnit(sessions, null);
+    }
+
+    // Откатывает незафиксированные транзакции единицы работы и закрывает ее сессии
+    private static void closeUnit(Map<Integer, Session> sessions, Throwable cause) {
+        for (Session session : sessions.values()) {
+            try {
+                if (session.getTransaction().isActive()) {
+                    session.getTransaction().rollback();
+                }
+            } catch (RuntimeException rollbackFailure) {
+                if (cause != null) {
+                    cause.addSuppressed(rollbackFailure);
+                } else {
+                    log.error("Не удалось откатить транзакцию шарда", rollbackFailure);
+                }
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    // Сессия шарда в единице работы потока; транзакция начинается при первом обращении к шарду
+    private Session unitSession(Map<Integer, Session> sessions, int shard) {
+        Session session = sessions.get(shard);
+        if (session != null) {
+            return session;
+        }
+        session = shards.get(shard).openSession();
+        sessions.put(shard, session);
+        session.beginTransaction();
+        if (isPostgreSql(shards.get(shard))) {
+            session.createNativeQuery(LOCK_TIMEOUT_SQL, String.class)
+                    .setParameter("timeout", UNIT_LOCK_TIMEOUT.toMillis() + "ms")
+                    .getSingleResult();
+        }
+        return session;
+    }
+
+    private static boolean isPostgreSql(SessionFactory factory) {
+        return factory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect()
+                instanceof PostgreSQLDialect;
+    }
+
+    @Override
+    public <T> T inReadOnlyTransaction(Function<UserDao, T> work) {
+        if (readOnly.get()) {
+            return work.apply(this);
+        }
+        readOnly.set(true);
+        try {
+            return work.apply(this);
+        } finally {
+            readOnly.remove();
+        }
+    }
+
+    @Override
+    public void save(User user) {
+        checkWritable();
+        try {
+            saveAll(List.of(user));
+            log.debug("Пользователь сохранен на шарде {}: id={}", map.shardOfId(user.getId()), user.getId());
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при сохранении пользователя", ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Одна единица работы: на каждом затронутом шарде строки вставляются его транзакцией, а id выдает
+     * последовательность этого шарда.
+     */
+    @Override
+    public void saveAll(Collection<User> users) {
+        checkWritable();
+        List<User> rows = new ArrayList<>(users.size());
+        for (User user : users) {
+            if (user.getId() != null) {
+                throw new IllegalArgumentException("Пользователь уже сохранен: id=" + user.getId());
+            }
+            checkNotNull(user.getName(), user.getEmail(), user.getAge());
+            rows.add(new User(user));
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        int[] buckets = rows.stream().mapToInt(row -> ShardMap.bucketOf(row.getEmail())).toArray();
+        LocalDateTime now = UserDaoImpl.now();
+        unitOfWork(() -> writing(current -> {
+            for (Map.Entry<Integer, List<User>> entry
+                    : byShard(rows, row -> current.shardOfEmail(row.getEmail())).entrySet()) {
+                int shard = entry.getKey();
+                List<User> shardRows = entry.getValue();
+                long[] sequenceValues = nextSequenceValues(shard, shardRows.size());
+                for (int i = 0; i < shardRows.size(); i++) {
+                    User row = shardRows.get(i);
+                    row.setId(ShardMap.idFor(sequenceValues[i], shard, ShardMap.bucketOf(row.getEmail())));
+                    row.setCreatedAt(now);
+                    row.setUpdatedAt(now);
+                    row.setVersion(0L);
+                }
+                writeShard(shard, idBuckets(shardRows), session -> {
+                    for (User row : shardRows) {
+                        session.persist(new UserEmailRoute(row.getEmail(), row.getId(),
+                                ShardMap.bucketOf(row.getEmail())));
+                    }
+                    session.flush();
+                    insertUsers(session, shardRows);
+                    return null;
+                });
+            }
+            return null;
+        }, buckets));
+
+        Iterator<User> saved = rows.iterator();
+        for (User user : users) {
+            User row = saved.next();
+            user.setId(row.getId());
+            user.setCreatedAt(row.getCreatedAt());
+            user.setUpdatedAt(row.getUpdatedAt());
+            user.setVersion(row.getVersion());
+        }
+        log.debug("Пакетное сохранение по шардам завершено: сохранено={}", rows.size());
+    }
+
+    /**
+     * Строки со всеми полями, включая id, время и версию, пакетами JDBC: persist выдал бы id
+     * из последовательности шарда.
+     */
+    static void insertUsers(Session session, List<User> rows) {
+        session.doWork(connection -> {
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_USER_SQL)) {
+                int pending = 0;
+                for (User row : rows) {
+                    insert.setLong(1, row.getId());
+                    insert.setString(2, row.getName());
+                    insert.setString(3, row.getEmail());
+                    insert.setInt(4, row.getAge());
+                    insert.setObject(5, row.getCreatedAt());
+                    insert.setObject(6, row.getUpdatedAt());
+                    insert.setLong(7, row.getVersion());
+                    insert.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        insert.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    insert.executeBatch();
+                }
+            }
+        });
+    }
+
+    // Значения pooled-оптимизатора users_seq шарда: к базе он обращается раз на 50 значений
+    private long[] nextSequenceValues(int shard, int count) {
+        StatelessSession session = shards.get(shard).openStatelessSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            SharedSessionContractImplementor sessionImpl = (SharedSessionContractImplementor) session;
+            BeforeExecutionGenerator generator = (BeforeExecutionGenerator) sessionImpl.getFactory()
+                    .getMappingMetamodel().getEntityDescriptor(User.class).getGenerator();
+            long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = (Long) generator.generate(sessionImpl, null, null, EventType.INSERT);
+            }
+            tx.commit();
+            return values;
+        } catch (RuntimeException ex) {
+            rollback(tx, ex);
+            throw ex;
+        } finally {
+            session.close();
+        }
+    }
+
+    @Override
+    public UpsertResult upsertByEmail(User user) {
+        checkWritable();
+        checkNotNull(user.getName(), user.getEmail(), user.getAge());
+        String email = user.getEmail();
+        for (int attempt = 1; ; attempt++) {
+            ShardMap current = currentMap();
+            UserEmailRoute route = readShard(current.shardOfEmail(email),
+                    session -> session.get(UserEmailRoute.class, email));
+            try {
+                if (route == null) {
+                    User created = new User(user.getName(), email, user.getAge());
+                    saveAll(List.of(created));
+                    return new UpsertResult(created, UpsertResult.Outcome.INSERTED);
+                }
+                UpsertResult result = writing(latest -> writeShard(latest.shardOfId(route.getUserId()),
+                        new int[]{ShardMap.bucketOf(route.getUserId())}, session -> {
+                    int updated = session.createMutationQuery(UPSERT_UPDATE_HQL)
+                            .setParameter("name", user.getName())
+                            .setParameter("age", user.getAge())
+                            .setParameter("updatedAt", UserDaoImpl.now())
+                            .setParameter("id", route.getUserId())
+                            .setParameter("email", email)
+                            .executeUpdate();
+                    User row = session.get(User.class, route.getUserId());
+                    // Запись индекса есть, а строка с этим email еще нет или уже нет: email меняется
+                    if (row == null || !row.getEmail().equals(email)) {
+                        return null;
+                    }
+                    return new UpsertResult(new User(row),
+                            updated > 0 ? UpsertResult.Outcome.UPDATED : UpsertResult.Outcome.UNCHANGED);
+                }), ShardMap.bucketOf(email), ShardMap.bucketOf(route.getUserId()));
+                if (result != null) {
+                    return result;
+                }
+            } catch (ConstraintViolationException ex) {
+                // Email занял параллельный вызов: теперь это обновление. Транзакция единицы работы
+                // после ошибки не продолжается, поэтому внутри нее повтора нет
+                if (attempt >= MAX_ATTEMPTS || unit.get() != null) {
+                    throw ex;
+                }
+                continue;
+            }
+            if (attempt >= MAX_ATTEMPTS) {
+                throw new IllegalStateException("Email " + email + " занят пользователем, который его сейчас меняет");
+            }
+        }
+    }
+
+    @Override
+    public List<UpsertResult> upsertAllByEmail(Collection<User> users) {
+        checkWritable();
+        // Проверка до первой записи: как и в UserDaoImpl, некорректный пользователь не оставляет частичного результата
+        Map<String, User> lastByEmail = new LinkedHashMap<>();
+        for (User user : users) {
+            checkNotNull(user.getName(), user.getEmail(), user.getAge());
+            lastByEmail.put(user.getEmail(), user);
+        }
+        Map<String, UpsertResult> results = new HashMap<>();
+        lastByEmail.forEach((email, user) -> results.put(email, upsertByEmail(user)));
+        return users.stream().map(user -> results.get(user.getEmail())).toList();
+    }
+
+    @Override
+    public Optional<User> findById(Long id) {
+        ShardMap current = currentMap();
+        return Optional.ofNullable(readShard(current.shardOfId(id), session -> session.get(User.class, id)));
+    }
+
+    /**
+     * Запись индекса, затем строка по ее id; у пользователя, не менявшего email, они на одном шарде
+     * и читаются в одной транзакции. Запись индекса, занятая для смены email, которая еще не зафиксирована,
+     * указывает на строку с другим email и не считается.
+     */
+    @Override
+    public Optional<User> findByEmail(String email) {
+        ShardMap current = currentMap();
+        int routeShard = current.shardOfEmail(email);
+        User user = readShard(routeShard, session -> {
+            UserEmailRoute route = session.get(UserEmailRoute.class, email);
+            if (route == null) {
+                return null;
+            }
+            int userShard = current.shardOfId(route.getUserId());
+            return userShard == routeShard
+                    ? session.get(User.class, route.getUserId())
+                    : readShard(userShard, other -> other.get(User.class, route.getUserId()));
+        });
+        return Optional.ofNullable(user).filter(found -> found.getEmail().equals(email));
+    }
+
+    @Override
+    public Optional<User> findByEmailIgnoreCase(String email) {
+        return onAllShards(currentMap(), (session, hidden) -> query(session, hidden, User.class,
+                        FIND_FIRST_BY_EMAIL_IGNORE_CASE_HQL, VISIBLE_FIRST_BY_EMAIL_IGNORE_CASE_HQL)
+                        .setParameter("email", email)
+                        .setMaxResults(1)
+                        .uniqueResultOptional())
+                .stream()
+                .flatMap(Optional::stream)
+                .min(Comparator.comparing(User::getId));
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        return findByEmail(email).isPresent();
+    }
+
+    @Override
+    public List<User> findAll() {
+        List<User> users = merge(onAllShards(currentMap(), (session, hidden) -> query(session, hidden, User.class,
+                        UserDaoImpl.STREAM_ALL_HQL, VISIBLE_STREAM_ALL_HQL).getResultList()),
+                Comparator.comparing(User::getId), Integer.MAX_VALUE);
+        log.debug("Получен список пользователей со всех шардов: количество={}", users.size());
+        return users;
+    }
+
+    /**
+     * Слияние потоков всех шардов по id: из каждого шарда в памяти одна непрочитанная строка
+     * и порция курсора. Поток держит по сессии на шард до закрытия; в единице работы читает ее сессиями.
+     */
+    @Override
+    public Stream<User> streamAll() {
+        ShardMap current = currentMap();
+        Map<Integer, Session> unitSessions = unit.get();
+        List<Session> sessions = new ArrayList<>();
+        List<Stream<User>> streams = new ArrayList<>();
+        try {
+            for (int shard = 0; shard < current.shardCount(); shard++) {
+                Session session;
+                if (unitSessions != null) {
+                    session = unitSession(unitSessions, shard);
+                    session.flush();
+                } else {
+                    session = openRead(shard);
+                    sessions.add(session);
+                    session.beginTransaction();
+                }
+                // Прочитанная строка сразу отсоединяется: контекст сессии не растет вместе с таблицей
+                streams.add(query(session, current.foreignMovingBuckets(shard), User.class,
+                        UserDaoImpl.STREAM_ALL_HQL, VISIBLE_STREAM_ALL_HQL)
+                        .setFetchSize(fetchSize)
+                        .getResultStream()
+                        .peek(session::detach));
+            }
+        } catch (RuntimeException ex) {
+            closeStreams(streams, sessions, ex);
+            throw ex;
+        }
+        Iterator<User> merged = new MergingIterator<>(streams.stream().map(Stream::iterator).toList(),
+                Comparator.comparing(User::getId));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged,
+                        Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> closeStreams(streams, sessions, null));
+    }
+
+    private static void closeStreams(List<Stream<User>> streams, List<Session> sessions, RuntimeException cause) {
+        RuntimeException failure = cause;
+        for (Stream<User> stream : streams) {
+            try {
+                stream.close();
+            } catch (RuntimeException ex) {
+                failure = suppress(failure, ex);
+            }
+        }
+        for (Session session : sessions) {
+            try {
+                if (session.getTransaction().isActive()) {
+                    session.getTransaction().commit();
+                }
+            } catch (RuntimeException ex) {
+                failure = suppress(failure, ex);
+            } finally {
+                session.close();
+            }
+        }
+        if (failure != null && failure != cause) {
+            throw failure;
+        }
+    }
+
+    private static RuntimeException suppress(RuntimeException failure, RuntimeException ex) {
+        if (failure == null) {
+            return ex;
+        }
+        failure.addSuppressed(ex);
+        return failure;
+    }
+
+    @Override
+    public List<User> findPage(Long afterId, int limit) {
+        return merge(onAllShards(currentMap(), (session, hidden) -> query(session, hidden, User.class,
+                                UserDaoImpl.FIND_PAGE_HQL, VISIBLE_PAGE_HQL)
+                        .setParameter("afterId", afterId != null ? afterId : 0L)
+                        .setMaxResults(limit)
+                        .getResultList()),
+                Comparator.comparing(User::getId), limit);
+    }
+
+    @Override
+    public List<UserSummary> findAllSummaries() {
+        return merge(onAllShards(currentMap(), (session, hidden) -> query(session, hidden, UserSummary.class,
+                        UserDaoImpl.FIND_ALL_SUMMARIES_HQL, VISIBLE_SUMMARIES_HQL).getResultList()),
+                Comparator.comparingLong(UserSummary::id), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<UserSummary> findSummaryPage(Long afterId, int limit) {
+        return merge(onAllShards(currentMap(), (session, hidden) -> query(session, hidden, UserSummary.class,
+                                UserDaoImpl.FIND_SUMMARY_PAGE_HQL, VISIBLE_SUMMARY_PAGE_HQL)
+                                .setParameter("afterId", afterId != null ? afterId : 0L)
+                                .setMaxResults(limit)
+                                .getResultList()),
+                Comparator.comparingLong(UserSummary::id), limit);
+    }
+
+    /**
+     * Каждый шард отдает первые offset + limit строк, общее число - сумма по шардам. Глубокий offset
+     * поэтому дороже, чем на одной базе. Строки шардов сливаются сравнением в Java: при сортировке по имени
+     * порядок может отличаться от порядка по правилам сортировки (collation) БД.
+     */
+    @Override
+    public UserSearchResult search(UserQuery query) {
+        UserQuery perShard = new UserQuery(query.minAge(), query.maxAge(), query.namePrefix(), query.emailDomain(),
+                query.createdFrom(), query.createdBefore(), query.sortBy(), query.descending(),
+                Math.addExact(query.offset(), query.limit()), 0, query.afterId());
+        List<UserSearchResult> results = onAllShards(currentMap(),
+                (session, hidden) -> UserDaoImpl.search(session, perShard, hidden));
+        List<User> merged = merge(results.stream().map(UserSearchResult::users).toList(), ordering(query),
+                perShard.limit());
+        List<User> page = merged.subList(Math.min(query.offset(), merged.size()), merged.size());
+        return new UserSearchResult(List.copyOf(page),
+                results.stream().mapToLong(UserSearchResult::totalCount).sum());
+    }
+
+    // Как в PostgreSQL: по возрастанию строки без created_at в конце, по убыванию - в начале
+    private static Comparator<User> ordering(UserQuery query) {
+        Comparator<User> byId = Comparator.comparing(User::getId);
+        Comparator<User> ordering = switch (query.sortBy()) {
+            case ID -> byId;
+            case NAME -> Comparator.comparing(User::getName).thenComparing(byId);
+            case AGE -> Comparator.comparing(User::getAge).thenComparing(byId);
+            case CREATED_AT -> Comparator.comparing(User::getCreatedAt,
+                    Comparator.nullsLast(Comparator.<LocalDateTime>naturalOrder())).thenComparing(byId);
+        };
+        return query.descending() ? ordering.reversed() : ordering;
+    }
+
+    @Override
+    public UserChangePage findChangedSince(ChangeCursor after, int limit) {
+        // Одна граница для всех шардов: иначе курсор мог бы пройти изменение шарда, прочитанного раньше
+        LocalDateTime settled = UserDaoImpl.settledAt(changeFeedLag);
+        List<List<UserChange>> pages = onAllShards(currentMap(), (session, hidden) ->
+                UserDaoImpl.findChangedSince(session, after, settled, limit, hidden).changes());
+        return UserChangePage.first(merge(pages, Comparator.comparing(UserChange::cursor), limit), after, limit);
+    }
+
+    @Override
+    public void update(User user) {
+        checkWritable();
+        checkNotNull(user.getName(), user.getEmail(), user.getAge());
+        if (user.getId() == null) {
+            throw new IllegalArgumentException("Пользователь еще не сохранен");
+        }
+        try {
+            Optional<User> updated = writeRow(user.getId(), current -> user.getEmail(), (session, row) -> {
+                // Та же проверка версии, что у merge в UserDaoImpl
+                if (user.getVersion() != null && !user.getVersion().equals(row.getVersion())) {
+                    throw new OptimisticLockException("Пользователь изменен другой транзакцией",
+                            new StaleObjectStateException(User.class.getName(), user.getId()), user);
+                }
+                row.setName(user.getName());
+                row.setEmail(user.getEmail());
+                row.setAge(user.getAge());
+                session.flush();
+                return new User(row);
+            });
+            if (updated.isEmpty()) {
+                log.debug("Пользователь с id={} не найден, обновление не выполнено", user.getId());
+                return;
+            }
+            user.setUpdatedAt(updated.get().getUpdatedAt());
+            user.setVersion(updated.get().getVersion());
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при обновлении пользователя", ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Optional<User> patch(UserPatch patch) {
+        checkWritable();
+        return writeRow(patch.id(), current -> patch.email() != null ? patch.email() : current.getEmail(),
+                (session, row) -> {
+                    if (!patch.isEmpty()) {
+                        UserDaoImpl.createPatchQuery(session, patch).executeUpdate();
+                        session.refresh(row);
+                    }
+                    return new User(row);
+                });
+    }
+
+    /**
+     * Patch применяются по одному в одной единице работы: ошибка откатывает все уже примененные.
+     */
+    @Override
+    public List<Optional<User>> patchAll(List<UserPatch> patches) {
+        checkWritable();
+        return unitOfWork(() -> {
+            for (UserPatch patch : patches) {
+                patch(patch);
+            }
+            // Как и в UserDaoImpl, при повторе id каждый результат показывает итоговое состояние строки
+            return patches.stream().map(patch -> findById(patch.id())).toList();
+        });
+    }
+
+    /**
+     * Порция - одна единица работы. Patch со сменой email применяются в ней по одному через {@link #patch}:
+     * запись индекса email переносится между шардами. Остальные - UPDATE на строку в транзакции ее шарда.
+     */
+    @Override
+    public int updateAll(Collection<UserPatch> patches) {
+        checkWritable();
+        List<UserPatch> merged = UserPatch.mergeById(patches);
+        int updated = 0;
+        for (int from = 0; from < merged.size(); from += CHUNK_SIZE) {
+            List<UserPatch> chunk = merged.subList(from, Math.min(merged.size(), from + CHUNK_SIZE));
+            updated += unitOfWork(() -> updateChunk(chunk));
+        }
+        log.debug("Пакетное обновление по шардам завершено: изменено={}", updated);
+        return updated;
+    }
+
+    private int updateChunk(List<UserPatch> chunk) {
+        int updated = 0;
+        List<UserPatch> keepingEmail = new ArrayList<>();
+        for (UserPatch patch : chunk) {
+            if (patch.email() == null) {
+                keepingEmail.add(patch);
+            } else if (patch(patch).isPresent()) {
+                updated++;
+            }
+        }
+        if (keepingEmail.isEmpty()) {
+            return updated;
+        }
+        return updated + writing(current -> {
+            int count = 0;
+            for (Map.Entry<Integer, List<UserPatch>> entry
+                    : byShard(keepingEmail, patch -> current.shardOfId(patch.id())).entrySet()) {
+                int[] buckets = entry.getValue().stream().mapToInt(patch -> ShardMap.bucketOf(patch.id())).toArray();
+                count += writeShard(entry.getKey(), buckets, session -> {
+                    int shardUpdated = 0;
+                    for (UserPatch patch : entry.getValue()) {
+                        shardUpdated += UserDaoImpl.createPatchQuery(session, patch).executeUpdate();
+                    }
+                    return shardUpdated;
+                });
+            }
+            return count;
+        }, keepingEmail.stream().mapToInt(patch -> ShardMap.bucketOf(patch.id())).toArray());
+    }
+
+    @Override
+    public boolean deleteById(Long id) {
+        checkWritable();
+        boolean deleted = writeRow(id, current -> null, (session, row) -> {
+            session.remove(row);
+            session.persist(new UserTombstone(id, UserDaoImpl.now()));
+            return true;
+        }).isPresent();
+        log.debug("Удаление пользователя id={} на шарде {}: {}", id, map.shardOfId(id),
+                deleted ? "удален" : "не найден");
+        return deleted;
+    }
+
+    /**
+     * Порция - одна единица работы: строки удаляются на своих шардах, записи индекса email освобождаются
+     * на шардах корзин email.
+     */
+    @Override
+    public int deleteAllById(Collection<Long> ids) {
+        checkWritable();
+        List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        int deleted = 0;
+        for (int from = 0; from < distinct.size(); from += CHUNK_SIZE) {
+            List<Long> chunk = distinct.subList(from, Math.min(distinct.size(), from + CHUNK_SIZE));
+            deleted += unitOfWork(() -> {
+                List<User> rows = writing(current -> {
+                    List<User> removed = new ArrayList<>();
+                    for (Map.Entry<Integer, List<Long>> entry : byShard(chunk, current::shardOfId).entrySet()) {
+                        int[] buckets = entry.getValue().stream().mapToInt(ShardMap::bucketOf).toArray();
+                        removed.addAll(writeShard(entry.getKey(), buckets,
+                                session -> deleteRows(session, entry.getValue())));
+                    }
+                    return removed;
+                }, chunk.stream().mapToInt(ShardMap::bucketOf).toArray());
+                releaseRoutes(rows);
+                return rows.size();
+            });
+        }
+        log.debug("Пакетное удаление по шардам завершено: удалено={}", deleted);
+        return deleted;
+    }
+
+    private static <T> Map<Integer, List<T>> byShard(List<T> items, Function<T, Integer> shardOf) {
+        Map<Integer, List<T>> byShard = new TreeMap<>();
+        for (T item : items) {
+            byShard.computeIfAbsent(shardOf.apply(item), shard -> new ArrayList<>()).add(item);
+        }
+        return byShard;
+    }
+
+    private static List<User> deleteRows(Session session, List<Long> ids) {
+        // Блокировка, как у deleteById: смена email, начатая параллельно, после удаления строку не найдет
+        List<User> rows = session.createQuery(UserDaoImpl.FIND_BY_IDS_HQL, User.class)
+                .setParameter("ids", ids)
+                .setHibernateLockMode(LockMode.PESSIMISTIC_WRITE)
+                .getResultList();
+        if (rows.isEmpty()) {
+            return rows;
+        }
+        session.createMutationQuery(DELETE_USERS_HQL)
+                .setParameter("ids", rows.stream().map(User::getId).toList())
+                .executeUpdate();
+        LocalDateTime now = UserDaoImpl.now();
+        rows.forEach(row -> session.persist(new UserTombstone(row.getId(), now)));
+        return rows;
+    }
+
+    private void releaseRoutes(List<User> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        writing(current -> {
+            for (Map.Entry<Integer, List<User>> entry
+                    : byShard(rows, row -> current.shardOfEmail(row.getEmail())).entrySet()) {
+                int[] buckets = entry.getValue().stream().mapToInt(row -> ShardMap.bucketOf(row.getEmail())).toArray();
+                writeShard(entry.getKey(), buckets, session -> session.createMutationQuery(RELEASE_ROUTES_HQL)
+                        .setParameter("emails", entry.getValue().stream().map(User::getEmail).toList())
+                        .setParameter("ids", entry.getValue().stream().map(User::getId).toList())
+                        .executeUpdate());
+            }
+            return null;
+        }, rows.stream().mapToInt(row -> ShardMap.bucketOf(row.getEmail())).toArray());
+    }
+
+    /**
+     * Запись строки под блокировкой с переносом записи индекса email.
+     *
+     * @param newEmail email после записи по текущему состоянию строки; null - строка удаляется
+     * @param work     изменение заблокированной строки в транзакции ее шарда, результат не null
+     * @return пустой, если строки нет
+     */
+    private <T> Optional<T> writeRow(Long id, Function<User, String> newEmail, BiFunction<Session, User, T> work) {
+        for (int attempt = 1; ; attempt++) {
+            User current = findById(id).orElse(null);
+            if (current == null) {
+                return Optional.empty();
+            }
+            String oldEmail = current.getEmail();
+            String email = newEmail.apply(current);
+            int[] buckets = email == null
+                    ? new int[]{ShardMap.bucketOf(id), ShardMap.bucketOf(oldEmail)}
+                    : new int[]{ShardMap.bucketOf(id), ShardMap.bucketOf(oldEmail), ShardMap.bucketOf(email)};
+            try {
+                return writing(latest -> writeLocked(latest, id, oldEmail, email, work), buckets);
+            } catch (StaleEmailException ex) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw new IllegalStateException("Email пользователя id=" + id + " меняется параллельно");
+                }
+            }
+        }
+    }
+
+    private <T> Optional<T> writeLocked(ShardMap current, Long id, String oldEmail, String email,
+                                        BiFunction<Session, User, T> work) {
+        boolean claim = email != null && !email.equals(oldEmail);
+        if (claim) {
+            // Занятый email дает ConstraintViolationException, как уникальный индекс users
+            writeShard(current.shardOfEmail(email), new int[]{ShardMap.bucketOf(email)}, session -> {
+                session.persist(new UserEmailRoute(email, id, ShardMap.bucketOf(email)));
+                session.flush();
+                return null;
+            });
+        }
+        Optional<T> result;
+        try {
+            result = writeShard(current.shardOfId(id), new int[]{ShardMap.bucketOf(id)}, session -> {
+                User row = session.get(User.class, id, LockMode.PESSIMISTIC_WRITE);
+                if (row == null) {
+                    return Optional.<T>empty();
+                }
+                // Email сменили после чтения: занятая запись индекса не та, повторяем с новым состоянием
+                if (!row.getEmail().equals(oldEmail)) {
+                    throw new StaleEmailException();
+                }
+                return Optional.of(work.apply(session, row));
+            });
+        } catch (RuntimeException ex) {
+            if (claim) {
+                try {
+                    releaseRoute(current, email, id);
+                } catch (RuntimeException releaseFailure) {
+                    ex.addSuppressed(releaseFailure);
+                }
+            }
+            throw ex;
+        }
+        if (result.isEmpty() && claim) {
+            releaseRoute(current, email, id);
+        }
+        if (result.isPresent() && (claim || email == null)) {
+            try {
+                releaseRoute(current, oldEmail, id);
+            } catch (RuntimeException ex) {
+                // Строка уже изменена; запись индекса остается и держит старый email занятым
+                log.error("Не удалось освободить email {} пользователя id={}", oldEmail, id, ex);
+            }
+        }
+        return result;
+    }
+
+    private void releaseRoute(ShardMap current, String email, Long id) {
+        writeShard(current.shardOfEmail(email), new int[]{ShardMap.bucketOf(email)},
+                session -> session.createMutationQuery(RELEASE_ROUTE_HQL)
+                .setParameter("email", email)
+                .setParameter("userId", id)
+                .executeUpdate());
+    }
+
+    /**
+     * Запись в корзины buckets по текущей карте; во время переноса корзины запись отклоняется.
+     * Записи процессов с устаревшей картой отклоняет {@link #writeShard}.
+     */
+    private <T> T writing(Function<ShardMap, T> work, int... buckets) {
+        ShardMap current = currentMap();
+        if (movingBucket(current, buckets) >= 0) {
+            // Перенос мог уже закончиться в другом процессе
+            current = reloadMap();
+            int moving = movingBucket(current, buckets);
+            if (moving >= 0) {
+                throw new IllegalStateException("Корзина " + moving
+                        + " переносится на другой шард, запись временно невозможна");
+            }
+        }
+        return work.apply(current);
+    }
+
+    private static int movingBucket(ShardMap current, int[] buckets) {
+        for (int bucket : buckets) {
+            if (current.isMoving(bucket)) {
+                return bucket;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Транзакция записи на шарде: сначала строки корзин buckets в user_shard_buckets читаются с блокировкой.
+     * Запрет записи ({@link #beginMove}) ждет окончания таких транзакций любого процесса. Отказ значит,
+     * что карта этого процесса устарела, поэтому она перечитывается.
+     */
+    private <T> T writeShard(int shard, int[] buckets, Function<Session, T> work) {
+        Function<Session, T> checked = session -> {
+            checkBucketsWritable(session, shard, buckets);
+            return work.apply(session);
+        };
+        try {
+            Map<Integer, Session> sessions = unit.get();
+            return sessions != null ? inUnit(sessions, shard, checked) : inShard(shard, checked);
+        } catch (BucketNotWritableException ex) {
+            try {
+                reloadMap();
+            } catch (RuntimeException reloadFailure) {
+                ex.addSuppressed(reloadFailure);
+            }
+            throw ex;
+        }
+    }
+
+    private static void checkBucketsWritable(Session session, int shard, int[] buckets) {
+        List<Integer> distinct = Arrays.stream(buckets).distinct().sorted().boxed().toList();
+        Set<Integer> writable = new HashSet<>();
+        for (UserShardBucket fence : session.createQuery(FENCES_HQL, UserShardBucket.class)
+                .setParameter("buckets", distinct)
+                .setHibernateLockMode(LockMode.PESSIMISTIC_READ)
+                .getResultList()) {
+            if (fence.getWritable()) {
+                writable.add(fence.getBucket());
+            }
+        }
+        for (Integer bucket : distinct) {
+            if (!writable.contains(bucket)) {
+                throw new BucketNotWritableException(bucket, shard);
+            }
+        }
+    }
+
+    private static int[] idBuckets(List<User> rows) {
+        return rows.stream().mapToInt(row -> ShardMap.bucketOf(row.getId())).toArray();
+    }
+
+    /**
+     * Отмечает корзину переносимой в сохраненной карте и запрещает запись в нее на шарде-владельце.
+     * Запрет дожидается транзакций записи в корзину, начатых любым процессом.
+     */
+    void beginMove(int bucket) {
+        ShardMap moving = updateMap(stored -> {
+            if (stored.isMoving(bucket)) {
+                throw new IllegalStateException("Корзина " + bucket + " уже переносится");
+            }
+            return stored.withMoving(bucket, true);
+        });
+        try {
+            setWritable(moving.shardOf(bucket), bucket, false);
+        } catch (RuntimeException ex) {
+            try {
+                updateMap(stored -> stored.withMoving(bucket, false));
+            } catch (RuntimeException restoreFailure) {
+                ex.addSuppressed(restoreFailure);
+            }
+            throw ex;
+        }
+    }
+
+    void switchOwner(int bucket, int shard) {
+        updateMap(stored -> stored.withOwner(bucket, shard));
+    }
+
+    /**
+     * Разрешает запись в корзину у ее владельца и снимает отметку переноса. Копий корзины на других шардах
+     * к этому моменту быть не должно.
+     */
+    void endMove(int bucket) {
+        // Пока корзина отмечена переносимой, запись в нее отклоняется и с разрешением на шарде
+        setWritable(reloadMap().shardOf(bucket), bucket, true);
+        updateMap(stored -> stored.withMoving(bucket, false));
+    }
+
+    /**
+     * Перечитывает сохраненную карту шардов.
+     */
+    ShardMap reloadMap() {
+        StoredMap stored = loadMap();
+        if (stored == null) {
+            throw new IllegalStateException("Карта шардов не найдена на шарде 0");
+        }
+        if (stored.map().shardCount() > shards.size()) {
+            throw new IllegalStateException("Карта рассчитана на " + stored.map().shardCount() + " шардов, подключено "
+                    + shards.size() + ": новый шард нужно подключить через addShard");
+        }
+        publish(stored);
+        return map;
+    }
+
+    // Опубликованная карта, перечитанная, если она старше mapRefresh
+    private ShardMap currentMap() {
+        return System.nanoTime() - mapLoadedAt < mapRefreshNanos ? map : reloadMap();
+    }
+
+    private synchronized void publish(StoredMap stored) {
+        if (stored.version() >= mapVersion) {
+            map = stored.map();
+            mapVersion = stored.version();
+        }
+        mapLoadedAt = System.nanoTime();
+    }
+
+    private StoredMap loadMap() {
+        return inShard(0, session -> {
+            UserShardMap row = session.get(UserShardMap.class, UserShardMap.ID);
+            return row == null ? null : new StoredMap(ShardMap.parse(row.getLayout()), row.getVersion());
+        });
+    }
+
+    // Карту новой установки сохраняет один из одновременно запущенных процессов: второй вставке мешает первичный ключ
+    private StoredMap loadOrStoreMap(ShardMap initial) {
+        StoredMap stored = loadMap();
+        if (stored != null) {
+            return stored;
+        }
+        try {
+            stored = inShard(0, session -> {
+                UserShardMap row = new UserShardMap(initial.format());
+                session.persist(row);
+                session.flush();
+                return new StoredMap(initial, row.getVersion());
+            });
+            log.info("Карта шардов сохранена на шарде 0: {}", initial);
+            return stored;
+        } catch (ConstraintViolationException ex) {
+            return loadMap();
+        }
+    }
+
+    // Изменение сохраненной карты одной транзакцией на шарде 0: строка карты блокируется, версия растет
+    private ShardMap updateMap(UnaryOperator<ShardMap> change) {
+        StoredMap updated = inShard(0, session -> {
+            UserShardMap row = session.get(UserShardMap.class, UserShardMap.ID, LockMode.PESSIMISTIC_WRITE);
+            if (row == null) {
+                throw new IllegalStateException("Карта шардов не найдена на шарде 0");
+            }
+            ShardMap changed = change.apply(ShardMap.parse(row.getLayout()));
+            row.setLayout(changed.format());
+            session.flush();
+            return new StoredMap(changed, row.getVersion());
+        });
+        publish(updated);
+        return updated.map();
+    }
+
+    // Недостающие строки user_shard_buckets по карте: запись разрешена у владельца непереносимой корзины
+    private void initFences(int shard, ShardMap current) {
+        try {
+            inShard(shard, session -> {
+                Set<Integer> existing = new HashSet<>(
+                        session.createQuery(FENCE_BUCKETS_HQL, Integer.class).getResultList());
+                for (int bucket = 0; bucket < ShardMap.BUCKETS; bucket++) {
+                    if (!existing.contains(bucket)) {
+                        session.persist(new UserShardBucket(bucket,
+                                current.shardOf(bucket) == shard && !current.isMoving(bucket)));
+                    }
+                }
+                return null;
+            });
+        } catch (ConstraintViolationException ex) {
+            log.debug("Разрешения записи шарда {} одновременно создал другой процесс", shard);
+        }
+    }
+
+    // UPDATE ждет транзакции записи, которые уже прочитали строку корзины с блокировкой
+    private void setWritable(int shard, int bucket, boolean writable) {
+        inShard(shard, session -> {
+            int updated = session.createMutationQuery(SET_WRITABLE_HQL)
+                    .setParameter("writable", writable)
+                    .setParameter("bucket", bucket)
+                    .executeUpdate();
+            if (updated == 0) {
+                session.persist(new UserShardBucket(bucket, writable));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Транзакция на шарде без фильтра переносимых корзин: запись и чтение для переноса.
+     */
+    <T> T inShard(int shard, Function<Session, T> work) {
+        Session session = shards.get(shard).openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            T result = work.apply(session);
+            tx.commit();
+            return result;
+        } catch (RuntimeException ex) {
+            rollback(tx, ex);
+            throw ex;
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Работа в сессии шарда из единицы работы. Все изменения сразу отправляются в базу, а контекст
+     * очищается: результат отсоединен, как после закрытия сессии вне единицы работы.
+     */
+    private <T> T inUnit(Map<Integer, Session> sessions, int shard, Function<Session, T> work) {
+        Session session = unitSession(sessions, shard);
+        T result = work.apply(session);
+        session.flush();
+        session.clear();
+        return result;
+    }
+
+    private <T> T readShard(int shard, Function<Session, T> work) {
+        Map<Integer, Session> sessions = unit.get();
+        if (sessions != null) {
+            return inUnit(sessions, shard, work);
+        }
+        Session session = openRead(shard);
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            T result = work.apply(session);
+            tx.commit();
+            return result;
+        } catch (RuntimeException ex) {
+            rollback(tx, ex);
+            throw ex;
+        } finally {
+            session.close();
+        }
+    }
+
+    private Session openRead(int shard) {
+        Session session = shards.get(shard).openSession();
+        session.setDefaultReadOnly(true);
+        session.setHibernateFlushMode(FlushMode.MANUAL);
+        return session;
+    }
+
+    /**
+     * Запрос чтения шарда: пока у шарда есть копии переносимых корзин, которыми он не владеет (hidden),
+     * выполняется вариант запроса, который их не видит.
+     */
+    private static <T> Query<T> query(Session session, List<Integer> hidden, Class<T> type, String hql,
+                                      String visibleHql) {
+        return hidden.isEmpty()
+                ? session.createQuery(hql, type)
+                : session.createQuery(visibleHql, type).setParameterList("hiddenBuckets", hidden);
+    }
+
+    private static void rollback(Transaction tx, RuntimeException cause) {
+        if (tx == null || !tx.isActive()) {
+            return;
+        }
+        try {
+            tx.rollback();
+        } catch (RuntimeException rollbackFailure) {
+            cause.addSuppressed(rollbackFailure);
+        }
+    }
+
+    /**
+     * Параллельное чтение со всех шардов; в единице работы - по очереди в ее сессиях. Работа получает
+     * корзины, копии которых шард должен скрыть.
+     *
+     * @return ответы в порядке номеров шардов
+     */
+    private <T> List<T> onAllShards(ShardMap current, BiFunction<Session, List<Integer>, T> work) {
+        if (current.shardCount() == 1 || unit.get() != null) {
+            List<T> results = new ArrayList<>(current.shardCount());
+            for (int shard = 0; shard < current.shardCount(); shard++) {
+                List<Integer> hidden = current.foreignMovingBuckets(shard);
+                results.add(readShard(shard, session -> work.apply(session, hidden)));
+            }
+            return results;
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(current.shardCount());
+        for (int shard = 0; shard < current.shardCount(); shard++) {
+            int target = shard;
+            List<Integer> hidden = current.foreignMovingBuckets(shard);
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> readShard(target, session -> work.apply(session, hidden)), scatter));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException ex) {
+            futures.forEach(future -> future.cancel(false));
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+        return results;
+    }
+
+    // Слияние упорядоченных ответов шардов: первые limit элементов общего порядка
+    private static <T> List<T> merge(List<List<T>> parts, Comparator<? super T> order, int limit) {
+        Iterator<T> merged = new MergingIterator<>(parts.stream().map(List::iterator).toList(), order);
+        List<T> result = new ArrayList<>();
+        while (result.size() < limit && merged.hasNext()) {
+            result.add(merged.next());
+        }
+        return result;
+    }
+
+    private void checkWritable() {
+        if (readOnly.get()) {
+            throw new IllegalStateException("Запись внутри транзакции только для чтения");
+        }
+    }
+
+    // Те же проверки nullable = false, что Hibernate выполняет перед INSERT/UPDATE
+    private static void checkNotNull(String name, String email, Integer age) {
+        if (name == null) {
+            throw new PropertyValueException("not-null property references a null value", User.class.getName(), "name");
+        }
+        if (email == null) {
+            throw new PropertyValueException("not-null property references a null value", User.class.getName(), "email");
+        }
+        if (age == null) {
+            throw new PropertyValueException("not-null property references a null value", User.class.getName(), "age");
+        }
+    }
+
+    private record StoredMap(ShardMap map, long version) {
+    }
+
+    private static final class BucketNotWritableException extends IllegalStateException {
+
+        BucketNotWritableException(int bucket, int shard) {
+            super("Запись в корзину " + bucket + " на шарде " + shard
+                    + " запрещена: корзина переносится или уже перенесена");
+        }
+    }
+
+    private static final class StaleEmailException extends RuntimeException {
+
+        StaleEmailException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * k-путевое слияние упорядоченных итераторов через очередь с приоритетом по текущим элементам.
+     */
+    private static final class MergingIterator<T> implements Iterator<T> {
+
+        private record Head<T>(T value, Iterator<T> rest) {
+        }
+
+        private final PriorityQueue<Head<T>> heads;
+
+        MergingIterator(List<Iterator<T>> sources, Comparator<? super T> order) {
+            this.heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                    (left, right) -> order.compare(left.value(), right.value()));
+            sources.forEach(this::advance);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            Head<T> head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            advance(head.rest());
+            return head.value();
+        }
+
+        private void advance(Iterator<T> source) {
+            if (source.hasNext()) {
+                heads.add(new Head<>(source.next(), source));
+            }
+        }
+    }
+}
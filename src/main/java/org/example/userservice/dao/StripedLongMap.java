@@ -0,0 +1,288 @@
+package org.example.userservice.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Потокобезопасная хеш-таблица с ключами long без упаковки в Long.
+ * Ключи распределены по сегментам; в каждом сегменте - открытая адресация с линейным пробированием
+ * и собственная {@link StampedLock}. Чтение по ключу выполняется без блокировки (оптимистичное чтение
+ * с проверкой штампа), изменения блокируют только свой сегмент.
+ * Значения null не поддерживаются.
+ */
+final class StripedLongMap<V> {
+
+    private static final int MAX_STRIPES = 64;
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    StripedLongMap() {
+        this(Math.min(MAX_STRIPES, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4)));
+    }
+
+    StripedLongMap(int stripeCount) {
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("Число сегментов должно быть степенью двойки: " + stripeCount);
+        }
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        // Сегмент выбирается по старшим битам хеша, ячейка внутри сегмента - по младшим
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        long hash = mix(key);
+        Stripe stripe = stripeFor(hash);
+        long stamp = stripe.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Object value = stripe.find(key, hash);
+            if (stripe.lock.validate(stamp)) {
+                return (V) value;
+            }
+        }
+        stamp = stripe.lock.readLock();
+        try {
+            return (V) stripe.find(key, hash);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return текущее значение, если ключ уже есть (тогда value не сохраняется), иначе null
+     */
+    @SuppressWarnings("unchecked")
+    V putIfAbsent(long key, V value) {
+        long hash = mix(key);
+        Stripe stripe = stripeFor(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            Object current = stripe.find(key, hash);
+            if (current != null) {
+                return (V) current;
+            }
+            stripe.insert(key, hash, value);
+            return null;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Атомарно заменяет значение ключа результатом remapping (null - удалить ключ).
+     * remapping выполняется под блокировкой сегмента; если он бросает исключение, таблица не меняется.
+     *
+     * @return новое значение или null, если ключа нет или он удален
+     */
+    @SuppressWarnings("unchecked")
+    V computeIfPresent(long key, UnaryOperator<V> remapping) {
+        long hash = mix(key);
+        Stripe stripe = stripeFor(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            int slot = stripe.slotOf(key, hash);
+            if (slot < 0) {
+                return null;
+            }
+            V updated = remapping.apply((V) stripe.values[slot]);
+            if (updated == null) {
+                stripe.removeAt(slot);
+            } else {
+                stripe.values[slot] = updated;
+            }
+            return updated;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Удаляет ключ; beforeRemove вызывается с удаляемым значением под блокировкой сегмента.
+     *
+     * @return удаленное значение или null, если ключа не было
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key, Consumer<? super V> beforeRemove) {
+        long hash = mix(key);
+        Stripe stripe = stripeFor(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            int slot = stripe.slotOf(key, hash);
+            if (slot < 0) {
+                return null;
+            }
+            V value = (V) stripe.values[slot];
+            beforeRemove.accept(value);
+            stripe.removeAt(slot);
+            return value;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Согласованный снимок всех значений: на время копирования блокируются все сегменты,
+     * поэтому в снимок не попадает половина чужого изменения. Чтение по ключу при этом не блокируется.
+     */
+    @SuppressWarnings("unchecked")
+    List<V> snapshot() {
+        long[] stamps = new long[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stamps[i] = stripes[i].lock.readLock();
+        }
+        try {
+            int size = 0;
+            for (Stripe stripe : stripes) {
+                size += stripe.size;
+            }
+            List<V> result = new ArrayList<>(size);
+            for (Stripe stripe : stripes) {
+                for (Object value : stripe.values) {
+                    if (value != null) {
+                        result.add((V) value);
+                    }
+                }
+            }
+            return result;
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                stripes[i].lock.unlockRead(stamps[i]);
+            }
+        }
+    }
+
+    private Stripe stripeFor(long hash) {
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (hash >>> stripeShift)];
+    }
+
+    // Финальное перемешивание MurmurHash3: последовательные id равномерно расходятся по сегментам и ячейкам
+    private static long mix(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Stripe {
+
+        final StampedLock lock = new StampedLock();
+        // Занятость ячейки определяется по values[i] != null, поэтому допустим и ключ 0
+        long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+        Object[] values = new Object[INITIAL_STRIPE_CAPACITY];
+        int size;
+
+        /**
+         * Может вызываться без блокировки: массивы читаются один раз, а число проб ограничено их длиной,
+         * поэтому при гонке результат может быть неверным (его отбросит validate), но цикл конечен.
+         */
+        Object find(long key, long hash) {
+            long[] keys = this.keys;
+            Object[] values = this.values;
+            int mask = Math.min(keys.length, values.length) - 1;
+            int slot = (int) hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                Object value = values[slot];
+                if (value == null) {
+                    return null;
+                }
+                if (keys[slot] == key) {
+                    return value;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        int slotOf(long key, long hash) {
+            int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        void insert(long key, long hash, Object value) {
+            // Заполнение не больше 1/2: короткие цепочки проб
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+        }
+
+        // Удаление со сдвигом следующих элементов цепочки назад: надгробия не нужны
+        void removeAt(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (values[next] != null) {
+                int home = (int) mix(keys[next]) & mask;
+                // Элемент можно перенести в дыру, если его исходная ячейка не лежит между дырой и ним
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            values[hole] = null;
+            size--;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            int capacity = oldKeys.length * 2;
+            long[] newKeys = new long[capacity];
+            Object[] newValues = new Object[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int slot = (int) mix(oldKeys[i]) & mask;
+                    while (newValues[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    newKeys[slot] = oldKeys[i];
+                    newValues[slot] = oldValues[i];
+                }
+            }
+            // Читатель без блокировки может увидеть массивы разных поколений; find берет длину по меньшему
+            values = newValues;
+            keys = newKeys;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.entity.User;
+
+/**
+ * Итог upsert по email: состояние строки после операции и что с ней произошло.
+ */
+public record UpsertResult(User user, Outcome outcome) {
+
+    public enum Outcome {
+        INSERTED,
+        UPDATED,
+        // Строка с этим email уже содержала те же имя и возраст: она не перезаписывалась, версия прежняя
+        UNCHANGED
+    }
+
+    public boolean inserted() {
+        return outcome == Outcome.INSERTED;
+    }
+}
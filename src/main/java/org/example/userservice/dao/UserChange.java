@@ -0,0 +1,29 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.entity.User;
+
+import java.time.LocalDateTime;
+
+/**
+ * Изменение в ленте: пользователь создан или изменен (UPSERT, user - состояние строки на момент чтения)
+ * либо удален (DELETE, user равен null).
+ */
+public record UserChange(Type type, long id, LocalDateTime changedAt, User user) {
+
+    public enum Type {
+        UPSERT,
+        DELETE
+    }
+
+    public static UserChange upsert(User user) {
+        return new UserChange(Type.UPSERT, user.getId(), user.getUpdatedAt(), user);
+    }
+
+    public static UserChange delete(long id, LocalDateTime deletedAt) {
+        return new UserChange(Type.DELETE, id, deletedAt, null);
+    }
+
+    public ChangeCursor cursor() {
+        return new ChangeCursor(changedAt, id);
+    }
+}
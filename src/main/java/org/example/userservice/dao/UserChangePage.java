@@ -0,0 +1,16 @@
+package org.example.userservice.dao;
+
+import java.util.List;
+
+/**
+ * Порция ленты изменений и курсор, с которого читать следующую. Если изменений нет,
+ * курсор тот же, что был передан.
+ */
+public record UserChangePage(List<UserChange> changes, ChangeCursor cursor) {
+
+    // Первые limit изменений из упорядоченных по курсору changes
+    static UserChangePage first(List<UserChange> changes, ChangeCursor after, int limit) {
+        List<UserChange> page = List.copyOf(changes.subList(0, Math.min(limit, changes.size())));
+        return new UserChangePage(page, page.isEmpty() ? after : page.get(page.size() - 1).cursor());
+    }
+}
@@ -0,0 +1,332 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.entity.User;
+import org.example.userservice.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+/**
+ * Массовый импорт и экспорт пользователей в CSV через COPY PostgreSQL, минуя сущности Hibernate.
+ * Данные идут потоком между файлом и сервером, поэтому память не зависит от объема.
+ * <p>
+ * Формат CSV - строка заголовка и строки данных (RFC 4180). Экспорт пишет колонки
+ * id, name, email, age, created_at; импорт требует name, email, age, а id и created_at принимает,
+ * чтобы экспортированный файл можно было загрузить обратно (id при этом выдаются заново).
+ */
+public class UserCsvCopyDao {
+
+    private static final Logger log = LoggerFactory.getLogger(UserCsvCopyDao.class);
+
+    // Через сколько строк сообщать о ходе импорта или экспорта
+    public static final int PROGRESS_STEP = 10_000;
+
+    private static final Set<String> KNOWN_COLUMNS = Set.of("id", "name", "email", "age", "created_at");
+    private static final List<String> REQUIRED_COLUMNS = List.of("name", "email", "age");
+
+    private static final String CREATE_STAGING = """
+            create temporary table users_import (
+                line bigint generated always as identity,
+                id bigint,
+                name varchar(255) not null,
+                email varchar(255) not null,
+                age integer not null,
+                created_at timestamp(6)
+            ) on commit drop""";
+
+    /*
+     * Перенос из промежуточной таблицы одним запросом:
+     *  - из повторов email внутри файла остается последняя строка;
+     *  - id берутся блоками из users_seq так же, как их выдает pooled-оптимизатор Hibernate
+     *    (значение hi последовательности дает id hi - шаг + 1 .. hi), поэтому не пересекаются с id приложения.
+     *    Значение меньше шага бывает только первым у новой последовательности - его пропускаем;
+     *  - xmax = 0 только у вставленных строк, у обновленных через ON CONFLICT он заполнен.
+     */
+    private static final String MERGE = """
+            with staged as (
+                select distinct on (email) name, email, age, created_at, line
+                from users_import
+                order by email, line desc
+            ),
+            numbered as (
+                select name, email, age, created_at, row_number() over (order by line) - 1 as n
+                from staged
+            ),
+            blocks as (
+                select row_number() over () - 1 as b, hi
+                from (select nextval('users_seq') as hi
+                      from generate_series(1, (select count(*) from numbered) / %1$d + 2)) seq
+                where hi >= %1$d
+            ),
+            merged as (
+                insert into users (id, name, email, age, created_at, updated_at)
+                select b.hi - %1$d + 1 + r.n %% %1$d, r.name, r.email, r.age, coalesce(r.created_at, ?), ?
+                from numbered r
+                join blocks b on b.b = r.n / %1$d
+                on conflict (email) %2$s
+                returning (xmax = 0) as inserted
+            )
+            select count(*) filter (where inserted), count(*) filter (where not inserted)
+            from merged""";
+
+    private static final String EXPORT = "copy (select id, name, email, age, created_at from users order by id) "
+            + "to stdout with (format csv, header)";
+
+    public CsvImportResult importCsv(Path file, EmailConflictPolicy policy, LongConsumer progress) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return importCsv(in, policy, progress);
+        }
+    }
+
+    /**
+     * Загружает CSV (UTF-8) во временную таблицу через COPY и переносит строки в users в той же транзакции.
+     * Ошибка в любой строке файла откатывает весь импорт.
+     *
+     * @param progress получает число прочитанных строк каждые {@link #PROGRESS_STEP} строк и в конце
+     */
+    public CsvImportResult importCsv(InputStream csv, EmailConflictPolicy policy, LongConsumer progress) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8));
+        List<String> columns = readHeader(reader);
+        log.info("Импорт CSV: колонки={}, конфликт по email={}", columns, policy);
+
+        SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
+        CsvImportResult result;
+        try (Session session = sessionFactory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            try {
+                result = session.doReturningWork(connection ->
+                        copyAndMerge(connection, reader, columns, policy, progress));
+                tx.commit();
+                HibernateUtil.recordWrite();
+            } catch (RuntimeException ex) {
+                tx.rollback();
+                log.error("Ошибка импорта CSV, транзакция откатана", ex);
+                throw ex;
+            }
+        }
+
+        // Строки изменены в обход Hibernate: кеш второго уровня мог сохранить старые значения
+        sessionFactory.getCache().evictEntityData(User.class);
+        sessionFactory.getCache().evictNaturalIdData(User.class);
+
+        progress.accept(result.read());
+        log.info("Импорт CSV завершен: {}", result);
+        return result;
+    }
+
+    private static CsvImportResult copyAndMerge(Connection connection, Reader rows, List<String> columns,
+                                                EmailConflictPolicy policy, LongConsumer progress) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_STAGING);
+        }
+
+        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        long read;
+        try {
+            read = copyManager.copyIn("copy users_import (" + String.join(", ", columns) + ") from stdin with (format csv)",
+                    new CountingReader(rows, progress));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Ошибка чтения CSV", ex);
+        }
+        log.debug("Импорт CSV: загружено во временную таблицу строк={}", read);
+
+        // Время записи - часы JVM, как у остальных запросов UserDaoImpl, а не часы сервера БД
+        String onConflict = policy == EmailConflictPolicy.UPDATE
+                ? "do update set name = excluded.name, age = excluded.age, updated_at = excluded.updated_at, "
+                        + "version = users.version + 1"
+                : "do nothing";
+        LocalDateTime now = UserDaoImpl.now();
+        try (PreparedStatement merge = connection.prepareStatement(
+                String.format(MERGE, User.ID_ALLOCATION_SIZE, onConflict))) {
+            merge.setObject(1, now);
+            merge.setObject(2, now);
+            try (ResultSet counts = merge.executeQuery()) {
+                counts.next();
+                long inserted = counts.getLong(1);
+                long updated = counts.getLong(2);
+                return new CsvImportResult(read, inserted, updated, read - inserted - updated);
+            }
+        }
+    }
+
+    private static List<String> readHeader(BufferedReader reader) {
+        String header;
+        try {
+            header = reader.readLine();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Ошибка чтения CSV", ex);
+        }
+        if (header == null || header.isBlank()) {
+            throw new IllegalArgumentException("CSV пуст: нет строки заголовка");
+        }
+        // BOM, который добавляют некоторые редакторы
+        if (header.charAt(0) == '\uFEFF') {
+            header = header.substring(1);
+        }
+
+        List<String> columns = new ArrayList<>();
+        for (String raw : header.split(",")) {
+            String column = raw.trim().replace("\"", "").toLowerCase(Locale.ROOT);
+            if (!KNOWN_COLUMNS.contains(column)) {
+                throw new IllegalArgumentException("Неизвестная колонка CSV: " + raw.trim()
+                        + ", допустимы " + KNOWN_COLUMNS);
+            }
+            if (columns.contains(column)) {
+                throw new IllegalArgumentException("Колонка CSV повторяется: " + column);
+            }
+            columns.add(column);
+        }
+        if (!columns.containsAll(REQUIRED_COLUMNS)) {
+            throw new IllegalArgumentException("В CSV нет обязательных колонок " + REQUIRED_COLUMNS + ": " + header);
+        }
+        return columns;
+    }
+
+    public long exportCsv(Path file, LongConsumer progress) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            return exportCsv(out, progress);
+        }
+    }
+
+    /**
+     * Выгружает всех пользователей в CSV (UTF-8), упорядоченных по id. Поток не закрывается.
+     *
+     * @return число выгруженных пользователей
+     */
+    public long exportCsv(OutputStream out, LongConsumer progress) {
+        log.info("Экспорт пользователей в CSV");
+
+        long exported;
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            try {
+                exported = session.doReturningWork(connection -> {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("set transaction read only");
+                    }
+                    CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+                    try {
+                        // Строка заголовка не считается
+                        return copyManager.copyOut(EXPORT, new CountingOutputStream(out, progress, -1));
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException("Ошибка записи CSV", ex);
+                    }
+                });
+                tx.commit();
+            } catch (RuntimeException ex) {
+                tx.rollback();
+                log.error("Ошибка экспорта CSV", ex);
+                throw ex;
+            }
+        }
+
+        progress.accept(exported);
+        log.info("Экспорт CSV завершен: выгружено строк={}", exported);
+        return exported;
+    }
+
+    /**
+     * Считает переводы строк в проходящих данных и сообщает о каждых {@link #PROGRESS_STEP} строках.
+     * Перевод строки внутри значения в кавычках тоже считается, поэтому промежуточный счет приблизительный.
+     */
+    private static final class CountingReader extends FilterReader {
+
+        private final LongConsumer progress;
+        private long lines;
+
+        private CountingReader(Reader in, LongConsumer progress) {
+            super(in);
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c == '\n') {
+                countLine();
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            for (int i = offset; i < offset + n; i++) {
+                if (buffer[i] == '\n') {
+                    countLine();
+                }
+            }
+            return n;
+        }
+
+        private void countLine() {
+            if (++lines % PROGRESS_STEP == 0) {
+                progress.accept(lines);
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private final LongConsumer progress;
+        private long lines;
+
+        private CountingOutputStream(OutputStream out, LongConsumer progress, long initialLines) {
+            super(out);
+            this.progress = progress;
+            this.lines = initialLines;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (b == '\n') {
+                countLine();
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            for (int i = offset; i < offset + length; i++) {
+                if (buffer[i] == '\n') {
+                    countLine();
+                }
+            }
+        }
+
+        private void countLine() {
+            if (++lines > 0 && lines % PROGRESS_STEP == 0) {
+                progress.accept(lines);
+            }
+        }
+    }
+}
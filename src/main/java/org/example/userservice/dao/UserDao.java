@@ -2,18 +2,156 @@ package org.example.userservice.dao;
 
 import org.example.userservice.entity.User;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 public interface UserDao {
 
+    /**
+     * Наибольшая порция {@link #updateAll} и {@link #deleteAllById}, которая выполняется одной транзакцией.
+     */
+    int MUTATION_CHUNK_SIZE = 1_000;
+
+    /**
+     * Выполняет work как одну единицу работы: вызовы этого DAO внутри work используют одну сессию
+     * и одну транзакцию и фиксируются вместе; исключение из work откатывает все. Сущности, прочитанные
+     * внутри work, управляемые: их изменения записываются при фиксации. Вложенный вызов присоединяется
+     * к внешнему. {@link #streamAll()} всегда читает в собственной транзакции.
+     *
+     * @return результат work
+     */
+    <T> T inTransaction(Function<UserDao, T> work);
+
+    /**
+     * Как {@link #inTransaction}, но только для чтения: без dirty checking и flush, соединение в режиме
+     * read-only (чтение может идти с реплики). Запись внутри work бросает {@link IllegalStateException}.
+     */
+    <T> T inReadOnlyTransaction(Function<UserDao, T> work);
+
     void save(User user);
 
+    void saveAll(Collection<User> users);
+
+    /**
+     * Вставляет пользователя или, если email уже занят, обновляет имя и возраст существующего одним
+     * INSERT ... ON CONFLICT (email) DO UPDATE: повтор не стоит откатанной транзакции и дополнительных запросов.
+     * Строка с теми же значениями не перезаписывается. Переданный объект не изменяется.
+     */
+    UpsertResult upsertByEmail(User user);
+
+    /**
+     * {@link #upsertByEmail} для коллекции: одно выражение на пакет, все пакеты в одной транзакции.
+     * Из пользователей с одинаковым email записывается последний.
+     *
+     * @return результат для каждого пользователя в том же порядке; у повторов email - итоговое состояние строки
+     */
+    List<UpsertResult> upsertAllByEmail(Collection<User> users);
+
     Optional<User> findById(Long id);
 
+    /**
+     * Точный поиск по email через natural id: повторные запросы обслуживаются кешем второго уровня.
+     */
+    Optional<User> findByEmail(String email);
+
+    /**
+     * Поиск по email без учета регистра (функциональный индекс по lower(email)).
+     */
+    Optional<User> findByEmailIgnoreCase(String email);
+
+    boolean existsByEmail(String email);
+
     List<User> findAll();
 
+    /**
+     * Потоковое чтение всей таблицы без загрузки ее в память целиком.
+     * Поток держит открытыми сессию и курсор, поэтому его обязательно нужно закрыть (try-with-resources).
+     */
+    Stream<User> streamAll();
+
+    /**
+     * Keyset-пагинация: до {@code limit} пользователей с id больше {@code afterId}, упорядоченных по id.
+     * Для первой страницы {@code afterId} равен null.
+     */
+    List<User> findPage(Long afterId, int limit);
+
+    /**
+     * Все пользователи в кратком виде, упорядоченные по id. Запрос-проекция не создает сущностей:
+     * ни снимков для dirty checking, ни записей в контексте персистентности.
+     */
+    List<UserSummary> findAllSummaries();
+
+    /**
+     * Keyset-пагинация, как {@link #findPage}, но в кратком виде.
+     */
+    List<UserSummary> findSummaryPage(Long afterId, int limit);
+
+    /**
+     * Поиск по условиям {@link UserQuery} вместе с общим числом подходящих пользователей.
+     * Фильтры по возрасту, началу имени и дате создания обслуживаются индексами.
+     */
+    UserSearchResult search(UserQuery query);
+
+    /**
+     * Лента изменений: до {@code limit} созданий, изменений и удалений пользователей после курсора,
+     * упорядоченных по времени записи и id. Для чтения с начала {@code after} равен null; следующую порцию
+     * читают с {@link UserChangePage#cursor()}. Пользователь, измененный несколько раз, попадает в ленту
+     * один раз - с последним состоянием.
+     * <p>
+     * Время записи ставится до фиксации транзакции, поэтому реализации над БД отдают только изменения
+     * старше отставания ленты ({@link UserDaoImpl#DEFAULT_CHANGE_FEED_LAG}): к этому времени транзакция,
+     * записавшая изменение, уже зафиксирована или откачена, и курсор не проходит мимо нее. Транзакция дольше
+     * отставания по-прежнему может остаться позади курсора.
+     */
+    UserChangePage findChangedSince(ChangeCursor after, int limit);
+
+    /**
+     * Записывает все поля пользователя с проверкой версии. Если строку изменили после того,
+     * как объект был прочитан, бросает {@link jakarta.persistence.OptimisticLockException}.
+     * После успешной записи у объекта новая версия.
+     */
     void update(User user);
 
-    void deleteById(Long id);
+    /**
+     * Обновляет только заданные в patch поля одним UPDATE (с увеличением версии) и возвращает
+     * актуальное состояние строки.
+     * Пустой Optional - пользователя с таким id нет.
+     */
+    Optional<User> patch(UserPatch patch);
+
+    /**
+     * Применяет все patch в одной транзакции: ошибка любого из них откатывает все.
+     *
+     * @return актуальное состояние строки для каждого patch в том же порядке; пустой Optional - id не найден
+     */
+    List<Optional<User>> patchAll(List<UserPatch> patches);
+
+    /**
+     * Применяет patch, как {@link #patch}, но пакетно и без чтения строк: одним выражением на порцию
+     * из {@link #MUTATION_CHUNK_SIZE} id. Каждая порция - отдельная транзакция (внутри {@link #inTransaction} -
+     * общая), поэтому ошибка, в отличие от {@link #patchAll}, оставляет в силе уже зафиксированные порции.
+     * Несколько patch одного id объединяются: у поля остается последнее заданное значение.
+     *
+     * @return число измененных пользователей; пустые patch и отсутствующие id не считаются
+     */
+    int updateAll(Collection<UserPatch> patches);
+
+    /**
+     * Удаляет пользователя одним DELETE и оставляет отметку об удалении для {@link #findChangedSince}.
+     *
+     * @return true, если строка существовала и была удалена
+     */
+    boolean deleteById(Long id);
+
+    /**
+     * Удаляет пользователей с отметками об удалении, как {@link #deleteById}, одним выражением на порцию id.
+     * Каждая порция - отдельная транзакция (внутри {@link #inTransaction} - общая): ошибка оставляет
+     * удаленными пользователей уже зафиксированных порций.
+     *
+     * @return число удаленных пользователей; повторы и отсутствующие id не считаются
+     */
+    int deleteAllById(Collection<Long> ids);
 }
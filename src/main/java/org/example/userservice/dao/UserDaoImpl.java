@@ -1,145 +1,1150 @@
 package org.example.userservice.dao;
 
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Order;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
 import org.example.userservice.entity.User;
+import org.example.userservice.entity.UserTombstone;
 import org.example.userservice.util.HibernateUtil;
+import org.example.userservice.util.TransactionRunner;
+import org.hibernate.CacheMode;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StaleObjectStateException;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
+import org.hibernate.cache.spi.access.NaturalIdDataAccess;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.exception.JDBCConnectionException;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.MutationQuery;
 import org.hibernate.query.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 public class UserDaoImpl implements UserDao {
 
     private static final Logger log = LoggerFactory.getLogger(UserDaoImpl.class);
 
+    // Совпадает с hibernate.jdbc.batch_size и шагом последовательности users_seq
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    // Сколько строк драйвер забирает за одно обращение к курсору при потоковом чтении
+    public static final int DEFAULT_FETCH_SIZE = 500;
+    // Сколько лента изменений отстает от текущего времени: дольше не должна идти ни одна пишущая транзакция
+    public static final Duration DEFAULT_CHANGE_FEED_LAG = Duration.ofSeconds(10);
+
+    static final String FIND_BY_EMAIL_IGNORE_CASE_HQL = "from User u where lower(u.email) = lower(:email)";
+    private static final String FIND_ALL_HQL = "from User";
+    static final String STREAM_ALL_HQL = "from User u order by u.id";
+    static final String FIND_PAGE_HQL = "from User u where u.id > :afterId order by u.id";
+    // Конструктор-выражение: строки превращаются сразу в записи, минуя сущности и контекст персистентности
+    static final String SUMMARY_SELECT =
+            "select new org.example.userservice.dao.UserSummary(u.id, u.name, u.email) from User u";
+    static final String FIND_ALL_SUMMARIES_HQL = SUMMARY_SELECT + " order by u.id";
+    static final String FIND_SUMMARY_PAGE_HQL = SUMMARY_SELECT + " where u.id > :afterId order by u.id";
+    private static final char LIKE_ESCAPE = '\\';
+    static final String FIND_BY_IDS_HQL = "from User u where u.id in :ids";
+    private static final String DELETE_BY_ID_HQL = "delete from User u where u.id = :id";
+    private static final String FIND_BY_EMAILS_HQL = "from User u where u.email in :emails";
+    // Сравнение пар (время, id) PostgreSQL выполняет по индексу (updated_at, id) как один диапазон;
+    // :settled - граница ленты, изменения позже нее еще могут быть не зафиксированы (см. findChangedSince)
+    private static final String CHANGED_USERS_HQL =
+            "from User u where u.updatedAt <= :settled order by u.updatedAt, u.id";
+    private static final String CHANGED_USERS_AFTER_HQL = "from User u where (u.updatedAt, u.id) > (:changedAt, :id)"
+            + " and u.updatedAt <= :settled order by u.updatedAt, u.id";
+    private static final String TOMBSTONES_HQL =
+            "from UserTombstone t where t.deletedAt <= :settled order by t.deletedAt, t.id";
+    private static final String TOMBSTONES_AFTER_HQL = "from UserTombstone t where (t.deletedAt, t.id)"
+            + " > (:changedAt, :id) and t.deletedAt <= :settled order by t.deletedAt, t.id";
+    // Те же запросы на шарде ShardedUserDao, который скрывает копии чужих корзин
+    private static final String SHARD_CHANGED_USERS_HQL = "from User u where u.updatedAt <= :settled and "
+            + ShardMap.hiddenBucketsCondition("u") + " order by u.updatedAt, u.id";
+    private static final String SHARD_CHANGED_USERS_AFTER_HQL = "from User u where (u.updatedAt, u.id)"
+            + " > (:changedAt, :id) and u.updatedAt <= :settled and "
+            + ShardMap.hiddenBucketsCondition("u") + " order by u.updatedAt, u.id";
+    private static final String SHARD_TOMBSTONES_HQL = "from UserTombstone t where t.deletedAt <= :settled and "
+            + ShardMap.hiddenBucketsCondition("t") + " order by t.deletedAt, t.id";
+    private static final String SHARD_TOMBSTONES_AFTER_HQL = "from UserTombstone t where (t.deletedAt, t.id)"
+            + " > (:changedAt, :id) and t.deletedAt <= :settled and "
+            + ShardMap.hiddenBucketsCondition("t") + " order by t.deletedAt, t.id";
+    // Массивы вместо списка VALUES: текст запроса одинаков для пакета любого размера. Строка с тем же
+    // email и теми же значениями не перезаписывается (WHERE в DO UPDATE) - ее возвращает вторая часть UNION.
+    // xmax = 0 только у вставленной строки
+    private static final String UPSERT_SQL = """
+            with input as (
+                select * from unnest(:ids, :names, :emails, :ages) as t(id, name, email, age)
+            ),
+            upserted as (
+                insert into users (id, name, email, age, created_at, updated_at, version)
+                select id, name, email, age, :now, :now, 0 from input
+                on conflict (email) do update
+                    set name = excluded.name, age = excluded.age, updated_at = excluded.updated_at,
+                        version = users.version + 1
+                    where (users.name, users.age) is distinct from (excluded.name, excluded.age)
+                returning id, name, email, age, created_at, updated_at, version, xmax = 0 as inserted
+            )
+            select id, name, email, age, created_at, updated_at, version,
+                   case when inserted then 'INSERTED' else 'UPDATED' end as outcome
+            from upserted
+            union all
+            select u.id, u.name, u.email, u.age, u.created_at, u.updated_at, u.version, 'UNCHANGED'
+            from users u
+            join input i on i.email = u.email
+            where not exists (select 1 from upserted x where x.email = u.email)""";
+    // Одно выражение вместо UPDATE и SELECT: RETURNING отдает строку после изменения и прежний email,
+    // по которому из кеша второго уровня убирается только запись этой строки. expectedVersion - версия объекта,
+    // прочитанного раньше во внешней единице работы: строку, измененную после чтения, UPDATE не трогает
+    private static final String PATCH_SQL = """
+            with locked as (
+                select id, email from users where id = :id for update
+            )
+            update users u
+            set name = coalesce(:name, u.name), email = coalesce(:email, u.email), age = coalesce(:age, u.age),
+                updated_at = :now, version = u.version + 1
+            from locked l
+            where u.id = l.id and (cast(:expectedVersion as bigint) is null or u.version = :expectedVersion)
+            returning u.id, u.name, u.email, u.age, u.created_at, u.updated_at, u.version, l.email as old_email""";
+    // Поля со значением null (не заданные в patch) coalesce оставляет прежними. Прежний email читается
+    // с блокировкой строки: без нее параллельно измененная строка вернула бы email из снимка запроса.
+    // Строки блокируются по порядку id: пересекающиеся порции ждут друг друга, а не взаимоблокируются
+    private static final String UPDATE_ALL_SQL = """
+            with locked as (
+                select id, email from users where id = any(:ids) order by id for update
+            )
+            update users u
+            set name = coalesce(p.name, u.name), email = coalesce(p.email, u.email), age = coalesce(p.age, u.age),
+                updated_at = :now, version = u.version + 1
+            from unnest(:ids, :names, :emails, :ages) as p(id, name, email, age)
+            join locked l on l.id = p.id
+            where u.id = p.id
+            returning u.id, l.email as old_email, u.email""";
+    // Отметки только для строк, которые DELETE действительно удалил: id параллельно удаленной строки
+    // он не вернет, и второй отметки не будет. Блокировки по порядку id, как в UPDATE_ALL_SQL
+    private static final String DELETE_ALL_SQL = """
+            with locked as (
+                select id from users where id = any(:ids) order by id for update
+            ),
+            deleted as (
+                delete from users u using locked l where u.id = l.id returning u.id, u.email
+            ),
+            tombstones as (
+                insert into user_tombstones (id, deleted_at)
+                select id, :now from deleted
+            )
+            select id, email from deleted""";
+
+    private final int batchSize;
+    private final int fetchSize;
+    private final Duration changeFeedLag;
+
+    public UserDaoImpl() {
+        this(DEFAULT_BATCH_SIZE, DEFAULT_FETCH_SIZE);
+    }
+
+    public UserDaoImpl(int batchSize) {
+        this(batchSize, DEFAULT_FETCH_SIZE);
+    }
+
+    public UserDaoImpl(int batchSize, int fetchSize) {
+        this(batchSize, fetchSize, DEFAULT_CHANGE_FEED_LAG);
+    }
+
+    /**
+     * @param changeFeedLag насколько {@link #findChangedSince} отстает от текущего времени
+     */
+    public UserDaoImpl(int batchSize, int fetchSize, Duration changeFeedLag) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Размер пакета должен быть положительным: " + batchSize);
+        }
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Размер выборки должен быть положительным: " + fetchSize);
+        }
+        if (changeFeedLag.isNegative()) {
+            throw new IllegalArgumentException("Отставание ленты изменений не может быть отрицательным: "
+                    + changeFeedLag);
+        }
+        this.batchSize = batchSize;
+        this.fetchSize = fetchSize;
+        this.changeFeedLag = changeFeedLag;
+    }
+
+    @Override
+    public <T> T inTransaction(Function<UserDao, T> work) {
+        return TransactionRunner.inTransaction(session -> work.apply(this));
+    }
+
+    @Override
+    public <T> T inReadOnlyTransaction(Function<UserDao, T> work) {
+        return TransactionRunner.readOnly(session -> work.apply(this));
+    }
+
     @Override
     public void save(User user) {
-        log.info("Начато сохранение пользователя: name={}, email={}, age={}",
+        log.debug("Начато сохранение пользователя: name={}, email={}, age={}",
                 user.getName(), user.getEmail(), user.getAge());
 
-        Transaction tx = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            tx = session.beginTransaction();
+        try {
+            TransactionRunner.inTransaction(session -> {
+                session.persist(user);
+                return null;
+            });
+            log.debug("Пользователь успешно сохранен: id={}", user.getId());
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при сохранении пользователя", ex);
+            throw ex;
+        }
+    }
 
-            session.persist(user);
+    @Override
+    public void saveAll(Collection<User> users) {
+        log.debug("Начато пакетное сохранение пользователей: количество={}, размер пакета={}",
+                users.size(), batchSize);
 
-            tx.commit();
-            log.info("Пользователь успешно сохранен: id={}", user.getId());
-        } catch (Exception ex) {
-            if (tx != null) {
-                tx.rollback();
-                log.info("Выполнен откат транзакции при сохранении пользователя");
-            }
-            log.error("Ошибка при сохранении пользователя", ex);
+        try {
+            int count = TransactionRunner.inTransaction(session -> {
+                Integer previousBatchSize = session.getJdbcBatchSize();
+                session.setJdbcBatchSize(batchSize);
+                try {
+                    List<User> batch = new ArrayList<>(batchSize);
+                    for (User user : users) {
+                        session.persist(user);
+                        batch.add(user);
+                        // Отправляем пакет и отсоединяем его, чтобы контекст не рос вместе с объемом импорта;
+                        // clear() здесь не подходит: он отсоединил бы и сущности внешней единицы работы
+                        if (batch.size() == batchSize) {
+                            session.flush();
+                            batch.forEach(session::detach);
+                            batch.clear();
+                        }
+                    }
+                    return users.size();
+                } finally {
+                    session.setJdbcBatchSize(previousBatchSize);
+                }
+            });
+            log.debug("Пакетное сохранение завершено: сохранено={}", count);
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при пакетном сохранении пользователей", ex);
             throw ex;
         }
     }
 
     @Override
-    public Optional<User> findById(Long id) {
-        log.info("Поиск пользователя по id={}", id);
+    public UpsertResult upsertByEmail(User user) {
+        log.debug("Upsert пользователя по email={}", user.getEmail());
+
+        try {
+            UpsertResult result = upsert(List.of(user)).get(0);
+            log.debug("Upsert выполнен: id={}, результат={}", result.user().getId(), result.outcome());
+            return result;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при upsert пользователя с email " + user.getEmail(), ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<UpsertResult> upsertAllByEmail(Collection<User> users) {
+        log.debug("Пакетный upsert пользователей: количество={}, размер пакета={}", users.size(), batchSize);
+
+        try {
+            List<UpsertResult> results = upsert(users);
+            log.debug("Пакетный upsert завершен: вставлено={}",
+                    results.stream().filter(UpsertResult::inserted).count());
+            return results;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при пакетном upsert пользователей", ex);
+            throw ex;
+        }
+    }
+
+    private List<UpsertResult> upsert(Collection<User> users) {
+        // Один email дважды в одном INSERT ... ON CONFLICT PostgreSQL не принимает: остается последний
+        Map<String, User> lastByEmail = new LinkedHashMap<>();
+        for (User user : users) {
+            if (user.getEmail() == null) {
+                throw new IllegalArgumentException("Для upsert нужен email");
+            }
+            lastByEmail.put(user.getEmail(), user);
+        }
+        boolean joined = TransactionRunner.isActive();
+        Map<String, UpsertResult> byEmail = TransactionRunner.inTransaction(session -> {
+            List<User> distinct = new ArrayList<>(lastByEmail.values());
+            Map<String, UpsertResult> results = new HashMap<>();
+            for (int from = 0; from < distinct.size(); from += batchSize) {
+                upsertBatch(session, distinct.subList(from, Math.min(distinct.size(), from + batchSize)), joined)
+                        .forEach(result -> results.put(result.user().getEmail(), result));
+            }
+            return results;
+        });
+        return users.stream().map(user -> byEmail.get(user.getEmail())).toList();
+    }
+
+    private static List<UpsertResult> upsertBatch(Session session, List<User> users, boolean joined) {
+        SharedSessionContractImplementor sessionImpl = session.unwrap(SharedSessionContractImplementor.class);
+        EntityPersister persister = sessionImpl.getFactory().getMappingMetamodel().getEntityDescriptor(User.class);
+        // id из того же pooled-оптимизатора, что и у persist; у обновленных строк он остается неиспользованным
+        BeforeExecutionGenerator idGenerator = (BeforeExecutionGenerator) persister.getGenerator();
+        Long[] ids = new Long[users.size()];
+        String[] names = new String[users.size()];
+        String[] emails = new String[users.size()];
+        Integer[] ages = new Integer[users.size()];
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            ids[i] = (Long) idGenerator.generate(sessionImpl, null, null, EventType.INSERT);
+            names[i] = user.getName();
+            emails[i] = user.getEmail();
+            ages[i] = user.getAge();
+        }
+
+        List<Object[]> rows = session.createNativeQuery(UPSERT_SQL, Object[].class)
+                .setParameter("ids", ids, Long[].class)
+                .setParameter("names", names, String[].class)
+                .setParameter("emails", emails, String[].class)
+                .setParameter("ages", ages, Integer[].class)
+                // Время JVM, как у @CreationTimestamp и @UpdateTimestamp при persist
+                .setParameter("now", now())
+                .addScalar("id", Long.class)
+                .addScalar("name", String.class)
+                .addScalar("email", String.class)
+                .addScalar("age", Integer.class)
+                .addScalar("created_at", LocalDateTime.class)
+                .addScalar("updated_at", LocalDateTime.class)
+                .addScalar("version", Long.class)
+                .addScalar("outcome", String.class)
+                .addSynchronizedEntityClass(User.class)
+                .getResultList();
 
-        Transaction tx = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            tx = session.beginTransaction();
+        List<UpsertResult> results = new ArrayList<>(users.size());
+        Set<Long> updatedIds = new HashSet<>();
+        Set<String> found = new HashSet<>();
+        for (Object[] row : rows) {
+            User user = userOf(row);
+            UpsertResult.Outcome outcome = UpsertResult.Outcome.valueOf((String) row[7]);
+            results.add(new UpsertResult(user, outcome));
+            found.add(user.getEmail());
+            if (outcome == UpsertResult.Outcome.UPDATED) {
+                updatedIds.add(user.getId());
+            }
+        }
+        // Строку без изменений, вставленную параллельной транзакцией уже после начала выражения,
+        // UNION не видит (снимок выражения), а следующий запрос уже видит
+        if (found.size() < users.size()) {
+            List<String> missing = users.stream().map(User::getEmail).filter(email -> !found.contains(email)).toList();
+            session.createQuery(FIND_BY_EMAILS_HQL, User.class)
+                    .setParameter("emails", missing)
+                    .setCacheMode(CacheMode.IGNORE)
+                    .getResultList()
+                    .forEach(user -> results.add(new UpsertResult(new User(user), UpsertResult.Outcome.UNCHANGED)));
+        }
 
-            User user = session.get(User.class, id);
+        // Во внешней единице работы строка могла быть загружена до upsert, который минует контекст сессии
+        if (joined) {
+            refreshManaged(session, updatedIds);
+        }
+        // Email upsert не меняет: записи кеша по email остаются верными
+        evictAfterCommit(session, updatedIds, Set.of());
+        return results;
+    }
 
-            tx.commit();
+    // Объект строки id, если он уже загружен в сессию, иначе null
+    private static User managed(Session session, Long id) {
+        SharedSessionContractImplementor sessionImpl = session.unwrap(SharedSessionContractImplementor.class);
+        EntityPersister persister = sessionImpl.getFactory().getMappingMetamodel().getEntityDescriptor(User.class);
+        return (User) sessionImpl.getPersistenceContextInternal().getEntity(sessionImpl.generateEntityKey(id, persister));
+    }
 
+    private static void refreshManaged(Session session, Collection<Long> ids) {
+        for (Long id : ids) {
+            User managed = managed(session, id);
+            if (managed != null) {
+                session.refresh(managed);
+            }
+        }
+    }
+
+    // Строка из первых семи колонок результата: id, name, email, age, created_at, updated_at, version
+    private static User userOf(Object[] row) {
+        User user = new User((String) row[1], (String) row[2], (Integer) row[3]);
+        user.setId((Long) row[0]);
+        user.setCreatedAt((LocalDateTime) row[4]);
+        user.setUpdatedAt((LocalDateTime) row[5]);
+        user.setVersion((Long) row[6]);
+        return user;
+    }
+
+    // Кеш второго уровня не знает о native SQL: записи измененных строк по id и по прежним и новым email
+    // убираются из него после фиксации, чтобы параллельное чтение до фиксации не положило туда старую версию снова
+    private static void evictAfterCommit(Session session, Collection<Long> ids, Collection<String> emails) {
+        if (ids.isEmpty() && emails.isEmpty()) {
+            return;
+        }
+        SharedSessionContractImplementor sessionImpl = session.unwrap(SharedSessionContractImplementor.class);
+        EntityPersister persister = sessionImpl.getFactory().getMappingMetamodel().getEntityDescriptor(User.class);
+        NaturalIdDataAccess naturalIdCache = persister.getNaturalIdMapping().getCacheAccess();
+        // Ключи строятся сейчас: после завершения транзакции сессия может быть уже закрыта
+        List<Object> naturalIdKeys = naturalIdCache == null ? List.of() : emails.stream()
+                .map(email -> naturalIdCache.generateCacheKey(email, persister, sessionImpl))
+                .toList();
+        SessionFactory sessionFactory = session.getSessionFactory();
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    ids.forEach(id -> sessionFactory.getCache().evictEntityData(User.class, id));
+                    naturalIdKeys.forEach(naturalIdCache::evict);
+                }
+            }
+        });
+    }
+
+    @Override
+    public Optional<User> findById(Long id) {
+        log.debug("Поиск пользователя по id={}", id);
+
+        try {
+            User user = TransactionRunner.readOnly(session -> session.get(User.class, id));
             if (user != null) {
-                log.info("Пользователь найден: id={}, email={}", user.getId(), user.getEmail());
+                log.debug("Пользователь найден: id={}, email={}", user.getId(), user.getEmail());
             } else {
-                log.info("Пользователь с id={} не найден", id);
+                log.debug("Пользователь с id={} не найден", id);
             }
-
             return Optional.ofNullable(user);
-        } catch (Exception ex) {
-            if (tx != null) {
-                tx.rollback();
-                log.info("Выполнен откат транзакции при поиске пользователя по id={}", id);
-            }
+        } catch (RuntimeException ex) {
             log.error("Ошибка при поиске пользователя по id {}", id, ex);
             throw ex;
         }
     }
 
     @Override
-    public List<User> findAll() {
-        log.info("Запрос на получение всех пользователей");
+    public Optional<User> findByEmail(String email) {
+        log.debug("Поиск пользователя по email={}", email);
+
+        try {
+            Optional<User> user = TransactionRunner.readOnly(
+                    session -> session.bySimpleNaturalId(User.class).loadOptional(email));
+            log.debug("Результат поиска по email={}: {}", email, user.isPresent() ? "найден" : "не найден");
+            return user;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при поиске пользователя по email {}", email, ex);
+            throw ex;
+        }
+    }
 
-        Transaction tx = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            tx = session.beginTransaction();
+    @Override
+    public Optional<User> findByEmailIgnoreCase(String email) {
+        log.debug("Поиск пользователя по email без учета регистра: {}", email);
 
-            Query<User> query = session.createQuery("from User", User.class);
-            List<User> result = query.getResultList();
+        try {
+            Optional<User> user = TransactionRunner.readOnly(session ->
+                    session.createQuery(FIND_BY_EMAIL_IGNORE_CASE_HQL, User.class)
+                            .setParameter("email", email)
+                            .setMaxResults(1)
+                            .uniqueResultOptional());
+            log.debug("Результат поиска по email={} без учета регистра: {}", email,
+                    user.isPresent() ? "найден" : "не найден");
+            return user;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при поиске пользователя по email {} без учета регистра", email, ex);
+            throw ex;
+        }
+    }
 
-            tx.commit();
+    @Override
+    public boolean existsByEmail(String email) {
+        log.debug("Проверка существования пользователя с email={}", email);
 
-            log.info("Получен список пользователей: количество={}", result.size());
+        try {
+            // getReference разрешает только natural id -> id (из кеша, если есть) и не загружает сущность
+            return TransactionRunner.readOnly(
+                    session -> session.bySimpleNaturalId(User.class).getReference(email) != null);
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при проверке существования пользователя с email {}", email, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<User> findAll() {
+        log.debug("Запрос на получение всех пользователей");
+
+        try {
+            List<User> result = TransactionRunner.readOnly(
+                    session -> session.createQuery(FIND_ALL_HQL, User.class).getResultList());
+            log.debug("Получен список пользователей: количество={}", result.size());
             return result;
-        } catch (Exception ex) {
-            if (tx != null) {
-                tx.rollback();
-                log.info("Выполнен откат транзакции при получении списка пользователей");
-            }
+        } catch (RuntimeException ex) {
             log.error("Ошибка при получении списка пользователей", ex);
             throw ex;
         }
     }
 
     @Override
-    public void update(User user) {
-        log.info("Обновление пользователя: id={}, name={}, email={}, age={}",
-                user.getId(), user.getName(), user.getEmail(), user.getAge());
+    public Stream<User> streamAll() {
+        log.debug("Потоковое чтение всех пользователей: fetchSize={}", fetchSize);
 
-        Transaction tx = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            tx = session.beginTransaction();
+        // Ошибка при чтении уже открытого потока не переключает на основную БД: часть строк отдана
+        return readFromReplica(sessionFactory -> {
+            // StatelessSession не держит прочитанные сущности в контексте персистентности,
+            // а транзакция нужна PostgreSQL, чтобы fetchSize работал через серверный курсор
+            StatelessSession session = sessionFactory.openStatelessSession();
+            Transaction tx = null;
+            try {
+                tx = session.beginTransaction();
+                Transaction streamTx = tx;
 
-            session.merge(user);
-
-            tx.commit();
-            log.info("Пользователь успешно обновлен: id={}", user.getId());
-        } catch (Exception ex) {
-            if (tx != null) {
-                tx.rollback();
-                log.info("Выполнен откат транзакции при обновлении пользователя id={}", user.getId());
+                return session.createQuery(STREAM_ALL_HQL, User.class)
+                        .setFetchSize(fetchSize)
+                        .getResultStream()
+                        .onClose(() -> {
+                            try {
+                                if (streamTx.isActive()) {
+                                    streamTx.commit();
+                                }
+                            } finally {
+                                session.close();
+                                log.debug("Потоковое чтение пользователей завершено");
+                            }
+                        });
+            } catch (Exception ex) {
+                if (tx != null) {
+                    tx.rollback();
+                    log.info("Выполнен откат транзакции при потоковом чтении пользователей");
+                }
+                session.close();
+                log.error("Ошибка при потоковом чтении пользователей", ex);
+                throw ex;
             }
+        });
+    }
+
+    @Override
+    public List<User> findPage(Long afterId, int limit) {
+        log.debug("Запрос страницы пользователей: afterId={}, limit={}", afterId, limit);
+
+        try {
+            // id генерируются последовательностью и всегда положительны
+            List<User> page = TransactionRunner.readOnly(session ->
+                    session.createQuery(FIND_PAGE_HQL, User.class)
+                            .setParameter("afterId", afterId != null ? afterId : 0L)
+                            .setMaxResults(limit)
+                            .getResultList());
+            log.debug("Получена страница пользователей: количество={}", page.size());
+            return page;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при получении страницы пользователей после id={}", afterId, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<UserSummary> findAllSummaries() {
+        log.debug("Запрос краткого списка всех пользователей");
+
+        try {
+            List<UserSummary> result = TransactionRunner.readOnly(
+                    session -> session.createQuery(FIND_ALL_SUMMARIES_HQL, UserSummary.class).getResultList());
+            log.debug("Получен краткий список пользователей: количество={}", result.size());
+            return result;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при получении краткого списка пользователей", ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<UserSummary> findSummaryPage(Long afterId, int limit) {
+        log.debug("Запрос краткой страницы пользователей: afterId={}, limit={}", afterId, limit);
+
+        try {
+            List<UserSummary> page = TransactionRunner.readOnly(session ->
+                    session.createQuery(FIND_SUMMARY_PAGE_HQL, UserSummary.class)
+                            .setParameter("afterId", afterId != null ? afterId : 0L)
+                            .setMaxResults(limit)
+                            .getResultList());
+            log.debug("Получена краткая страница пользователей: количество={}", page.size());
+            return page;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при получении краткой страницы пользователей после id={}", afterId, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public UserSearchResult search(UserQuery query) {
+        log.debug("Поиск пользователей: {}", query);
+
+        try {
+            UserSearchResult result = TransactionRunner.readOnly(session -> search(session, query, List.of()));
+            log.debug("Найдено пользователей: {} из {}", result.users().size(), result.totalCount());
+            return result;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при поиске пользователей: {}", query, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Поиск в сессии вызывающего: общий для UserDaoImpl и шардов ShardedUserDao.
+     *
+     * @param hiddenBuckets корзины {@link ShardMap}, строки которых поиск не видит; пустой у UserDaoImpl
+     */
+    static UserSearchResult search(Session session, UserQuery query, List<Integer> hiddenBuckets) {
+        CriteriaBuilder cb = session.getCriteriaBuilder();
+
+        CriteriaQuery<User> select = cb.createQuery(User.class);
+        Root<User> user = select.from(User.class);
+        List<Predicate> where = filters(cb, user, query, hiddenBuckets);
+        if (query.afterId() != null) {
+            Path<Long> id = user.get("id");
+            where.add(query.descending() ? cb.lessThan(id, query.afterId()) : cb.greaterThan(id, query.afterId()));
+        }
+        select.where(where.toArray(Predicate[]::new)).orderBy(ordering(cb, user, query));
+        List<User> users = session.createQuery(select)
+                .setFirstResult(query.offset())
+                .setMaxResults(query.limit())
+                .getResultList();
+
+        // Неполная непустая страница без курсора - последняя: общее число известно без COUNT
+        if (query.afterId() == null && users.size() < query.limit() && (!users.isEmpty() || query.offset() == 0)) {
+            return new UserSearchResult(users, query.offset() + users.size());
+        }
+        CriteriaQuery<Long> count = cb.createQuery(Long.class);
+        Root<User> counted = count.from(User.class);
+        count.select(cb.count(counted)).where(filters(cb, counted, query, hiddenBuckets).toArray(Predicate[]::new));
+        return new UserSearchResult(users, session.createQuery(count).getSingleResult());
+    }
+
+    private static List<Predicate> filters(CriteriaBuilder cb, Root<User> user, UserQuery query,
+                                           List<Integer> hiddenBuckets) {
+        List<Predicate> filters = new ArrayList<>();
+        if (!hiddenBuckets.isEmpty()) {
+            filters.add(cb.not(cb.function("mod", Integer.class, user.get("id"), cb.literal(ShardMap.BUCKETS))
+                    .in(hiddenBuckets)));
+        }
+        if (query.minAge() != null) {
+            filters.add(cb.greaterThanOrEqualTo(user.get("age"), query.minAge()));
+        }
+        if (query.maxAge() != null) {
+            filters.add(cb.lessThanOrEqualTo(user.get("age"), query.maxAge()));
+        }
+        if (query.namePrefix() != null) {
+            // lower(name) like 'префикс%' использует индекс users_name_lower_pattern_idx (text_pattern_ops)
+            filters.add(cb.like(cb.lower(user.get("name")),
+                    escapeLike(query.namePrefix().toLowerCase(Locale.ROOT)) + "%", LIKE_ESCAPE));
+        }
+        if (query.emailDomain() != null) {
+            // Совпадение по окончанию индексом не обслуживается
+            filters.add(cb.like(cb.lower(user.get("email")),
+                    "%@" + escapeLike(query.emailDomain().toLowerCase(Locale.ROOT)), LIKE_ESCAPE));
+        }
+        if (query.createdFrom() != null) {
+            filters.add(cb.greaterThanOrEqualTo(user.get("createdAt"), query.createdFrom()));
+        }
+        if (query.createdBefore() != null) {
+            filters.add(cb.lessThan(user.get("createdAt"), query.createdBefore()));
+        }
+        return filters;
+    }
+
+    // id вторым ключом делает порядок однозначным при равных значениях
+    private static List<Order> ordering(CriteriaBuilder cb, Root<User> user, UserQuery query) {
+        String field = switch (query.sortBy()) {
+            case ID -> "id";
+            case NAME -> "name";
+            case AGE -> "age";
+            case CREATED_AT -> "createdAt";
+        };
+        List<Order> ordering = new ArrayList<>(2);
+        for (String attribute : field.equals("id") ? List.of("id") : List.of(field, "id")) {
+            ordering.add(query.descending() ? cb.desc(user.get(attribute)) : cb.asc(user.get(attribute)));
+        }
+        return ordering;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    @Override
+    public UserChangePage findChangedSince(ChangeCursor after, int limit) {
+        log.debug("Чтение ленты изменений: после {}, limit={}", after, limit);
+
+        try {
+            UserChangePage page = TransactionRunner.readOnly(
+                    session -> findChangedSince(session, after, settledAt(changeFeedLag), limit, List.of()));
+            log.debug("Прочитана порция ленты изменений: количество={}, курсор={}", page.changes().size(), page.cursor());
+            return page;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при чтении ленты изменений после {}", after, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Граница ленты изменений: время записи ставится до фиксации транзакции, поэтому изменение моложе
+     * {@code lag} может еще зафиксироваться позади курсора. Такие изменения лента отдает позже, когда они
+     * станут старше границы. {@code lag} покрывает и расхождение часов процессов, пишущих в одну БД.
+     */
+    static LocalDateTime settledAt(Duration lag) {
+        return LocalDateTime.now().minus(lag);
+    }
+
+    /**
+     * @param settled       изменения позже этого времени лента не отдает, см. {@link #settledAt}
+     * @param hiddenBuckets корзины {@link ShardMap}, строки которых лента не видит; пустой у UserDaoImpl
+     */
+    static UserChangePage findChangedSince(Session session, ChangeCursor after, LocalDateTime settled, int limit,
+                                           List<Integer> hiddenBuckets) {
+        boolean sharded = !hiddenBuckets.isEmpty();
+        // По limit из каждой таблицы: первые limit изменений ленты среди них
+        Query<User> users = session.createQuery(after == null
+                ? (sharded ? SHARD_CHANGED_USERS_HQL : CHANGED_USERS_HQL)
+                : (sharded ? SHARD_CHANGED_USERS_AFTER_HQL : CHANGED_USERS_AFTER_HQL), User.class);
+        Query<UserTombstone> tombstones = session.createQuery(after == null
+                ? (sharded ? SHARD_TOMBSTONES_HQL : TOMBSTONES_HQL)
+                : (sharded ? SHARD_TOMBSTONES_AFTER_HQL : TOMBSTONES_AFTER_HQL), UserTombstone.class);
+        users.setParameter("settled", settled);
+        tombstones.setParameter("settled", settled);
+        if (sharded) {
+            users.setParameterList("hiddenBuckets", hiddenBuckets);
+            tombstones.setParameterList("hiddenBuckets", hiddenBuckets);
+        }
+        if (after != null) {
+            users.setParameter("changedAt", after.changedAt()).setParameter("id", after.id());
+            tombstones.setParameter("changedAt", after.changedAt()).setParameter("id", after.id());
+        }
+        List<UserChange> changes = new ArrayList<>();
+        users.setMaxResults(limit).getResultList().forEach(user -> changes.add(UserChange.upsert(user)));
+        tombstones.setMaxResults(limit).getResultList().forEach(
+                tombstone -> changes.add(UserChange.delete(tombstone.getId(), tombstone.getDeletedAt())));
+        changes.sort(Comparator.comparing(UserChange::cursor));
+        return UserChangePage.first(changes, after, limit);
+    }
+
+    @Override
+    public void update(User user) {
+        log.debug("Обновление пользователя: id={}, name={}, email={}, age={}",
+                user.getId(), user.getName(), user.getEmail(), user.getAge());
+
+        try {
+            Long version = TransactionRunner.inTransaction(session -> {
+                // merge сравнивает версию объекта с текущей версией строки: устаревший объект
+                // дает OptimisticLockException, а не молча затирает чужое изменение
+                User merged = session.merge(user);
+                // Версия увеличивается при flush; внутри единицы работы он иначе произошел бы позже
+                session.flush();
+                return merged.getVersion();
+            });
+            user.setVersion(version);
+            log.debug("Пользователь успешно обновлен: id={}", user.getId());
+        } catch (RuntimeException ex) {
             log.error("Ошибка при обновлении пользователя", ex);
             throw ex;
         }
     }
 
     @Override
-    public void deleteById(Long id) {
-        log.info("Удаление пользователя по id={}", id);
+    public Optional<User> patch(UserPatch patch) {
+        log.debug("Частичное обновление пользователя: id={}, name={}, email={}, age={}",
+                patch.id(), patch.name(), patch.email(), patch.age());
 
-        Transaction tx = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            tx = session.beginTransaction();
+        boolean joined = TransactionRunner.isActive();
+        try {
+            User user = TransactionRunner.inTransaction(session -> patchRow(session, patch, joined));
 
-            User user = session.get(User.class, id);
             if (user != null) {
-                session.remove(user);
-                log.info("Пользователь найден и удален: id={}", id);
+                log.debug("Пользователь частично обновлен: id={}", user.getId());
             } else {
-                log.info("Пользователь с id={} не найден, удаление не выполнено", id);
+                log.debug("Пользователь с id={} не найден, обновление не выполнено", patch.id());
+            }
+            return Optional.ofNullable(user);
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при частичном обновлении пользователя id={}", patch.id(), ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Optional<User>> patchAll(List<UserPatch> patches) {
+        log.debug("Пакетное частичное обновление пользователей: количество={}", patches.size());
+
+        boolean joined = TransactionRunner.isActive();
+        try {
+            Map<Long, User> users = TransactionRunner.inTransaction(session -> {
+                Map<Long, User> found = new HashMap<>();
+                // UPDATE в порядке patches: email, освобожденный одним patch, может занять следующий;
+                // повтор id перезаписывает результат итоговым состоянием строки
+                for (UserPatch patch : patches) {
+                    User user = patchRow(session, patch, joined);
+                    if (user != null) {
+                        found.put(patch.id(), user);
+                    }
+                }
+                return found;
+            });
+            log.debug("Пакетное частичное обновление завершено: найдено={}", users.size());
+
+            List<Optional<User>> result = new ArrayList<>(patches.size());
+            for (UserPatch patch : patches) {
+                result.add(Optional.ofNullable(users.get(patch.id())));
             }
+            return result;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при пакетном частичном обновлении пользователей", ex);
+            throw ex;
+        }
+    }
 
-            tx.commit();
-            log.info("Транзакция удаления пользователя id={} успешно завершена", id);
-        } catch (Exception ex) {
-            if (tx != null) {
-                tx.rollback();
-                log.info("Выполнен откат транзакции при удалении пользователя id={}", id);
+    // Пустой patch только читает строку и версию не увеличивает
+    private static User patchRow(Session session, UserPatch patch, boolean joined) {
+        if (patch.isEmpty()) {
+            return session.get(User.class, patch.id());
+        }
+        if (!isPostgreSql(session)) {
+            return patchWithHql(session, patch, joined);
+        }
+        // Во внешней единице работы строка могла быть загружена до UPDATE, который минует контекст сессии
+        User managed = joined ? managed(session, patch.id()) : null;
+        Long expectedVersion = null;
+        if (managed != null) {
+            // Несохраненные изменения объекта увеличивают версию при flush
+            session.flush();
+            expectedVersion = managed.getVersion();
+        }
+        List<Object[]> rows = session.createNativeQuery(PATCH_SQL, Object[].class)
+                .setParameter("id", patch.id())
+                .setParameter("name", patch.name(), String.class)
+                .setParameter("email", patch.email(), String.class)
+                .setParameter("age", patch.age(), Integer.class)
+                .setParameter("expectedVersion", expectedVersion, Long.class)
+                .setParameter("now", now())
+                .addScalar("id", Long.class)
+                .addScalar("name", String.class)
+                .addScalar("email", String.class)
+                .addScalar("age", Integer.class)
+                .addScalar("created_at", LocalDateTime.class)
+                .addScalar("updated_at", LocalDateTime.class)
+                .addScalar("version", Long.class)
+                .addScalar("old_email", String.class)
+                .addSynchronizedEntityClass(User.class)
+                .getResultList();
+        if (rows.isEmpty()) {
+            // Прочитанную строку с тех пор изменили или удалили: RetryPolicy повторит единицу работы целиком
+            if (expectedVersion != null) {
+                throw new StaleObjectStateException(User.class.getName(), patch.id());
             }
+            return null;
+        }
+        Object[] row = rows.get(0);
+        User user = userOf(row);
+        String oldEmail = (String) row[7];
+        evictAfterCommit(session, Set.of(user.getId()),
+                oldEmail.equals(user.getEmail()) ? Set.of() : Set.of(oldEmail, user.getEmail()));
+        if (managed != null) {
+            session.refresh(managed);
+            return managed;
+        }
+        return user;
+    }
+
+    // Для БД без UPDATE ... RETURNING (встроенная H2 бенчмарков): HQL UPDATE и чтение строки мимо кеша,
+    // который до фиксации еще хранит прежнюю версию
+    private static User patchWithHql(Session session, UserPatch patch, boolean joined) {
+        if (createPatchQuery(session, patch).executeUpdate() == 0) {
+            return null;
+        }
+        CacheMode previousCacheMode = session.getCacheMode();
+        session.setCacheMode(CacheMode.IGNORE);
+        try {
+            User loaded = session.get(User.class, patch.id());
+            if (joined) {
+                session.refresh(loaded);
+            }
+            return loaded;
+        } finally {
+            session.setCacheMode(previousCacheMode);
+        }
+    }
+
+    // Native-выражения с RETURNING, массивами и CTE с изменением данных есть только у PostgreSQL
+    private static boolean isPostgreSql(Session session) {
+        return session.getSessionFactory().unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect()
+                instanceof PostgreSQLDialect;
+    }
+
+    @Override
+    public int updateAll(Collection<UserPatch> patches) {
+        log.debug("Пакетное обновление пользователей по id: количество={}", patches.size());
+
+        boolean joined = TransactionRunner.isActive();
+        try {
+            List<UserPatch> merged = UserPatch.mergeById(patches);
+            int updated = 0;
+            for (int from = 0; from < merged.size(); from += MUTATION_CHUNK_SIZE) {
+                List<UserPatch> chunk = merged.subList(from, Math.min(merged.size(), from + MUTATION_CHUNK_SIZE));
+                updated += TransactionRunner.inTransaction(session -> updateChunk(session, chunk, joined));
+            }
+            log.debug("Пакетное обновление по id завершено: изменено={}", updated);
+            return updated;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при пакетном обновлении пользователей по id", ex);
+            throw ex;
+        }
+    }
+
+    // Массивы вместо IN-списка: один текст запроса для порции любого размера и без предела числа параметров.
+    // Выражение выполняется как запрос, а не executeUpdate: изменяющий native SQL Hibernate сопровождает очисткой
+    // регионов кеша User целиком, а RETURNING дает id и прежние email, по которым убираются только записи этих строк
+    private static int updateChunk(Session session, List<UserPatch> patches, boolean joined) {
+        Long[] ids = new Long[patches.size()];
+        String[] names = new String[patches.size()];
+        String[] emails = new String[patches.size()];
+        Integer[] ages = new Integer[patches.size()];
+        for (int i = 0; i < patches.size(); i++) {
+            UserPatch patch = patches.get(i);
+            ids[i] = patch.id();
+            names[i] = patch.name();
+            emails[i] = patch.email();
+            ages[i] = patch.age();
+        }
+        List<Object[]> rows = session.createNativeQuery(UPDATE_ALL_SQL, Object[].class)
+                .setParameter("ids", ids, Long[].class)
+                .setParameter("names", names, String[].class)
+                .setParameter("emails", emails, String[].class)
+                .setParameter("ages", ages, Integer[].class)
+                .setParameter("now", now())
+                .addScalar("id", Long.class)
+                .addScalar("old_email", String.class)
+                .addScalar("email", String.class)
+                .addSynchronizedEntityClass(User.class)
+                .getResultList();
+        Set<Long> updatedIds = new HashSet<>();
+        Set<String> changedEmails = new HashSet<>();
+        for (Object[] row : rows) {
+            updatedIds.add((Long) row[0]);
+            if (!row[1].equals(row[2])) {
+                changedEmails.add((String) row[1]);
+                changedEmails.add((String) row[2]);
+            }
+        }
+        if (joined) {
+            refreshManaged(session, updatedIds);
+        }
+        evictAfterCommit(session, updatedIds, changedEmails);
+        return rows.size();
+    }
+
+    /**
+     * Чтение через реплику; если она не выдала соединение, реплика временно исключается,
+     * а чтение повторяется на следующей доступной реплике или на основной БД.
+     */
+    private static <T> T readFromReplica(Function<SessionFactory, T> read) {
+        SessionFactory sessionFactory = HibernateUtil.getReadSessionFactory();
+        while (true) {
+            try {
+                return read.apply(sessionFactory);
+            } catch (JDBCConnectionException ex) {
+                // Каждая неудача исключает одну реплику, поэтому цикл заканчивается на основной БД
+                if (!HibernateUtil.reportReadFailure(sessionFactory)) {
+                    throw ex;
+                }
+                sessionFactory = HibernateUtil.getReadSessionFactory();
+            }
+        }
+    }
+
+    static MutationQuery createPatchQuery(Session session, UserPatch patch) {
+        MutationQuery query = session.createMutationQuery(
+                        patchHql(patch.name() != null, patch.email() != null, patch.age() != null))
+                .setParameter("id", patch.id())
+                .setParameter("updatedAt", now());
+        if (patch.name() != null) {
+            query.setParameter("name", patch.name());
+        }
+        if (patch.email() != null) {
+            query.setParameter("email", patch.email());
+        }
+        if (patch.age() != null) {
+            query.setParameter("age", patch.age());
+        }
+        return query;
+    }
+
+    private static String patchHql(boolean name, boolean email, boolean age) {
+        StringJoiner assignments = new StringJoiner(", ");
+        assignments.add("u.updatedAt = :updatedAt");
+        if (name) {
+            assignments.add("u.name = :name");
+        }
+        if (email) {
+            assignments.add("u.email = :email");
+        }
+        if (age) {
+            assignments.add("u.age = :age");
+        }
+        // versioned увеличивает версию: объекты, прочитанные до patch, больше не пройдут проверку в update
+        return "update versioned User u set " + assignments + " where u.id = :id";
+    }
+
+    // Точность timestamp(6): значение в объекте совпадает с тем, что вернет БД
+    static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+    }
+
+    /**
+     * Разбирает HQL всех запросов DAO, не выполняя их: разобранные запросы попадают в кеш планов
+     * SessionFactory, и первые обращения после запуска не тратят время на разбор.
+     * Предназначен для {@link HibernateUtil#bootstrapAsync}.
+     */
+    public static void warmUp(SessionFactory sessionFactory) {
+        Session session = sessionFactory.openSession();
+        try {
+            int queries = 0;
+            for (String hql : List.of(FIND_BY_EMAIL_IGNORE_CASE_HQL, FIND_ALL_HQL, STREAM_ALL_HQL,
+                    FIND_PAGE_HQL, FIND_BY_IDS_HQL, FIND_BY_EMAILS_HQL)) {
+                session.createQuery(hql, User.class);
+                queries++;
+            }
+            for (String hql : List.of(FIND_ALL_SUMMARIES_HQL, FIND_SUMMARY_PAGE_HQL)) {
+                session.createQuery(hql, UserSummary.class);
+                queries++;
+            }
+            for (String hql : List.of(CHANGED_USERS_HQL, CHANGED_USERS_AFTER_HQL)) {
+                session.createQuery(hql, User.class);
+                queries++;
+            }
+            for (String hql : List.of(TOMBSTONES_HQL, TOMBSTONES_AFTER_HQL)) {
+                session.createQuery(hql, UserTombstone.class);
+                queries++;
+            }
+            session.createMutationQuery(DELETE_BY_ID_HQL);
+            queries++;
+            // Все непустые сочетания полей patch
+            for (int fields = 1; fields < 8; fields++) {
+                session.createMutationQuery(patchHql((fields & 1) != 0, (fields & 2) != 0, (fields & 4) != 0));
+                queries++;
+            }
+            log.debug("Запросы DAO разобраны заранее: {}", queries);
+        } finally {
+            session.close();
+        }
+    }
+
+    @Override
+    public boolean deleteById(Long id) {
+        log.debug("Удаление пользователя по id={}", id);
+
+        boolean joined = TransactionRunner.isActive();
+        try {
+            // DELETE с отметкой одним выражением, как порция deleteAllById
+            boolean deleted = TransactionRunner.inTransaction(session -> isPostgreSql(session)
+                    ? deleteChunk(session, new Long[]{id}, joined) > 0
+                    : deleteWithHql(session, id));
+            if (deleted) {
+                log.debug("Пользователь найден и удален: id={}", id);
+            } else {
+                log.debug("Пользователь с id={} не найден, удаление не выполнено", id);
+            }
+            return deleted;
+        } catch (RuntimeException ex) {
             log.error("Ошибка при удалении пользователя с id " + id, ex);
             throw ex;
         }
     }
+
+    @Override
+    public int deleteAllById(Collection<Long> ids) {
+        log.debug("Пакетное удаление пользователей по id: количество={}", ids.size());
+
+        boolean joined = TransactionRunner.isActive();
+        try {
+            List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+            int deleted = 0;
+            for (int from = 0; from < distinct.size(); from += MUTATION_CHUNK_SIZE) {
+                Long[] chunk = distinct.subList(from, Math.min(distinct.size(), from + MUTATION_CHUNK_SIZE))
+                        .toArray(Long[]::new);
+                deleted += TransactionRunner.inTransaction(session -> deleteChunk(session, chunk, joined));
+            }
+            log.debug("Пакетное удаление по id завершено: удалено={}", deleted);
+            return deleted;
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при пакетном удалении пользователей по id", ex);
+            throw ex;
+        }
+    }
+
+    // Для БД без CTE с изменением данных: HQL DELETE, затем отметка. Параллельное удаление того же id ждет
+    // блокировку строки и удаляет 0 строк, поэтому вторую отметку не вставляет
+    private static boolean deleteWithHql(Session session, Long id) {
+        int count = session.createMutationQuery(DELETE_BY_ID_HQL)
+                .setParameter("id", id)
+                .executeUpdate();
+        if (count > 0) {
+            session.persist(new UserTombstone(id, now()));
+        }
+        return count > 0;
+    }
+
+    // Запрос, а не executeUpdate, как в updateChunk: из кеша второго уровня уходят только удаленные строки
+    private static int deleteChunk(Session session, Long[] ids, boolean joined) {
+        List<Object[]> rows = session.createNativeQuery(DELETE_ALL_SQL, Object[].class)
+                .setParameter("ids", ids, Long[].class)
+                .setParameter("now", now())
+                .addScalar("id", Long.class)
+                .addScalar("email", String.class)
+                .addSynchronizedEntityClass(User.class)
+                .addSynchronizedEntityClass(UserTombstone.class)
+                .getResultList();
+        Set<Long> deletedIds = new HashSet<>();
+        Set<String> deletedEmails = new HashSet<>();
+        for (Object[] row : rows) {
+            deletedIds.add((Long) row[0]);
+            deletedEmails.add((String) row[1]);
+        }
+        // Загруженный раньше во внешней единице работы объект удаленной строки иначе остался бы в сессии:
+        // find вернул бы его, а flush его изменений - StaleStateException
+        if (joined) {
+            for (Long id : deletedIds) {
+                User managed = managed(session, id);
+                if (managed != null) {
+                    session.detach(managed);
+                }
+            }
+        }
+        evictAfterCommit(session, deletedIds, deletedEmails);
+        return rows.size();
+    }
 }
@@ -0,0 +1,41 @@
+package org.example.userservice.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Частичное изменение пользователя: поля со значением null не меняются.
+ */
+public record UserPatch(Long id, String name, String email, Integer age) {
+
+    public boolean isEmpty() {
+        return name == null && email == null && age == null;
+    }
+
+    /**
+     * Изменения одного id, объединенные в одно: у каждого поля остается последнее заданное значение,
+     * как после их применения по порядку. Пустые результаты отбрасываются; порядок - по первому появлению id.
+     */
+    public static List<UserPatch> mergeById(Collection<UserPatch> patches) {
+        Map<Long, UserPatch> merged = new LinkedHashMap<>();
+        for (UserPatch patch : patches) {
+            if (patch.id() == null) {
+                throw new IllegalArgumentException("Для изменения нужен id пользователя");
+            }
+            merged.merge(patch.id(), patch, (earlier, later) -> new UserPatch(later.id(),
+                    later.name() != null ? later.name() : earlier.name(),
+                    later.email() != null ? later.email() : earlier.email(),
+                    later.age() != null ? later.age() : earlier.age()));
+        }
+        List<UserPatch> result = new ArrayList<>(merged.size());
+        for (UserPatch patch : merged.values()) {
+            if (!patch.isEmpty()) {
+                result.add(patch);
+            }
+        }
+        return result;
+    }
+}
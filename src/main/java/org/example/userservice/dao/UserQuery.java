@@ -0,0 +1,113 @@
+package org.example.userservice.dao;
+
+import java.time.LocalDateTime;
+
+/**
+ * Условия поиска пользователей. Все фильтры необязательны (null - не задан) и объединяются через И.
+ * <ul>
+ *     <li>minAge, maxAge - возраст в диапазоне, границы включаются;</li>
+ *     <li>namePrefix - начало имени без учета регистра;</li>
+ *     <li>emailDomain - домен email (часть после @) без учета регистра;</li>
+ *     <li>createdFrom (включительно), createdBefore (не включительно) - дата создания.</li>
+ * </ul>
+ * Страница задается limit и либо offset, либо курсором afterId - id последнего пользователя предыдущей
+ * страницы; курсор допустим только при сортировке по id и не замедляется с номером страницы, как offset.
+ */
+public record UserQuery(Integer minAge, Integer maxAge, String namePrefix, String emailDomain,
+                        LocalDateTime createdFrom, LocalDateTime createdBefore,
+                        SortField sortBy, boolean descending, int limit, int offset, Long afterId) {
+
+    public static final int DEFAULT_LIMIT = 50;
+
+    public enum SortField {
+        ID, NAME, AGE, CREATED_AT
+    }
+
+    public UserQuery {
+        if (sortBy == null) {
+            throw new IllegalArgumentException("Не задано поле сортировки");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным: " + limit);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Смещение не может быть отрицательным: " + offset);
+        }
+        if (afterId != null && (sortBy != SortField.ID || offset != 0)) {
+            throw new IllegalArgumentException("Курсор afterId допустим только при сортировке по id и без offset");
+        }
+        if (minAge != null && maxAge != null && minAge > maxAge) {
+            throw new IllegalArgumentException("Пустой диапазон возраста: " + minAge + ".." + maxAge);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private Integer minAge;
+        private Integer maxAge;
+        private String namePrefix;
+        private String emailDomain;
+        private LocalDateTime createdFrom;
+        private LocalDateTime createdBefore;
+        private SortField sortBy = SortField.ID;
+        private boolean descending;
+        private int limit = DEFAULT_LIMIT;
+        private int offset;
+        private Long afterId;
+
+        private Builder() {
+        }
+
+        public Builder ageBetween(Integer minAge, Integer maxAge) {
+            this.minAge = minAge;
+            this.maxAge = maxAge;
+            return this;
+        }
+
+        public Builder namePrefix(String namePrefix) {
+            this.namePrefix = namePrefix;
+            return this;
+        }
+
+        public Builder emailDomain(String emailDomain) {
+            this.emailDomain = emailDomain;
+            return this;
+        }
+
+        public Builder createdBetween(LocalDateTime from, LocalDateTime before) {
+            this.createdFrom = from;
+            this.createdBefore = before;
+            return this;
+        }
+
+        public Builder sortBy(SortField sortBy, boolean descending) {
+            this.sortBy = sortBy;
+            this.descending = descending;
+            return this;
+        }
+
+        public Builder limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public Builder offset(int offset) {
+            this.offset = offset;
+            return this;
+        }
+
+        public Builder afterId(Long afterId) {
+            this.afterId = afterId;
+            return this;
+        }
+
+        public UserQuery build() {
+            return new UserQuery(minAge, maxAge, namePrefix, emailDomain, createdFrom, createdBefore,
+                    sortBy, descending, limit, offset, afterId);
+        }
+    }
+}
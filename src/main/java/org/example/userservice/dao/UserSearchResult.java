@@ -0,0 +1,11 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.entity.User;
+
+import java.util.List;
+
+/**
+ * Страница результатов поиска и общее число подходящих пользователей (без учета limit, offset и курсора).
+ */
+public record UserSearchResult(List<User> users, long totalCount) {
+}
@@ -0,0 +1,8 @@
+package org.example.userservice.dao;
+
+/**
+ * Краткое представление пользователя для списков и поиска: только id, имя и email.
+ * Читается запросом-проекцией, без загрузки сущности {@link org.example.userservice.entity.User}.
+ */
+public record UserSummary(Long id, String name, String email) {
+}
@@ -1,22 +1,45 @@
 package org.example.userservice.entity;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.hibernate.annotations.UpdateTimestamp;
 
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "users")
+// Индексы для фильтров поиска; lower(name) с text_pattern_ops создается в SchemaExtensions
+@Table(name = "users", indexes = {
+        @Index(name = "users_age_idx", columnList = "age"),
+        @Index(name = "users_created_at_idx", columnList = "created_at"),
+        // Порядок ленты изменений (UserDao.findChangedSince)
+        @Index(name = "users_updated_at_idx", columnList = "updated_at, id")
+})
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "users")
+@NaturalIdCache(region = "users-by-email")
 public class User {
 
+    // Шаг users_seq: столько id Hibernate выдает из одного значения последовательности
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    // Последовательность с шагом 50 (pooled-оптимизатор): id выдаются без обращения к БД на каждую вставку,
+    // что позволяет Hibernate группировать INSERT в JDBC-пакеты (с IDENTITY это невозможно)
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+    @SequenceGenerator(name = "users_seq", sequenceName = "users_seq", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     @Column(nullable = false)
     private String name;
 
-    @Column(nullable = false, unique = true)
+    // Уникальный email - натуральный ключ: повторные поиски по нему разрешаются из кеша без SQL.
+    // Ограничение уникальности Hibernate создает для natural id сам
+    @NaturalId(mutable = true)
+    @Column(nullable = false)
     private String email;
 
     @Column(nullable = false)
@@ -26,6 +49,20 @@ public class User {
     @CreationTimestamp
     private LocalDateTime createdAt;
 
+    // Время последней записи строки: при persist и при UPDATE через merge его ставит Hibernate,
+    // запросы в обход сущности (patch, upsert, импорт CSV) ставят его сами
+    @UpdateTimestamp
+    @ColumnDefault("localtimestamp")
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    // Оптимистическая блокировка: UPDATE проверяет версию, с которой объект был прочитан.
+    // Значение по умолчанию нужно, чтобы колонка добавилась к уже заполненной таблице и строкам из COPY
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long version;
+
     public User() {
     }
 
@@ -35,6 +72,17 @@ public class User {
         this.age = age;
     }
 
+    // Отсоединенная копия, например для хранения в кеше
+    public User(User source) {
+        this.id = source.id;
+        this.name = source.name;
+        this.email = source.email;
+        this.age = source.age;
+        this.createdAt = source.createdAt;
+        this.updatedAt = source.updatedAt;
+        this.version = source.version;
+    }
+
     public Long getId() {
         return id;
     }
@@ -71,6 +119,26 @@ public class User {
         return createdAt;
     }
 
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "User{" +
@@ -79,6 +147,8 @@ public class User {
                 ", email='" + email + '\'' +
                 ", age=" + age +
                 ", createdAt=" + createdAt +
+                ", updatedAt=" + updatedAt +
+                ", version=" + version +
                 '}';
     }
 }
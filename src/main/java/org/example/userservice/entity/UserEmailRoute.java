@@ -0,0 +1,51 @@
+package org.example.userservice.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * Запись индекса маршрутизации ShardedUserDao: какой пользователь занимает email. Хранится на шарде
+ * корзины email, а не строки пользователя, поэтому первичный ключ по email обеспечивает уникальность
+ * email во всех шардах. Таблица есть только в базах шардов (см. HibernateUtil.buildShard).
+ */
+@Entity
+@Table(name = "user_email_routes", indexes = {
+        // Перенос корзины выбирает ее записи
+        @Index(name = "user_email_routes_bucket_idx", columnList = "bucket, email")
+})
+public class UserEmailRoute {
+
+    @Id
+    private String email;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(nullable = false)
+    private Integer bucket;
+
+    public UserEmailRoute() {
+    }
+
+    public UserEmailRoute(String email, Long userId, Integer bucket) {
+        this.email = email;
+        this.userId = userId;
+        this.bucket = bucket;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Integer getBucket() {
+        return bucket;
+    }
+
+    @Override
+    public String toString() {
+        return "UserEmailRoute{email='" + email + "', userId=" + userId + ", bucket=" + bucket + '}';
+    }
+}
@@ -0,0 +1,41 @@
+package org.example.userservice.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * Можно ли писать в корзину на этом шарде: только у ее владельца и только пока она не переносится.
+ * Транзакция записи ShardedUserDao читает строки своих корзин с блокировкой, поэтому запрет, выставленный
+ * любым процессом, дожидается уже начатых записей и виден всем следующим. Таблица есть только в базах шардов
+ * (см. HibernateUtil.buildShard).
+ */
+@Entity
+@Table(name = "user_shard_buckets")
+public class UserShardBucket {
+
+    @Id
+    private Integer bucket;
+
+    @Column(nullable = false)
+    private Boolean writable;
+
+    public UserShardBucket() {
+    }
+
+    public UserShardBucket(Integer bucket, Boolean writable) {
+        this.bucket = bucket;
+        this.writable = writable;
+    }
+
+    public Integer getBucket() {
+        return bucket;
+    }
+
+    public Boolean getWritable() {
+        return writable;
+    }
+
+    @Override
+    public String toString() {
+        return "UserShardBucket{bucket=" + bucket + ", writable=" + writable + '}';
+    }
+}
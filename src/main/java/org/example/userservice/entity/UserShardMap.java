@@ -0,0 +1,54 @@
+package org.example.userservice.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * Сохраненная карта шардов ShardedUserDao в виде строки ShardMap.format(). Одна строка с id = {@link #ID}
+ * на шарде 0 (координаторе). Изменения карты идут под блокировкой строки, версия растет с каждым из них.
+ * Таблица есть только в базах шардов (см. HibernateUtil.buildShard).
+ */
+@Entity
+@Table(name = "user_shard_map")
+public class UserShardMap {
+
+    public static final int ID = 1;
+
+    @Id
+    private Integer id;
+
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
+    @Column(nullable = false, length = 16_384)
+    private String layout;
+
+    public UserShardMap() {
+    }
+
+    public UserShardMap(String layout) {
+        this.id = ID;
+        this.layout = layout;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public String getLayout() {
+        return layout;
+    }
+
+    public void setLayout(String layout) {
+        this.layout = layout;
+    }
+
+    @Override
+    public String toString() {
+        return "UserShardMap{id=" + id + ", version=" + version + '}';
+    }
+}
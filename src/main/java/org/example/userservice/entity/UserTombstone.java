@@ -0,0 +1,44 @@
+package org.example.userservice.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Отметка об удалении пользователя для ленты изменений: строки users после DELETE нет,
+ * а потребителям ленты нужно узнать, что ее id больше не существует.
+ * id пользователей не используются повторно, поэтому id удаленного пользователя - первичный ключ.
+ */
+@Entity
+@Table(name = "user_tombstones", indexes = {
+        @Index(name = "user_tombstones_deleted_at_idx", columnList = "deleted_at, id")
+})
+public class UserTombstone {
+
+    @Id
+    private Long id;
+
+    @Column(name = "deleted_at", nullable = false)
+    private LocalDateTime deletedAt;
+
+    public UserTombstone() {
+    }
+
+    public UserTombstone(Long id, LocalDateTime deletedAt) {
+        this.id = id;
+        this.deletedAt = deletedAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public LocalDateTime getDeletedAt() {
+        return deletedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "UserTombstone{id=" + id + ", deletedAt=" + deletedAt + '}';
+    }
+}
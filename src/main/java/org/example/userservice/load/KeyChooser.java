@@ -0,0 +1,76 @@
+package org.example.userservice.load;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Выбор id существующего пользователя: равномерно или по закону Ципфа, когда несколько пользователей
+ * получают большую часть запросов. Для Ципфа используется алгоритм Грея и др. (как в YCSB): номер
+ * вычисляется за O(1) без таблицы вероятностей, памяти нужно только на сами id.
+ */
+final class KeyChooser {
+
+    private final long[] ids;
+    private final boolean zipfian;
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+    private final double secondRankBound;
+
+    KeyChooser(long[] ids, LoadSettings.KeyDistribution distribution, double theta) {
+        if (ids.length == 0) {
+            throw new IllegalArgumentException("Нет id для выбора");
+        }
+        this.ids = ids.clone();
+        this.zipfian = distribution == LoadSettings.KeyDistribution.ZIPFIAN;
+        this.theta = theta;
+        // Частые id разбросаны по таблице, а не собраны среди самых старых строк
+        shuffle(this.ids, new Random(42));
+
+        int n = ids.length;
+        this.zetaN = zeta(n, theta);
+        this.alpha = 1 / (1 - theta);
+        this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(Math.min(n, 2), theta) / zetaN);
+        this.secondRankBound = 1 + Math.pow(0.5, theta);
+    }
+
+    long next() {
+        return ids[zipfian ? zipfianRank() : ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    // Номер от 0 (самый частый) до n - 1
+    int zipfianRank() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1) {
+            return 0;
+        }
+        if (uz < secondRankBound && ids.length > 1) {
+            return 1;
+        }
+        int rank = (int) (ids.length * Math.pow(eta * u - eta + 1, alpha));
+        return Math.min(rank, ids.length - 1);
+    }
+
+    private static double zeta(int n, double theta) {
+        double sum = 0;
+        for (int i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    private static void shuffle(long[] values, Random random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.example.userservice.load;
+
+import org.example.userservice.dao.UserSummary;
+import org.example.userservice.entity.User;
+import org.example.userservice.metrics.LatencyHistogram;
+import org.example.userservice.service.UserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.LongStream;
+
+/**
+ * Нагрузка на {@link UserService} смесью операций с заданной частотой (open loop).
+ * <p>
+ * Операции идут по расписанию: i-я операция должна начаться в start + i / rate независимо от того,
+ * как быстро выполнились предыдущие. Свободный поток берет ближайшую операцию расписания, а задержка
+ * считается от запланированного, а не фактического начала. Так ожидание в очереди, когда сервис
+ * не успевает, попадает в перцентили (нет coordinated omission), а не снижает частоту запросов.
+ */
+public class LoadGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final int ID_PAGE = 1_000;
+    private static final int SEED_BATCH = 500;
+
+    public enum Operation {
+        CREATE, GET, LIST, UPDATE, DELETE;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final UserService userService;
+    private final LoadSettings settings;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong sequence = new AtomicLong();
+    // Пользователи, созданные нагрузкой: delete удаляет сначала их, чтобы не сокращать набор ключей
+    private final Queue<Long> created = new ConcurrentLinkedQueue<>();
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private KeyChooser keys;
+
+    public LoadGenerator(UserService userService, LoadSettings settings) {
+        this.userService = userService;
+        this.settings = settings;
+        List<Operation> chosen = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<Operation, Integer> entry : settings.mix().entrySet()) {
+            if (entry.getValue() > 0) {
+                total += entry.getValue();
+                chosen.add(entry.getKey());
+                weights.add(total);
+            }
+        }
+        this.operations = chosen.toArray(Operation[]::new);
+        this.cumulativeWeights = weights.stream().mapToInt(Integer::intValue).toArray();
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    public LoadReport run() throws InterruptedException {
+        prepareKeys();
+        log.info("Нагрузка: потоков {}, {} оп/с, прогрев {}, измерение {}, смесь {}, ключи {} ({} id)",
+                settings.threads(), settings.rate(), settings.warmUp(), settings.duration(), settings.mix(),
+                settings.keys(), keys != null ? keys.size() : 0);
+
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / settings.rate();
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        long measureFrom = start + settings.warmUp().toNanos();
+        long end = measureFrom + settings.duration().toNanos();
+        AtomicLong nextSlot = new AtomicLong();
+        LongAdder late = new LongAdder();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < settings.threads(); i++) {
+            Thread worker = new Thread(() -> {
+                while (true) {
+                    long intended = start + (long) (nextSlot.getAndIncrement() * intervalNanos);
+                    if (intended >= end) {
+                        return;
+                    }
+                    long wait;
+                    while ((wait = intended - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    boolean measured = intended >= measureFrom;
+                    if (measured && wait < -TimeUnit.MILLISECONDS.toNanos(1)) {
+                        late.increment();
+                    }
+                    execute(chooseOperation(), intended, measured);
+                }
+            }, "user-service-load-" + (i + 1));
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long finished = System.nanoTime();
+
+        List<LoadReport.OperationResult> results = new ArrayList<>();
+        for (Operation operation : operations) {
+            results.add(new LoadReport.OperationResult(operation, latencies.get(operation).snapshot(),
+                    errors.get(operation).sum()));
+        }
+        return new LoadReport(settings, settings.duration(), finished - end, late.sum(), results);
+    }
+
+    private void prepareKeys() {
+        if (!settings.needsExistingUsers()) {
+            return;
+        }
+        long[] ids = existingIds();
+        if (ids.length < settings.seedUsers()) {
+            seed(settings.seedUsers() - ids.length);
+            ids = existingIds();
+        }
+        if (ids.length == 0) {
+            throw new IllegalStateException("Нет пользователей для операций get/list/update/delete: "
+                    + "заполните базу или задайте --seed");
+        }
+        keys = new KeyChooser(ids, settings.keys(), settings.zipfExponent());
+    }
+
+    private long[] existingIds() {
+        LongStream.Builder ids = LongStream.builder();
+        Long afterId = null;
+        List<UserSummary> page;
+        do {
+            page = userService.getUserSummariesPage(afterId, ID_PAGE);
+            for (UserSummary summary : page) {
+                ids.add(summary.id());
+            }
+            afterId = page.isEmpty() ? afterId : page.get(page.size() - 1).id();
+        } while (page.size() == ID_PAGE);
+        return ids.build().toArray();
+    }
+
+    private void seed(int count) {
+        log.info("Создание {} пользователей для нагрузки", count);
+        for (int from = 0; from < count; from += SEED_BATCH) {
+            List<User> batch = new ArrayList<>();
+            for (int i = from; i < Math.min(count, from + SEED_BATCH); i++) {
+                long n = sequence.incrementAndGet();
+                batch.add(new User("seed" + n, email("seed", n), age(n)));
+            }
+            userService.createUsers(batch);
+        }
+    }
+
+    private Operation chooseOperation() {
+        int value = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException("Вес вне смеси: " + value);
+    }
+
+    private void execute(Operation operation, long intendedStart, boolean measured) {
+        try {
+            perform(operation);
+        } catch (RuntimeException ex) {
+            if (measured) {
+                errors.get(operation).increment();
+            }
+            log.debug("Ошибка операции {} под нагрузкой", operation, ex);
+        }
+        if (measured) {
+            latencies.get(operation).recordSince(intendedStart);
+        }
+    }
+
+    private void perform(Operation operation) {
+        switch (operation) {
+            case CREATE -> {
+                long n = sequence.incrementAndGet();
+                created.add(userService.createUser("load" + n, email("load", n), age(n)).getId());
+            }
+            case GET -> userService.getUserById(keys.next());
+            case LIST -> userService.getUserSummariesPage(keys.next(), settings.pageSize());
+            case UPDATE -> {
+                long n = sequence.incrementAndGet();
+                userService.updateUser(keys.next(), "updated" + n, null, age(n));
+            }
+            case DELETE -> {
+                Long id = created.poll();
+                userService.deleteUser(id != null ? id : keys.next());
+            }
+        }
+    }
+
+    private String email(String prefix, long n) {
+        return prefix + "-" + runId + "-" + n + "@load.example.com";
+    }
+
+    private static int age(long n) {
+        return 18 + (int) (n % 60);
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.userservice.load;
+
+import org.example.userservice.metrics.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Итог нагрузки за время измерения (без прогрева). Задержки - от запланированного начала операции,
+ * поэтому включают ожидание свободного потока.
+ *
+ * @param drainNanos  сколько после конца расписания дорабатывали уже начатые операции
+ * @param lateStarts  сколько операций началось позже расписания больше чем на 1 мс: если их много,
+ *                    потоков не хватает для целевой частоты
+ */
+public record LoadReport(LoadSettings settings,
+                         Duration measured,
+                         long drainNanos,
+                         long lateStarts,
+                         List<OperationResult> operations) {
+
+    public record OperationResult(LoadGenerator.Operation operation, LatencyHistogram.Snapshot latency, long errors) {
+
+        public long count() {
+            return latency.count();
+        }
+    }
+
+    public long totalCount() {
+        return operations.stream().mapToLong(OperationResult::count).sum();
+    }
+
+    public double throughput() {
+        return totalCount() / seconds();
+    }
+
+    private double seconds() {
+        return measured.toNanos() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(String.format(
+                "Нагрузка: %,d операций за %s, %.1f оп/с (цель %.1f), начато с опозданием %,d, дозавершение %.1f мс%n",
+                totalCount(), measured, throughput(), settings.rate(), lateStarts, toMillis(drainNanos)));
+        text.append(String.format("%-8s %10s %7s %10s %10s %10s %10s %10s%n",
+                "операция", "выполнено", "ошибок", "оп/с", "p50, мс", "p99, мс", "p999, мс", "max, мс"));
+        for (OperationResult result : operations) {
+            LatencyHistogram.Snapshot latency = result.latency();
+            text.append(String.format("%-8s %,10d %7d %10.1f %10.3f %10.3f %10.3f %10.3f%n",
+                    result.operation(), result.count(), result.errors(), result.count() / seconds(),
+                    toMillis(latency.p50()), toMillis(latency.p99()), toMillis(latency.p999()),
+                    toMillis(latency.max())));
+        }
+        return text.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
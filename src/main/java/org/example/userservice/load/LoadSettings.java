@@ -0,0 +1,129 @@
+package org.example.userservice.load;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Параметры нагрузки из аргументов командной строки вида --имя=значение:
+ * <ul>
+ *     <li>--threads - число рабочих потоков (8);</li>
+ *     <li>--rate - целевое число операций в секунду на все потоки (200);</li>
+ *     <li>--duration, --warmup - длительность измерения и прогрева без учета в отчете: 500ms, 30s, 2m (60s, 0s);</li>
+ *     <li>--mix - доли операций: get=70,list=5,create=10,update=10,delete=5 (по умолчанию такие);</li>
+ *     <li>--keys - выбор id существующих пользователей: uniform или zipfian (uniform);</li>
+ *     <li>--zipf - показатель распределения Ципфа, от 0 до 1 не включая (0.99);</li>
+ *     <li>--seed - сколько пользователей создать до начала, если их меньше (0);</li>
+ *     <li>--page - размер страницы list (50).</li>
+ * </ul>
+ */
+public record LoadSettings(int threads,
+                           double rate,
+                           Duration duration,
+                           Duration warmUp,
+                           Map<LoadGenerator.Operation, Integer> mix,
+                           KeyDistribution keys,
+                           double zipfExponent,
+                           int seedUsers,
+                           int pageSize) {
+
+    public enum KeyDistribution {
+        UNIFORM, ZIPFIAN
+    }
+
+    public static final Map<LoadGenerator.Operation, Integer> DEFAULT_MIX =
+            Collections.unmodifiableMap(parseMix("get=70,list=5,create=10,update=10,delete=5"));
+
+    public LoadSettings {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Число потоков должно быть положительным: " + threads);
+        }
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Целевая частота должна быть положительной: " + rate);
+        }
+        if (duration.isNegative() || duration.isZero() || warmUp.isNegative()) {
+            throw new IllegalArgumentException("Некорректная длительность: " + duration + ", прогрев " + warmUp);
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("В смеси нет ни одной операции: " + mix);
+        }
+        if (!(zipfExponent > 0 && zipfExponent < 1)) {
+            throw new IllegalArgumentException("Показатель Ципфа должен быть от 0 до 1: " + zipfExponent);
+        }
+        if (seedUsers < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Некорректные seed или page: " + seedUsers + ", " + pageSize);
+        }
+        mix = Collections.unmodifiableMap(new EnumMap<>(mix));
+    }
+
+    public static LoadSettings parse(String... args) {
+        int threads = 8;
+        double rate = 200;
+        Duration duration = Duration.ofSeconds(60);
+        Duration warmUp = Duration.ZERO;
+        Map<LoadGenerator.Operation, Integer> mix = DEFAULT_MIX;
+        KeyDistribution keys = KeyDistribution.UNIFORM;
+        double zipfExponent = 0.99;
+        int seedUsers = 0;
+        int pageSize = 50;
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Ожидается параметр вида --имя=значение: " + arg);
+            }
+            String value = arg.substring(separator + 1).trim();
+            switch (arg.substring(2, separator)) {
+                case "threads" -> threads = Integer.parseInt(value);
+                case "rate" -> rate = Double.parseDouble(value);
+                case "duration" -> duration = parseDuration(value);
+                case "warmup" -> warmUp = parseDuration(value);
+                case "mix" -> mix = parseMix(value);
+                case "keys" -> keys = KeyDistribution.valueOf(value.toUpperCase(Locale.ROOT));
+                case "zipf" -> zipfExponent = Double.parseDouble(value);
+                case "seed" -> seedUsers = Integer.parseInt(value);
+                case "page" -> pageSize = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Неизвестный параметр нагрузки: " + arg);
+            }
+        }
+        return new LoadSettings(threads, rate, duration, warmUp, mix, keys, zipfExponent, seedUsers, pageSize);
+    }
+
+    static Duration parseDuration(String value) {
+        String text = value.toLowerCase(Locale.ROOT);
+        if (text.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+        }
+        long amount = Long.parseLong(text.substring(0, text.length() - 1));
+        return switch (text.charAt(text.length() - 1)) {
+            case 's' -> Duration.ofSeconds(amount);
+            case 'm' -> Duration.ofMinutes(amount);
+            case 'h' -> Duration.ofHours(amount);
+            default -> throw new IllegalArgumentException("Длительность задается как 500ms, 30s, 2m или 1h: " + value);
+        };
+    }
+
+    // Операции, не упомянутые в смеси, не выполняются
+    static Map<LoadGenerator.Operation, Integer> parseMix(String value) {
+        Map<LoadGenerator.Operation, Integer> mix = new EnumMap<>(LoadGenerator.Operation.class);
+        for (String part : value.split(",")) {
+            String[] pair = part.split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Доля операции задается как имя=вес: " + part);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Вес операции не может быть отрицательным: " + part);
+            }
+            mix.put(LoadGenerator.Operation.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)), weight);
+        }
+        return mix;
+    }
+
+    boolean needsExistingUsers() {
+        return mix.entrySet().stream()
+                .anyMatch(entry -> entry.getKey() != LoadGenerator.Operation.CREATE && entry.getValue() > 0);
+    }
+}
@@ -0,0 +1,151 @@
+package org.example.userservice.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Реестр метрик операций. Декораторы получают {@link OperationMetrics} один раз при создании,
+ * поэтому на горячем пути поиска по имени нет.
+ * Каждая операция публикуется в JMX как org.example.userservice:type=Operations,layer=...,name=...
+ */
+public class MetricsRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    public static final String JMX_DOMAIN = "org.example.userservice";
+
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final boolean jmxEnabled;
+
+    public MetricsRegistry() {
+        this(false);
+    }
+
+    public MetricsRegistry(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    /**
+     * Возвращает метрики операции {@code layer.name}, создавая и регистрируя их при первом обращении.
+     */
+    public OperationMetrics operation(String layer, String name) {
+        return operations.computeIfAbsent(layer + "." + name, key -> {
+            OperationMetrics metrics = new OperationMetrics(key);
+            if (jmxEnabled) {
+                register(layer, name, metrics);
+            }
+            return metrics;
+        });
+    }
+
+    /**
+     * Снимки всех операций, упорядоченные по имени.
+     */
+    public List<OperationStats> snapshot() {
+        List<OperationStats> result = new ArrayList<>(operations.size());
+        operations.values().forEach(metrics -> result.add(metrics.snapshot()));
+        result.sort((a, b) -> a.name().compareTo(b.name()));
+        return result;
+    }
+
+    private static void register(String layer, String name, OperationMetrics metrics) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=Operations,layer="
+                    + ObjectName.quote(layer) + ",name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                // Повторно созданный реестр (например, в тестах) заменяет прежние MBean
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new OperationMetricsBean(metrics), objectName);
+        } catch (InstanceAlreadyExistsException ex) {
+            log.warn("MBean для операции {}.{} уже зарегистрирован", layer, name);
+        } catch (JMException ex) {
+            log.warn("Не удалось зарегистрировать MBean для операции {}.{}", layer, name, ex);
+        }
+    }
+
+    /**
+     * Счетчики читаются напрямую. Атрибуты задержек JMX-клиент читает по одному, поэтому они берутся
+     * из одного снимка гистограммы, который переиспользуется в течение одного опроса.
+     */
+    private static final class OperationMetricsBean implements OperationMetricsMXBean {
+
+        private static final long LATENCY_SNAPSHOT_TTL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private final OperationMetrics metrics;
+        private volatile TimedSnapshot latency;
+
+        private OperationMetricsBean(OperationMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public long getCalls() {
+            return metrics.calls();
+        }
+
+        @Override
+        public long getErrors() {
+            return metrics.errors();
+        }
+
+        @Override
+        public long getInFlight() {
+            return metrics.inFlight();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            return toMillis(latency().mean());
+        }
+
+        @Override
+        public double getP50Millis() {
+            return toMillis(latency().p50());
+        }
+
+        @Override
+        public double getP95Millis() {
+            return toMillis(latency().p95());
+        }
+
+        @Override
+        public double getP99Millis() {
+            return toMillis(latency().p99());
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return toMillis(latency().max());
+        }
+
+        private LatencyHistogram.Snapshot latency() {
+            long now = System.nanoTime();
+            TimedSnapshot cached = latency;
+            if (cached == null || now - cached.takenAtNanos() > LATENCY_SNAPSHOT_TTL_NANOS) {
+                cached = new TimedSnapshot(metrics.latency(), now);
+                latency = cached;
+            }
+            return cached.snapshot();
+        }
+
+        private static double toMillis(double nanos) {
+            return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        private record TimedSnapshot(LatencyHistogram.Snapshot snapshot, long takenAtNanos) {
+        }
+    }
+}
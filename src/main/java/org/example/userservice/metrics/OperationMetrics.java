@@ -0,0 +1,89 @@
+package org.example.userservice.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Счетчики одной операции: вызовы, ошибки, выполняющиеся сейчас вызовы и гистограмма задержек.
+ * Все поля - {@link LongAdder} и {@link LatencyHistogram}, поэтому запись не берет блокировок
+ * и почти не конкурирует между потоками.
+ */
+public class OperationMetrics {
+
+    private final String name;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Отмечает начало вызова. Возвращенное значение нужно передать в {@link #stop(long, boolean)}.
+     */
+    public long start() {
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    public void stop(long startNanos, boolean success) {
+        latency.recordSince(startNanos);
+        inFlight.decrement();
+        calls.increment();
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+    public <T> T record(Supplier<T> operation) {
+        long start = start();
+        boolean success = false;
+        try {
+            T result = operation.get();
+            success = true;
+            return result;
+        } finally {
+            stop(start, success);
+        }
+    }
+
+    public void record(Runnable operation) {
+        long start = start();
+        boolean success = false;
+        try {
+            operation.run();
+            success = true;
+        } finally {
+            stop(start, success);
+        }
+    }
+
+    public long calls() {
+        return calls.sum();
+    }
+
+    public long errors() {
+        return errors.sum();
+    }
+
+    public long inFlight() {
+        return inFlight.sum();
+    }
+
+    /**
+     * Копия гистограммы задержек; дороже чтения счетчиков.
+     */
+    public LatencyHistogram.Snapshot latency() {
+        return latency.snapshot();
+    }
+
+    public OperationStats snapshot() {
+        return new OperationStats(name, calls.sum(), errors.sum(), inFlight.sum(), latency.snapshot());
+    }
+}
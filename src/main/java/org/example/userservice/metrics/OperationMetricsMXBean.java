@@ -0,0 +1,23 @@
+package org.example.userservice.metrics;
+
+/**
+ * JMX-представление метрик одной операции. Задержки - в миллисекундах.
+ */
+public interface OperationMetricsMXBean {
+
+    long getCalls();
+
+    long getErrors();
+
+    long getInFlight();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+}
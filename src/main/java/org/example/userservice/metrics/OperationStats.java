@@ -0,0 +1,18 @@
+package org.example.userservice.metrics;
+
+/**
+ * Снимок {@link OperationMetrics}. Счетчики читаются без общей блокировки,
+ * поэтому при нагрузке значения могут расходиться на несколько вызовов.
+ */
+public record OperationStats(String name,
+                             long calls,
+                             long errors,
+                             long inFlight,
+                             LatencyHistogram.Snapshot latency) {
+
+    @Override
+    public String toString() {
+        return String.format("%-28s calls=%d, errors=%d, inFlight=%d, %s",
+                name, calls, errors, inFlight, latency);
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.userservice.service;
+
+import org.example.userservice.dao.ChangeCursor;
+import org.example.userservice.dao.UpsertResult;
+import org.example.userservice.dao.UserChangePage;
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.dao.UserQuery;
+import org.example.userservice.dao.UserSearchResult;
+import org.example.userservice.dao.UserSummary;
+import org.example.userservice.entity.User;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Асинхронный аналог {@link UserService}: каждая операция выполняется на ограниченном пуле потоков.
+ * При перегрузке пула future завершается с {@link java.util.concurrent.RejectedExecutionException}.
+ */
+public interface AsyncUserService {
+
+    CompletableFuture<User> createUser(String name, String email, int age);
+
+    CompletableFuture<List<User>> createUsers(Collection<User> users);
+
+    CompletableFuture<UpsertResult> createOrUpdateByEmail(String name, String email, int age);
+
+    CompletableFuture<List<UpsertResult>> createOrUpdateAllByEmail(Collection<User> users);
+
+    CompletableFuture<Optional<User>> getUserById(Long id);
+
+    /**
+     * Параллельный поиск по нескольким id: id делятся на порции, не больше одной на поток исполнителя.
+     * Завершается, когда выполнены все поиски; результат содержит найденных пользователей в порядке
+     * переданных id. Ошибка поиска по одному id не останавливает остальные: после завершения всех поисков
+     * future завершается первой ошибкой, а остальные ошибки добавлены к ней как подавленные.
+     */
+    CompletableFuture<List<User>> getUsersByIds(Collection<Long> ids);
+
+    CompletableFuture<Optional<User>> getUserByEmail(String email);
+
+    CompletableFuture<Optional<User>> getUserByEmailIgnoreCase(String email);
+
+    CompletableFuture<Boolean> existsByEmail(String email);
+
+    CompletableFuture<List<User>> getAllUsers();
+
+    /**
+     * Асинхронный аналог streamAllUsers: передает пользователей в action по мере чтения
+     * и возвращает их количество.
+     */
+    CompletableFuture<Long> forEachUser(Consumer<? super User> action);
+
+    CompletableFuture<List<User>> getUsersPage(Long afterId, int limit);
+
+    CompletableFuture<List<UserSummary>> getUserSummaries();
+
+    CompletableFuture<List<UserSummary>> getUserSummariesPage(Long afterId, int limit);
+
+    CompletableFuture<UserSearchResult> searchUsers(UserQuery query);
+
+    CompletableFuture<UserChangePage> findChangedSince(ChangeCursor after, int limit);
+
+    CompletableFuture<Optional<User>> updateUser(Long id, String newName, String newEmail, Integer newAge);
+
+    CompletableFuture<List<Optional<User>>> updateUsers(List<UserPatch> patches);
+
+    CompletableFuture<Integer> bulkUpdateUsers(Collection<UserPatch> patches);
+
+    CompletableFuture<Boolean> deleteUser(Long id);
+
+    CompletableFuture<Integer> deleteUsers(Collection<Long> ids);
+}
@@ -0,0 +1,221 @@
+package org.example.userservice.service;
+
+import org.example.userservice.dao.ChangeCursor;
+import org.example.userservice.dao.UpsertResult;
+import org.example.userservice.dao.UserChangePage;
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.dao.UserQuery;
+import org.example.userservice.dao.UserSearchResult;
+import org.example.userservice.dao.UserSummary;
+import org.example.userservice.entity.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+public class AsyncUserServiceImpl implements AsyncUserService {
+
+    private final UserService userService;
+    private final Executor executor;
+    // Сколько задач одновременно выполняют один getUsersByIds
+    private final int lookupParallelism;
+
+    /**
+     * Параллелизм getUsersByIds - maxConcurrency исполнителя {@link UserServiceExecutor};
+     * с другим исполнителем поиск по нескольким id выполняется одной задачей.
+     */
+    public AsyncUserServiceImpl(UserService userService, Executor executor) {
+        this(userService, executor, executor instanceof UserServiceExecutor bounded ? bounded.maxConcurrency() : 1);
+    }
+
+    public AsyncUserServiceImpl(UserService userService, Executor executor, int lookupParallelism) {
+        if (lookupParallelism <= 0) {
+            throw new IllegalArgumentException("Параллелизм поиска должен быть положительным: " + lookupParallelism);
+        }
+        this.userService = userService;
+        this.executor = executor;
+        this.lookupParallelism = lookupParallelism;
+    }
+
+    @Override
+    public CompletableFuture<User> createUser(String name, String email, int age) {
+        return submit(() -> userService.createUser(name, email, age));
+    }
+
+    @Override
+    public CompletableFuture<List<User>> createUsers(Collection<User> users) {
+        return submit(() -> userService.createUsers(users));
+    }
+
+    @Override
+    public CompletableFuture<UpsertResult> createOrUpdateByEmail(String name, String email, int age) {
+        return submit(() -> userService.createOrUpdateByEmail(name, email, age));
+    }
+
+    @Override
+    public CompletableFuture<List<UpsertResult>> createOrUpdateAllByEmail(Collection<User> users) {
+        return submit(() -> userService.createOrUpdateAllByEmail(users));
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> getUserById(Long id) {
+        return submit(() -> userService.getUserById(id));
+    }
+
+    @Override
+    public CompletableFuture<List<User>> getUsersByIds(Collection<Long> ids) {
+        List<Long> all = List.copyOf(ids);
+        // Задач не больше параллелизма: поиск по любому числу id не отклоняет сам себя
+        int chunkSize = Math.max(1, (all.size() + lookupParallelism - 1) / lookupParallelism);
+        List<CompletableFuture<List<User>>> lookups = new ArrayList<>();
+        for (int from = 0; from < all.size(); from += chunkSize) {
+            List<Long> chunk = all.subList(from, Math.min(all.size(), from + chunkSize));
+            lookups.add(submit(() -> findAll(chunk)));
+        }
+        // Результат - только после завершения всех поисков, успешных и нет
+        return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, ex) -> {
+                    RuntimeException failure = null;
+                    List<User> found = new ArrayList<>(all.size());
+                    for (CompletableFuture<List<User>> lookup : lookups) {
+                        try {
+                            found.addAll(lookup.join());
+                        } catch (CompletionException lookupFailure) {
+                            failure = addFailure(failure, lookupFailure.getCause());
+                        }
+                    }
+                    if (failure != null) {
+                        throw failure instanceof CompletionException completion ? completion
+                                : new CompletionException(failure);
+                    }
+                    return found;
+                });
+    }
+
+    // Поиск продолжается после ошибки по одному id: ошибки всех id порции - в одном исключении
+    private List<User> findAll(List<Long> ids) {
+        RuntimeException failure = null;
+        List<User> found = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            try {
+                userService.getUserById(id).ifPresent(found::add);
+            } catch (RuntimeException ex) {
+                failure = addFailure(failure, ex);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return found;
+    }
+
+    // Первая ошибка - основная, остальные добавляются к ней как подавленные
+    private static RuntimeException addFailure(RuntimeException failure, Throwable next) {
+        if (failure == null) {
+            return next instanceof RuntimeException runtime ? runtime : new CompletionException(next);
+        }
+        if (next != failure) {
+            failure.addSuppressed(next);
+        }
+        return failure;
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> getUserByEmail(String email) {
+        return submit(() -> userService.getUserByEmail(email));
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> getUserByEmailIgnoreCase(String email) {
+        return submit(() -> userService.getUserByEmailIgnoreCase(email));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> existsByEmail(String email) {
+        return submit(() -> userService.existsByEmail(email));
+    }
+
+    @Override
+    public CompletableFuture<List<User>> getAllUsers() {
+        return submit(userService::getAllUsers);
+    }
+
+    @Override
+    public CompletableFuture<Long> forEachUser(Consumer<? super User> action) {
+        return submit(() -> {
+            try (Stream<User> users = userService.streamAllUsers()) {
+                return users.mapToLong(user -> {
+                    action.accept(user);
+                    return 1;
+                }).sum();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<User>> getUsersPage(Long afterId, int limit) {
+        return submit(() -> userService.getUsersPage(afterId, limit));
+    }
+
+    @Override
+    public CompletableFuture<List<UserSummary>> getUserSummaries() {
+        return submit(userService::getUserSummaries);
+    }
+
+    @Override
+    public CompletableFuture<List<UserSummary>> getUserSummariesPage(Long afterId, int limit) {
+        return submit(() -> userService.getUserSummariesPage(afterId, limit));
+    }
+
+    @Override
+    public CompletableFuture<UserSearchResult> searchUsers(UserQuery query) {
+        return submit(() -> userService.searchUsers(query));
+    }
+
+    @Override
+    public CompletableFuture<UserChangePage> findChangedSince(ChangeCursor after, int limit) {
+        return submit(() -> userService.findChangedSince(after, limit));
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> updateUser(Long id, String newName, String newEmail, Integer newAge) {
+        return submit(() -> userService.updateUser(id, newName, newEmail, newAge));
+    }
+
+    @Override
+    public CompletableFuture<List<Optional<User>>> updateUsers(List<UserPatch> patches) {
+        return submit(() -> userService.updateUsers(patches));
+    }
+
+    @Override
+    public CompletableFuture<Integer> bulkUpdateUsers(Collection<UserPatch> patches) {
+        return submit(() -> userService.bulkUpdateUsers(patches));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteUser(Long id) {
+        return submit(() -> userService.deleteUser(id));
+    }
+
+    @Override
+    public CompletableFuture<Integer> deleteUsers(Collection<Long> ids) {
+        return submit(() -> userService.deleteUsers(ids));
+    }
+
+    // Отказ перегруженного пула возвращается как неуспешный future, а не исключение в вызывающем потоке
+    private <T> CompletableFuture<T> submit(Supplier<T> operation) {
+        try {
+            return CompletableFuture.supplyAsync(operation, executor);
+        } catch (RejectedExecutionException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.example.userservice.service;
+
+import org.example.userservice.cache.BoundedCache;
+import org.example.userservice.cache.CacheStats;
+import org.example.userservice.dao.ChangeCursor;
+import org.example.userservice.dao.UpsertResult;
+import org.example.userservice.dao.UserChangePage;
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.dao.UserQuery;
+import org.example.userservice.dao.UserSearchResult;
+import org.example.userservice.dao.UserSummary;
+import org.example.userservice.entity.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Декоратор UserService с read-through кешем для getUserById.
+ * Операции записи проходят в делегат и инвалидируют затронутые id.
+ * В кеше хранятся отсоединенные копии, поэтому изменения возвращенных объектов его не портят.
+ */
+public class CachingUserService implements UserService {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingUserService.class);
+
+    private final UserService delegate;
+    private final BoundedCache<Long, Optional<User>> cache;
+    private final boolean cacheAbsent;
+
+    /**
+     * @param cacheAbsent кешировать ли отсутствие пользователя (negative caching)
+     */
+    public CachingUserService(UserService delegate, int maximumSize, Duration ttl, boolean cacheAbsent) {
+        this.delegate = delegate;
+        this.cache = new BoundedCache<>(maximumSize, ttl);
+        this.cacheAbsent = cacheAbsent;
+    }
+
+    @Override
+    public User createUser(String name, String email, int age) {
+        User user = delegate.createUser(name, email, age);
+        cache.put(user.getId(), Optional.of(new User(user)));
+        return user;
+    }
+
+    @Override
+    public List<User> createUsers(Collection<User> users) {
+        List<User> created = delegate.createUsers(users);
+        // Id новых пользователей могли попасть в кеш как отсутствующие
+        created.forEach(user -> cache.invalidate(user.getId()));
+        return created;
+    }
+
+    @Override
+    public UpsertResult createOrUpdateByEmail(String name, String email, int age) {
+        UpsertResult result = delegate.createOrUpdateByEmail(name, email, age);
+        User user = result.user();
+        switch (result.outcome()) {
+            case INSERTED -> cache.put(user.getId(), Optional.of(new User(user)));
+            // Как и в updateUser: параллельная запись могла опередить этот результат
+            case UPDATED -> cache.invalidate(user.getId());
+            case UNCHANGED -> {
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<UpsertResult> createOrUpdateAllByEmail(Collection<User> users) {
+        List<UpsertResult> results = delegate.createOrUpdateAllByEmail(users);
+        results.stream()
+                .filter(result -> result.outcome() != UpsertResult.Outcome.UNCHANGED)
+                .forEach(result -> cache.invalidate(result.user().getId()));
+        return results;
+    }
+
+    @Override
+    public Optional<User> getUserById(Long id) {
+        Optional<User> cached = cache.get(id, this::load);
+        if (cached == null) {
+            return Optional.empty();
+        }
+        return cached.map(User::new);
+    }
+
+    private Optional<User> load(Long id) {
+        log.debug("Кеш: промах для id={}", id);
+        Optional<User> loaded = delegate.getUserById(id);
+        if (loaded.isPresent()) {
+            return Optional.of(new User(loaded.get()));
+        }
+        // null не кешируется
+        return cacheAbsent ? Optional.empty() : null;
+    }
+
+    @Override
+    public Optional<User> getUserByEmail(String email) {
+        return delegate.getUserByEmail(email);
+    }
+
+    @Override
+    public Optional<User> getUserByEmailIgnoreCase(String email) {
+        return delegate.getUserByEmailIgnoreCase(email);
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        return delegate.existsByEmail(email);
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return delegate.getAllUsers();
+    }
+
+    @Override
+    public Stream<User> streamAllUsers() {
+        return delegate.streamAllUsers();
+    }
+
+    @Override
+    public List<User> getUsersPage(Long afterId, int limit) {
+        return delegate.getUsersPage(afterId, limit);
+    }
+
+    @Override
+    public List<UserSummary> getUserSummaries() {
+        return delegate.getUserSummaries();
+    }
+
+    @Override
+    public List<UserSummary> getUserSummariesPage(Long afterId, int limit) {
+        return delegate.getUserSummariesPage(afterId, limit);
+    }
+
+    @Override
+    public UserSearchResult searchUsers(UserQuery query) {
+        return delegate.searchUsers(query);
+    }
+
+    @Override
+    public UserChangePage findChangedSince(ChangeCursor after, int limit) {
+        return delegate.findChangedSince(after, limit);
+    }
+
+    @Override
+    public Optional<User> updateUser(Long id, String newName, String newEmail, Integer newAge) {
+        try {
+            return delegate.updateUser(id, newName, newEmail, newAge);
+        } finally {
+            cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public List<Optional<User>> updateUsers(List<UserPatch> patches) {
+        try {
+            return delegate.updateUsers(patches);
+        } finally {
+            patches.forEach(patch -> cache.invalidate(patch.id()));
+        }
+    }
+
+    @Override
+    public int bulkUpdateUsers(Collection<UserPatch> patches) {
+        try {
+            return delegate.bulkUpdateUsers(patches);
+        } finally {
+            // И после ошибки: порции, зафиксированные до нее, уже изменили строки
+            patches.forEach(patch -> cache.invalidate(patch.id()));
+        }
+    }
+
+    @Override
+    public boolean deleteUser(Long id) {
+        try {
+            return delegate.deleteUser(id);
+        } finally {
+            cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public int deleteUsers(Collection<Long> ids) {
+        try {
+            return delegate.deleteUsers(ids);
+        } finally {
+            ids.forEach(cache::invalidate);
+        }
+    }
+
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,38 @@
+package org.example.userservice.service;
+
+/**
+ * Снимок состояния фильтра email {@link EmailFilteringUserService}.
+ *
+ * @param ready          построен ли фильтр; до этого все проверки идут в БД
+ * @param memoryBytes    память фильтра и журнала email, записанных после начала прошлого построения
+ * @param skipped        проверок, на которые фильтр ответил "точно нет" без запроса к БД
+ * @param passed         проверок, пропущенных фильтром в БД
+ * @param falsePositives пропущенных проверок, на которые БД ответила "нет"
+ */
+public record EmailFilterStats(boolean ready, long expectedInsertions, long insertions, long bitSize,
+                               int hashFunctions, long memoryBytes, double targetFalsePositiveRate,
+                               double expectedFalsePositiveRate, long skipped, long passed, long falsePositives,
+                               long rebuilds) {
+
+    /**
+     * Наблюдаемая доля ложных срабатываний: сколько проверок отсутствующих email фильтр пропустил в БД.
+     * Сюда же попадают удаленные и замененные email, которые остаются в фильтре до перестроения.
+     */
+    public double falsePositiveRate() {
+        long absent = skipped + falsePositives;
+        return absent == 0 ? 0 : (double) falsePositives / absent;
+    }
+
+    @Override
+    public String toString() {
+        if (!ready) {
+            return "фильтр email еще не построен";
+        }
+        return String.format("строк=%d из %d, бит=%d, хеш-функций=%d, память=%.1f КБ, ложных срабатываний: "
+                        + "цель %.2f%%, по заполнению %.2f%%, наблюдаемая %.2f%%, без запроса к БД=%d, в БД=%d, "
+                        + "перестроений=%d",
+                insertions, expectedInsertions, bitSize, hashFunctions, memoryBytes / 1024.0,
+                targetFalsePositiveRate * 100, expectedFalsePositiveRate * 100, falsePositiveRate() * 100,
+                skipped, passed, rebuilds);
+    }
+}
@@ -0,0 +1,307 @@
+package org.example.userservice.service;
+
+import org.example.userservice.cache.BloomFilter;
+import org.example.userservice.dao.ChangeCursor;
+import org.example.userservice.dao.UpsertResult;
+import org.example.userservice.dao.UserChangePage;
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.dao.UserQuery;
+import org.example.userservice.dao.UserSearchResult;
+import org.example.userservice.dao.UserSummary;
+import org.example.userservice.entity.User;
+import org.example.userservice.util.HibernateUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Декоратор UserService с фильтром Блума по email: {@link #getUserByEmail} и {@link #existsByEmail}
+ * для email, которого точно нет, отвечают без запроса к БД.
+ * <p>
+ * Фильтр строится в фоне чтением всех пользователей сразу после создания сервиса и затем перестраивается
+ * каждые rebuildInterval: так из него уходят удаленные и замененные email (из фильтра Блума их не убрать),
+ * а размер пересчитывается по текущему числу пользователей. Пока фильтр не построен, проверки идут в делегат.
+ * <p>
+ * Email добавляется в фильтр до записи в делегат: неудачная запись оставляет ложное срабатывание,
+ * но записанный email никогда не считается отсутствующим. Запись в обход сервиса (импорт CSV)
+ * фильтр не видит, после нее нужен {@link #rebuild()}. Поиск без учета регистра фильтр не обслуживает:
+ * lower() в БД и в Java для символов вне ASCII может давать разное.
+ */
+public class EmailFilteringUserService implements UserService, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailFilteringUserService.class);
+
+    private static final long MIN_EXPECTED_INSERTIONS = 1_024;
+    // Запас на рост до следующего перестроения
+    private static final long GROWTH_HEADROOM = 2;
+    // Приблизительный размер элемента журнала без символов email: узел очереди, String и заголовок массива
+    private static final long JOURNAL_ENTRY_BYTES = 64;
+    private static final UserQuery COUNT_ALL = UserQuery.builder().limit(1).build();
+
+    private final UserService delegate;
+    private final double falsePositiveRate;
+    private final ScheduledExecutorService rebuilder;
+    private final Runnable shutdownListener = this::close;
+    // null, пока фильтр не построен
+    private volatile BloomFilter filter;
+    // Email, записанные после начала прошлого построения. Новый фильтр добавляет их к прочитанным из БД:
+    // обход может не увидеть запись, зафиксированную после его начала или еще не дошедшую до реплики
+    private volatile Queue<String> journal = new ConcurrentLinkedQueue<>();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+
+    /**
+     * @param falsePositiveRate целевая доля ложных срабатываний сразу после построения
+     * @param rebuildInterval   период перестроения; должен быть больше отставания реплик
+     */
+    public EmailFilteringUserService(UserService delegate, double falsePositiveRate, Duration rebuildInterval) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("Доля ложных срабатываний должна быть в (0, 1): " + falsePositiveRate);
+        }
+        if (rebuildInterval.isNegative() || rebuildInterval.isZero()) {
+            throw new IllegalArgumentException("Период перестроения должен быть положительным: " + rebuildInterval);
+        }
+        this.delegate = delegate;
+        this.falsePositiveRate = falsePositiveRate;
+        this.rebuilder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-service-email-filter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuilder.scheduleWithFixedDelay(this::scheduledRebuild, 0, rebuildInterval.toNanos(), TimeUnit.NANOSECONDS);
+        HibernateUtil.addShutdownListener(shutdownListener);
+        log.info("Фильтр email включен: доля ложных срабатываний={}, перестроение каждые {}",
+                falsePositiveRate, rebuildInterval);
+    }
+
+    /**
+     * Строит фильтр заново по всем пользователям и заменяет им текущий. Вызовы выполняются по очереди.
+     */
+    public synchronized void rebuild() {
+        long started = System.nanoTime();
+        Queue<String> earlier = journal;
+        Queue<String> during = new ConcurrentLinkedQueue<>();
+        journal = during;
+        try {
+            long users = delegate.searchUsers(COUNT_ALL).totalCount();
+            BloomFilter built = new BloomFilter(
+                    Math.max(MIN_EXPECTED_INSERTIONS, (users + earlier.size()) * GROWTH_HEADROOM), falsePositiveRate);
+            try (Stream<User> all = delegate.streamAllUsers()) {
+                all.forEach(user -> built.put(user.getEmail()));
+            }
+            earlier.forEach(built::put);
+            during.forEach(built::put);
+            filter = built;
+            // Email, которые успели попасть только в прежний фильтр между обходом журналов и заменой;
+            // в прежний журнал добавляет запись, прочитавшая ссылку на него до смены
+            earlier.forEach(built::put);
+            during.forEach(built::put);
+            rebuilds.increment();
+            log.info("Фильтр email построен за {} мс: пользователей {}, бит {}, память {} КБ",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), users, built.bitSize(),
+                    built.memoryBytes() / 1024);
+        } catch (RuntimeException ex) {
+            // Записи прошлого периода понадобятся следующему построению
+            during.addAll(earlier);
+            throw ex;
+        }
+    }
+
+    private void scheduledRebuild() {
+        try {
+            rebuild();
+        } catch (RuntimeException ex) {
+            // Исключение остановило бы периодический запуск; фильтр остается прежним
+            log.error("Не удалось построить фильтр email, повтор в следующий период", ex);
+        }
+    }
+
+    public EmailFilterStats getStats() {
+        BloomFilter current = filter;
+        long journalBytes = 0;
+        for (String email : journal) {
+            journalBytes += JOURNAL_ENTRY_BYTES + email.length();
+        }
+        if (current == null) {
+            return new EmailFilterStats(false, 0, 0, 0, 0, journalBytes, falsePositiveRate, 0,
+                    skipped.sum(), passed.sum(), falsePositives.sum(), rebuilds.sum());
+        }
+        return new EmailFilterStats(true, current.expectedInsertions(), current.insertions(), current.bitSize(),
+                current.hashFunctions(), current.memoryBytes() + journalBytes, falsePositiveRate,
+                current.expectedFalsePositiveRate(), skipped.sum(), passed.sum(), falsePositives.sum(),
+                rebuilds.sum());
+    }
+
+    @Override
+    public void close() {
+        HibernateUtil.removeShutdownListener(shutdownListener);
+        rebuilder.shutdownNow();
+    }
+
+    // Журнал - первым: построение, которое его уже обошло, к этому моменту заменило фильтр,
+    // и добавление ниже попадет в новый
+    private void record(String email) {
+        if (email == null) {
+            return;
+        }
+        journal.add(email);
+        BloomFilter current = filter;
+        if (current != null) {
+            current.put(email);
+        }
+    }
+
+    private Check check(String email) {
+        BloomFilter current = filter;
+        if (current == null || email == null) {
+            return Check.UNFILTERED;
+        }
+        if (current.mightContain(email)) {
+            passed.increment();
+            return Check.PASSED;
+        }
+        skipped.increment();
+        return Check.ABSENT;
+    }
+
+    private enum Check {
+        ABSENT, PASSED, UNFILTERED
+    }
+
+    @Override
+    public User createUser(String name, String email, int age) {
+        record(email);
+        return delegate.createUser(name, email, age);
+    }
+
+    @Override
+    public List<User> createUsers(Collection<User> users) {
+        users.forEach(user -> record(user.getEmail()));
+        return delegate.createUsers(users);
+    }
+
+    @Override
+    public UpsertResult createOrUpdateByEmail(String name, String email, int age) {
+        record(email);
+        return delegate.createOrUpdateByEmail(name, email, age);
+    }
+
+    @Override
+    public List<UpsertResult> createOrUpdateAllByEmail(Collection<User> users) {
+        users.forEach(user -> record(user.getEmail()));
+        return delegate.createOrUpdateAllByEmail(users);
+    }
+
+    @Override
+    public Optional<User> getUserById(Long id) {
+        return delegate.getUserById(id);
+    }
+
+    @Override
+    public Optional<User> getUserByEmail(String email) {
+        Check check = check(email);
+        if (check == Check.ABSENT) {
+            return Optional.empty();
+        }
+        Optional<User> user = delegate.getUserByEmail(email);
+        if (user.isEmpty() && check == Check.PASSED) {
+            falsePositives.increment();
+        }
+        return user;
+    }
+
+    @Override
+    public Optional<User> getUserByEmailIgnoreCase(String email) {
+        return delegate.getUserByEmailIgnoreCase(email);
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        Check check = check(email);
+        if (check == Check.ABSENT) {
+            return false;
+        }
+        boolean exists = delegate.existsByEmail(email);
+        if (!exists && check == Check.PASSED) {
+            falsePositives.increment();
+        }
+        return exists;
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return delegate.getAllUsers();
+    }
+
+    @Override
+    public Stream<User> streamAllUsers() {
+        return delegate.streamAllUsers();
+    }
+
+    @Override
+    public List<User> getUsersPage(Long afterId, int limit) {
+        return delegate.getUsersPage(afterId, limit);
+    }
+
+    @Override
+    public List<UserSummary> getUserSummaries() {
+        return delegate.getUserSummaries();
+    }
+
+    @Override
+    public List<UserSummary> getUserSummariesPage(Long afterId, int limit) {
+        return delegate.getUserSummariesPage(afterId, limit);
+    }
+
+    @Override
+    public UserSearchResult searchUsers(UserQuery query) {
+        return delegate.searchUsers(query);
+    }
+
+    @Override
+    public UserChangePage findChangedSince(ChangeCursor after, int limit) {
+        return delegate.findChangedSince(after, limit);
+    }
+
+    @Override
+    public Optional<User> updateUser(Long id, String newName, String newEmail, Integer newAge) {
+        record(newEmail);
+        return delegate.updateUser(id, newName, newEmail, newAge);
+    }
+
+    @Override
+    public List<Optional<User>> updateUsers(List<UserPatch> patches) {
+        patches.forEach(patch -> record(patch.email()));
+        return delegate.updateUsers(patches);
+    }
+
+    @Override
+    public int bulkUpdateUsers(Collection<UserPatch> patches) {
+        patches.forEach(patch -> record(patch.email()));
+        return delegate.bulkUpdateUsers(patches);
+    }
+
+    // Email удаленных пользователей остаются в фильтре до перестроения
+    @Override
+    public boolean deleteUser(Long id) {
+        return delegate.deleteUser(id);
+    }
+
+    @Override
+    public int deleteUsers(Collection<Long> ids) {
+        return delegate.deleteUsers(ids);
+    }
+}
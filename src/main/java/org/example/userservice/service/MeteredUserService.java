@@ -0,0 +1,179 @@
+package org.example.userservice.service;
+
+import org.example.userservice.dao.ChangeCursor;
+import org.example.userservice.dao.UpsertResult;
+import org.example.userservice.dao.UserChangePage;
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.dao.UserQuery;
+import org.example.userservice.dao.UserSearchResult;
+import org.example.userservice.dao.UserSummary;
+import org.example.userservice.entity.User;
+import org.example.userservice.metrics.MetricsRegistry;
+import org.example.userservice.metrics.OperationMetrics;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Декоратор UserService, который записывает число вызовов, ошибки и задержку каждой операции.
+ * Поставленный поверх {@link CachingUserService}, показывает задержку с учетом попаданий в кеш.
+ */
+public class MeteredUserService implements UserService {
+
+    private static final String LAYER = "service";
+
+    private final UserService delegate;
+    private final OperationMetrics createUser;
+    private final OperationMetrics createUsers;
+    private final OperationMetrics createOrUpdateByEmail;
+    private final OperationMetrics createOrUpdateAllByEmail;
+    private final OperationMetrics getUserById;
+    private final OperationMetrics getUserByEmail;
+    private final OperationMetrics getUserByEmailIgnoreCase;
+    private final OperationMetrics existsByEmail;
+    private final OperationMetrics getAllUsers;
+    private final OperationMetrics streamAllUsers;
+    private final OperationMetrics getUsersPage;
+    private final OperationMetrics getUserSummaries;
+    private final OperationMetrics getUserSummariesPage;
+    private final OperationMetrics searchUsers;
+    private final OperationMetrics findChangedSince;
+    private final OperationMetrics updateUser;
+    private final OperationMetrics updateUsers;
+    private final OperationMetrics bulkUpdateUsers;
+    private final OperationMetrics deleteUser;
+    private final OperationMetrics deleteUsers;
+
+    public MeteredUserService(UserService delegate, MetricsRegistry registry) {
+        this.delegate = delegate;
+        this.createUser = registry.operation(LAYER, "createUser");
+        this.createUsers = registry.operation(LAYER, "createUsers");
+        this.createOrUpdateByEmail = registry.operation(LAYER, "createOrUpdateByEmail");
+        this.createOrUpdateAllByEmail = registry.operation(LAYER, "createOrUpdateAllByEmail");
+        this.getUserById = registry.operation(LAYER, "getUserById");
+        this.getUserByEmail = registry.operation(LAYER, "getUserByEmail");
+        this.getUserByEmailIgnoreCase = registry.operation(LAYER, "getUserByEmailIgnoreCase");
+        this.existsByEmail = registry.operation(LAYER, "existsByEmail");
+        this.getAllUsers = registry.operation(LAYER, "getAllUsers");
+        this.streamAllUsers = registry.operation(LAYER, "streamAllUsers");
+        this.getUsersPage = registry.operation(LAYER, "getUsersPage");
+        this.getUserSummaries = registry.operation(LAYER, "getUserSummaries");
+        this.getUserSummariesPage = registry.operation(LAYER, "getUserSummariesPage");
+        this.searchUsers = registry.operation(LAYER, "searchUsers");
+        this.findChangedSince = registry.operation(LAYER, "findChangedSince");
+        this.updateUser = registry.operation(LAYER, "updateUser");
+        this.updateUsers = registry.operation(LAYER, "updateUsers");
+        this.bulkUpdateUsers = registry.operation(LAYER, "bulkUpdateUsers");
+        this.deleteUser = registry.operation(LAYER, "deleteUser");
+        this.deleteUsers = registry.operation(LAYER, "deleteUsers");
+    }
+
+    @Override
+    public User createUser(String name, String email, int age) {
+        return createUser.record(() -> delegate.createUser(name, email, age));
+    }
+
+    @Override
+    public List<User> createUsers(Collection<User> users) {
+        return createUsers.record(() -> delegate.createUsers(users));
+    }
+
+    @Override
+    public UpsertResult createOrUpdateByEmail(String name, String email, int age) {
+        return createOrUpdateByEmail.record(() -> delegate.createOrUpdateByEmail(name, email, age));
+    }
+
+    @Override
+    public List<UpsertResult> createOrUpdateAllByEmail(Collection<User> users) {
+        return createOrUpdateAllByEmail.record(() -> delegate.createOrUpdateAllByEmail(users));
+    }
+
+    @Override
+    public Optional<User> getUserById(Long id) {
+        return getUserById.record(() -> delegate.getUserById(id));
+    }
+
+    @Override
+    public Optional<User> getUserByEmail(String email) {
+        return getUserByEmail.record(() -> delegate.getUserByEmail(email));
+    }
+
+    @Override
+    public Optional<User> getUserByEmailIgnoreCase(String email) {
+        return getUserByEmailIgnoreCase.record(() -> delegate.getUserByEmailIgnoreCase(email));
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        return existsByEmail.record(() -> delegate.existsByEmail(email));
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return getAllUsers.record(delegate::getAllUsers);
+    }
+
+    // Как и в MeteredUserDao, время считается до закрытия потока
+    @Override
+    public Stream<User> streamAllUsers() {
+        long start = streamAllUsers.start();
+        try {
+            return delegate.streamAllUsers().onClose(() -> streamAllUsers.stop(start, true));
+        } catch (RuntimeException ex) {
+            streamAllUsers.stop(start, false);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<User> getUsersPage(Long afterId, int limit) {
+        return getUsersPage.record(() -> delegate.getUsersPage(afterId, limit));
+    }
+
+    @Override
+    public List<UserSummary> getUserSummaries() {
+        return getUserSummaries.record(delegate::getUserSummaries);
+    }
+
+    @Override
+    public List<UserSummary> getUserSummariesPage(Long afterId, int limit) {
+        return getUserSummariesPage.record(() -> delegate.getUserSummariesPage(afterId, limit));
+    }
+
+    @Override
+    public UserSearchResult searchUsers(UserQuery query) {
+        return searchUsers.record(() -> delegate.searchUsers(query));
+    }
+
+    @Override
+    public UserChangePage findChangedSince(ChangeCursor after, int limit) {
+        return findChangedSince.record(() -> delegate.findChangedSince(after, limit));
+    }
+
+    @Override
+    public Optional<User> updateUser(Long id, String newName, String newEmail, Integer newAge) {
+        return updateUser.record(() -> delegate.updateUser(id, newName, newEmail, newAge));
+    }
+
+    @Override
+    public List<Optional<User>> updateUsers(List<UserPatch> patches) {
+        return updateUsers.record(() -> delegate.updateUsers(patches));
+    }
+
+    @Override
+    public int bulkUpdateUsers(Collection<UserPatch> patches) {
+        return bulkUpdateUsers.record(() -> delegate.bulkUpdateUsers(patches));
+    }
+
+    @Override
+    public boolean deleteUser(Long id) {
+        return deleteUser.record(() -> delegate.deleteUser(id));
+    }
+
+    @Override
+    public int deleteUsers(Collection<Long> ids) {
+        return deleteUsers.record(() -> delegate.deleteUsers(ids));
+    }
+}
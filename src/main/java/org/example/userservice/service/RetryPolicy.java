@@ -0,0 +1,117 @@
+package org.example.userservice.service;
+
+import jakarta.persistence.OptimisticLockException;
+import jakarta.persistence.PessimisticLockException;
+import org.hibernate.StaleStateException;
+import org.hibernate.exception.LockAcquisitionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Повтор операции после конфликта параллельных транзакций: устаревшая версия (оптимистическая блокировка),
+ * взаимоблокировка или ошибка сериализации. Прочие ошибки пробрасываются сразу.
+ * <p>
+ * Пауза перед повтором - случайная в диапазоне [0, min(maxBackoff, initialBackoff * 2^(попытка - 1))]
+ * (full jitter): одновременно столкнувшиеся транзакции расходятся во времени, а не повторяют конфликт.
+ */
+public final class RetryPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+
+    // serialization_failure и deadlock_detected
+    private static final Set<String> RETRYABLE_SQL_STATES = Set.of("40001", "40P01");
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+
+    private RetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+        if (maxAttempts <= 0 || initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0) {
+            throw new IllegalArgumentException("Некорректная политика повторов: maxAttempts=" + maxAttempts
+                    + ", initialBackoff=" + initialBackoff + ", maxBackoff=" + maxBackoff);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+    }
+
+    public static RetryPolicy of(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+        return new RetryPolicy(maxAttempts, initialBackoff, maxBackoff);
+    }
+
+    /**
+     * Параметры из системных свойств user-service.retry.max-attempts, user-service.retry.initial-backoff-ms
+     * и user-service.retry.max-backoff-ms (по умолчанию 5 попыток, 5..200 мс).
+     */
+    public static RetryPolicy fromSystemProperties() {
+        return of(Integer.getInteger("user-service.retry.max-attempts", 5),
+                Duration.ofMillis(Long.getLong("user-service.retry.initial-backoff-ms", 5)),
+                Duration.ofMillis(Long.getLong("user-service.retry.max-backoff-ms", 200)));
+    }
+
+    public static RetryPolicy noRetry() {
+        return of(1, Duration.ZERO, Duration.ZERO);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Выполняет action, повторяя его после конфликтов. Каждая попытка - новая транзакция,
+     * которая заново читает актуальное состояние строк.
+     */
+    public <T> T execute(String operation, Supplier<T> action) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return action.get();
+            } catch (RuntimeException ex) {
+                if (attempt >= maxAttempts || !isRetryable(ex)) {
+                    throw ex;
+                }
+                long backoff = backoffNanos(attempt);
+                log.debug("Конфликт параллельных транзакций в {}, попытка {} из {}, повтор через {} мкс",
+                        operation, attempt, maxAttempts, TimeUnit.NANOSECONDS.toMicros(backoff));
+                try {
+                    TimeUnit.NANOSECONDS.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    ex.addSuppressed(interrupted);
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    private long backoffNanos(int attempt) {
+        long ceiling = maxBackoffNanos;
+        // Сдвиг без переполнения: иначе предел уже достигнут
+        if (attempt - 1 < Long.numberOfLeadingZeros(initialBackoffNanos) - 1) {
+            ceiling = Math.min(maxBackoffNanos, initialBackoffNanos << (attempt - 1));
+        }
+        return ceiling == 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    static boolean isRetryable(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockException
+                    || cause instanceof StaleStateException
+                    || cause instanceof PessimisticLockException
+                    || cause instanceof LockAcquisitionException) {
+                return true;
+            }
+            if (cause instanceof SQLException sqlException
+                    && RETRYABLE_SQL_STATES.contains(sqlException.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,19 +1,95 @@
 package org.example.userservice.service;
 
+import org.example.userservice.dao.ChangeCursor;
+import org.example.userservice.dao.UpsertResult;
+import org.example.userservice.dao.UserChangePage;
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.dao.UserQuery;
+import org.example.userservice.dao.UserSearchResult;
+import org.example.userservice.dao.UserSummary;
 import org.example.userservice.entity.User;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface UserService {
 
     User createUser(String name, String email, int age);
 
+    List<User> createUsers(Collection<User> users);
+
+    /**
+     * Создает пользователя или обновляет имя и возраст пользователя с тем же email - одним запросом,
+     * без попытки вставки, отката и повторного поиска (см. {@link org.example.userservice.dao.UserDao#upsertByEmail}).
+     */
+    UpsertResult createOrUpdateByEmail(String name, String email, int age);
+
+    /**
+     * Пакетный {@link #createOrUpdateByEmail}: результаты в порядке users.
+     */
+    List<UpsertResult> createOrUpdateAllByEmail(Collection<User> users);
+
     Optional<User> getUserById(Long id);
 
+    Optional<User> getUserByEmail(String email);
+
+    Optional<User> getUserByEmailIgnoreCase(String email);
+
+    boolean existsByEmail(String email);
+
     List<User> getAllUsers();
 
+    // Поток нужно закрыть после использования
+    Stream<User> streamAllUsers();
+
+    List<User> getUsersPage(Long afterId, int limit);
+
+    /**
+     * Краткий список всех пользователей для вывода списком: дешевле {@link #getAllUsers()},
+     * так как сущности не создаются.
+     */
+    List<UserSummary> getUserSummaries();
+
+    List<UserSummary> getUserSummariesPage(Long afterId, int limit);
+
+    /**
+     * Поиск по условиям вместо чтения всех пользователей с фильтрацией в памяти.
+     */
+    UserSearchResult searchUsers(UserQuery query);
+
+    /**
+     * Изменения пользователей после курсора для потребителей, которые переносят только разницу
+     * (см. {@link org.example.userservice.dao.UserDao#findChangedSince}).
+     */
+    UserChangePage findChangedSince(ChangeCursor after, int limit);
+
     Optional<User> updateUser(Long id, String newName, String newEmail, Integer newAge);
 
+    /**
+     * Применяет все изменения в одной транзакции.
+     *
+     * @return результат для каждого изменения в том же порядке; пустой Optional - пользователь не найден
+     */
+    List<Optional<User>> updateUsers(List<UserPatch> patches);
+
+    /**
+     * Применяет изменения пакетно, без чтения строк (см. {@link org.example.userservice.dao.UserDao#updateAll}):
+     * порциями в отдельных транзакциях, поэтому ошибка оставляет в силе уже примененные порции.
+     * После конфликта параллельных транзакций повторяется только порция, которая не зафиксирована.
+     *
+     * @return число измененных пользователей
+     */
+    int bulkUpdateUsers(Collection<UserPatch> patches);
+
     boolean deleteUser(Long id);
+
+    /**
+     * Удаляет пользователей порциями в отдельных транзакциях
+     * (см. {@link org.example.userservice.dao.UserDao#deleteAllById}).
+     *
+     * @return число удаленных пользователей
+     */
+    int deleteUsers(Collection<Long> ids);
 }
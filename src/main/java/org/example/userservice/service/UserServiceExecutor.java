@@ -0,0 +1,153 @@
+package org.example.userservice.service;
+
+import org.example.userservice.util.HibernateUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ограниченный исполнитель для {@link AsyncUserService}.
+ * На JDK 21+ задачи выполняются в виртуальных потоках, иначе - в пуле платформенных потоков.
+ * В обоих режимах одновременно выполняется не больше maxConcurrency задач и еще до queueCapacity ждут очереди,
+ * остальные отклоняются с {@link RejectedExecutionException}.
+ */
+public final class UserServiceExecutor implements Executor, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(UserServiceExecutor.class);
+
+    private final ExecutorService executor;
+    private final int maxConcurrency;
+    // Только для виртуальных потоков (платформенный пул ограничен своими потоками и очередью):
+    // admitted - принятые задачи, выполняемые и ждущие; running - выполняемые. Задача ждет running
+    // в своем виртуальном потоке, такие потоки и есть очередь
+    private final Semaphore admitted;
+    private final Semaphore running;
+
+    private UserServiceExecutor(ExecutorService executor, int maxConcurrency, Semaphore admitted, Semaphore running) {
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.admitted = admitted;
+        this.running = running;
+    }
+
+    public static UserServiceExecutor create(int maxConcurrency, int queueCapacity, boolean preferVirtualThreads) {
+        if (maxConcurrency <= 0 || queueCapacity < 0) {
+            throw new IllegalArgumentException("Некорректные размеры пула: maxConcurrency=" + maxConcurrency
+                    + ", queueCapacity=" + queueCapacity);
+        }
+
+        if (preferVirtualThreads) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                log.info("Асинхронный сервис использует виртуальные потоки: одновременно={}, очередь={}",
+                        maxConcurrency, queueCapacity);
+                // Справедливый семафор выдает разрешения в порядке ожидания, как очередь пула
+                return new UserServiceExecutor(virtual, maxConcurrency,
+                        new Semaphore(maxConcurrency + queueCapacity), new Semaphore(maxConcurrency, true));
+            }
+        }
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                0L, TimeUnit.MILLISECONDS,
+                queueCapacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueCapacity),
+                new NamedThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        log.info("Асинхронный сервис использует пул платформенных потоков: потоков={}, очередь={}",
+                maxConcurrency, queueCapacity);
+        return new UserServiceExecutor(pool, maxConcurrency, null, null);
+    }
+
+    /**
+     * Параллелизм по размеру пула соединений: больше потоков все равно будут ждать соединение.
+     */
+    public static UserServiceExecutor forConnectionPool(int queueCapacity) {
+        return create(HibernateUtil.getPoolStats().maximumPoolSize(), queueCapacity, true);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (admitted == null) {
+            executor.execute(task);
+            return;
+        }
+        if (!admitted.tryAcquire()) {
+            throw new RejectedExecutionException("Превышен лимит одновременных задач асинхронного сервиса");
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    running.acquire();
+                    try {
+                        task.run();
+                    } finally {
+                        running.release();
+                    }
+                } catch (InterruptedException ex) {
+                    // shutdownNow до начала выполнения: задача не запускается, как и в очереди пула
+                    Thread.currentThread().interrupt();
+                } finally {
+                    admitted.release();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            admitted.release();
+            throw ex;
+        }
+    }
+
+    public boolean usesVirtualThreads() {
+        return admitted != null;
+    }
+
+    public int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Асинхронные задачи не завершились за 30 секунд, прерываем");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor появился в JDK 21; проект собирается под 17
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+            return null;
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "user-service-async-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
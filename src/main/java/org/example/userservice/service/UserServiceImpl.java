@@ -1,82 +1,204 @@
 package org.example.userservice.service;
 
+import org.example.userservice.dao.ChangeCursor;
+import org.example.userservice.dao.UpsertResult;
+import org.example.userservice.dao.UserChangePage;
 import org.example.userservice.dao.UserDao;
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.dao.UserQuery;
+import org.example.userservice.dao.UserSearchResult;
+import org.example.userservice.dao.UserSummary;
 import org.example.userservice.entity.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public class UserServiceImpl implements UserService {
 
     private static final Logger log = LoggerFactory.getLogger(UserServiceImpl.class);
 
     private final UserDao userDao;
+    private final RetryPolicy retryPolicy;
 
     public UserServiceImpl(UserDao userDao) {
+        this(userDao, RetryPolicy.fromSystemProperties());
+    }
+
+    public UserServiceImpl(UserDao userDao, RetryPolicy retryPolicy) {
         this.userDao = userDao;
+        this.retryPolicy = retryPolicy;
     }
 
     @Override
     public User createUser(String name, String email, int age) {
-        log.info("Сервис: создание пользователя name={}, email={}, age={}", name, email, age);
+        log.debug("Сервис: создание пользователя name={}, email={}, age={}", name, email, age);
         User user = new User(name, email, age);
         userDao.save(user);
-        log.info("Сервис: пользователь создан id={}", user.getId());
+        log.debug("Сервис: пользователь создан id={}", user.getId());
         return user;
     }
 
+    @Override
+    public List<User> createUsers(Collection<User> users) {
+        log.debug("Сервис: пакетное создание пользователей, количество={}", users.size());
+        List<User> toSave = List.copyOf(users);
+        userDao.saveAll(toSave);
+        log.debug("Сервис: пакетно создано пользователей={}", toSave.size());
+        return toSave;
+    }
+
+    @Override
+    public UpsertResult createOrUpdateByEmail(String name, String email, int age) {
+        log.debug("Сервис: создание или обновление пользователя по email={} (name={}, age={})", email, name, age);
+        UpsertResult result = userDao.upsertByEmail(new User(name, email, age));
+        log.debug("Сервис: пользователь id={} {}", result.user().getId(), result.outcome());
+        return result;
+    }
+
+    @Override
+    public List<UpsertResult> createOrUpdateAllByEmail(Collection<User> users) {
+        log.debug("Сервис: пакетное создание или обновление по email, количество={}", users.size());
+        List<UpsertResult> results = userDao.upsertAllByEmail(users);
+        log.debug("Сервис: пакетно создано пользователей={}", results.stream().filter(UpsertResult::inserted).count());
+        return results;
+    }
+
     @Override
     public Optional<User> getUserById(Long id) {
-        log.info("Сервис: поиск пользователя по id={}", id);
+        log.debug("Сервис: поиск пользователя по id={}", id);
         return userDao.findById(id);
     }
 
+    @Override
+    public Optional<User> getUserByEmail(String email) {
+        log.debug("Сервис: поиск пользователя по email={}", email);
+        return userDao.findByEmail(email);
+    }
+
+    @Override
+    public Optional<User> getUserByEmailIgnoreCase(String email) {
+        log.debug("Сервис: поиск пользователя по email={} без учета регистра", email);
+        return userDao.findByEmailIgnoreCase(email);
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        log.debug("Сервис: проверка существования email={}", email);
+        return userDao.existsByEmail(email);
+    }
+
     @Override
     public List<User> getAllUsers() {
-        log.info("Сервис: получение всех пользователей");
+        log.debug("Сервис: получение всех пользователей");
         return userDao.findAll();
     }
 
     @Override
-    public Optional<User> updateUser(Long id, String newName, String newEmail, Integer newAge) {
-        log.info("Сервис: обновление пользователя id={} (newName={}, newEmail={}, newAge={})",
-                id, newName, newEmail, newAge);
+    public Stream<User> streamAllUsers() {
+        log.debug("Сервис: потоковое чтение всех пользователей");
+        return userDao.streamAll();
+    }
 
-        Optional<User> userOpt = userDao.findById(id);
-        if (userOpt.isEmpty()) {
-            log.info("Сервис: пользователь для обновления не найден id={}", id);
-            return Optional.empty();
+    @Override
+    public List<User> getUsersPage(Long afterId, int limit) {
+        log.debug("Сервис: получение страницы пользователей afterId={}, limit={}", afterId, limit);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным: " + limit);
         }
+        return userDao.findPage(afterId, limit);
+    }
 
-        User user = userOpt.get();
+    @Override
+    public List<UserSummary> getUserSummaries() {
+        log.debug("Сервис: получение краткого списка пользователей");
+        return userDao.findAllSummaries();
+    }
 
-        if (newName != null) {
-            user.setName(newName);
+    @Override
+    public List<UserSummary> getUserSummariesPage(Long afterId, int limit) {
+        log.debug("Сервис: получение краткой страницы пользователей afterId={}, limit={}", afterId, limit);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным: " + limit);
         }
-        if (newEmail != null) {
-            user.setEmail(newEmail);
+        return userDao.findSummaryPage(afterId, limit);
+    }
+
+    @Override
+    public UserSearchResult searchUsers(UserQuery query) {
+        log.debug("Сервис: поиск пользователей {}", query);
+        return userDao.search(query);
+    }
+
+    @Override
+    public UserChangePage findChangedSince(ChangeCursor after, int limit) {
+        log.debug("Сервис: чтение ленты изменений после {}, limit={}", after, limit);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер порции должен быть положительным: " + limit);
         }
-        if (newAge != null) {
-            user.setAge(newAge);
+        return userDao.findChangedSince(after, limit);
+    }
+
+    @Override
+    public Optional<User> updateUser(Long id, String newName, String newEmail, Integer newAge) {
+        log.debug("Сервис: обновление пользователя id={} (newName={}, newEmail={}, newAge={})",
+                id, newName, newEmail, newAge);
+
+        // UPDATE меняет только переданные поля текущей строки, поэтому повтор после конфликта
+        // заново применяет частичное изменение к свежему состоянию, не затирая чужие поля
+        UserPatch patch = new UserPatch(id, newName, newEmail, newAge);
+        Optional<User> updated = retryPolicy.execute("updateUser", () -> userDao.patch(patch));
+        if (updated.isEmpty()) {
+            log.debug("Сервис: пользователь для обновления не найден id={}", id);
+            return Optional.empty();
         }
 
-        userDao.update(user);
-        log.info("Сервис: пользователь обновлен id={}", id);
-        return Optional.of(user);
+        log.debug("Сервис: пользователь обновлен id={}", id);
+        return updated;
+    }
+
+    @Override
+    public List<Optional<User>> updateUsers(List<UserPatch> patches) {
+        log.debug("Сервис: пакетное обновление пользователей, количество={}", patches.size());
+        List<Optional<User>> updated = retryPolicy.execute("updateUsers", () -> userDao.patchAll(patches));
+        log.debug("Сервис: пакетно обновлено пользователей={}", updated.stream().filter(Optional::isPresent).count());
+        return updated;
+    }
+
+    @Override
+    public int bulkUpdateUsers(Collection<UserPatch> patches) {
+        log.debug("Сервис: пакетное обновление пользователей без чтения, количество={}", patches.size());
+        // Каждая порция фиксируется отдельно, поэтому и повторяется отдельно: повтор всего вызова применил бы
+        // зафиксированные порции второй раз поверх изменений, сделанных после них
+        List<UserPatch> merged = UserPatch.mergeById(patches);
+        int updated = 0;
+        for (int from = 0; from < merged.size(); from += UserDao.MUTATION_CHUNK_SIZE) {
+            List<UserPatch> chunk = merged.subList(from, Math.min(merged.size(), from + UserDao.MUTATION_CHUNK_SIZE));
+            updated += retryPolicy.execute("bulkUpdateUsers", () -> userDao.updateAll(chunk));
+        }
+        log.debug("Сервис: пакетно обновлено пользователей={}", updated);
+        return updated;
     }
 
     @Override
     public boolean deleteUser(Long id) {
-        log.info("Сервис: удаление пользователя id={}", id);
-        Optional<User> userOpt = userDao.findById(id);
-        if (userOpt.isEmpty()) {
-            log.info("Сервис: пользователь для удаления не найден id={}", id);
+        log.debug("Сервис: удаление пользователя id={}", id);
+        if (!userDao.deleteById(id)) {
+            log.debug("Сервис: пользователь для удаления не найден id={}", id);
             return false;
         }
-        userDao.deleteById(id);
-        log.info("Сервис: пользователь удален id={}", id);
+        log.debug("Сервис: пользователь удален id={}", id);
         return true;
     }
+
+    @Override
+    public int deleteUsers(Collection<Long> ids) {
+        log.debug("Сервис: пакетное удаление пользователей, количество={}", ids.size());
+        int deleted = userDao.deleteAllById(ids);
+        log.debug("Сервис: пакетно удалено пользователей={}", deleted);
+        return deleted;
+    }
 }
@@ -0,0 +1,358 @@
+package org.example.userservice.service;
+
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.entity.User;
+import org.example.userservice.util.HibernateUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Отложенная запись (write-behind) для создания и обновления пользователей.
+ * <p>
+ * Изменения попадают в ограниченную очередь; фоновый поток собирает их в группы до maxBatchSize
+ * или до истечения maxDelay с первого изменения группы. Группа делится на отрезки подряд идущих
+ * созданий и обновлений, и каждый отрезок фиксируется одной транзакцией ({@link UserService#createUsers}
+ * или {@link UserService#updateUsers}) в порядке очереди: создание с email, который освободило
+ * предыдущее обновление, не опережает это обновление. Несколько обновлений одного id в отрезке
+ * объединяются в одно ({@link UserPatch#mergeById}): более позднее значение поля побеждает.
+ * Future завершается после коммита. Если транзакция отрезка откатилась, его изменения
+ * повторяются по одному, и ошибку получают только future виновных изменений.
+ * <p>
+ * Переполненная очередь отклоняет изменение с {@link RejectedExecutionException} в future.
+ * {@link #close()} (вызывается и из {@link HibernateUtil#shutdown()}) перестает принимать изменения
+ * и дожидается записи всей очереди. Если поток записи прерван или получил Error, сервис закрывается сам,
+ * а future изменений, оставшихся в очереди, завершаются этой ошибкой. Future завершаются в потоке записи,
+ * поэтому тяжелые обработчики стоит подключать через *Async-методы CompletableFuture.
+ */
+public class WriteBehindUserService implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindUserService.class);
+
+    // Как часто ожидающий поток записи проверяет, не закрыт ли сервис
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(IDLE_POLL_MILLIS);
+
+    private final UserService userService;
+    private final BlockingQueue<Mutation> queue;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Thread flusher;
+    private final Runnable shutdownListener = this::close;
+    // Постановка в очередь - под чтением, закрытие - под записью: после close() очередь больше не пополняется
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    public WriteBehindUserService(UserService userService, int queueCapacity, int maxBatchSize, Duration maxDelay) {
+        if (queueCapacity <= 0 || maxBatchSize <= 0 || maxDelay.isNegative()) {
+            throw new IllegalArgumentException("Некорректные параметры отложенной записи: queueCapacity="
+                    + queueCapacity + ", maxBatchSize=" + maxBatchSize + ", maxDelay=" + maxDelay);
+        }
+        this.userService = userService;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.flusher = new Thread(this::runFlusher, "user-service-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        HibernateUtil.addShutdownListener(shutdownListener);
+        log.info("Отложенная запись включена: очередь={}, группа={}, задержка={} мс",
+                queueCapacity, maxBatchSize, maxDelay.toMillis());
+    }
+
+    public CompletableFuture<User> createUser(String name, String email, int age) {
+        Create create = new Create(name, email, age, new CompletableFuture<>());
+        return enqueue(create, create.result());
+    }
+
+    public CompletableFuture<Optional<User>> updateUser(Long id, String newName, String newEmail, Integer newAge) {
+        if (id == null) {
+            // Проверка до очереди: без id изменение не объединить с другими
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Для изменения нужен id пользователя"));
+        }
+        Update update = new Update(new UserPatch(id, newName, newEmail, newAge), new CompletableFuture<>());
+        return enqueue(update, update.result());
+    }
+
+    /**
+     * Число изменений, ожидающих записи (без группы, которая записывается сейчас).
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    private <T> CompletableFuture<T> enqueue(Mutation mutation, CompletableFuture<T> result) {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                return CompletableFuture.failedFuture(
+                        new RejectedExecutionException("Отложенная запись остановлена"));
+            }
+            if (!queue.offer(mutation)) {
+                return CompletableFuture.failedFuture(
+                        new RejectedExecutionException("Очередь отложенной записи переполнена"));
+            }
+            return result;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void runFlusher() {
+        List<Mutation> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (true) {
+                Mutation first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                collectBatch(batch);
+                flush(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failAll(batch, ex);
+            abandonQueue(ex);
+        } catch (Error ex) {
+            failAll(batch, ex);
+            abandonQueue(ex);
+            throw ex;
+        }
+    }
+
+    // Поток записи завершается аварийно: дальше очередь записать некому, поэтому сервис закрывается,
+    // а оставшиеся изменения получают ошибку
+    private void abandonQueue(Throwable cause) {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        HibernateUtil.removeShutdownListener(shutdownListener);
+        List<Mutation> abandoned = new ArrayList<>(queue.size());
+        queue.drainTo(abandoned);
+        failAll(abandoned, cause);
+        log.error("Поток отложенной записи остановлен аварийно, отклонено изменений={}", abandoned.size(), cause);
+    }
+
+    // Дособирает группу до maxBatchSize, ожидая не дольше maxDelay с первого изменения; при закрытии не ждет
+    private void collectBatch(List<Mutation> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxBatchSize) {
+            if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (closed || remaining <= 0) {
+                return;
+            }
+            // Ожидание частями, чтобы close() не ждал весь maxDelay
+            Mutation next = queue.poll(Math.min(remaining, IDLE_POLL_NANOS), TimeUnit.NANOSECONDS);
+            if (next != null) {
+                batch.add(next);
+            }
+        }
+    }
+
+    private void flush(List<Mutation> batch) {
+        List<List<Mutation>> segments = segments(batch);
+        log.debug("Отложенная запись: группа={}, транзакций={}", batch.size(), segments.size());
+
+        try {
+            for (List<Mutation> segment : segments) {
+                if (segment.get(0) instanceof Create) {
+                    commitCreates(segment.stream().map(Create.class::cast).toList());
+                } else {
+                    commitUpdates(pendingUpdates(segment.stream().map(Update.class::cast).toList()));
+                }
+            }
+        } catch (Throwable ex) {
+            // Незавершенные future не должны зависнуть, даже если поток записи получил Error
+            failAll(batch, ex);
+            if (ex instanceof Error error) {
+                throw error;
+            }
+        }
+    }
+
+    // Отрезки подряд идущих изменений одного вида, в порядке очереди
+    private static List<List<Mutation>> segments(List<Mutation> batch) {
+        List<List<Mutation>> segments = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= batch.size(); i++) {
+            if (i == batch.size() || batch.get(i).getClass() != batch.get(start).getClass()) {
+                segments.add(batch.subList(start, i));
+                start = i;
+            }
+        }
+        return segments;
+    }
+
+    // Одно изменение на id в порядке первого появления; future всех его обновлений получают итог
+    private static List<PendingUpdate> pendingUpdates(List<Update> updates) {
+        Map<Long, List<CompletableFuture<Optional<User>>>> results = new LinkedHashMap<>();
+        List<UserPatch> patches = new ArrayList<>(updates.size());
+        for (Update update : updates) {
+            results.computeIfAbsent(update.patch().id(), id -> new ArrayList<>(1)).add(update.result());
+            patches.add(update.patch());
+        }
+        Map<Long, UserPatch> merged = new HashMap<>();
+        for (UserPatch patch : UserPatch.mergeById(patches)) {
+            merged.put(patch.id(), patch);
+        }
+        List<PendingUpdate> pending = new ArrayList<>(results.size());
+        // mergeById отбрасывает пустые изменения, а их вызывающие тоже ждут текущее состояние строки
+        results.forEach((id, futures) -> pending.add(
+                new PendingUpdate(merged.getOrDefault(id, new UserPatch(id, null, null, null)), futures)));
+        return pending;
+    }
+
+    private void commitCreates(List<Create> creates) {
+        if (creates.isEmpty()) {
+            return;
+        }
+        List<User> users = new ArrayList<>(creates.size());
+        for (Create create : creates) {
+            users.add(new User(create.name(), create.email(), create.age()));
+        }
+        try {
+            List<User> created = userService.createUsers(users);
+            for (int i = 0; i < creates.size(); i++) {
+                creates.get(i).result().complete(created.get(i));
+            }
+        } catch (RuntimeException ex) {
+            if (creates.size() == 1) {
+                creates.get(0).result().completeExceptionally(ex);
+                return;
+            }
+            log.warn("Групповое создание пользователей откатано, повтор по одному: количество={}", creates.size(), ex);
+            for (Create create : creates) {
+                try {
+                    create.result().complete(userService.createUser(create.name(), create.email(), create.age()));
+                } catch (RuntimeException single) {
+                    create.result().completeExceptionally(single);
+                }
+            }
+        }
+    }
+
+    private void commitUpdates(List<PendingUpdate> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        List<UserPatch> patches = new ArrayList<>(updates.size());
+        for (PendingUpdate update : updates) {
+            patches.add(update.patch());
+        }
+        try {
+            List<Optional<User>> updated = userService.updateUsers(patches);
+            for (int i = 0; i < updates.size(); i++) {
+                updates.get(i).complete(updated.get(i));
+            }
+        } catch (RuntimeException ex) {
+            if (updates.size() == 1) {
+                updates.get(0).fail(ex);
+                return;
+            }
+            log.warn("Групповое обновление пользователей откатано, повтор по одному: количество={}", updates.size(), ex);
+            for (PendingUpdate update : updates) {
+                UserPatch patch = update.patch();
+                try {
+                    update.complete(userService.updateUser(patch.id(), patch.name(), patch.email(), patch.age()));
+                } catch (RuntimeException single) {
+                    update.fail(single);
+                }
+            }
+        }
+    }
+
+    private static void failAll(List<Mutation> batch, Throwable cause) {
+        for (Mutation mutation : batch) {
+            mutation.future().completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Перестает принимать изменения и ждет, пока поток записи зафиксирует всю очередь.
+     * Повторный вызов ничего не делает.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        HibernateUtil.removeShutdownListener(shutdownListener);
+
+        log.info("Отложенная запись: остановка, ожидают записи={}", queue.size());
+        try {
+            flusher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.warn("Ожидание отложенной записи прервано, в очереди осталось={}", queue.size());
+            return;
+        }
+        log.info("Отложенная запись остановлена");
+    }
+
+    private interface Mutation {
+
+        CompletableFuture<?> future();
+    }
+
+    private record Create(String name, String email, int age, CompletableFuture<User> result) implements Mutation {
+
+        @Override
+        public CompletableFuture<?> future() {
+            return result;
+        }
+    }
+
+    private record Update(UserPatch patch, CompletableFuture<Optional<User>> result) implements Mutation {
+
+        @Override
+        public CompletableFuture<?> future() {
+            return result;
+        }
+    }
+
+    // Объединенные обновления одного id в отрезке: все их future получают итоговое состояние
+    private record PendingUpdate(UserPatch patch, List<CompletableFuture<Optional<User>>> results) {
+
+        void complete(Optional<User> user) {
+            // Каждый вызывающий получает свою копию: результат можно менять независимо
+            for (CompletableFuture<Optional<User>> result : results) {
+                result.complete(user.map(User::new));
+            }
+        }
+
+        void fail(Throwable cause) {
+            results.forEach(result -> result.completeExceptionally(cause));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.example.userservice.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Длительность этапов инициализации SessionFactory.
+ */
+public record BootTimings(StartupMode mode, List<Phase> phases) {
+
+    public record Phase(String name, Duration duration) {
+    }
+
+    public Duration total() {
+        Duration total = Duration.ZERO;
+        for (Phase phase : phases) {
+            total = total.plus(phase.duration());
+        }
+        return total;
+    }
+
+    BootTimings plus(List<Phase> more) {
+        List<Phase> all = new ArrayList<>(phases);
+        all.addAll(more);
+        return new BootTimings(mode, List.copyOf(all));
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "Инициализация (" + mode + ") за " + total().toMillis() + " мс: ", "");
+        for (Phase phase : phases) {
+            joiner.add(phase.name() + "=" + phase.duration().toMillis() + " мс");
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Замер последовательных этапов: каждый этап длится от предыдущей отметки до своей.
+     */
+    static final class Recorder {
+
+        private final List<Phase> phases = new ArrayList<>();
+        private long last = System.nanoTime();
+
+        void mark(String phase) {
+            long now = System.nanoTime();
+            phases.add(new Phase(phase, Duration.ofNanos(now - last)));
+            last = now;
+        }
+
+        List<Phase> phases() {
+            return List.copyOf(phases);
+        }
+
+        BootTimings finish(StartupMode mode) {
+            return new BootTimings(mode, List.copyOf(phases));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.example.userservice.util;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.AvailableSettings;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Создает пул HikariCP по настройкам Hibernate.
+ * Параметры подключения берутся из jakarta.persistence.jdbc.*, а если они не заданы - из прежних имен
+ * hibernate.connection.* (их используют hibernate.cfg.xml и -D); параметры пула - из hibernate.hikari.*
+ * (например, hibernate.hikari.maximumPoolSize или hibernate.hikari.dataSource.prepareThreshold).
+ */
+final class ConnectionPoolFactory {
+
+    static final String HIKARI_PREFIX = "hibernate.hikari.";
+
+    static final String LEGACY_URL = "hibernate.connection.url";
+    static final String LEGACY_USER = "hibernate.connection.username";
+    static final String LEGACY_PASSWORD = "hibernate.connection.password";
+    static final String LEGACY_DRIVER = "hibernate.connection.driver_class";
+
+    // Все ключи параметров подключения под обоими именами
+    static final List<String> CONNECTION_KEYS = List.of(
+            AvailableSettings.JAKARTA_JDBC_URL, LEGACY_URL,
+            AvailableSettings.JAKARTA_JDBC_USER, LEGACY_USER,
+            AvailableSettings.JAKARTA_JDBC_PASSWORD, LEGACY_PASSWORD,
+            AvailableSettings.JAKARTA_JDBC_DRIVER, LEGACY_DRIVER);
+
+    private ConnectionPoolFactory() {
+    }
+
+    static HikariDataSource create(Properties settings, String poolName, PoolMetricsTracker metricsTracker) {
+        Properties hikariProperties = new Properties();
+        for (String key : settings.stringPropertyNames()) {
+            if (key.startsWith(HIKARI_PREFIX)) {
+                hikariProperties.setProperty(key.substring(HIKARI_PREFIX.length()), settings.getProperty(key));
+            }
+        }
+
+        HikariConfig config = new HikariConfig(hikariProperties);
+        config.setPoolName(poolName);
+        config.setJdbcUrl(setting(settings, AvailableSettings.JAKARTA_JDBC_URL, LEGACY_URL));
+        config.setUsername(setting(settings, AvailableSettings.JAKARTA_JDBC_USER, LEGACY_USER));
+        config.setPassword(setting(settings, AvailableSettings.JAKARTA_JDBC_PASSWORD, LEGACY_PASSWORD));
+        String driverClass = setting(settings, AvailableSettings.JAKARTA_JDBC_DRIVER, LEGACY_DRIVER);
+        if (driverClass != null) {
+            config.setDriverClassName(driverClass);
+        }
+        config.setMetricsTrackerFactory(metricsTracker);
+
+        return new HikariDataSource(config);
+    }
+
+    static String setting(Properties settings, String key, String legacyKey) {
+        String value = settings.getProperty(key);
+        return value != null ? value : settings.getProperty(legacyKey);
+    }
+}
@@ -0,0 +1,25 @@
+package org.example.userservice.util;
+
+import org.example.userservice.metrics.LatencyHistogram;
+
+/**
+ * Снимок состояния пула соединений.
+ */
+public record ConnectionPoolStats(String poolName,
+                                  int active,
+                                  int idle,
+                                  int total,
+                                  int waitingThreads,
+                                  int maximumPoolSize,
+                                  long timeouts,
+                                  LatencyHistogram.Snapshot acquireTime,
+                                  LatencyHistogram.Snapshot usageTime) {
+
+    @Override
+    public String toString() {
+        return "Пул " + poolName + ": active=" + active + ", idle=" + idle + ", total=" + total
+                + "/" + maximumPoolSize + ", waiting=" + waitingThreads + ", timeouts=" + timeouts
+                + System.lineSeparator() + "  получение соединения: " + acquireTime
+                + System.lineSeparator() + "  удержание соединения: " + usageTime;
+    }
+}
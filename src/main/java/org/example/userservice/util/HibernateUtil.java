@@ -1,46 +1,449 @@
 package org.example.userservice.util;
 
+import com.zaxxer.hikari.HikariDataSource;
+import org.example.userservice.entity.UserEmailRoute;
+import org.example.userservice.entity.UserShardBucket;
+import org.example.userservice.entity.UserShardMap;
 import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * SessionFactory основной БД и, если заданы -Duser-service.replica.urls, реплик только для чтения:
+ * <ul>
+ *     <li>user-service.replica.urls - JDBC URL реплик через запятую;</li>
+ *     <li>user-service.replica.username, user-service.replica.password - по умолчанию как у основной БД;</li>
+ *     <li>user-service.replica.selection - round-robin (по умолчанию) или least-busy;</li>
+ *     <li>user-service.replica.read-your-writes-ms - сколько после записи поток читает с основной БД
+ *     (0 - не читает);</li>
+ *     <li>user-service.replica.cooldown-ms - на сколько исключается недоступная реплика;</li>
+ *     <li>user-service.replica.connection-timeout-ms - ожидание соединения реплики до переключения на основную БД.</li>
+ * </ul>
+ * Работа со схемой при запуске задается -Duser-service.startup ({@link StartupMode}), длительность этапов
+ * запуска - {@link #getBootTimings()}. Статистику SQL всех фабрик собирает {@link SqlMonitor}
+ * (-Duser-service.sql.*), снимок - {@link #getSqlStats()}. Фабрики баз шардов для ShardedUserDao
+ * строит {@link #buildShard}.
+ */
 public class HibernateUtil {
 
     private static final Logger log = LoggerFactory.getLogger(HibernateUtil.class);
 
-    private static SessionFactory sessionFactory;
+    private static final String POOL_NAME = "user-service-pool";
+    private static final String REPLICA_PROPERTY_PREFIX = "user-service.replica.";
+    private static final String SHARD_POOL_PREFIX = "user-service-shard-";
+    private static final int SQL_STATS_LIMIT = 20;
+
+    // volatile публикует фабрику вместе с полями, записанными до нее (пул, метрики, реплики):
+    // поток, увидевший sessionFactory != null без блокировки, видит и их
+    private static volatile SessionFactory sessionFactory;
+    private static HikariDataSource dataSource;
+    private static PoolMetricsTracker poolMetrics;
+    private static volatile ReplicaRouter replicaRouter;
+    private static volatile BootTimings bootTimings;
+    private static SqlMonitor sqlMonitor;
+    private static final List<Runnable> shutdownListeners = new CopyOnWriteArrayList<>();
 
     public static SessionFactory getSessionFactory() {
-        if (sessionFactory == null) {
-            buildSessionFactory();
-        }
-        return sessionFactory;
+        SessionFactory factory = sessionFactory;
+        return factory != null ? factory : buildSessionFactory();
     }
 
-    private static synchronized void buildSessionFactory() {
+    private static synchronized SessionFactory buildSessionFactory() {
         if (sessionFactory != null) {
-            return;
+            return sessionFactory;
         }
         try {
+            StartupMode mode = StartupMode.fromSystemProperties();
+            BootTimings.Recorder timings = new BootTimings.Recorder();
             Configuration configuration = new Configuration();
             configuration.configure("hibernate.cfg.xml");
-            sessionFactory = configuration.buildSessionFactory();
+            applyStartupMode(configuration, mode);
+            applySystemPropertyOverrides(configuration);
+            sqlMonitor = SqlMonitor.fromSystemProperties();
+            sqlMonitor.install(configuration);
+            timings.mark("конфигурация");
+
+            poolMetrics = new PoolMetricsTracker();
+            dataSource = ConnectionPoolFactory.create(configuration.getProperties(), POOL_NAME, poolMetrics);
+            useDataSource(configuration, dataSource);
+            timings.mark("пул соединений");
+
+            SessionFactory factory = configuration.buildSessionFactory();
+            timings.mark("SessionFactory");
+            try {
+                SchemaExtensions.apply(factory, configuration.getProperties());
+            } catch (RuntimeException ex) {
+                factory.close();
+                throw ex;
+            }
+            timings.mark("дополнительные индексы");
+            replicaRouter = buildReplicaRouter(factory);
+            timings.mark("реплики");
+            bootTimings = timings.finish(mode);
+            sessionFactory = factory;
+            log.info("SessionFactory создана, пул соединений: min={}, max={}",
+                    dataSource.getMinimumIdle(), dataSource.getMaximumPoolSize());
+            log.info("{}", bootTimings);
+            return factory;
         } catch (Throwable ex) {
             log.error("Ошибка инициализации SessionFactory", ex);
+            closeSqlMonitor();
+            closeDataSource();
             throw new ExceptionInInitializerError(ex);
         }
     }
 
-    public static void shutdown() {
+    private static void applyStartupMode(Configuration configuration, StartupMode mode) {
+        switch (mode) {
+            case UPDATE -> {
+                // Как в hibernate.cfg.xml
+            }
+            case VALIDATE -> configuration.setProperty(AvailableSettings.HBM2DDL_AUTO, "validate");
+            case FAST -> {
+                configuration.setProperty(AvailableSettings.HBM2DDL_AUTO, "none");
+                // Без соединения и чтения DatabaseMetaData при построении фабрики: диалект задан явно
+                configuration.setProperty("hibernate.temp.use_jdbc_metadata_defaults", "false");
+                if (configuration.getProperty(AvailableSettings.DIALECT) == null) {
+                    configuration.setProperty(AvailableSettings.DIALECT, PostgreSQLDialect.class.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Строит SessionFactory в фоновом потоке, не дожидаясь первого обращения, затем открывает minimumIdle
+     * соединений пула и выполняет warmUp (например, разбор запросов DAO). Потоки, которым фабрика
+     * понадобится раньше, ждут окончания построения в {@link #getSessionFactory()}, но не прогрева.
+     *
+     * @return завершается после прогрева; ошибка прогрева только записывается в журнал
+     */
+    public static CompletableFuture<SessionFactory> bootstrapAsync(Consumer<SessionFactory> warmUp) {
+        CompletableFuture<SessionFactory> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                SessionFactory factory = getSessionFactory();
+                warmUp(factory, warmUp);
+                result.complete(factory);
+            } catch (Throwable ex) {
+                result.completeExceptionally(ex);
+            }
+        }, "user-service-boot");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    private static void warmUp(SessionFactory factory, Consumer<SessionFactory> warmUp) {
+        BootTimings.Recorder timings = new BootTimings.Recorder();
+        try {
+            warmUpPool();
+            timings.mark("прогрев пула");
+            warmUp.accept(factory);
+            timings.mark("прогрев запросов");
+        } catch (RuntimeException | SQLException ex) {
+            log.warn("Прогрев после запуска прерван", ex);
+        }
+        synchronized (HibernateUtil.class) {
+            if (sessionFactory == factory) {
+                bootTimings = bootTimings.plus(timings.phases());
+                log.info("{}", bootTimings);
+            }
+        }
+    }
+
+    // HikariCP добирает minimumIdle в фоне; занимая соединения одновременно, дожидаемся их открытия
+    private static void warmUpPool() throws SQLException {
+        HikariDataSource pool;
+        synchronized (HibernateUtil.class) {
+            pool = dataSource;
+        }
+        if (pool == null) {
+            return;
+        }
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < pool.getMinimumIdle(); i++) {
+                connections.add(pool.getConnection());
+            }
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    private static ReplicaRouter buildReplicaRouter(SessionFactory primary) {
+        String urls = System.getProperty(REPLICA_PROPERTY_PREFIX + "urls", "").trim();
+        if (urls.isEmpty()) {
+            return null;
+        }
+        ReplicaRouter.Selection selection = ReplicaRouter.Selection.parse(
+                System.getProperty(REPLICA_PROPERTY_PREFIX + "selection", "round-robin"));
+        String dialect = primary.unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices().getDialect().getClass().getName();
+
+        List<ReplicaRouter.Replica> replicas = new ArrayList<>();
+        try {
+            for (String url : urls.split(",")) {
+                replicas.add(buildReplica(url.trim(), replicas.size() + 1, dialect));
+            }
+        } catch (RuntimeException ex) {
+            replicas.forEach(ReplicaRouter.Replica::close);
+            primary.close();
+            throw ex;
+        }
+        ReplicaRouter router = new ReplicaRouter(primary, replicas, selection,
+                Long.getLong(REPLICA_PROPERTY_PREFIX + "read-your-writes-ms", 0),
+                Long.getLong(REPLICA_PROPERTY_PREFIX + "cooldown-ms", 5000));
+        log.info("Чтение распределяется по репликам: количество={}, выбор={}", replicas.size(), selection);
+        return router;
+    }
+
+    private static ReplicaRouter.Replica buildReplica(String url, int number, String dialect) {
+        Configuration configuration = new Configuration();
+        configuration.configure("hibernate.cfg.xml");
+        applySystemPropertyOverrides(configuration);
+
+        Properties primary = configuration.getProperties();
+        String username = System.getProperty(REPLICA_PROPERTY_PREFIX + "username", ConnectionPoolFactory.setting(
+                primary, AvailableSettings.JAKARTA_JDBC_USER, ConnectionPoolFactory.LEGACY_USER));
+        String password = System.getProperty(REPLICA_PROPERTY_PREFIX + "password", ConnectionPoolFactory.setting(
+                primary, AvailableSettings.JAKARTA_JDBC_PASSWORD, ConnectionPoolFactory.LEGACY_PASSWORD));
+        configuration.setProperty(AvailableSettings.JAKARTA_JDBC_URL, url);
+        configuration.setProperty(AvailableSettings.JAKARTA_JDBC_USER, username);
+        configuration.setProperty(AvailableSettings.JAKARTA_JDBC_PASSWORD, password);
+        // Схемой управляет основная БД, реплика ее только получает
+        configuration.setProperty(AvailableSettings.HBM2DDL_AUTO, "none");
+        // Кеш второго уровня общий для всех фабрик одного процесса: отстающая реплика не должна класть в него
+        // старые версии строк, а кеш основной БД сам обновляется при записи
+        configuration.setProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "false");
+        // Диалект известен по основной БД: фабрика строится без обращения к реплике и переживает ее недоступность
+        configuration.setProperty(AvailableSettings.DIALECT, dialect);
+        configuration.setProperty("hibernate.temp.use_jdbc_metadata_defaults", "false");
+        configuration.setProperty(ConnectionPoolFactory.HIKARI_PREFIX + "initializationFailTimeout", "-1");
+        configuration.setProperty(ConnectionPoolFactory.HIKARI_PREFIX + "connectionTimeout",
+                System.getProperty(REPLICA_PROPERTY_PREFIX + "connection-timeout-ms", "1000"));
+        sqlMonitor.install(configuration);
+
+        String poolName = "user-service-replica-" + number;
+        HikariDataSource replicaDataSource = ConnectionPoolFactory.create(
+                configuration.getProperties(), poolName, new PoolMetricsTracker());
+        try {
+            useDataSource(configuration, replicaDataSource);
+            return new ReplicaRouter.Replica(poolName, configuration.buildSessionFactory(), replicaDataSource);
+        } catch (RuntimeException ex) {
+            replicaDataSource.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * SessionFactory базы одного шарда ShardedUserDao: настройки hibernate.cfg.xml и системных свойств,
+     * поверх них settings (обычно hibernate.connection.*), собственный пул соединений и таблицы индекса
+     * маршрутизации email, карты шардов и разрешений записи в корзины. Кеш второго уровня выключен:
+     * один процесс держит несколько фабрик с одинаковыми id сущностей в разных базах. Пул закрывается
+     * вместе с фабрикой; закрывает ее вызывающий.
+     *
+     * @param name часть имени пула, например номер шарда
+     */
+    public static SessionFactory buildShard(String name, Map<String, String> settings) {
+        Configuration configuration = new Configuration();
+        configuration.configure("hibernate.cfg.xml");
+        applySystemPropertyOverrides(configuration);
+        settings.forEach(configuration::setProperty);
+        configuration.addAnnotatedClass(UserEmailRoute.class);
+        configuration.addAnnotatedClass(UserShardMap.class);
+        configuration.addAnnotatedClass(UserShardBucket.class);
+        configuration.setProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "false");
+        synchronized (HibernateUtil.class) {
+            if (sqlMonitor != null) {
+                sqlMonitor.install(configuration);
+            }
+        }
+
+        HikariDataSource shardDataSource = ConnectionPoolFactory.create(
+                configuration.getProperties(), SHARD_POOL_PREFIX + name, new PoolMetricsTracker());
+        SessionFactory factory;
+        try {
+            useDataSource(configuration, shardDataSource);
+            configuration.setSessionFactoryObserver(new SessionFactoryObserver() {
+                @Override
+                public void sessionFactoryClosed(SessionFactory closed) {
+                    shardDataSource.close();
+                }
+            });
+            factory = configuration.buildSessionFactory();
+        } catch (RuntimeException ex) {
+            shardDataSource.close();
+            throw ex;
+        }
+        try {
+            SchemaExtensions.applyToShard(factory, configuration.getProperties());
+        } catch (RuntimeException ex) {
+            factory.close();
+            throw ex;
+        }
+        log.info("SessionFactory шарда {} создана", name);
+        return factory;
+    }
+
+    // Системные свойства hibernate.* (например, -Dhibernate.connection.url или -Dhibernate.hikari.maximumPoolSize)
+    // имеют приоритет над hibernate.cfg.xml
+    private static void applySystemPropertyOverrides(Configuration configuration) {
+        Properties systemProperties = System.getProperties();
+        for (String key : systemProperties.stringPropertyNames()) {
+            if (key.startsWith("hibernate.")) {
+                configuration.setProperty(key, systemProperties.getProperty(key));
+            }
+        }
+    }
+
+    // Соединения выдает пул; учетные данные Hibernate больше не нужны:
+    // иначе он будет вызывать DataSource.getConnection(user, password), который HikariCP не поддерживает
+    private static void useDataSource(Configuration configuration, HikariDataSource dataSource) {
+        Map<String, Object> registrySettings = configuration.getStandardServiceRegistryBuilder().getSettings();
+        for (String key : ConnectionPoolFactory.CONNECTION_KEYS) {
+            configuration.getProperties().remove(key);
+            registrySettings.remove(key);
+        }
+        configuration.getProperties().put(AvailableSettings.JAKARTA_NON_JTA_DATASOURCE, dataSource);
+    }
+
+    /**
+     * Фабрика для чтения: реплика по правилам выбора или основная БД, если реплик нет,
+     * поток недавно писал (read-your-writes) или все реплики недоступны.
+     */
+    public static SessionFactory getReadSessionFactory() {
+        SessionFactory primary = getSessionFactory();
+        ReplicaRouter router = replicaRouter;
+        return router != null ? router.forRead() : primary;
+    }
+
+    /**
+     * Сообщает, что чтение через factory не получило соединение.
+     *
+     * @return true, если это реплика: она временно исключена, и чтение можно повторить
+     * через {@link #getReadSessionFactory()} - на другой реплике или основной БД
+     */
+    public static boolean reportReadFailure(SessionFactory factory) {
+        ReplicaRouter router = replicaRouter;
+        return router != null && router.reportFailure(factory);
+    }
+
+    /**
+     * Отмечает запись текущим потоком: ближайшие чтения пойдут на основную БД (read-your-writes).
+     */
+    public static void recordWrite() {
+        ReplicaRouter router = replicaRouter;
+        if (router != null) {
+            router.recordWrite();
+        }
+    }
+
+    public static int getReplicaCount() {
+        getSessionFactory();
+        ReplicaRouter router = replicaRouter;
+        return router != null ? router.replicaCount() : 0;
+    }
+
+    /**
+     * Длительность этапов последнего запуска; этапы прогрева добавляются после {@link #bootstrapAsync}.
+     */
+    public static BootTimings getBootTimings() {
+        getSessionFactory();
+        return bootTimings;
+    }
+
+    public static ConnectionPoolStats getPoolStats() {
+        getSessionFactory();
+        return poolMetrics.snapshot(POOL_NAME, dataSource.getMaximumPoolSize());
+    }
+
+    /**
+     * Статистика SQL с запуска или {@link #resetSqlStats()}: запросы реплик учитываются вместе с основной БД,
+     * счетчики Hibernate Statistics - только основной.
+     */
+    public static SqlStats getSqlStats() {
+        SessionFactory factory = getSessionFactory();
+        synchronized (HibernateUtil.class) {
+            return sqlMonitor.snapshot(factory.getStatistics(), SQL_STATS_LIMIT);
+        }
+    }
+
+    public static void resetSqlStats() {
+        SessionFactory factory = getSessionFactory();
+        synchronized (HibernateUtil.class) {
+            sqlMonitor.reset();
+            factory.getStatistics().clear();
+        }
+    }
+
+    /**
+     * Действие, которое {@link #shutdown()} выполнит до закрытия SessionFactory, пока база еще доступна
+     * (например, дописать отложенные изменения). Слушатели вызываются в обратном порядке регистрации, один раз.
+     */
+    public static void addShutdownListener(Runnable listener) {
+        shutdownListeners.add(listener);
+    }
+
+    public static void removeShutdownListener(Runnable listener) {
+        shutdownListeners.remove(listener);
+    }
+
+    public static synchronized void shutdown() {
+        List<Runnable> listeners = new ArrayList<>(shutdownListeners);
+        shutdownListeners.removeAll(listeners);
+        for (int i = listeners.size() - 1; i >= 0; i--) {
+            try {
+                listeners.get(i).run();
+            } catch (RuntimeException ex) {
+                log.error("Ошибка в обработчике завершения работы", ex);
+            }
+        }
+        if (replicaRouter != null) {
+            replicaRouter.close();
+            replicaRouter = null;
+        }
         if (sessionFactory != null) {
             sessionFactory.close();
             sessionFactory = null;
         }
+        bootTimings = null;
+        closeSqlMonitor();
+        closeDataSource();
+    }
+
+    private static void closeSqlMonitor() {
+        if (sqlMonitor != null) {
+            sqlMonitor.close();
+            sqlMonitor = null;
+        }
+    }
+
+    private static void closeDataSource() {
+        if (dataSource != null) {
+            dataSource.close();
+            dataSource = null;
+        }
     }
 
     // Дополнительный метод, чтобы тесты могли переинициализировать SessionFactory
-    public static void rebuildSessionFactory() {
+    public static synchronized void rebuildSessionFactory() {
         shutdown();
         buildSessionFactory();
     }
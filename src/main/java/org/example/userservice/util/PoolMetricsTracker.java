@@ -0,0 +1,57 @@
+package org.example.userservice.util;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.example.userservice.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Собирает метрики пула HikariCP: время получения соединения, время удержания и таймауты.
+ */
+public class PoolMetricsTracker implements MetricsTrackerFactory {
+
+    private final LatencyHistogram acquireTime = new LatencyHistogram();
+    private final LatencyHistogram usageTime = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private volatile PoolStats poolStats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquireTime.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageTime.record(elapsedBorrowedMillis * 1_000_000L);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    public ConnectionPoolStats snapshot(String poolName, int maximumPoolSize) {
+        PoolStats stats = poolStats;
+        if (stats == null) {
+            return new ConnectionPoolStats(poolName, 0, 0, 0, 0, maximumPoolSize, timeouts.sum(),
+                    acquireTime.snapshot(), usageTime.snapshot());
+        }
+        return new ConnectionPoolStats(poolName,
+                stats.getActiveConnections(),
+                stats.getIdleConnections(),
+                stats.getTotalConnections(),
+                stats.getPendingThreads(),
+                maximumPoolSize,
+                timeouts.sum(),
+                acquireTime.snapshot(),
+                usageTime.snapshot());
+    }
+}
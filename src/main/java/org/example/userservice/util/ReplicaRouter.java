@@ -0,0 +1,172 @@
+package org.example.userservice.util;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Выбор SessionFactory для чтения: одна из реплик или основная БД.
+ * <ul>
+ *     <li>round-robin - реплики по очереди; least-busy - реплика с наименьшим числом занятых соединений;</li>
+ *     <li>read-your-writes - после записи поток читает с основной БД в течение заданного окна,
+ *     чтобы не увидеть реплику, еще не получившую его изменение;</li>
+ *     <li>реплика, на которой не удалось получить соединение, исключается на время cooldown,
+ *     а чтение уходит на основную БД.</li>
+ * </ul>
+ */
+final class ReplicaRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRouter.class);
+
+    enum Selection {
+        ROUND_ROBIN, LEAST_BUSY;
+
+        static Selection parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    // Время последней записи потока по System.nanoTime(); 0 - поток не писал
+    private static final ThreadLocal<long[]> LAST_WRITE = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final SessionFactory primary;
+    private final List<Replica> replicas;
+    private final Selection selection;
+    private final long readYourWritesNanos;
+    private final long cooldownNanos;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ReplicaRouter(SessionFactory primary, List<Replica> replicas, Selection selection,
+                  long readYourWritesMillis, long cooldownMillis) {
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.selection = selection;
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+    }
+
+    SessionFactory forRead() {
+        if (replicas.isEmpty()) {
+            return primary;
+        }
+        long now = System.nanoTime();
+        if (readYourWritesNanos > 0) {
+            long lastWrite = LAST_WRITE.get()[0];
+            if (lastWrite != 0 && now - lastWrite < readYourWritesNanos) {
+                return primary;
+            }
+        }
+        Replica chosen = selection == Selection.LEAST_BUSY ? leastBusy(now) : roundRobin(now);
+        return chosen != null ? chosen.factory() : primary;
+    }
+
+    private Replica roundRobin(long now) {
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.isAvailable(now)) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private Replica leastBusy(long now) {
+        // Обход с плавающего начала: при равной загрузке реплики чередуются
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        Replica best = null;
+        int bestActive = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.isAvailable(now)) {
+                int active = replica.activeConnections();
+                if (active < bestActive) {
+                    best = replica;
+                    bestActive = active;
+                }
+            }
+        }
+        return best;
+    }
+
+    void recordWrite() {
+        LAST_WRITE.get()[0] = System.nanoTime();
+    }
+
+    /**
+     * @return true, если factory - реплика: она исключена на cooldown и чтение можно повторить
+     * через {@link #forRead()} на другой реплике или основной БД
+     */
+    boolean reportFailure(SessionFactory factory) {
+        for (Replica replica : replicas) {
+            if (replica.factory() == factory) {
+                replica.markDown(System.nanoTime() + cooldownNanos);
+                log.warn("Реплика {} недоступна, чтение переключено на основную БД на {} мс",
+                        replica.name(), TimeUnit.NANOSECONDS.toMillis(cooldownNanos));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int replicaCount() {
+        return replicas.size();
+    }
+
+    void close() {
+        replicas.forEach(Replica::close);
+    }
+
+    static final class Replica {
+
+        private final String name;
+        private final SessionFactory factory;
+        private final HikariDataSource dataSource;
+        private volatile long downUntilNanos;
+        private volatile boolean down;
+
+        Replica(String name, SessionFactory factory, HikariDataSource dataSource) {
+            this.name = name;
+            this.factory = factory;
+            this.dataSource = dataSource;
+        }
+
+        String name() {
+            return name;
+        }
+
+        SessionFactory factory() {
+            return factory;
+        }
+
+        void close() {
+            try {
+                factory.close();
+            } finally {
+                dataSource.close();
+            }
+        }
+
+        boolean isAvailable(long now) {
+            return !down || now - downUntilNanos >= 0;
+        }
+
+        void markDown(long untilNanos) {
+            downUntilNanos = untilNanos;
+            down = true;
+        }
+
+        int activeConnections() {
+            var pool = dataSource.getHikariPoolMXBean();
+            return pool == null ? 0 : pool.getActiveConnections();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.example.userservice.util;
+
+import org.example.userservice.dao.ShardMap;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.tool.schema.spi.SchemaManagementException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Объекты схемы, которые hbm2ddl не умеет создавать по аннотациям (функциональные индексы).
+ * Выполняются после построения SessionFactory, если Hibernate управляет схемой. В остальных режимах
+ * на PostgreSQL наличие индексов проверяется по pg_indexes: в validate отсутствие останавливает запуск,
+ * в none (в том числе {@link StartupMode#FAST}) о нем предупреждает лог.
+ * Там же при каждом запуске на PostgreSQL последовательность users_seq догоняет уже выданные id.
+ */
+final class SchemaExtensions {
+
+    private static final Logger log = LoggerFactory.getLogger(SchemaExtensions.class);
+
+    private static final Set<String> SCHEMA_MANAGING_MODES = Set.of("update", "create", "create-drop", "create-only");
+    private static final String VALIDATE_MODE = "validate";
+    private static final Pattern INDEX_NAME = Pattern.compile("create index if not exists (\\w+) ");
+    private static final String EXISTING_INDEXES_SQL =
+            "select indexname from pg_indexes where schemaname = current_schema() and indexname in (:names)";
+
+    private static final List<String> POSTGRESQL_DDL = List.of(
+            // Поиск по email без учета регистра
+            "create index if not exists users_email_lower_idx on users (lower(email))",
+            // Поиск по началу имени без учета регистра: text_pattern_ops нужен для LIKE 'префикс%'
+            // при любой collation базы, кроме C
+            "create index if not exists users_name_lower_pattern_idx on users (lower(name) text_pattern_ops)"
+    );
+
+    // Перенос корзины шарда выбирает ее строки по остатку id: HQL mod(u.id, 1024) PostgreSQL получает
+    // как (id % 1024), и индекс годится запросам только с тем же выражением
+    private static final List<String> POSTGRESQL_SHARD_DDL = List.of(
+            "create index if not exists users_bucket_idx on users ((id % " + ShardMap.BUCKETS + "), id)",
+            "create index if not exists user_tombstones_bucket_idx on user_tombstones ((id % "
+                    + ShardMap.BUCKETS + "), id)"
+    );
+
+    // hbm2ddl=update создает users_seq с 1 и в базе, где id уже выдавал identity-столбец: без сдвига
+    // первые вставки получили бы занятые id. Пул id размером ID_ALLOCATION_SIZE Hibernate берет
+    // как (nextval - ID_ALLOCATION_SIZE, nextval], поэтому setval(max(id)) отдает следующий пул сразу
+    // за max(id). Последовательность только догоняет таблицу и никогда не отступает назад
+    private static final String SYNC_ID_SEQUENCE_SQL =
+            "select setval('users_seq', m.max_id) from (select max(id) as max_id from users) m, users_seq s "
+                    + "where m.max_id > s.last_value or (m.max_id = s.last_value and not s.is_called)";
+
+    private SchemaExtensions() {
+    }
+
+    static void apply(SessionFactory sessionFactory, Properties settings) {
+        if (isPostgreSql(sessionFactory)) {
+            syncIdSequence(sessionFactory);
+        }
+        apply(sessionFactory, settings, POSTGRESQL_DDL);
+    }
+
+    static void applyToShard(SessionFactory sessionFactory, Properties settings) {
+        List<String> ddl = new ArrayList<>(POSTGRESQL_DDL);
+        ddl.addAll(POSTGRESQL_SHARD_DDL);
+        apply(sessionFactory, settings, ddl);
+    }
+
+    private static void apply(SessionFactory sessionFactory, Properties settings, List<String> statements) {
+        String mode = settings.getProperty(AvailableSettings.HBM2DDL_AUTO, "none").trim();
+        if (!SCHEMA_MANAGING_MODES.contains(mode)) {
+            if (isPostgreSql(sessionFactory)) {
+                checkIndexes(sessionFactory, statements, VALIDATE_MODE.equals(mode));
+            }
+            return;
+        }
+
+        if (!isPostgreSql(sessionFactory)) {
+            log.info("Дополнительные индексы пропущены: диалект {} не поддерживается",
+                    dialectOf(sessionFactory).getClass().getSimpleName());
+            return;
+        }
+
+        Transaction tx = null;
+        try (Session session = sessionFactory.openSession()) {
+            tx = session.beginTransaction();
+            for (String ddl : statements) {
+                session.createNativeMutationQuery(ddl).executeUpdate();
+            }
+            tx.commit();
+            log.info("Дополнительные индексы схемы проверены: {}", statements.size());
+        } catch (Exception ex) {
+            if (tx != null) {
+                tx.rollback();
+            }
+            log.error("Ошибка при создании дополнительных индексов", ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Схемой управляют снаружи: индексы только ищутся по имени, DDL не выполняется.
+     *
+     * @param required отсутствие индекса останавливает запуск, как расхождение схемы в validate
+     */
+    private static void checkIndexes(SessionFactory sessionFactory, List<String> statements, boolean required) {
+        Map<String, String> expected = new LinkedHashMap<>();
+        for (String ddl : statements) {
+            Matcher name = INDEX_NAME.matcher(ddl);
+            if (!name.find()) {
+                throw new IllegalStateException("Не найдено имя индекса в DDL: " + ddl);
+            }
+            expected.put(name.group(1), ddl);
+        }
+
+        List<String> existing;
+        try (Session session = sessionFactory.openSession()) {
+            existing = session.createNativeQuery(EXISTING_INDEXES_SQL, String.class)
+                    .setParameterList("names", expected.keySet())
+                    .getResultList();
+        }
+        existing.forEach(expected::remove);
+        if (expected.isEmpty()) {
+            log.info("Дополнительные индексы схемы на месте: {}", statements.size());
+            return;
+        }
+
+        String missing = String.join(";\n", expected.values());
+        if (required) {
+            throw new SchemaManagementException("В схеме нет дополнительных индексов " + expected.keySet()
+                    + ", создайте их:\n" + missing);
+        }
+        log.warn("В схеме нет дополнительных индексов {}: запросы, которым они нужны, читают таблицу целиком. "
+                + "Создайте их или запустите с -Duser-service.startup=update:\n{}", expected.keySet(), missing);
+    }
+
+    /**
+     * Сдвигает users_seq за наибольший id таблицы users. Повторный запуск ничего не меняет;
+     * без последовательности (схема не создана Hibernate) шаг пропускается.
+     */
+    static void syncIdSequence(SessionFactory sessionFactory) {
+        Transaction tx = null;
+        try (Session session = sessionFactory.openSession()) {
+            tx = session.beginTransaction();
+            Boolean exists = session.createNativeQuery("select to_regclass('users_seq') is not null", Boolean.class)
+                    .getSingleResult();
+            Long moved = Boolean.TRUE.equals(exists)
+                    ? session.createNativeQuery(SYNC_ID_SEQUENCE_SQL, Long.class).uniqueResult()
+                    : null;
+            tx.commit();
+            if (moved != null) {
+                log.warn("Последовательность users_seq отставала от таблицы users и сдвинута до {}", moved);
+            }
+        } catch (Exception ex) {
+            if (tx != null) {
+                tx.rollback();
+            }
+            log.error("Ошибка при выравнивании users_seq по таблице users", ex);
+            throw ex;
+        }
+    }
+
+    private static boolean isPostgreSql(SessionFactory sessionFactory) {
+        return dialectOf(sessionFactory) instanceof PostgreSQLDialect;
+    }
+
+    private static Dialect dialectOf(SessionFactory sessionFactory) {
+        return sessionFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+    }
+}
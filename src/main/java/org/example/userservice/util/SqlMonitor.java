@@ -0,0 +1,315 @@
+package org.example.userservice.util;
+
+import org.hibernate.SessionEventListener;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Статистика SQL вместо печати каждого запроса (hibernate.show_sql). Настраивается системными свойствами:
+ * <ul>
+ *     <li>user-service.sql.slow-query-ms - запросы не короче порога пишутся в журнал с формой параметров (200);</li>
+ *     <li>user-service.sql.n-plus-one-threshold - сколько одинаковых SELECT в одной сессии считать
+ *     подозрением на N+1 (10, 0 - не искать);</li>
+ *     <li>user-service.sql.log-sample-rate - доля запросов, текст которых пишется в журнал (0.01, 0 - никакие);</li>
+ *     <li>user-service.sql.max-tracked - сколько разных запросов считать по отдельности (500), остальные
+ *     попадают в общую строку.</li>
+ * </ul>
+ * Текст запроса дает {@link StatementInspector}, время выполнения - {@link SessionListener} сессии. Hibernate
+ * вызывает инспектор перед подготовкой выражения и выполняет выражение в том же потоке, поэтому текст
+ * передается слушателю через ThreadLocal.
+ */
+public final class SqlMonitor implements StatementInspector {
+
+    private static final Logger log = LoggerFactory.getLogger(SqlMonitor.class);
+
+    private static final String PROPERTY_PREFIX = "user-service.sql.";
+    private static final String OTHER_QUERIES = "(прочие запросы)";
+    private static final Pattern IN_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // Текст последнего выражения, подготовленного потоком
+    private static final ThreadLocal<String> PENDING_SQL = new ThreadLocal<>();
+
+    // Монитор для слушателей новых сессий: Hibernate создает их сам по имени класса
+    private static volatile SqlMonitor active;
+
+    private final long slowQueryMillis;
+    private final long slowQueryNanos;
+    private final int nPlusOneThreshold;
+    private final double logSampleRate;
+    private final int maxTracked;
+
+    // Точный текст -> счетчик его формы: форма вычисляется один раз на текст
+    private final Map<String, Counter> bySql = new ConcurrentHashMap<>();
+    private final Map<String, Counter> byShape = new ConcurrentHashMap<>();
+    private final Counter other = new Counter(OTHER_QUERIES, false);
+    private final Map<String, LongAdder> nPlusOne = new ConcurrentHashMap<>();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder slowExecutions = new LongAdder();
+
+    SqlMonitor(long slowQueryMillis, int nPlusOneThreshold, double logSampleRate, int maxTracked) {
+        if (logSampleRate < 0 || logSampleRate > 1) {
+            throw new IllegalArgumentException("Доля журналируемых запросов должна быть от 0 до 1: " + logSampleRate);
+        }
+        this.slowQueryMillis = slowQueryMillis;
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+        this.nPlusOneThreshold = nPlusOneThreshold;
+        this.logSampleRate = logSampleRate;
+        this.maxTracked = maxTracked;
+    }
+
+    static SqlMonitor fromSystemProperties() {
+        return new SqlMonitor(
+                Long.getLong(PROPERTY_PREFIX + "slow-query-ms", 200),
+                Integer.getInteger(PROPERTY_PREFIX + "n-plus-one-threshold", 10),
+                Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "log-sample-rate", "0.01")),
+                Integer.getInteger(PROPERTY_PREFIX + "max-tracked", 500));
+    }
+
+    /**
+     * Подключает монитор к фабрике, которая будет построена по configuration. Инспектор из
+     * hibernate.session_factory.statement_inspector, если задан, вызывается первым.
+     */
+    void install(Configuration configuration) {
+        StatementInspector inspector = this;
+        String custom = configuration.getProperty(AvailableSettings.STATEMENT_INSPECTOR);
+        if (custom != null) {
+            StatementInspector first = instantiate(custom);
+            inspector = sql -> {
+                String inspected = first.inspect(sql);
+                return inspect(inspected != null ? inspected : sql);
+            };
+        }
+        configuration.setStatementInspector(inspector);
+        if (configuration.getProperty(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER) == null) {
+            configuration.setProperty(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER, SessionListener.class.getName());
+        } else {
+            log.warn("Задан свой {}: время выполнения SQL не измеряется", AvailableSettings.AUTO_SESSION_EVENTS_LISTENER);
+        }
+        active = this;
+    }
+
+    void close() {
+        if (active == this) {
+            active = null;
+        }
+    }
+
+    @Override
+    public String inspect(String sql) {
+        PENDING_SQL.set(sql);
+        if (logSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < logSampleRate) {
+            log.info("SQL: {}", sql);
+        }
+        return sql;
+    }
+
+    Counter record(String sql, long nanos) {
+        Counter counter = counter(sql);
+        counter.record(nanos);
+        executions.increment();
+        if (nanos >= slowQueryNanos) {
+            counter.slowExecutions.increment();
+            slowExecutions.increment();
+            log.warn("Медленный SQL: {} мс (порог {} мс), параметров {}: {}",
+                    TimeUnit.NANOSECONDS.toMillis(nanos), slowQueryMillis, parameterCount(sql), counter.sql);
+        }
+        return counter;
+    }
+
+    private Counter counter(String sql) {
+        Counter counter = bySql.get(sql);
+        if (counter != null) {
+            return counter;
+        }
+        String shape = shape(sql);
+        counter = byShape.get(shape);
+        if (counter == null) {
+            counter = byShape.size() < maxTracked
+                    ? byShape.computeIfAbsent(shape, key -> new Counter(key, isSelect(key)))
+                    : other;
+        }
+        // Без ограничения запросы со встроенными значениями (inline) заняли бы память без предела
+        if (bySql.size() < maxTracked * 4) {
+            bySql.putIfAbsent(sql, counter);
+        }
+        return counter;
+    }
+
+    private void nPlusOneDetected(Counter counter) {
+        nPlusOne.computeIfAbsent(counter.sql, key -> new LongAdder()).increment();
+        log.warn("Возможный N+1: {} одинаковых запросов в одной сессии: {}", nPlusOneThreshold, counter.sql);
+    }
+
+    /**
+     * Снимок: не больше limit запросов с наибольшим суммарным временем и счетчики statistics.
+     */
+    SqlStats snapshot(Statistics statistics, int limit) {
+        List<SqlStats.Query> queries = new ArrayList<>();
+        byShape.values().forEach(counter -> queries.add(counter.snapshot()));
+        if (other.executions.sum() > 0) {
+            queries.add(other.snapshot());
+        }
+        queries.sort(Comparator.comparingDouble(SqlStats.Query::totalMillis).reversed());
+
+        List<SqlStats.NPlusOne> suspects = new ArrayList<>();
+        nPlusOne.forEach((sql, sessions) -> suspects.add(new SqlStats.NPlusOne(sql, sessions.sum())));
+        suspects.sort(Comparator.comparingLong(SqlStats.NPlusOne::sessions).reversed());
+
+        return new SqlStats(executions.sum(), slowExecutions.sum(),
+                List.copyOf(queries.subList(0, Math.min(limit, queries.size()))), List.copyOf(suspects),
+                statistics.getEntityLoadCount(), statistics.getEntityFetchCount(),
+                statistics.getCollectionFetchCount(), statistics.getPrepareStatementCount(),
+                statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount());
+    }
+
+    void reset() {
+        bySql.clear();
+        byShape.clear();
+        other.reset();
+        nPlusOne.clear();
+        executions.reset();
+        slowExecutions.reset();
+    }
+
+    // Форма запроса: пробелы схлопнуты, список IN любой длины записан как "?..."
+    static String shape(String sql) {
+        String compact = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        return IN_LIST.matcher(compact).replaceAll("?...");
+    }
+
+    private static boolean isSelect(String shape) {
+        String start = shape.substring(0, Math.min(6, shape.length())).toLowerCase(Locale.ROOT);
+        return start.startsWith("select") || start.startsWith("with");
+    }
+
+    private static int parameterCount(String sql) {
+        int count = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static StatementInspector instantiate(String className) {
+        try {
+            return (StatementInspector) Class.forName(className, true, Thread.currentThread().getContextClassLoader())
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Не удалось создать StatementInspector " + className, ex);
+        }
+    }
+
+    private static final class Counter {
+
+        private final String sql;
+        private final boolean select;
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder slowExecutions = new LongAdder();
+
+        private Counter(String sql, boolean select) {
+            this.sql = sql;
+            this.select = select;
+        }
+
+        private void record(long nanos) {
+            executions.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        private SqlStats.Query snapshot() {
+            double nanosPerMilli = TimeUnit.MILLISECONDS.toNanos(1);
+            return new SqlStats.Query(sql, executions.sum(), totalNanos.sum() / nanosPerMilli,
+                    maxNanos.get() / nanosPerMilli, slowExecutions.sum());
+        }
+
+        private void reset() {
+            executions.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            slowExecutions.reset();
+        }
+    }
+
+    /**
+     * Слушатель одной сессии: время каждого выражения и пакета, повторы SELECT внутри сессии.
+     * Hibernate создает его для каждой сессии (hibernate.session.events.auto), поэтому состояние не разделяется
+     * между потоками.
+     */
+    public static final class SessionListener implements SessionEventListener {
+
+        private final transient SqlMonitor monitor;
+        private transient Map<Counter, int[]> selects;
+        private long startNanos;
+
+        public SessionListener() {
+            this(active);
+        }
+
+        SessionListener(SqlMonitor monitor) {
+            this.monitor = monitor;
+        }
+
+        @Override
+        public void jdbcExecuteStatementStart() {
+            startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void jdbcExecuteStatementEnd() {
+            executed();
+        }
+
+        @Override
+        public void jdbcExecuteBatchStart() {
+            startNanos = System.nanoTime();
+        }
+
+        // Пакет выполняется для последнего подготовленного выражения: Hibernate дописывает пакет,
+        // прежде чем подготовить выражение с другим SQL
+        @Override
+        public void jdbcExecuteBatchEnd() {
+            executed();
+        }
+
+        private void executed() {
+            long nanos = System.nanoTime() - startNanos;
+            String sql = PENDING_SQL.get();
+            if (monitor == null || sql == null) {
+                return;
+            }
+            Counter counter = monitor.record(sql, nanos);
+            if (counter.select && monitor.nPlusOneThreshold > 0) {
+                if (selects == null) {
+                    selects = new HashMap<>();
+                }
+                int[] count = selects.computeIfAbsent(counter, key -> new int[1]);
+                if (++count[0] == monitor.nPlusOneThreshold) {
+                    monitor.nPlusOneDetected(counter);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.userservice.util;
+
+import java.util.List;
+
+/**
+ * Снимок статистики SQL: запросы {@link SqlMonitor} (по убыванию суммарного времени) и счетчики
+ * Hibernate Statistics основной БД (загрузки сущностей, подготовленные выражения, кеш второго уровня).
+ * Счетчики Hibernate равны нулю, если hibernate.generate_statistics выключен.
+ */
+public record SqlStats(long executions,
+                       long slowExecutions,
+                       List<Query> queries,
+                       List<NPlusOne> nPlusOne,
+                       long entityLoads,
+                       long entityFetches,
+                       long collectionFetches,
+                       long statementsPrepared,
+                       long secondLevelCacheHits,
+                       long secondLevelCacheMisses) {
+
+    /**
+     * Запрос в форме с параметрами (?); списки IN любой длины сведены к одному виду.
+     */
+    public record Query(String sql, long executions, double totalMillis, double maxMillis, long slowExecutions) {
+
+        public double meanMillis() {
+            return executions == 0 ? 0 : totalMillis / executions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d раз, всего %.1f мс, среднее %.2f мс, макс %.1f мс, медленных %d: %s",
+                    executions, totalMillis, meanMillis(), maxMillis, slowExecutions, sql);
+        }
+    }
+
+    /**
+     * Запрос, который повторялся в одной сессии не меньше порога, и число таких сессий.
+     */
+    public record NPlusOne(String sql, long sessions) {
+
+        @Override
+        public String toString() {
+            return "сессий " + sessions + ": " + sql;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder()
+                .append("SQL: выполнено ").append(executions).append(", медленных ").append(slowExecutions)
+                .append(System.lineSeparator()).append("  сущности: загружено ").append(entityLoads)
+                .append(", догружено (fetch) ").append(entityFetches)
+                .append(", коллекций догружено ").append(collectionFetches)
+                .append(System.lineSeparator()).append("  подготовлено выражений ").append(statementsPrepared)
+                .append(", кеш второго уровня: попаданий ").append(secondLevelCacheHits)
+                .append(", промахов ").append(secondLevelCacheMisses);
+        queries.forEach(query -> text.append(System.lineSeparator()).append("  ").append(query));
+        if (!nPlusOne.isEmpty()) {
+            text.append(System.lineSeparator()).append("  возможные N+1:");
+            nPlusOne.forEach(suspect -> text.append(System.lineSeparator()).append("    ").append(suspect));
+        }
+        return text.toString();
+    }
+}
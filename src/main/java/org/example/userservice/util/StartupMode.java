@@ -0,0 +1,35 @@
+package org.example.userservice.util;
+
+import java.util.Locale;
+
+/**
+ * Работа со схемой при запуске (-Duser-service.startup). Явно заданное -Dhibernate.hbm2ddl.auto важнее.
+ */
+public enum StartupMode {
+
+    /**
+     * hbm2ddl.auto=update: схема сверяется с живой БД и дополняется (по умолчанию, как в hibernate.cfg.xml).
+     */
+    UPDATE,
+
+    /**
+     * hbm2ddl.auto=validate: схема только проверяется, несовпадение останавливает запуск.
+     */
+    VALIDATE,
+
+    /**
+     * Без работы со схемой и без чтения метаданных JDBC при построении SessionFactory:
+     * диалект берется из hibernate.dialect (по умолчанию PostgreSQL). Схема должна быть уже создана.
+     */
+    FAST;
+
+    static StartupMode fromSystemProperties() {
+        String value = System.getProperty("user-service.startup", "update");
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
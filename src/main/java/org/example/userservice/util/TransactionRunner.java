@@ -0,0 +1,128 @@
+package org.example.userservice.util;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ThreadLocalSessionContext;
+import org.hibernate.exception.JDBCConnectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Function;
+
+/**
+ * Единица работы: несколько операций с БД в одной сессии и одной транзакции текущего потока.
+ * Сессия берется через {@link SessionFactory#getCurrentSession()} (hibernate.current_session_context_class=thread)
+ * и закрывается вместе с транзакцией, поэтому соединение из пула занимается один раз на всю работу.
+ * Вложенные вызовы присоединяются к уже начатой единице работы; фиксирует или откатывает ее только внешний.
+ * <p>
+ * Транзакция только для чтения идет через {@link HibernateUtil#getReadSessionFactory()} (реплику, если она есть).
+ * Сессия в ней read-only (загруженные сущности не хранят снимков для dirty checking) с ручным flush,
+ * а соединение помечено {@code Connection.setReadOnly(true)} - PostgreSQL начинает BEGIN READ ONLY.
+ */
+public final class TransactionRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionRunner.class);
+
+    private static final ThreadLocal<Unit> CURRENT = new ThreadLocal<>();
+
+    private record Unit(Session session, boolean readOnly) {
+    }
+
+    private TransactionRunner() {
+    }
+
+    /**
+     * Выполняет work в транзакции основной БД или в уже начатой единице работы потока.
+     * Исключение из work откатывает всю единицу работы.
+     *
+     * @throws IllegalStateException если поток выполняет транзакцию только для чтения
+     */
+    public static <T> T inTransaction(Function<Session, T> work) {
+        Unit current = CURRENT.get();
+        if (current != null) {
+            if (current.readOnly()) {
+                throw new IllegalStateException("Запись внутри транзакции только для чтения");
+            }
+            return work.apply(current.session());
+        }
+        T result = run(HibernateUtil.getSessionFactory(), false, work);
+        HibernateUtil.recordWrite();
+        return result;
+    }
+
+    /**
+     * Выполняет work в транзакции только для чтения или в уже начатой единице работы потока
+     * (в том числе пишущей - тогда она видит свои незафиксированные изменения).
+     * Если реплика не выдала соединение, work повторяется на следующей реплике или на основной БД.
+     */
+    public static <T> T readOnly(Function<Session, T> work) {
+        Unit current = CURRENT.get();
+        if (current != null) {
+            return work.apply(current.session());
+        }
+        SessionFactory sessionFactory = HibernateUtil.getReadSessionFactory();
+        while (true) {
+            try {
+                return run(sessionFactory, true, work);
+            } catch (JDBCConnectionException ex) {
+                // Каждая неудача исключает одну реплику, поэтому цикл заканчивается на основной БД
+                if (!HibernateUtil.reportReadFailure(sessionFactory)) {
+                    throw ex;
+                }
+                sessionFactory = HibernateUtil.getReadSessionFactory();
+            }
+        }
+    }
+
+    /**
+     * true, если текущий поток выполняет единицу работы.
+     */
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    private static <T> T run(SessionFactory sessionFactory, boolean readOnly, Function<Session, T> work) {
+        Session session = sessionFactory.getCurrentSession();
+        Transaction tx = null;
+        CURRENT.set(new Unit(session, readOnly));
+        try {
+            tx = session.beginTransaction();
+            if (readOnly) {
+                session.setDefaultReadOnly(true);
+                session.setHibernateFlushMode(FlushMode.MANUAL);
+                // До первого запроса транзакции; HikariCP вернет признак при возврате соединения в пул
+                session.doWork(connection -> connection.setReadOnly(true));
+            }
+
+            T result = work.apply(session);
+
+            tx.commit();
+            return result;
+        } catch (RuntimeException | Error ex) {
+            rollback(session, tx, ex);
+            throw ex;
+        } finally {
+            CURRENT.remove();
+            // Commit и rollback закрывают сессию контекста сами; если транзакция не началась, сессия еще привязана
+            if (session.isOpen()) {
+                ThreadLocalSessionContext.unbind(sessionFactory);
+                session.close();
+            }
+        }
+    }
+
+    private static void rollback(Session session, Transaction tx, Throwable cause) {
+        if (tx == null || !session.isOpen() || !tx.getStatus().canRollback()) {
+            return;
+        }
+        try {
+            tx.rollback();
+            log.info("Выполнен откат транзакции после ошибки: {}", cause.toString());
+        } catch (RuntimeException rollbackFailure) {
+            // Исходная ошибка важнее: ошибка отката не должна ее подменять
+            cause.addSuppressed(rollbackFailure);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.example.userservice.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedCacheTest {
+
+    @Test
+    void put_shouldEvictWhenCapacityExceeded() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(1, Duration.ofMinutes(1));
+
+        cache.put(1, "one");
+        cache.put(2, "two");
+
+        assertNull(cache.getIfPresent(1));
+        assertEquals("two", cache.getIfPresent(2));
+        assertEquals(1, cache.stats().evictionCount());
+    }
+
+    @Test
+    void frequentlyReadKeys_shouldSurviveScanOfOneTimeKeys() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(10, Duration.ofMinutes(1));
+        cache.put(-1, "hot");
+        cache.getIfPresent(-1);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(i * 16, "cold");
+        }
+
+        assertEquals("hot", cache.getIfPresent(-1));
+    }
+
+    @Test
+    void get_shouldExpireEntriesAfterTtl() throws InterruptedException {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(10, Duration.ofMillis(20));
+        cache.put(1, "one");
+
+        Thread.sleep(40);
+
+        assertNull(cache.getIfPresent(1));
+        assertEquals(1, cache.stats().expirationCount());
+    }
+
+    @Test
+    void get_shouldNotStoreValueLoadedConcurrentlyWithInvalidation() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(10, Duration.ofMinutes(1));
+
+        String loaded = cache.get(1, key -> {
+            cache.invalidate(key);
+            return "stale";
+        });
+
+        assertEquals("stale", loaded);
+        assertNull(cache.getIfPresent(1));
+    }
+}
@@ -0,0 +1,31 @@
+package org.example.userservice.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeCursorTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 5, 1, 12, 30, 15, 123_456_000);
+
+    @Test
+    void parse_shouldReadWhatToStringWrote() {
+        ChangeCursor cursor = new ChangeCursor(TIME, 42);
+
+        assertEquals("2024-05-01T12:30:15.123456#42", cursor.toString());
+        assertEquals(cursor, ChangeCursor.parse(cursor.toString()));
+        assertThrows(IllegalArgumentException.class, () -> ChangeCursor.parse("2024-05-01T12:30:15"));
+        assertThrows(IllegalArgumentException.class, () -> ChangeCursor.parse("вчера#1"));
+    }
+
+    @Test
+    void compareTo_shouldOrderByTimeThenId() {
+        ChangeCursor since = ChangeCursor.since(TIME);
+
+        assertTrue(since.compareTo(new ChangeCursor(TIME, 1)) < 0);
+        assertTrue(new ChangeCursor(TIME, 100).compareTo(new ChangeCursor(TIME.plusNanos(1_000), 1)) < 0);
+        assertEquals(0, new ChangeCursor(TIME, 7).compareTo(new ChangeCursor(TIME, 7)));
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Базы шардов для тестов ShardedUserDao: встроенные H2 в памяти в режиме совместимости с PostgreSQL,
+ * каждая со своим пулом и схемой.
+ */
+final class EmbeddedShards {
+
+    private EmbeddedShards() {
+    }
+
+    static List<SessionFactory> open(String name, int count) {
+        List<SessionFactory> shards = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                shards.add(open(name + "_" + i));
+            }
+        } catch (RuntimeException ex) {
+            close(shards);
+            throw ex;
+        }
+        return shards;
+    }
+
+    static SessionFactory open(String database) {
+        return HibernateUtil.buildShard(database, Map.of(
+                "hibernate.connection.driver_class", "org.h2.Driver",
+                "hibernate.connection.url", "jdbc:h2:mem:" + database + ";MODE=PostgreSQL;"
+                        + "DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1",
+                "hibernate.connection.username", "sa",
+                "hibernate.connection.password", "",
+                "hibernate.hikari.minimumIdle", "1",
+                "hibernate.hbm2ddl.auto", "update"));
+    }
+
+    static void clear(List<SessionFactory> shards) {
+        for (SessionFactory shard : shards) {
+            try (Session session = shard.openSession()) {
+                Transaction tx = session.beginTransaction();
+                session.createMutationQuery("delete from User").executeUpdate();
+                session.createMutationQuery("delete from UserTombstone").executeUpdate();
+                session.createMutationQuery("delete from UserEmailRoute").executeUpdate();
+                session.createMutationQuery("delete from UserShardMap").executeUpdate();
+                session.createMutationQuery("delete from UserShardBucket").executeUpdate();
+                tx.commit();
+            }
+        }
+    }
+
+    static void close(List<SessionFactory> shards) {
+        shards.forEach(SessionFactory::close);
+    }
+}
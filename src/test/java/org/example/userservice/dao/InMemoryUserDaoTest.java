@@ -0,0 +1,121 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.entity.User;
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryUserDaoTest extends UserDaoContractTest {
+
+    @Override
+    protected UserDao createUserDao() {
+        return new InMemoryUserDao();
+    }
+
+    @Test
+    void save_shouldReportDuplicateEmailAsUniqueViolation() {
+        userDao.save(new User("First", "dup@example.com", 30));
+
+        ConstraintViolationException ex = assertThrows(ConstraintViolationException.class,
+                () -> userDao.save(new User("Second", "dup@example.com", 31)));
+
+        assertEquals("23505", ex.getSQLState());
+    }
+
+    @Test
+    void findByEmailIgnoreCase_shouldKeepOtherCaseVariantsAfterDelete() {
+        User upper = new User("Upper", "Case@example.com", 30);
+        User lower = new User("Lower", "case@example.com", 31);
+        userDao.save(upper);
+        userDao.save(lower);
+
+        userDao.deleteById(upper.getId());
+
+        assertEquals("Lower", userDao.findByEmailIgnoreCase("CASE@example.com").orElseThrow().getName());
+    }
+
+    @Test
+    void concurrentSaves_shouldKeepEmailUniqueAndIdsDistinct() throws Exception {
+        int threads = 8;
+        int perThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    int saved = 0;
+                    for (int i = 0; i < perThread; i++) {
+                        try {
+                            // Все потоки пишут одни и те же email: каждый должен сохраниться ровно один раз
+                            userDao.save(new User("User" + i, "u" + i + "@example.com", 20));
+                            saved++;
+                        } catch (ConstraintViolationException expected) {
+                            // email уже занят другим потоком
+                        }
+                    }
+                    return saved;
+                }));
+            }
+            start.countDown();
+
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get(30, TimeUnit.SECONDS);
+            }
+
+            assertEquals(perThread, total);
+            List<User> all = userDao.findAll();
+            assertEquals(perThread, all.size());
+            assertEquals(perThread, all.stream().map(User::getId).distinct().count());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentSaves_shouldNeverExposeEmailBeforeRow() throws Exception {
+        int count = 5_000;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicBoolean done = new AtomicBoolean();
+        try {
+            Future<Integer> reader = executor.submit(() -> {
+                int missing = 0;
+                while (!done.get()) {
+                    for (int i = 0; i < count; i += 97) {
+                        Long id = userDao.findByEmail("r" + i + "@example.com").map(User::getId).orElse(null);
+                        if (id != null && userDao.findById(id).isEmpty()) {
+                            missing++;
+                        }
+                    }
+                }
+                return missing;
+            });
+            for (int i = 0; i < count; i++) {
+                userDao.save(new User("User" + i, "r" + i + "@example.com", 20));
+                // Дубликат откатывается: строка не должна остаться ни в rows, ни в индексе
+                assertThrows(ConstraintViolationException.class,
+                        () -> userDao.save(new User("Dup", "r0@example.com", 20)));
+            }
+            done.set(true);
+
+            assertEquals(0, reader.get(30, TimeUnit.SECONDS));
+            assertEquals(count, userDao.findAll().size());
+            assertEquals("User0", userDao.findByEmail("r0@example.com").orElseThrow().getName());
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.userservice.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardMapTest {
+
+    @Test
+    void parse_shouldReadWhatFormatWrote() {
+        ShardMap map = ShardMap.uniform(2).withShard().withOwner(5, 2).withMoving(7, true).withMoving(9, true);
+
+        ShardMap parsed = ShardMap.parse(map.format());
+
+        assertEquals(map, parsed);
+        assertEquals(3, parsed.shardCount());
+        assertEquals(2, parsed.shardOf(5));
+        assertEquals(List.of(7, 9), parsed.movingBuckets());
+        assertThrows(IllegalArgumentException.class, () -> ShardMap.parse("2;0,1"));
+        assertThrows(IllegalArgumentException.class, () -> ShardMap.parse("карта"));
+    }
+
+    @Test
+    void of_shouldRejectOwnersOutsideShardCount() {
+        int[] owners = new int[ShardMap.BUCKETS];
+        owners[3] = 2;
+
+        assertThrows(IllegalArgumentException.class, () -> ShardMap.of(owners, new BitSet(), 2));
+        assertThrows(IllegalArgumentException.class, () -> ShardMap.of(new int[1], new BitSet(), 1));
+        assertEquals(2, ShardMap.of(owners, new BitSet(), 3).shardOf(3));
+    }
+}
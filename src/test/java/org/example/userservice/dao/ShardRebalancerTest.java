@@ -0,0 +1,163 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.entity.User;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardRebalancerTest {
+
+    private final List<SessionFactory> shards = new ArrayList<>();
+    private ShardedUserDao dao;
+
+    @BeforeEach
+    void openShards() {
+        shards.addAll(EmbeddedShards.open("rebalance", 2));
+        EmbeddedShards.clear(shards);
+        dao = openDao();
+    }
+
+    // Карта перечитывается при каждом обращении, поэтому перенос не ждет; лента без отставания
+    private ShardedUserDao openDao() {
+        return new ShardedUserDao(shards, ShardMap.uniform(2), UserDaoImpl.DEFAULT_FETCH_SIZE, Duration.ZERO,
+                Duration.ZERO);
+    }
+
+    @AfterEach
+    void closeShards() {
+        dao.close();
+        EmbeddedShards.close(shards);
+    }
+
+    @Test
+    void rebalance_shouldMoveBucketsToNewShardWithoutLosingRows() throws Exception {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            users.add(new User("User" + i, "user" + i + "@example.com", 20 + i % 50));
+        }
+        dao.saveAll(users);
+        assertTrue(dao.deleteById(users.get(0).getId()));
+        User renamed = dao.patch(new UserPatch(users.get(1).getId(), null, "renamed@example.com", null)).orElseThrow();
+        ChangeCursor start = dao.findChangedSince(null, 1_000).cursor();
+
+        SessionFactory added = EmbeddedShards.open("rebalance_2");
+        shards.add(added);
+        EmbeddedShards.clear(List.of(added));
+        int newShard = dao.addShard(added);
+        List<ShardRebalancer.MoveResult> moves = new ShardRebalancer(dao, 7).rebalance();
+
+        ShardMap map = dao.getShardMap();
+        assertEquals(ShardMap.BUCKETS / 3, map.bucketsOf(newShard).size());
+        assertEquals(map.bucketsOf(newShard).size(), moves.size());
+        assertTrue(moves.stream().allMatch(move -> move.toShard() == newShard));
+        assertTrue(moves.stream().mapToLong(ShardRebalancer.MoveResult::users).sum() > 0);
+
+        List<User> all = dao.findAll();
+        assertEquals(199, all.size());
+        assertEquals(users.stream().skip(1).map(User::getId).sorted().toList(), all.stream().map(User::getId).toList());
+        for (User user : users.subList(2, users.size())) {
+            assertEquals(user.getId(), dao.findByEmail(user.getEmail()).orElseThrow().getId());
+        }
+        assertEquals(renamed.getId(), dao.findByEmail("renamed@example.com").orElseThrow().getId());
+        assertThrows(RuntimeException.class, () -> dao.save(new User("Dup", "user5@example.com", 30)));
+        assertTrue(dao.findChangedSince(start, 10).changes().isEmpty());
+        // Отметка об удалении и смена email записаны позже пакета, первым в ленте остается третий пользователь
+        assertEquals(users.get(2).getId(), dao.findChangedSince(null, 1).changes().get(0).id());
+        assertEquals(200, dao.findChangedSince(null, 1_000).changes().size());
+    }
+
+    @Test
+    void moveBucket_shouldCopyRowsAndRemoveThemFromSource() throws Exception {
+        User user = new User("Moved", "moved@example.com", 30);
+        dao.save(user);
+        int bucket = ShardMap.bucketOf(user.getId());
+        int source = dao.getShardMap().shardOf(bucket);
+
+        ShardRebalancer.MoveResult result = new ShardRebalancer(dao, 10).moveBucket(bucket, 1 - source);
+
+        assertEquals(new ShardRebalancer.MoveResult(bucket, source, 1 - source, 1, 0, 1), result);
+        assertEquals(1 - source, dao.getShardMap().shardOfId(user.getId()));
+        assertFalse(dao.getShardMap().isMoving(bucket));
+        assertEquals("Moved", dao.findByEmail("moved@example.com").orElseThrow().getName());
+        assertEquals(1, dao.findAll().size());
+        assertEquals(0L, (long) dao.inShard(source, session ->
+                session.createQuery("select count(u) from User u", Long.class).getSingleResult()));
+    }
+
+    @Test
+    void writes_shouldBeRejectedWhileBucketIsMovingButReadsContinue() throws Exception {
+        User user = new User("Frozen", "frozen@example.com", 30);
+        dao.save(user);
+        int bucket = ShardMap.bucketOf(user.getId());
+
+        dao.beginMove(bucket);
+        try {
+            assertThrows(IllegalStateException.class,
+                    () -> dao.patch(new UserPatch(user.getId(), "Changed", null, null)));
+            assertThrows(IllegalStateException.class, () -> dao.deleteById(user.getId()));
+            assertEquals("Frozen", dao.findById(user.getId()).orElseThrow().getName());
+        } finally {
+            dao.endMove(bucket);
+        }
+        assertEquals("Changed", dao.patch(new UserPatch(user.getId(), "Changed", null, null)).orElseThrow().getName());
+    }
+
+    @Test
+    void restart_shouldKeepInterruptedMoveHiddenUntilRecover() throws Exception {
+        User user = new User("Copied", "copied@example.com", 30);
+        dao.save(user);
+        int bucket = ShardMap.bucketOf(user.getId());
+        int source = dao.getShardMap().shardOf(bucket);
+        dao.beginMove(bucket);
+        // Процесс упал посреди копирования: строка уже на новом шарде, а корзина еще у старого
+        dao.inShard(1 - source, session -> {
+            ShardedUserDao.insertUsers(session, List.of(user));
+            return null;
+        });
+        dao.close();
+
+        dao = openDao();
+        assertTrue(dao.getShardMap().isMoving(bucket));
+        assertEquals(List.of(user.getId()), dao.findAll().stream().map(User::getId).toList());
+        assertEquals(1, dao.findChangedSince(null, 10).changes().size());
+        assertThrows(IllegalStateException.class,
+                () -> dao.patch(new UserPatch(user.getId(), "Changed", null, null)));
+
+        assertEquals(List.of(bucket), new ShardRebalancer(dao, 10).recover());
+        assertFalse(dao.getShardMap().isMoving(bucket));
+        assertEquals(source, dao.getShardMap().shardOf(bucket));
+        assertEquals(0L, (long) dao.inShard(1 - source, session ->
+                session.createQuery("select count(u) from User u", Long.class).getSingleResult()));
+        assertEquals("Changed", dao.patch(new UserPatch(user.getId(), "Changed", null, null)).orElseThrow().getName());
+        assertEquals(1 - source, new ShardRebalancer(dao, 10).moveBucket(bucket, 1 - source).toShard());
+        assertEquals(List.of(user.getId()), dao.findAll().stream().map(User::getId).toList());
+    }
+
+    @Test
+    void beginMove_shouldRejectWritesOfProcessWithStaleMap() throws Exception {
+        User user = new User("Shared", "shared@example.com", 30);
+        dao.save(user);
+        int bucket = ShardMap.bucketOf(user.getId());
+
+        try (ShardedUserDao other = new ShardedUserDao(shards, ShardMap.uniform(2),
+                UserDaoImpl.DEFAULT_FETCH_SIZE, Duration.ofHours(1))) {
+            dao.beginMove(bucket);
+            assertFalse(other.getShardMap().isMoving(bucket));
+            assertThrows(IllegalStateException.class,
+                    () -> other.patch(new UserPatch(user.getId(), "Changed", null, null)));
+            // Отказ заставил перечитать карту
+            assertTrue(other.getShardMap().isMoving(bucket));
+
+            dao.endMove(bucket);
+            assertEquals("Changed",
+                    other.patch(new UserPatch(user.getId(), "Changed", null, null)).orElseThrow().getName());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.entity.User;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedUserDaoTest extends UserDaoContractTest {
+
+    private static final int SHARDS = 3;
+
+    private static List<SessionFactory> shards;
+
+    @BeforeAll
+    static void openShards() {
+        shards = EmbeddedShards.open("sharded_dao", SHARDS);
+    }
+
+    @AfterAll
+    static void closeShards() {
+        EmbeddedShards.close(shards);
+    }
+
+    @Override
+    protected UserDao createUserDao() {
+        EmbeddedShards.clear(shards);
+        // Лента без отставания: тесты контракта читают ее сразу после записи
+        return new ShardedUserDao(shards, ShardMap.uniform(SHARDS), UserDaoImpl.DEFAULT_FETCH_SIZE,
+                Duration.ofSeconds(1), Duration.ZERO);
+    }
+
+    @AfterEach
+    void closeDao() {
+        ((ShardedUserDao) userDao).close();
+    }
+
+    @Test
+    void findChangedSince_shouldWithholdChangesYoungerThanLag() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            users.add(new User("Lag" + i, "lag" + i + "@example.com", 30));
+        }
+        userDao.saveAll(users);
+
+        try (ShardedUserDao lagging = new ShardedUserDao(shards, ShardMap.uniform(SHARDS),
+                UserDaoImpl.DEFAULT_FETCH_SIZE, Duration.ofSeconds(1), Duration.ofHours(1))) {
+            ChangeCursor cursor = ChangeCursor.since(users.get(0).getUpdatedAt().minusMinutes(1));
+            UserChangePage page = lagging.findChangedSince(cursor, 10);
+
+            assertTrue(page.changes().isEmpty());
+            assertEquals(cursor, page.cursor());
+        }
+        assertEquals(6, userDao.findChangedSince(null, 10).changes().size());
+    }
+
+    @Test
+    void save_shouldSpreadUsersOverShardsByEmailBucket() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            users.add(new User("Spread" + i, "spread" + i + "@example.com", 30));
+        }
+        userDao.saveAll(users);
+
+        ShardMap map = ((ShardedUserDao) userDao).getShardMap();
+        Set<Integer> used = users.stream().map(user -> map.shardOfId(user.getId())).collect(Collectors.toSet());
+        assertEquals(Set.of(0, 1, 2), used);
+        for (User user : users) {
+            assertEquals(ShardMap.bucketOf(user.getEmail()), ShardMap.bucketOf(user.getId()));
+        }
+        assertEquals(users.stream().map(User::getId).sorted().toList(),
+                userDao.findAll().stream().map(User::getId).toList());
+    }
+
+    @Test
+    void save_shouldTakeIdFromSequenceOfShardItIsWrittenTo() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(new User("Seq" + i, "seq" + i + "@example.com", 30));
+        }
+        userDao.saveAll(users);
+
+        ShardMap map = ((ShardedUserDao) userDao).getShardMap();
+        for (User user : users) {
+            assertEquals(map.shardOfId(user.getId()), (int) (user.getId() / ShardMap.BUCKETS % ShardMap.BUCKETS));
+        }
+        assertEquals(users.size(), users.stream().map(User::getId).distinct().count());
+    }
+
+    @Test
+    void inTransaction_shouldHideWritesUntilCommitAndRollBackAllShardsOnFailure() throws Exception {
+        User existing = new User("Existing", "existing@example.com", 30);
+        userDao.save(existing);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            users.add(new User("Unit" + i, "unit" + i + "@example.com", 30));
+        }
+
+        assertThrows(IllegalStateException.class, () -> userDao.inTransaction(dao -> {
+            dao.saveAll(users);
+            dao.patch(new UserPatch(existing.getId(), "Changed", null, null));
+            assertEquals(7, dao.findAll().size());
+            // Другой поток незафиксированных изменений не видит
+            ExecutorService other = Executors.newSingleThreadExecutor();
+            try {
+                assertEquals(1, other.submit(() -> userDao.findAll().size()).get());
+            } catch (Exception ex) {
+                throw new AssertionError(ex);
+            } finally {
+                other.shutdown();
+            }
+            throw new IllegalStateException("отмена");
+        }));
+
+        ShardMap map = ((ShardedUserDao) userDao).getShardMap();
+        assertTrue(users.stream().map(user -> map.shardOfEmail(user.getEmail())).distinct().count() > 1);
+        assertEquals(List.of(existing.getId()), userDao.findAll().stream().map(User::getId).toList());
+        assertEquals("Existing", userDao.findById(existing.getId()).orElseThrow().getName());
+        assertTrue(userDao.findByEmail("unit0@example.com").isEmpty());
+        // Записи индекса email откачены вместе со строками: email снова свободны
+        userDao.saveAll(users.stream().map(user -> new User(user.getName(), user.getEmail(), user.getAge())).toList());
+        assertEquals(7, userDao.findAll().size());
+    }
+
+    @Test
+    void patch_shouldKeepEmailUniqueAcrossShardsAfterEmailMoves() {
+        User first = new User("First", "route-a@example.com", 30);
+        User second = new User("Second", "route-b@example.com", 31);
+        userDao.saveAll(List.of(first, second));
+
+        // Email переходит в корзину другого шарда, а строка пользователя остается на месте
+        String moved = emailOnOtherShard(first);
+        userDao.patch(new UserPatch(first.getId(), null, moved, null));
+
+        assertEquals(first.getId(), userDao.findByEmail(moved).orElseThrow().getId());
+        assertTrue(userDao.findByEmail("route-a@example.com").isEmpty());
+        assertThrows(RuntimeException.class, () -> userDao.patch(new UserPatch(second.getId(), null, moved, null)));
+        assertThrows(RuntimeException.class, () -> userDao.save(new User("Third", moved, 32)));
+
+        // Освобожденный email можно занять снова
+        userDao.save(new User("Fourth", "route-a@example.com", 33));
+        assertTrue(userDao.deleteById(first.getId()));
+        userDao.save(new User("Fifth", moved, 34));
+        assertEquals("Fifth", userDao.findByEmail(moved).orElseThrow().getName());
+    }
+
+    @Test
+    void streamAll_shouldMergeShardsInIdOrder() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            users.add(new User("Stream" + i, "stream" + i + "@example.com", 20));
+        }
+        userDao.saveAll(users);
+
+        List<Long> streamed;
+        try (Stream<User> stream = new ShardedUserDao(shards, ShardMap.uniform(SHARDS), 7).streamAll()) {
+            streamed = stream.map(User::getId).toList();
+        }
+
+        assertEquals(users.stream().map(User::getId).sorted().toList(), streamed);
+    }
+
+    private String emailOnOtherShard(User user) {
+        ShardMap map = ((ShardedUserDao) userDao).getShardMap();
+        for (int i = 0; ; i++) {
+            String email = "moved" + i + "@example.com";
+            if (map.shardOfEmail(email) != map.shardOfId(user.getId())) {
+                return email;
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.example.userservice.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedLongMapTest {
+
+    @Test
+    void randomOperations_shouldMatchHashMap() {
+        StripedLongMap<String> map = new StripedLongMap<>(4);
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            // Маленький диапазон ключей: много коллизий и удалений из середины цепочек
+            long key = random.nextInt(2_000) - 100;
+            switch (random.nextInt(3)) {
+                case 0 -> assertEquals(expected.putIfAbsent(key, "v" + i), map.putIfAbsent(key, "v" + i));
+                case 1 -> assertEquals(expected.remove(key), map.remove(key, value -> { }));
+                default -> assertEquals(expected.computeIfPresent(key, (k, v) -> v + "!"),
+                        map.computeIfPresent(key, v -> v + "!"));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.size(), map.snapshot().size());
+        expected.forEach((key, value) -> assertEquals(value, map.get(key)));
+    }
+
+    @Test
+    void computeIfPresent_shouldLeaveValueUnchangedWhenRemappingThrows() {
+        StripedLongMap<String> map = new StripedLongMap<>();
+        map.putIfAbsent(0L, "zero");
+
+        assertThrows(IllegalStateException.class, () -> map.computeIfPresent(0L, v -> {
+            throw new IllegalStateException("boom");
+        }));
+
+        assertEquals("zero", map.get(0L));
+    }
+}
@@ -0,0 +1,183 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.entity.User;
+import org.example.userservice.util.HibernateUtil;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testcontainers(disabledWithoutDocker = true)
+class UserCsvCopyDaoIntegrationTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES =
+            new PostgreSQLContainer<>("postgres:16-alpine")
+                    .withDatabaseName("testdb")
+                    .withUsername("test")
+                    .withPassword("test");
+
+    private final UserDao userDao = new UserDaoImpl();
+    private final UserCsvCopyDao copyDao = new UserCsvCopyDao();
+
+    @BeforeAll
+    static void beforeAll() {
+        System.setProperty("hibernate.connection.url", POSTGRES.getJdbcUrl());
+        System.setProperty("hibernate.connection.username", POSTGRES.getUsername());
+        System.setProperty("hibernate.connection.password", POSTGRES.getPassword());
+
+        HibernateUtil.rebuildSessionFactory();
+    }
+
+    @AfterAll
+    static void afterAll() {
+        HibernateUtil.shutdown();
+    }
+
+    @BeforeEach
+    void setUp() {
+        var session = HibernateUtil.getSessionFactory().openSession();
+        var tx = session.beginTransaction();
+        session.createMutationQuery("delete from User").executeUpdate();
+        tx.commit();
+        session.close();
+    }
+
+    private static ByteArrayInputStream csv(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void importCsv_shouldInsertUsersWithIdsThatDoNotCollideWithHibernate() {
+        userDao.save(new User("Before", "before@example.com", 20));
+
+        CsvImportResult result = copyDao.importCsv(csv("""
+                name,email,age
+                Alice,alice@example.com,30
+                "Smith, Bob",bob@example.com,41
+                """), EmailConflictPolicy.SKIP, rows -> { });
+
+        assertEquals(new CsvImportResult(2, 2, 0, 0), result);
+        assertEquals("Smith, Bob", userDao.findByEmail("bob@example.com").orElseThrow().getName());
+
+        User after = new User("After", "after@example.com", 22);
+        userDao.save(after);
+        Set<Long> ids = new HashSet<>();
+        userDao.findAll().forEach(user -> assertTrue(ids.add(user.getId())));
+        assertEquals(4, ids.size());
+    }
+
+    @Test
+    void importCsv_shouldSkipExistingEmailsAndKeepLastDuplicateInFile() {
+        userDao.save(new User("Existing", "taken@example.com", 50));
+
+        CsvImportResult result = copyDao.importCsv(csv("""
+                name,email,age
+                New,taken@example.com,20
+                First,dup@example.com,21
+                Last,dup@example.com,22
+                """), EmailConflictPolicy.SKIP, rows -> { });
+
+        assertEquals(new CsvImportResult(3, 1, 0, 2), result);
+        assertEquals("Existing", userDao.findByEmail("taken@example.com").orElseThrow().getName());
+        assertEquals("Last", userDao.findByEmail("dup@example.com").orElseThrow().getName());
+    }
+
+    @Test
+    void importCsv_withUpdatePolicy_shouldOverwriteExistingAndEvictSecondLevelCache() {
+        User existing = new User("Old", "taken@example.com", 50);
+        userDao.save(existing);
+        // Прогреваем кеш второго уровня старым значением
+        userDao.findById(existing.getId());
+
+        CsvImportResult result = copyDao.importCsv(csv("""
+                email,name,age
+                taken@example.com,Renamed,51
+                """), EmailConflictPolicy.UPDATE, rows -> { });
+
+        assertEquals(new CsvImportResult(1, 0, 1, 0), result);
+        User reloaded = userDao.findById(existing.getId()).orElseThrow();
+        assertEquals("Renamed", reloaded.getName());
+        assertEquals(51, reloaded.getAge());
+    }
+
+    @Test
+    void importCsv_withUpdatePolicy_shouldStampUpdatedAtFromJvmClockAndBumpVersion() {
+        User existing = new User("Old", "taken@example.com", 50);
+        userDao.save(existing);
+        LocalDateTime before = UserDaoImpl.now();
+
+        copyDao.importCsv(csv("""
+                email,name,age
+                taken@example.com,Renamed,51
+                new@example.com,New,20
+                """), EmailConflictPolicy.UPDATE, rows -> { });
+
+        LocalDateTime after = UserDaoImpl.now();
+        User updated = userDao.findById(existing.getId()).orElseThrow();
+        User inserted = userDao.findByEmail("new@example.com").orElseThrow();
+        for (User user : List.of(updated, inserted)) {
+            assertFalse(user.getUpdatedAt().isBefore(before), user.getUpdatedAt() + " < " + before);
+            assertFalse(user.getUpdatedAt().isAfter(after), user.getUpdatedAt() + " > " + after);
+        }
+        // Объект, прочитанный до импорта, устарел: merge не должен затереть импортированные значения
+        assertEquals(existing.getVersion() + 1, updated.getVersion());
+    }
+
+    @Test
+    void importCsv_shouldRollBackWholeFileOnBadRow() {
+        assertThrows(RuntimeException.class, () -> copyDao.importCsv(csv("""
+                name,email,age
+                Good,good@example.com,30
+                Bad,bad@example.com,not-a-number
+                """), EmailConflictPolicy.SKIP, rows -> { }));
+
+        assertTrue(userDao.findAll().isEmpty());
+    }
+
+    @Test
+    void importCsv_shouldRejectUnknownOrMissingColumns() {
+        assertThrows(IllegalArgumentException.class,
+                () -> copyDao.importCsv(csv("name,email,phone\n"), EmailConflictPolicy.SKIP, rows -> { }));
+        assertThrows(IllegalArgumentException.class,
+                () -> copyDao.importCsv(csv("name,email\n"), EmailConflictPolicy.SKIP, rows -> { }));
+    }
+
+    @Test
+    void exportThenImport_shouldRoundTripAllUsers() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 25_000; i++) {
+            users.add(new User("User" + i, "u" + i + "@example.com", 20 + i % 50));
+        }
+        userDao.saveAll(users);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Long> exportProgress = new ArrayList<>();
+        long exported = copyDao.exportCsv(out, exportProgress::add);
+
+        assertEquals(25_000, exported);
+        assertEquals(List.of(10_000L, 20_000L, 25_000L), exportProgress);
+        assertTrue(out.toString(StandardCharsets.UTF_8).startsWith("id,name,email,age,created_at\n"));
+
+        setUp();
+        CsvImportResult result = copyDao.importCsv(new ByteArrayInputStream(out.toByteArray()),
+                EmailConflictPolicy.SKIP, rows -> { });
+
+        assertEquals(new CsvImportResult(25_000, 25_000, 0, 0), result);
+        assertEquals("User12345", userDao.findByEmail("u12345@example.com").orElseThrow().getName());
+    }
+}
@@ -0,0 +1,728 @@
+package org.example.userservice.dao;
+
+import jakarta.persistence.OptimisticLockException;
+import org.example.userservice.entity.User;
+import org.example.userservice.service.RetryPolicy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Общий контракт UserDao: одни и те же тесты выполняются для каждой реализации.
+ * Наследник создает DAO над пустым хранилищем. Порядок id не обязан совпадать с порядком сохранения
+ * (у ShardedUserDao id выдают последовательности шардов), поэтому ожидаемый порядок строится по id.
+ */
+abstract class UserDaoContractTest {
+
+    protected UserDao userDao;
+
+    protected abstract UserDao createUserDao();
+
+    @BeforeEach
+    void createDao() {
+        userDao = createUserDao();
+    }
+
+    @Test
+    void saveAndFindById_shouldPersistAndLoadUser() {
+        User user = new User("Integration", "int@example.com", 35);
+        userDao.save(user);
+
+        assertNotNull(user.getId());
+        assertNotNull(user.getCreatedAt());
+
+        Optional<User> loaded = userDao.findById(user.getId());
+        assertTrue(loaded.isPresent());
+        assertEquals("Integration", loaded.get().getName());
+        assertEquals("int@example.com", loaded.get().getEmail());
+        assertEquals(35, loaded.get().getAge());
+    }
+
+    @Test
+    void save_shouldRejectDuplicateEmail() {
+        userDao.save(new User("First", "same@example.com", 30));
+
+        assertThrows(RuntimeException.class, () -> userDao.save(new User("Second", "same@example.com", 31)));
+
+        assertEquals(1, userDao.findAll().size());
+        assertEquals("First", userDao.findByEmail("same@example.com").orElseThrow().getName());
+    }
+
+    @Test
+    void saveAll_shouldPersistAllUsers() {
+        List<User> users = List.of(
+                new User("Bulk1", "bulk1@example.com", 20),
+                new User("Bulk2", "bulk2@example.com", 21),
+                new User("Bulk3", "bulk3@example.com", 22)
+        );
+
+        userDao.saveAll(users);
+
+        users.forEach(user -> assertNotNull(user.getId()));
+        assertEquals(3, userDao.findAll().size());
+        assertEquals("Bulk2", userDao.findById(users.get(1).getId()).orElseThrow().getName());
+    }
+
+    @Test
+    void saveAll_shouldSaveNothingWhenOneEmailIsDuplicate() {
+        userDao.save(new User("Existing", "taken@example.com", 30));
+        List<User> users = List.of(
+                new User("Bulk1", "bulk1@example.com", 20),
+                new User("Bulk2", "taken@example.com", 21)
+        );
+
+        assertThrows(RuntimeException.class, () -> userDao.saveAll(users));
+
+        assertEquals(1, userDao.findAll().size());
+        assertTrue(userDao.findByEmail("bulk1@example.com").isEmpty());
+    }
+
+    @Test
+    void upsertByEmail_shouldInsertThenUpdateThenLeaveUnchangedRowAlone() {
+        UpsertResult inserted = userDao.upsertByEmail(new User("Sync", "sync@example.com", 30));
+        assertEquals(UpsertResult.Outcome.INSERTED, inserted.outcome());
+        assertNotNull(inserted.user().getId());
+
+        UpsertResult updated = userDao.upsertByEmail(new User("Synced", "sync@example.com", 31));
+        assertEquals(UpsertResult.Outcome.UPDATED, updated.outcome());
+        assertEquals(inserted.user().getId(), updated.user().getId());
+        assertEquals(inserted.user().getVersion() + 1, updated.user().getVersion());
+
+        UpsertResult unchanged = userDao.upsertByEmail(new User("Synced", "sync@example.com", 31));
+        assertEquals(UpsertResult.Outcome.UNCHANGED, unchanged.outcome());
+        assertEquals(updated.user().getVersion(), unchanged.user().getVersion());
+
+        User stored = userDao.findByEmail("sync@example.com").orElseThrow();
+        assertEquals("Synced", stored.getName());
+        assertEquals(31, stored.getAge());
+        assertEquals(inserted.user().getCreatedAt().withNano(0), stored.getCreatedAt().withNano(0));
+        assertEquals(1, userDao.findAll().size());
+    }
+
+    @Test
+    void upsertAllByEmail_shouldReturnResultsInOrderWithLastDuplicateWinning() {
+        userDao.save(new User("Old", "old@example.com", 40));
+        userDao.save(new User("Same", "same@example.com", 41));
+
+        List<UpsertResult> results = userDao.upsertAllByEmail(List.of(
+                new User("New", "new@example.com", 20),
+                new User("Renamed", "old@example.com", 40),
+                new User("Same", "same@example.com", 41),
+                new User("Twice", "new@example.com", 21)));
+
+        assertEquals(List.of(UpsertResult.Outcome.INSERTED, UpsertResult.Outcome.UPDATED,
+                        UpsertResult.Outcome.UNCHANGED, UpsertResult.Outcome.INSERTED),
+                results.stream().map(UpsertResult::outcome).toList());
+        assertEquals("Twice", results.get(0).user().getName());
+        assertEquals(results.get(0).user().getId(), results.get(3).user().getId());
+        assertEquals("Renamed", userDao.findByEmail("old@example.com").orElseThrow().getName());
+        assertEquals(21, userDao.findByEmail("new@example.com").orElseThrow().getAge());
+        assertEquals(3, userDao.findAll().size());
+    }
+
+    @Test
+    void inTransaction_upsertShouldRefreshUserReadEarlier() {
+        User user = new User("Before", "upsert@example.com", 30);
+        userDao.save(user);
+
+        String name = userDao.inTransaction(dao -> {
+            dao.findById(user.getId()).orElseThrow();
+            dao.upsertByEmail(new User("After", "upsert@example.com", 30));
+            return dao.findById(user.getId()).orElseThrow().getName();
+        });
+
+        assertEquals("After", name);
+        assertEquals("After", userDao.findById(user.getId()).orElseThrow().getName());
+    }
+
+    @Test
+    void findChangedSince_shouldReturnWritesAndDeletionsInOrderAndResumeFromCursor() {
+        User first = new User("First", "first-change@example.com", 20);
+        User second = new User("Second", "second-change@example.com", 21);
+        User third = new User("Third", "third-change@example.com", 22);
+        userDao.save(first);
+        userDao.save(second);
+        userDao.save(third);
+        assertNotNull(first.getUpdatedAt());
+
+        UserChangePage initial = userDao.findChangedSince(null, 10);
+        assertEquals(List.of(first.getId(), second.getId(), third.getId()),
+                initial.changes().stream().map(UserChange::id).toList());
+        assertEquals(initial.changes().get(2).cursor(), initial.cursor());
+
+        userDao.patch(new UserPatch(first.getId(), "First2", null, null));
+        assertTrue(userDao.deleteById(second.getId()));
+        User loaded = userDao.findById(third.getId()).orElseThrow();
+        loaded.setAge(23);
+        userDao.update(loaded);
+
+        UserChangePage delta = userDao.findChangedSince(initial.cursor(), 10);
+        assertEquals(List.of(UserChange.Type.UPSERT, UserChange.Type.DELETE, UserChange.Type.UPSERT),
+                delta.changes().stream().map(UserChange::type).toList());
+        assertEquals(List.of(first.getId(), second.getId(), third.getId()),
+                delta.changes().stream().map(UserChange::id).toList());
+        assertEquals("First2", delta.changes().get(0).user().getName());
+        assertNull(delta.changes().get(1).user());
+        assertEquals(23, delta.changes().get(2).user().getAge());
+
+        UserChangePage nothingNew = userDao.findChangedSince(delta.cursor(), 10);
+        assertTrue(nothingNew.changes().isEmpty());
+        assertEquals(delta.cursor(), nothingNew.cursor());
+    }
+
+    @Test
+    void findChangedSince_shouldPageThroughChangesWithLimit() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            User user = new User("Page" + i, "page-change" + i + "@example.com", 20 + i);
+            userDao.save(user);
+            ids.add(user.getId());
+        }
+        userDao.upsertByEmail(new User("Page0-upserted", "page-change0@example.com", 20));
+
+        List<Long> seen = new ArrayList<>();
+        ChangeCursor cursor = null;
+        UserChangePage page;
+        do {
+            page = userDao.findChangedSince(cursor, 2);
+            assertTrue(page.changes().size() <= 2);
+            page.changes().forEach(change -> seen.add(change.id()));
+            cursor = page.cursor();
+        } while (!page.changes().isEmpty());
+
+        // Измененный последним пользователь встречается один раз - в конце ленты
+        assertEquals(List.of(ids.get(1), ids.get(2), ids.get(3), ids.get(4), ids.get(0)), seen);
+    }
+
+    @Test
+    void findById_shouldReturnDetachedCopy() {
+        User user = new User("Original", "copy@example.com", 30);
+        userDao.save(user);
+
+        userDao.findById(user.getId()).orElseThrow().setName("Changed");
+
+        assertEquals("Original", userDao.findById(user.getId()).orElseThrow().getName());
+    }
+
+    @Test
+    void findByEmail_shouldFindExactMatchOnly() {
+        userDao.save(new User("Mail", "Mail@Example.com", 30));
+
+        assertTrue(userDao.findByEmail("Mail@Example.com").isPresent());
+        assertTrue(userDao.findByEmail("mail@example.com").isEmpty());
+        assertTrue(userDao.existsByEmail("Mail@Example.com"));
+        assertFalse(userDao.existsByEmail("absent@example.com"));
+    }
+
+    @Test
+    void findByEmailIgnoreCase_shouldMatchRegardlessOfCase() {
+        userDao.save(new User("Mail", "Mail@Example.com", 30));
+
+        Optional<User> found = userDao.findByEmailIgnoreCase("mail@EXAMPLE.com");
+
+        assertTrue(found.isPresent());
+        assertEquals("Mail", found.get().getName());
+    }
+
+    @Test
+    void findByEmail_shouldSeeEmailChangedByPatch() {
+        User user = new User("Mail", "before@example.com", 30);
+        userDao.save(user);
+        userDao.findByEmail("before@example.com");
+
+        userDao.patch(new UserPatch(user.getId(), null, "after@example.com", null));
+
+        assertTrue(userDao.findByEmail("before@example.com").isEmpty());
+        assertTrue(userDao.findByEmail("after@example.com").isPresent());
+        assertTrue(userDao.findByEmailIgnoreCase("BEFORE@example.com").isEmpty());
+        assertTrue(userDao.findByEmailIgnoreCase("AFTER@example.com").isPresent());
+    }
+
+    @Test
+    void findAll_shouldReturnAllUsers() {
+        userDao.save(new User("User1", "u1@example.com", 20));
+        userDao.save(new User("User2", "u2@example.com", 21));
+
+        List<User> users = userDao.findAll();
+        assertEquals(2, users.size());
+    }
+
+    @Test
+    void streamAll_shouldReturnAllUsersOrderedById() {
+        List<User> saved = saveUsers("User", "u", 3);
+
+        List<String> names;
+        try (Stream<User> users = userDao.streamAll()) {
+            names = users.map(User::getName).collect(Collectors.toList());
+        }
+
+        assertEquals(namesById(saved), names);
+    }
+
+    @Test
+    void findPage_shouldPageByIdWithoutGapsOrDuplicates() {
+        List<String> byId = namesById(saveUsers("User", "u", 5));
+
+        List<User> first = userDao.findPage(null, 2);
+        List<User> second = userDao.findPage(first.get(1).getId(), 2);
+        List<User> third = userDao.findPage(second.get(1).getId(), 2);
+        List<User> fourth = userDao.findPage(third.get(0).getId(), 2);
+
+        assertEquals(byId.subList(0, 2), first.stream().map(User::getName).toList());
+        assertEquals(byId.subList(2, 4), second.stream().map(User::getName).toList());
+        assertEquals(byId.subList(4, 5), third.stream().map(User::getName).toList());
+        assertTrue(fourth.isEmpty());
+    }
+
+    @Test
+    void findPage_shouldSkipDeletedUsers() {
+        List<User> users = new ArrayList<>(saveUsers("User", "u", 20));
+        users.sort(Comparator.comparing(User::getId));
+        for (User user : users.subList(0, 18)) {
+            userDao.deleteById(user.getId());
+        }
+
+        List<User> page = userDao.findPage(null, 1);
+
+        assertEquals(List.of(users.get(18).getName()), page.stream().map(User::getName).toList());
+        assertEquals(List.of(users.get(19).getName()),
+                userDao.findPage(page.get(0).getId(), 5).stream().map(User::getName).toList());
+    }
+
+    @Test
+    void findAllSummaries_shouldReturnIdNameAndEmailOrderedById() {
+        User first = new User("First", "first@example.com", 20);
+        User second = new User("Second", "second@example.com", 21);
+        userDao.save(first);
+        userDao.save(second);
+
+        assertEquals(Stream.of(first, second)
+                .sorted(Comparator.comparing(User::getId))
+                .map(user -> new UserSummary(user.getId(), user.getName(), user.getEmail()))
+                .toList(), userDao.findAllSummaries());
+    }
+
+    @Test
+    void findSummaryPage_shouldPageLikeFindPage() {
+        List<String> byId = namesById(saveUsers("User", "summary", 5));
+
+        List<UserSummary> firstPage = userDao.findSummaryPage(null, 3);
+        List<UserSummary> secondPage = userDao.findSummaryPage(firstPage.get(2).id(), 3);
+
+        assertEquals(userDao.findPage(null, 3).stream().map(User::getId).toList(),
+                firstPage.stream().map(UserSummary::id).toList());
+        assertEquals(byId.subList(3, 5), secondPage.stream().map(UserSummary::name).toList());
+    }
+
+    @Test
+    void search_shouldCombineFiltersAndCountMatches() {
+        userDao.save(new User("Alice", "alice@corp.com", 25));
+        userDao.save(new User("alex", "alex@CORP.com", 35));
+        userDao.save(new User("Alan", "alan@corp.com", 40));
+        userDao.save(new User("Albert", "albert@other.org", 30));
+        userDao.save(new User("Bob", "bob@corp.com", 30));
+
+        UserSearchResult result = userDao.search(UserQuery.builder()
+                .namePrefix("AL")
+                .emailDomain("corp.com")
+                .ageBetween(20, 36)
+                .build());
+
+        assertEquals(List.of("Alice", "alex"), result.users().stream().map(User::getName).toList());
+        assertEquals(2, result.totalCount());
+    }
+
+    @Test
+    void search_shouldSortAndPageWithOffset() {
+        for (int age : new int[]{30, 50, 20, 40, 10}) {
+            userDao.save(new User("Age" + age, "age" + age + "@example.com", age));
+        }
+
+        UserSearchResult result = userDao.search(UserQuery.builder()
+                .sortBy(UserQuery.SortField.AGE, true)
+                .offset(1)
+                .limit(2)
+                .build());
+
+        assertEquals(List.of(40, 30), result.users().stream().map(User::getAge).toList());
+        assertEquals(5, result.totalCount());
+    }
+
+    @Test
+    void search_shouldPageWithAfterIdCursor() {
+        List<String> byId = namesById(saveUsers("Cursor", "cursor", 5));
+
+        UserSearchResult first = userDao.search(UserQuery.builder().ageBetween(30, 30).limit(3).build());
+        Long lastId = first.users().get(2).getId();
+        UserSearchResult second = userDao.search(UserQuery.builder().ageBetween(30, 30).limit(3).afterId(lastId).build());
+
+        assertEquals(byId.subList(3, 5), second.users().stream().map(User::getName).toList());
+        assertEquals(5, first.totalCount());
+        assertEquals(5, second.totalCount());
+    }
+
+    @Test
+    void search_shouldFilterByCreationTime() {
+        userDao.save(new User("Recent", "recent@example.com", 30));
+        LocalDateTime now = LocalDateTime.now();
+
+        assertEquals(1, userDao.search(UserQuery.builder()
+                .createdBetween(now.minusHours(1), now.plusHours(1)).build()).totalCount());
+        assertEquals(0, userDao.search(UserQuery.builder()
+                .createdBetween(null, now.minusHours(1)).build()).totalCount());
+    }
+
+    @Test
+    void search_shouldTreatLikeWildcardsInPrefixLiterally() {
+        userDao.save(new User("a_b", "underscore@example.com", 30));
+        userDao.save(new User("abc", "letters@example.com", 30));
+
+        List<User> found = userDao.search(UserQuery.builder().namePrefix("a_").build()).users();
+
+        assertEquals(List.of("a_b"), found.stream().map(User::getName).toList());
+    }
+
+    @Test
+    void update_shouldModifyExistingUser() {
+        User user = new User("Old", "old@example.com", 40);
+        userDao.save(user);
+
+        Long id = user.getId();
+        user.setName("New");
+        user.setEmail("new@example.com");
+        user.setAge(41);
+
+        userDao.update(user);
+
+        Optional<User> reloaded = userDao.findById(id);
+        assertTrue(reloaded.isPresent());
+        assertEquals("New", reloaded.get().getName());
+        assertEquals("new@example.com", reloaded.get().getEmail());
+        assertEquals(41, reloaded.get().getAge());
+    }
+
+    @Test
+    void update_shouldRejectCopyReadBeforeConcurrentUpdate() {
+        User user = new User("Old", "old@example.com", 40);
+        userDao.save(user);
+        User first = userDao.findById(user.getId()).orElseThrow();
+        User second = userDao.findById(user.getId()).orElseThrow();
+
+        first.setName("First");
+        userDao.update(first);
+        second.setAge(99);
+
+        assertThrows(OptimisticLockException.class, () -> userDao.update(second));
+        User reloaded = userDao.findById(user.getId()).orElseThrow();
+        assertEquals("First", reloaded.getName());
+        assertEquals(40, reloaded.getAge());
+    }
+
+    @Test
+    void update_shouldAdvanceVersionOfPassedObject() {
+        User user = new User("Old", "old@example.com", 40);
+        userDao.save(user);
+        long initialVersion = user.getVersion();
+
+        user.setName("Once");
+        userDao.update(user);
+        user.setName("Twice");
+        userDao.update(user);
+
+        assertEquals(initialVersion + 2, user.getVersion());
+        assertEquals("Twice", userDao.findById(user.getId()).orElseThrow().getName());
+    }
+
+    @Test
+    void patch_shouldInvalidateCopiesReadBeforeIt() {
+        User user = new User("Old", "old@example.com", 40);
+        userDao.save(user);
+        User stale = userDao.findById(user.getId()).orElseThrow();
+
+        User patched = userDao.patch(new UserPatch(user.getId(), null, null, 41)).orElseThrow();
+
+        assertEquals(stale.getVersion() + 1, patched.getVersion());
+        stale.setName("Stale");
+        assertThrows(OptimisticLockException.class, () -> userDao.update(stale));
+    }
+
+    @Test
+    void update_withRetry_shouldNotLoseConcurrentIncrements() throws Exception {
+        User user = new User("Counter", "counter@example.com", 0);
+        userDao.save(user);
+        RetryPolicy retryPolicy = RetryPolicy.of(100, Duration.ofMillis(1), Duration.ofMillis(10));
+        int threads = 4;
+        int incrementsPerThread = 10;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < incrementsPerThread; i++) {
+                        // Каждая попытка перечитывает строку и заново применяет изменение
+                        retryPolicy.execute("increment", () -> {
+                            User fresh = userDao.findById(user.getId()).orElseThrow();
+                            fresh.setAge(fresh.getAge() + 1);
+                            userDao.update(fresh);
+                            return fresh;
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * incrementsPerThread, userDao.findById(user.getId()).orElseThrow().getAge());
+    }
+
+    @Test
+    void patch_shouldChangeOnlyGivenFieldsAndReturnFreshRow() {
+        User user = new User("Old", "old@example.com", 40);
+        userDao.save(user);
+
+        Optional<User> patched = userDao.patch(new UserPatch(user.getId(), null, "patched@example.com", null));
+
+        assertTrue(patched.isPresent());
+        assertEquals("Old", patched.get().getName());
+        assertEquals("patched@example.com", patched.get().getEmail());
+        assertEquals(40, patched.get().getAge());
+        assertEquals("patched@example.com", userDao.findById(user.getId()).orElseThrow().getEmail());
+    }
+
+    @Test
+    void patch_shouldRejectEmailOfAnotherUser() {
+        userDao.save(new User("First", "first@example.com", 30));
+        User second = new User("Second", "second@example.com", 31);
+        userDao.save(second);
+
+        assertThrows(RuntimeException.class,
+                () -> userDao.patch(new UserPatch(second.getId(), "Renamed", "first@example.com", null)));
+
+        User reloaded = userDao.findById(second.getId()).orElseThrow();
+        assertEquals("Second", reloaded.getName());
+        assertEquals("second@example.com", reloaded.getEmail());
+        assertEquals("First", userDao.findByEmail("first@example.com").orElseThrow().getName());
+    }
+
+    @Test
+    void patch_shouldReturnEmptyForMissingUser() {
+        assertTrue(userDao.patch(new UserPatch(Long.MAX_VALUE, "Name", null, null)).isEmpty());
+    }
+
+    @Test
+    void patchAll_shouldApplyPatchesInOrderAndReportMissingUsers() {
+        User first = new User("First", "first@example.com", 30);
+        User second = new User("Second", "second@example.com", 31);
+        userDao.saveAll(List.of(first, second));
+
+        List<Optional<User>> patched = userDao.patchAll(List.of(
+                new UserPatch(first.getId(), "First2", null, null),
+                new UserPatch(Long.MAX_VALUE, "Missing", null, null),
+                new UserPatch(second.getId(), null, null, 41),
+                new UserPatch(first.getId(), null, "first2@example.com", null)));
+
+        assertEquals(4, patched.size());
+        assertEquals("first2@example.com", patched.get(0).orElseThrow().getEmail());
+        assertEquals("First2", patched.get(3).orElseThrow().getName());
+        assertTrue(patched.get(1).isEmpty());
+        assertEquals(41, patched.get(2).orElseThrow().getAge());
+        assertEquals("First2", userDao.findByEmail("first2@example.com").orElseThrow().getName());
+    }
+
+    @Test
+    void patchAll_shouldChangeNothingWhenOnePatchFails() {
+        User first = new User("First", "first@example.com", 30);
+        User second = new User("Second", "second@example.com", 31);
+        userDao.saveAll(List.of(first, second));
+
+        assertThrows(RuntimeException.class, () -> userDao.patchAll(List.of(
+                new UserPatch(first.getId(), "Renamed", "renamed@example.com", null),
+                new UserPatch(second.getId(), null, "renamed@example.com", null))));
+
+        assertEquals("First", userDao.findById(first.getId()).orElseThrow().getName());
+        assertEquals("first@example.com", userDao.findById(first.getId()).orElseThrow().getEmail());
+        assertTrue(userDao.findByEmail("renamed@example.com").isEmpty());
+        assertTrue(userDao.findByEmailIgnoreCase("RENAMED@example.com").isEmpty());
+    }
+
+    @Test
+    void updateAll_shouldMergePatchesOfOneIdAndCountUpdatedUsers() {
+        User first = new User("First", "first@example.com", 30);
+        User second = new User("Second", "second@example.com", 31);
+        User third = new User("Third", "third@example.com", 32);
+        userDao.saveAll(List.of(first, second, third));
+        // Прочитанные строки попадают в кеши: пакетное обновление должно их вытеснить
+        userDao.findById(first.getId());
+        userDao.findByEmail("second@example.com");
+
+        int updated = userDao.updateAll(List.of(
+                new UserPatch(first.getId(), "First2", null, null),
+                new UserPatch(Long.MAX_VALUE, "Missing", null, null),
+                new UserPatch(second.getId(), null, null, 41),
+                new UserPatch(third.getId(), null, null, null),
+                new UserPatch(first.getId(), null, "first2@example.com", 40),
+                new UserPatch(first.getId(), "First3", null, null)));
+
+        assertEquals(2, updated);
+        User loadedFirst = userDao.findById(first.getId()).orElseThrow();
+        assertEquals("First3", loadedFirst.getName());
+        assertEquals("first2@example.com", loadedFirst.getEmail());
+        assertEquals(40, loadedFirst.getAge());
+        assertEquals(first.getVersion() + 1, loadedFirst.getVersion());
+        assertEquals(41, userDao.findByEmail("second@example.com").orElseThrow().getAge());
+        assertEquals("First3", userDao.findByEmail("first2@example.com").orElseThrow().getName());
+        assertTrue(userDao.findByEmail("first@example.com").isEmpty());
+        assertEquals(third.getVersion(), userDao.findById(third.getId()).orElseThrow().getVersion());
+    }
+
+    @Test
+    void inTransaction_updateAllShouldRefreshUserReadEarlier() {
+        User user = new User("Before", "bulk@example.com", 30);
+        userDao.save(user);
+
+        String name = userDao.inTransaction(dao -> {
+            dao.findById(user.getId()).orElseThrow();
+            dao.updateAll(List.of(new UserPatch(user.getId(), "After", null, null)));
+            return dao.findById(user.getId()).orElseThrow().getName();
+        });
+
+        assertEquals("After", name);
+    }
+
+    @Test
+    void inTransaction_deleteAllByIdShouldForgetUserReadEarlier() {
+        User user = new User("Before", "bulk@example.com", 30);
+        userDao.save(user);
+
+        boolean found = userDao.inTransaction(dao -> {
+            dao.findById(user.getId()).orElseThrow().setName("Changed");
+            dao.deleteAllById(List.of(user.getId()));
+            return dao.findById(user.getId()).isPresent();
+        });
+
+        assertFalse(found);
+        assertTrue(userDao.findById(user.getId()).isEmpty());
+    }
+
+    @Test
+    void deleteAllById_shouldDeleteInSeveralChunksAndLeaveTombstones() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < UserDao.MUTATION_CHUNK_SIZE + 5; i++) {
+            users.add(new User("Bulk" + i, "bulk" + i + "@example.com", 20 + i % 50));
+        }
+        User kept = new User("Kept", "kept@example.com", 30);
+        userDao.saveAll(users);
+        userDao.save(kept);
+        Long firstId = users.get(0).getId();
+        userDao.findById(firstId);
+        ChangeCursor beforeDelete = userDao.findChangedSince(null, users.size() + 1).cursor();
+
+        List<Long> ids = new ArrayList<>(users.stream().map(User::getId).toList());
+        ids.add(Long.MAX_VALUE);
+        ids.add(firstId);
+        int deleted = userDao.deleteAllById(ids);
+
+        assertEquals(users.size(), deleted);
+        assertTrue(userDao.findById(firstId).isEmpty());
+        assertEquals(List.of(kept.getId()), userDao.findAll().stream().map(User::getId).toList());
+        UserChangePage deletions = userDao.findChangedSince(beforeDelete, users.size() + 1);
+        assertEquals(users.size(), deletions.changes().size());
+        assertTrue(deletions.changes().stream().allMatch(change -> change.type() == UserChange.Type.DELETE));
+        // Email удаленного пользователя снова свободен
+        userDao.save(new User("Again", "bulk0@example.com", 20));
+        assertEquals(0, userDao.deleteAllById(List.of(firstId)));
+    }
+
+    @Test
+    void deleteById_shouldRemoveUser() {
+        User user = new User("ToDelete", "del@example.com", 50);
+        userDao.save(user);
+
+        Long id = user.getId();
+        assertTrue(userDao.deleteById(id));
+
+        Optional<User> loaded = userDao.findById(id);
+        assertTrue(loaded.isEmpty());
+        assertFalse(userDao.existsByEmail("del@example.com"));
+    }
+
+    @Test
+    void deleteById_shouldReportMissingUser() {
+        assertFalse(userDao.deleteById(Long.MAX_VALUE));
+    }
+
+    @Test
+    void inTransaction_shouldRunSeveralOperationsAsOneUnit() {
+        User found = userDao.inTransaction(dao -> {
+            dao.save(new User("First", "first@example.com", 20));
+            dao.save(new User("Second", "second@example.com", 21));
+            return dao.findByEmail("first@example.com").orElseThrow();
+        });
+
+        assertEquals("First", found.getName());
+        assertEquals(2, userDao.findAll().size());
+    }
+
+    @Test
+    void inTransaction_patchShouldReturnFreshStateOfUserReadEarlier() {
+        User user = new User("Before", "fresh@example.com", 30);
+        userDao.save(user);
+
+        String name = userDao.inTransaction(dao -> {
+            dao.findById(user.getId()).orElseThrow();
+            return dao.patch(new UserPatch(user.getId(), "After", null, null)).orElseThrow().getName();
+        });
+
+        assertEquals("After", name);
+        assertEquals("After", userDao.findById(user.getId()).orElseThrow().getName());
+    }
+
+    @Test
+    void inReadOnlyTransaction_shouldReadButRejectWrites() {
+        userDao.save(new User("Reader", "reader@example.com", 40));
+
+        int count = userDao.inReadOnlyTransaction(dao -> dao.findAll().size());
+        assertEquals(1, count);
+        assertThrows(IllegalStateException.class, () -> userDao.inReadOnlyTransaction(dao -> {
+            dao.save(new User("Writer", "writer@example.com", 41));
+            return null;
+        }));
+        assertThrows(IllegalStateException.class,
+                () -> userDao.inReadOnlyTransaction(dao -> dao.inTransaction(inner -> inner.deleteById(1L))));
+        assertFalse(userDao.existsByEmail("writer@example.com"));
+    }
+
+    // Пользователи name0..name(count-1) по одному save, с age 30
+    private List<User> saveUsers(String name, String emailPrefix, int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User(name + i, emailPrefix + i + "@example.com", 30);
+            userDao.save(user);
+            users.add(user);
+        }
+        return users;
+    }
+
+    private static List<String> namesById(List<User> users) {
+        return users.stream().sorted(Comparator.comparing(User::getId)).map(User::getName).toList();
+    }
+}
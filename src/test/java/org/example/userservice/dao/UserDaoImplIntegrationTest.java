@@ -1,8 +1,14 @@
 package org.example.userservice.dao;
 
 import org.example.userservice.entity.User;
+import org.example.userservice.service.RetryPolicy;
+import org.example.userservice.util.BootTimings;
 import org.example.userservice.util.HibernateUtil;
+import org.example.userservice.util.SqlStats;
+import org.example.userservice.util.StartupMode;
+import org.example.userservice.util.TransactionRunner;
 import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,13 +17,17 @@ import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.time.Duration;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @Testcontainers(disabledWithoutDocker = true) // ВАЖНО: если Docker недоступен, класс тестов будет SKIPPED
-class UserDaoImplIntegrationTest {
+class UserDaoImplIntegrationTest extends UserDaoContractTest {
 
     @Container
     private static final PostgreSQLContainer<?> POSTGRES =
@@ -26,8 +36,6 @@ class UserDaoImplIntegrationTest {
                     .withUsername("test")
                     .withPassword("test");
 
-    private UserDao userDao;
-
     @BeforeAll
     static void beforeAll() {
         // К этому моменту, если Docker есть, контейнер уже стартован Testcontainers Extension-ом.
@@ -45,69 +53,340 @@ class UserDaoImplIntegrationTest {
         // НЕ вызываем POSTGRES.stop() – это сделает Testcontainers Extension
     }
 
-    @BeforeEach
-    void setUp() {
-        userDao = new UserDaoImpl();
+    @Override
+    protected UserDao createUserDao() {
+        // Лента без отставания: тесты контракта читают ее сразу после записи
+        return new UserDaoImpl(UserDaoImpl.DEFAULT_BATCH_SIZE, UserDaoImpl.DEFAULT_FETCH_SIZE, Duration.ZERO);
+    }
 
+    @BeforeEach
+    void clearTable() {
         SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
         var session = sessionFactory.openSession();
         var tx = session.beginTransaction();
         session.createMutationQuery("delete from User").executeUpdate();
+        session.createMutationQuery("delete from UserTombstone").executeUpdate();
         tx.commit();
         session.close();
     }
 
     @Test
-    void saveAndFindById_shouldPersistAndLoadUser() {
-        User user = new User("Integration", "int@example.com", 35);
+    void findChangedSince_shouldWithholdChangesYoungerThanLag() {
+        User user = new User("Lag", "lag@example.com", 30);
+        userDao.save(user);
+        UserDao lagging = new UserDaoImpl(UserDaoImpl.DEFAULT_BATCH_SIZE, UserDaoImpl.DEFAULT_FETCH_SIZE,
+                Duration.ofHours(1));
+
+        UserChangePage page = lagging.findChangedSince(null, 10);
+
+        assertTrue(page.changes().isEmpty());
+        assertNull(page.cursor());
+        assertEquals(List.of(user.getId()),
+                userDao.findChangedSince(null, 10).changes().stream().map(UserChange::id).toList());
+        assertThrows(IllegalArgumentException.class, () -> new UserDaoImpl(2, 2, Duration.ofMillis(-1)));
+    }
+
+    @Test
+    void saveAll_shouldPersistUsersAcrossSeveralBatches() {
+        UserDao smallBatchDao = new UserDaoImpl(2);
+        List<User> users = List.of(
+                new User("Bulk1", "bulk1@example.com", 20),
+                new User("Bulk2", "bulk2@example.com", 21),
+                new User("Bulk3", "bulk3@example.com", 22),
+                new User("Bulk4", "bulk4@example.com", 23),
+                new User("Bulk5", "bulk5@example.com", 24)
+        );
+
+        smallBatchDao.saveAll(users);
+
+        users.forEach(user -> assertNotNull(user.getId()));
+        assertEquals(5, userDao.findAll().size());
+        assertEquals("Bulk3", userDao.findById(users.get(2).getId()).orElseThrow().getName());
+    }
+
+    @Test
+    void findByEmail_shouldServeRepeatLookupFromNaturalIdCache() {
+        userDao.save(new User("Cached", "cached@example.com", 30));
+        userDao.findByEmail("cached@example.com");
+
+        assertEquals(0, statementsOf(() -> assertTrue(userDao.findByEmail("cached@example.com").isPresent())));
+    }
+
+    @Test
+    void writesOfOtherUsers_shouldKeepCachedEmailInNaturalIdCache() {
+        User cached = new User("Cached", "cached@example.com", 30);
+        User patched = new User("Patched", "patched@example.com", 31);
+        User bulk = new User("Bulk", "bulk@example.com", 32);
+        User deleted = new User("Deleted", "deleted@example.com", 33);
+        User bulkDeleted = new User("BulkDeleted", "bulk-deleted@example.com", 34);
+        userDao.saveAll(List.of(cached, patched, bulk, deleted, bulkDeleted));
+        userDao.findByEmail("cached@example.com");
+
+        userDao.patch(new UserPatch(patched.getId(), "Patched2", "patched2@example.com", null));
+        userDao.patchAll(List.of(new UserPatch(patched.getId(), null, null, 41)));
+        userDao.updateAll(List.of(new UserPatch(bulk.getId(), null, null, 42)));
+        userDao.deleteById(deleted.getId());
+        userDao.deleteAllById(List.of(bulkDeleted.getId()));
+
+        assertEquals(0, statementsOf(() -> assertTrue(userDao.findByEmail("cached@example.com").isPresent())));
+    }
+
+    @Test
+    void patchAndDeleteById_shouldRunOneStatementAndEvictOnlyTheirEmail() {
+        User user = new User("Single", "single@example.com", 30);
+        userDao.save(user);
+        assertTrue(userDao.existsByEmail("single@example.com"));
+
+        assertEquals(1, statementsOf(() -> userDao.patch(
+                new UserPatch(user.getId(), "Renamed", "renamed@example.com", null))));
+        assertFalse(userDao.existsByEmail("single@example.com"));
+        assertEquals("Renamed", userDao.findByEmail("renamed@example.com").orElseThrow().getName());
+
+        assertEquals(1, statementsOf(() -> assertTrue(userDao.deleteById(user.getId()))));
+        assertFalse(userDao.existsByEmail("renamed@example.com"));
+    }
+
+    @Test
+    void inTransaction_patchOfRowChangedAfterReadShouldBeRetriedByRetryPolicy() {
+        User user = new User("Read", "read@example.com", 30);
         userDao.save(user);
+        RetryPolicy retryPolicy = RetryPolicy.of(3, Duration.ZERO, Duration.ZERO);
+        AtomicInteger attempts = new AtomicInteger();
+
+        User patched = retryPolicy.execute("patch", () -> userDao.inTransaction(dao -> {
+            User read = dao.findById(user.getId()).orElseThrow();
+            if (attempts.incrementAndGet() == 1) {
+                // Другая транзакция меняет строку после чтения
+                CompletableFuture.runAsync(() -> userDao.patch(new UserPatch(user.getId(), null, null, 31))).join();
+            }
+            return dao.patch(new UserPatch(user.getId(), null, null, read.getAge() + 10)).orElseThrow();
+        }));
+
+        assertEquals(2, attempts.get());
+        assertEquals(41, patched.getAge());
+        assertEquals(41, userDao.findById(user.getId()).orElseThrow().getAge());
+    }
+
+    @Test
+    void bulkMutations_shouldEvictChangedAndDeletedEmailsFromNaturalIdCache() {
+        User renamed = new User("Renamed", "before@example.com", 30);
+        User deleted = new User("Deleted", "gone@example.com", 31);
+        userDao.saveAll(List.of(renamed, deleted));
+        assertTrue(userDao.existsByEmail("before@example.com"));
+        assertTrue(userDao.existsByEmail("gone@example.com"));
+
+        userDao.updateAll(List.of(new UserPatch(renamed.getId(), null, "after@example.com", null)));
+        userDao.deleteAllById(List.of(deleted.getId()));
 
-        assertNotNull(user.getId());
+        assertFalse(userDao.existsByEmail("before@example.com"));
+        assertFalse(userDao.existsByEmail("gone@example.com"));
+        assertEquals(renamed.getId(), userDao.findByEmail("after@example.com").orElseThrow().getId());
+    }
 
-        Optional<User> loaded = userDao.findById(user.getId());
-        assertTrue(loaded.isPresent());
-        assertEquals("Integration", loaded.get().getName());
-        assertEquals("int@example.com", loaded.get().getEmail());
-        assertEquals(35, loaded.get().getAge());
+    // Число подготовленных выражений SQL за время work
+    private static long statementsOf(Runnable work) {
+        Statistics statistics = HibernateUtil.getSessionFactory().getStatistics();
+        boolean statisticsEnabled = statistics.isStatisticsEnabled();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        try {
+            work.run();
+            return statistics.getPrepareStatementCount();
+        } finally {
+            statistics.setStatisticsEnabled(statisticsEnabled);
+        }
     }
 
     @Test
-    void findAll_shouldReturnAllUsers() {
+    void streamAll_shouldReadAcrossSeveralFetches() {
         userDao.save(new User("User1", "u1@example.com", 20));
         userDao.save(new User("User2", "u2@example.com", 21));
+        userDao.save(new User("User3", "u3@example.com", 22));
+
+        List<String> names;
+        try (Stream<User> users = new UserDaoImpl(UserDaoImpl.DEFAULT_BATCH_SIZE, 2).streamAll()) {
+            names = users.map(User::getName).collect(Collectors.toList());
+        }
 
-        List<User> users = userDao.findAll();
-        assertEquals(2, users.size());
+        assertEquals(List.of("User1", "User2", "User3"), names);
     }
 
     @Test
-    void update_shouldModifyExistingUser() {
-        User user = new User("Old", "old@example.com", 40);
-        userDao.save(user);
+    void fastStartup_shouldWorkWithExistingSchemaAndReportTimings() {
+        System.setProperty("user-service.startup", "fast");
+        try {
+            HibernateUtil.rebuildSessionFactory();
 
-        Long id = user.getId();
-        user.setName("New");
-        user.setEmail("new@example.com");
-        user.setAge(41);
+            User user = new User("Fast", "fast@example.com", 30);
+            userDao.save(user);
+            assertEquals("Fast", userDao.findById(user.getId()).orElseThrow().getName());
 
-        userDao.update(user);
+            BootTimings timings = HibernateUtil.getBootTimings();
+            assertEquals(StartupMode.FAST, timings.mode());
+            assertEquals(List.of("конфигурация", "пул соединений", "SessionFactory", "дополнительные индексы", "реплики"),
+                    timings.phases().stream().map(BootTimings.Phase::name).toList());
+        } finally {
+            System.clearProperty("user-service.startup");
+            HibernateUtil.rebuildSessionFactory();
+        }
+    }
 
-        Optional<User> reloaded = userDao.findById(id);
-        assertTrue(reloaded.isPresent());
-        assertEquals("New", reloaded.get().getName());
-        assertEquals("new@example.com", reloaded.get().getEmail());
-        assertEquals(41, reloaded.get().getAge());
+    @Test
+    void validateStartup_shouldFailWithoutFunctionalIndexesThatFastStartupOnlyReports() {
+        try (var session = HibernateUtil.getSessionFactory().openSession()) {
+            var tx = session.beginTransaction();
+            session.createNativeMutationQuery("drop index users_email_lower_idx").executeUpdate();
+            tx.commit();
+        }
+        try {
+            System.setProperty("user-service.startup", "validate");
+            ExceptionInInitializerError error =
+                    assertThrows(ExceptionInInitializerError.class, HibernateUtil::rebuildSessionFactory);
+            assertTrue(error.getCause().getMessage().contains("users_email_lower_idx"), error.getCause().getMessage());
+
+            System.setProperty("user-service.startup", "fast");
+            HibernateUtil.rebuildSessionFactory();
+            userDao.save(new User("Fast", "fast-index@example.com", 30));
+        } finally {
+            System.clearProperty("user-service.startup");
+            HibernateUtil.rebuildSessionFactory();
+        }
+
+        // update снова создает индекс, и validate проходит
+        System.setProperty("user-service.startup", "validate");
+        try {
+            HibernateUtil.rebuildSessionFactory();
+            assertTrue(userDao.findByEmailIgnoreCase("FAST-INDEX@example.com").isPresent());
+        } finally {
+            System.clearProperty("user-service.startup");
+            HibernateUtil.rebuildSessionFactory();
+        }
     }
 
     @Test
-    void deleteById_shouldRemoveUser() {
-        User user = new User("ToDelete", "del@example.com", 50);
+    void startup_shouldMoveIdSequencePastIdsAlreadyInTable() {
+        // База, где id выдавал identity-столбец: строки есть, а users_seq только что создана с 1
+        try (var session = HibernateUtil.getSessionFactory().openSession()) {
+            var tx = session.beginTransaction();
+            session.createNativeMutationQuery("""
+                    insert into users (id, name, email, age, created_at, version)
+                    values (100000, 'Legacy', 'legacy@example.com', 50, localtimestamp, 0)""").executeUpdate();
+            session.createNativeQuery("select setval('users_seq', 1, false)", Long.class).getSingleResult();
+            tx.commit();
+        }
+
+        HibernateUtil.rebuildSessionFactory();
+        HibernateUtil.rebuildSessionFactory();
+
+        User user = new User("Fresh", "fresh@example.com", 30);
         userDao.save(user);
+        assertTrue(user.getId() > 100000, "id " + user.getId());
+        assertEquals("Legacy", userDao.findById(100000L).orElseThrow().getName());
+    }
+
+    @Test
+    void bootstrapAsync_shouldWarmUpPoolAndQueries() {
+        HibernateUtil.shutdown();
+
+        SessionFactory factory = HibernateUtil.bootstrapAsync(UserDaoImpl::warmUp).join();
+
+        assertSame(factory, HibernateUtil.getSessionFactory());
+        List<String> phases = HibernateUtil.getBootTimings().phases().stream().map(BootTimings.Phase::name).toList();
+        assertTrue(phases.containsAll(List.of("прогрев пула", "прогрев запросов")), phases.toString());
+        assertTrue(userDao.findPage(null, 10).isEmpty());
+    }
+
+    @Test
+    void inTransaction_shouldUseOneSessionForAllOperations() {
+        Statistics statistics = HibernateUtil.getSessionFactory().getStatistics();
+        boolean statisticsEnabled = statistics.isStatisticsEnabled();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        try {
+            userDao.inTransaction(dao -> {
+                dao.save(new User("One", "one@example.com", 20));
+                dao.findAll();
+                return dao.deleteById(Long.MAX_VALUE);
+            });
+
+            assertEquals(1, statistics.getSessionOpenCount());
+            assertEquals(1, statistics.getSuccessfulTransactionCount());
+        } finally {
+            statistics.setStatisticsEnabled(statisticsEnabled);
+        }
+    }
+
+    @Test
+    void inTransaction_shouldRollBackAllOperationsWhenWorkFails() {
+        assertThrows(IllegalArgumentException.class, () -> userDao.inTransaction(dao -> {
+            dao.save(new User("Lost", "lost@example.com", 20));
+            throw new IllegalArgumentException("отказ");
+        }));
+
+        assertFalse(userDao.existsByEmail("lost@example.com"));
+        // Следующая единица работы получает новую сессию
+        userDao.save(new User("Kept", "kept@example.com", 21));
+        assertTrue(userDao.existsByEmail("kept@example.com"));
+    }
+
+    @Test
+    void readOnly_shouldUseReadOnlySessionAndConnection() {
+        TransactionRunner.readOnly(session -> {
+            assertTrue(session.isDefaultReadOnly());
+            session.doWork(connection -> assertTrue(connection.isReadOnly()));
+            return null;
+        });
+        // Признак read-only не остается на соединении, вернувшемся в пул
+        TransactionRunner.inTransaction(session -> {
+            session.doWork(connection -> assertFalse(connection.isReadOnly()));
+            return null;
+        });
+    }
+
+    @Test
+    void sqlStats_shouldCountQueriesEntityLoadsAndRepeatedSelects() {
+        for (int i = 0; i < 12; i++) {
+            userDao.save(new User("Repeat" + i, "repeat" + i + "@example.com", 20 + i));
+        }
+        HibernateUtil.resetSqlStats();
+
+        // Один и тот же SELECT с разными параметрами в одной сессии - типичный N+1
+        userDao.inReadOnlyTransaction(dao -> {
+            for (int i = 0; i < 12; i++) {
+                dao.search(UserQuery.builder().namePrefix("Repeat" + i).build());
+            }
+            return null;
+        });
+
+        SqlStats stats = HibernateUtil.getSqlStats();
+        assertTrue(stats.executions() >= 12, stats.toString());
+        assertTrue(stats.entityLoads() >= 12, stats.toString());
+        SqlStats.Query search = stats.queries().get(0);
+        assertTrue(search.sql().startsWith("select"), search.sql());
+        assertTrue(search.executions() >= 12, search.toString());
+        assertEquals(List.of(new SqlStats.NPlusOne(search.sql(), 1)), stats.nPlusOne());
+    }
+
+    @Test
+    void upsertAllByEmail_shouldSpanBatchesAndEvictUpdatedRowsFromSecondLevelCache() {
+        UserDao smallBatchDao = new UserDaoImpl(2);
+        User cached = new User("Cached", "cached-upsert@example.com", 30);
+        userDao.save(cached);
+        // Строка попадает в кеш второго уровня
+        userDao.findById(cached.getId());
 
-        Long id = user.getId();
-        userDao.deleteById(id);
+        List<UpsertResult> results = smallBatchDao.upsertAllByEmail(List.of(
+                new User("A", "a-upsert@example.com", 20),
+                new User("B", "b-upsert@example.com", 21),
+                new User("Fresh", "cached-upsert@example.com", 31),
+                new User("C", "c-upsert@example.com", 22),
+                new User("D", "d-upsert@example.com", 23)));
 
-        Optional<User> loaded = userDao.findById(id);
-        assertTrue(loaded.isEmpty());
+        assertEquals(4, results.stream().filter(UpsertResult::inserted).count());
+        assertEquals(UpsertResult.Outcome.UPDATED, results.get(2).outcome());
+        assertEquals("Fresh", userDao.findById(cached.getId()).orElseThrow().getName());
+        assertEquals(5, userDao.findAll().size());
+        // id из той же последовательности, что и у persist: следующая вставка не конфликтует
+        userDao.save(new User("After", "after-upsert@example.com", 40));
     }
 }
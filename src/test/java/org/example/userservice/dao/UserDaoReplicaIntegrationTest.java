@@ -0,0 +1,177 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.entity.User;
+import org.example.userservice.util.HibernateUtil;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Чтение через реплики. Репликации между контейнерами нет: реплика - отдельная БД с той же схемой,
+ * поэтому по содержимому видно, с какой БД прочитана строка.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class UserDaoReplicaIntegrationTest {
+
+    private static final String UNAVAILABLE_REPLICA_URL = "jdbc:postgresql://localhost:1/unavailable";
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES =
+            new PostgreSQLContainer<>("postgres:16-alpine")
+                    .withDatabaseName("testdb")
+                    .withUsername("test")
+                    .withPassword("test");
+
+    @Container
+    private static final PostgreSQLContainer<?> REPLICA =
+            new PostgreSQLContainer<>("postgres:16-alpine")
+                    .withDatabaseName("replicadb")
+                    .withUsername("test")
+                    .withPassword("test");
+
+    private final UserDao userDao = new UserDaoImpl();
+
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        System.setProperty("hibernate.connection.url", POSTGRES.getJdbcUrl());
+        System.setProperty("hibernate.connection.username", POSTGRES.getUsername());
+        System.setProperty("hibernate.connection.password", POSTGRES.getPassword());
+
+        execute(REPLICA, """
+                create table if not exists users (
+                    id bigint primary key,
+                    name varchar(255) not null,
+                    email varchar(255) not null unique,
+                    age integer not null,
+                    created_at timestamp(6),
+                    version bigint default 0 not null
+                )""");
+    }
+
+    @AfterAll
+    static void afterAll() {
+        HibernateUtil.shutdown();
+        System.clearProperty("user-service.replica.urls");
+        System.clearProperty("user-service.replica.read-your-writes-ms");
+    }
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        useReplicas(REPLICA.getJdbcUrl());
+        execute(POSTGRES, "delete from users");
+        execute(REPLICA, "delete from users");
+    }
+
+    @AfterEach
+    void tearDown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Test
+    void reads_shouldGoToReplica() throws SQLException {
+        execute(REPLICA, "insert into users (id, name, email, age) values (1000, 'Replica', 'replica@example.com', 30)");
+
+        assertEquals(1, HibernateUtil.getReplicaCount());
+        Optional<User> found = onFreshThread(() -> userDao.findById(1000L));
+
+        assertTrue(found.isPresent());
+        assertEquals("replica@example.com", found.get().getEmail());
+        assertTrue(onFreshThread(() -> userDao.existsByEmail("replica@example.com")));
+        assertEquals(1, onFreshThread(userDao::findAll).size());
+    }
+
+    @Test
+    void writes_shouldGoToPrimary() {
+        User user = new User("Primary", "primary@example.com", 25);
+
+        userDao.save(user);
+
+        // Реплика не получает записи: поток без недавних записей читает с нее
+        assertTrue(onFreshThread(() -> userDao.findById(user.getId())).isEmpty());
+        try (var session = HibernateUtil.getSessionFactory().openSession()) {
+            assertNotNull(session.get(User.class, user.getId()));
+        }
+    }
+
+    @Test
+    void readYourWrites_shouldPinWritingThreadToPrimary() {
+        System.setProperty("user-service.replica.read-your-writes-ms", "60000");
+        try {
+            HibernateUtil.rebuildSessionFactory();
+            User user = new User("Writer", "writer@example.com", 40);
+
+            userDao.save(user);
+
+            assertEquals("Writer", userDao.findById(user.getId()).orElseThrow().getName());
+            assertTrue(userDao.findByEmail("writer@example.com").isPresent());
+            // Другой поток не писал и по-прежнему читает с реплики
+            assertTrue(onFreshThread(() -> userDao.findById(user.getId())).isEmpty());
+        } finally {
+            System.clearProperty("user-service.replica.read-your-writes-ms");
+        }
+    }
+
+    @Test
+    void unavailableReplica_shouldFailOverToPrimary() {
+        useReplicas(UNAVAILABLE_REPLICA_URL);
+        User user = new User("Failover", "failover@example.com", 35);
+        userDao.save(user);
+
+        assertEquals("Failover", onFreshThread(() -> userDao.findById(user.getId())).orElseThrow().getName());
+        // Недоступная реплика исключена: следующие чтения сразу идут на основную БД
+        assertEquals(1, onFreshThread(userDao::findAll).size());
+        assertTrue(onFreshThread(() -> userDao.findByEmail("failover@example.com")).isPresent());
+    }
+
+    @Test
+    void unavailableReplica_shouldNotTakeReadsFromHealthyOne() throws SQLException {
+        useReplicas(UNAVAILABLE_REPLICA_URL + "," + REPLICA.getJdbcUrl());
+        execute(REPLICA, "insert into users (id, name, email, age) values (2000, 'Replica', 'healthy@example.com', 30)");
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(onFreshThread(() -> userDao.findById(2000L)).isPresent(), "чтение " + i);
+        }
+    }
+
+    private static void useReplicas(String urls) {
+        System.setProperty("user-service.replica.urls", urls);
+        HibernateUtil.rebuildSessionFactory();
+    }
+
+    // Поток без записей: read-your-writes его не касается
+    private static <T> T onFreshThread(Supplier<T> read) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                result.complete(read.get());
+            } catch (Throwable ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        thread.start();
+        return result.join();
+    }
+
+    private static void execute(PostgreSQLContainer<?> database, String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(
+                database.getJdbcUrl(), database.getUsername(), database.getPassword());
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.example.userservice.dao;
+
+import org.example.userservice.util.HibernateUtil;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Планы запросов search(): EXPLAIN выполняется для SQL, который построил Hibernate. Значения фильтров
+ * встраиваются в SQL (hibernate.criteria.value_handling_mode=inline), иначе планировщик не видит префикс
+ * LIKE; так же их видит PostgreSQL при выполнении с параметрами (custom plan).
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class UserDaoSearchExplainIntegrationTest {
+
+    private static final int ROWS = 20_000;
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES =
+            new PostgreSQLContainer<>("postgres:16-alpine")
+                    .withDatabaseName("testdb")
+                    .withUsername("test")
+                    .withPassword("test");
+
+    private final UserDao userDao = new UserDaoImpl();
+
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        System.setProperty("hibernate.connection.url", POSTGRES.getJdbcUrl());
+        System.setProperty("hibernate.connection.username", POSTGRES.getUsername());
+        System.setProperty("hibernate.connection.password", POSTGRES.getPassword());
+        System.setProperty("hibernate.session_factory.statement_inspector", CapturingInspector.class.getName());
+        System.setProperty("hibernate.criteria.value_handling_mode", "inline");
+        HibernateUtil.rebuildSessionFactory();
+
+        // Большая таблица и по 5 строк, подходящих под каждый фильтр: полный просмотр заметно дороже индекса
+        execute("delete from users");
+        execute("""
+                insert into users (id, name, email, age, created_at, version)
+                select 1000000 + g, 'user' || g, 'user' || g || '@example.com', 18 + g %% 60,
+                       timestamp '2024-01-01' + g * interval '1 minute', 0
+                from generate_series(1, %d) g""".formatted(ROWS));
+        execute("""
+                insert into users (id, name, email, age, created_at, version)
+                select 2000000 + g, 'Zed' || g, 'zed' || g || '@example.com', 99,
+                       timestamp '2001-01-01' + g * interval '1 day', 0
+                from generate_series(1, 5) g""");
+        execute("analyze users");
+    }
+
+    @AfterAll
+    static void afterAll() throws SQLException {
+        execute("delete from users");
+        HibernateUtil.shutdown();
+        System.clearProperty("hibernate.session_factory.statement_inspector");
+        System.clearProperty("hibernate.criteria.value_handling_mode");
+    }
+
+    @Test
+    void ageRange_shouldUseAgeIndex() throws SQLException {
+        UserSearchResult result = userDao.search(UserQuery.builder().ageBetween(99, 120).build());
+
+        assertEquals(5, result.totalCount());
+        assertPlanUses("users_age_idx");
+    }
+
+    @Test
+    void namePrefix_shouldUseLowerNamePatternIndex() throws SQLException {
+        UserSearchResult result = userDao.search(UserQuery.builder().namePrefix("zED").build());
+
+        assertEquals(5, result.totalCount());
+        assertPlanUses("users_name_lower_pattern_idx");
+    }
+
+    @Test
+    void createdRange_shouldUseCreatedAtIndex() throws SQLException {
+        UserSearchResult result = userDao.search(UserQuery.builder()
+                .createdBetween(LocalDateTime.of(2001, 1, 1, 0, 0), LocalDateTime.of(2002, 1, 1, 0, 0))
+                .sortBy(UserQuery.SortField.CREATED_AT, false)
+                .build());
+
+        assertEquals(5, result.totalCount());
+        assertPlanUses("users_created_at_idx");
+    }
+
+    private static void assertPlanUses(String index) throws SQLException {
+        String sql = CapturingInspector.lastSelect;
+        assertNotNull(sql, "SQL поиска не перехвачен");
+        // Остаются только параметры limit/offset
+        String plan = explain(sql.replace("?", "50"));
+        assertTrue(plan.contains(index), "План не использует " + index + ":\n" + sql + "\n" + plan);
+    }
+
+    private static String explain(String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (Connection connection = connect();
+             Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("explain " + sql)) {
+            while (rows.next()) {
+                plan.append(rows.getString(1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+
+    private static void execute(String sql) throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword());
+    }
+
+    // Запоминает последний SELECT страницы (не COUNT): его план и проверяется
+    public static class CapturingInspector implements StatementInspector {
+
+        static volatile String lastSelect;
+
+        @Override
+        public String inspect(String sql) {
+            if (sql.startsWith("select") && !sql.startsWith("select count")) {
+                lastSelect = sql;
+            }
+            return sql;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.userservice.dao;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserQueryTest {
+
+    @Test
+    void builder_shouldDefaultToFirstPageSortedById() {
+        UserQuery query = UserQuery.builder().build();
+
+        assertEquals(UserQuery.SortField.ID, query.sortBy());
+        assertFalse(query.descending());
+        assertEquals(UserQuery.DEFAULT_LIMIT, query.limit());
+        assertEquals(0, query.offset());
+        assertNull(query.afterId());
+    }
+
+    @Test
+    void afterId_shouldRequireSortByIdWithoutOffset() {
+        assertThrows(IllegalArgumentException.class, () -> UserQuery.builder()
+                .sortBy(UserQuery.SortField.NAME, false).afterId(10L).build());
+        assertThrows(IllegalArgumentException.class, () -> UserQuery.builder()
+                .offset(5).afterId(10L).build());
+        assertEquals(10L, UserQuery.builder().sortBy(UserQuery.SortField.ID, true).afterId(10L).build().afterId());
+    }
+
+    @Test
+    void build_shouldRejectInvalidPageAndEmptyAgeRange() {
+        assertThrows(IllegalArgumentException.class, () -> UserQuery.builder().limit(0).build());
+        assertThrows(IllegalArgumentException.class, () -> UserQuery.builder().offset(-1).build());
+        assertThrows(IllegalArgumentException.class, () -> UserQuery.builder().ageBetween(40, 30).build());
+    }
+}
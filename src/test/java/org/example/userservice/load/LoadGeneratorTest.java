@@ -0,0 +1,68 @@
+package org.example.userservice.load;
+
+import org.example.userservice.dao.InMemoryUserDao;
+import org.example.userservice.service.UserService;
+import org.example.userservice.service.UserServiceImpl;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadGeneratorTest {
+
+    private final UserService userService = new UserServiceImpl(new InMemoryUserDao());
+
+    @Test
+    void run_shouldKeepTargetRateAndReportEveryOperationOfMix() throws InterruptedException {
+        LoadSettings settings = LoadSettings.parse("--threads=4", "--rate=2000", "--duration=500ms",
+                "--warmup=100ms", "--seed=200", "--keys=zipfian");
+
+        LoadReport report = new LoadGenerator(userService, settings).run();
+
+        // Расписание open loop: число операций задается частотой и длительностью, а не скоростью сервиса
+        assertEquals(1000, report.totalCount(), 20);
+        assertEquals(LoadSettings.DEFAULT_MIX.size(), report.operations().size());
+        for (LoadReport.OperationResult result : report.operations()) {
+            assertTrue(result.count() > 0, result.operation().toString());
+            assertEquals(0, result.errors(), result.operation().toString());
+            assertTrue(result.latency().p999() >= result.latency().p50());
+        }
+        assertTrue(report.toString().contains("p999"));
+    }
+
+    @Test
+    void run_shouldRequireUsersForKeyedOperations() {
+        LoadSettings settings = LoadSettings.parse("--mix=get=1", "--duration=100ms");
+
+        assertThrows(IllegalStateException.class, () -> new LoadGenerator(userService, settings).run());
+    }
+
+    @Test
+    void run_shouldCreateUsersWithoutExistingKeys() throws InterruptedException {
+        LoadSettings settings = LoadSettings.parse("--mix=create=1", "--rate=500", "--duration=200ms");
+
+        LoadReport report = new LoadGenerator(userService, settings).run();
+
+        assertEquals(report.totalCount(), userService.getUserSummaries().size());
+    }
+
+    @Test
+    void zipfianKeys_shouldConcentrateOnFewIds() {
+        long[] ids = LongStream.rangeClosed(1, 10_000).toArray();
+        KeyChooser zipfian = new KeyChooser(ids, LoadSettings.KeyDistribution.ZIPFIAN, 0.99);
+
+        int[] hits = new int[ids.length];
+        for (int i = 0; i < 100_000; i++) {
+            hits[zipfian.zipfianRank()]++;
+        }
+
+        // При равномерном выборе на первые 10 номеров пришлось бы около 0.1% обращений
+        int top = 0;
+        for (int i = 0; i < 10; i++) {
+            top += hits[i];
+        }
+        assertTrue(top > 20_000, "top10=" + top);
+        assertTrue(hits[0] > hits[9]);
+    }
+}
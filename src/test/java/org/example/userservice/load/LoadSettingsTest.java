@@ -0,0 +1,42 @@
+package org.example.userservice.load;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadSettingsTest {
+
+    @Test
+    void parse_shouldUseDefaultsAndOverrideGivenOptions() {
+        LoadSettings defaults = LoadSettings.parse();
+        assertEquals(8, defaults.threads());
+        assertEquals(Duration.ofSeconds(60), defaults.duration());
+        assertEquals(LoadSettings.DEFAULT_MIX, defaults.mix());
+        assertEquals(LoadSettings.KeyDistribution.UNIFORM, defaults.keys());
+
+        LoadSettings settings = LoadSettings.parse("--threads=32", "--rate=1500.5", "--duration=2m",
+                "--warmup=500ms", "--mix=get=9, create=1", "--keys=zipfian", "--zipf=0.8", "--seed=1000");
+        assertEquals(32, settings.threads());
+        assertEquals(1500.5, settings.rate());
+        assertEquals(Duration.ofMinutes(2), settings.duration());
+        assertEquals(Duration.ofMillis(500), settings.warmUp());
+        assertEquals(Map.of(LoadGenerator.Operation.GET, 9, LoadGenerator.Operation.CREATE, 1), settings.mix());
+        assertEquals(LoadSettings.KeyDistribution.ZIPFIAN, settings.keys());
+        assertEquals(0.8, settings.zipfExponent());
+        assertEquals(1000, settings.seedUsers());
+    }
+
+    @Test
+    void parse_shouldRejectInvalidOptions() {
+        assertThrows(IllegalArgumentException.class, () -> LoadSettings.parse("--threds=4"));
+        assertThrows(IllegalArgumentException.class, () -> LoadSettings.parse("threads"));
+        assertThrows(IllegalArgumentException.class, () -> LoadSettings.parse("--rate=0"));
+        assertThrows(IllegalArgumentException.class, () -> LoadSettings.parse("--duration=10"));
+        assertThrows(IllegalArgumentException.class, () -> LoadSettings.parse("--mix=get=0"));
+        assertThrows(IllegalArgumentException.class, () -> LoadSettings.parse("--mix=scan=1"));
+        assertThrows(IllegalArgumentException.class, () -> LoadSettings.parse("--zipf=1"));
+    }
+}
@@ -0,0 +1,45 @@
+package org.example.userservice.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void snapshot_shouldBeEmptyWithoutRecords() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0, snapshot.count());
+        assertEquals(0, snapshot.p99());
+        assertEquals(0, snapshot.max());
+    }
+
+    @Test
+    void percentiles_shouldStayWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1_000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(10_000, snapshot.count());
+        assertEquals(10_000_000, snapshot.max());
+        assertEquals(5_000_000, snapshot.p50(), 5_000_000 * 0.07);
+        assertEquals(9_900_000, snapshot.p99(), 9_900_000 * 0.07);
+        assertEquals(5_000_500, snapshot.mean(), 1);
+    }
+
+    @Test
+    void bucketIndex_shouldBeMonotonicAndCoverValue() {
+        long previousIndex = -1;
+        for (long value = 0; value < 1_000_000; value += 7) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index >= previousIndex);
+            assertTrue(LatencyHistogram.upperBoundOf(index) >= value);
+            previousIndex = index;
+        }
+        assertTrue(LatencyHistogram.indexOf(Long.MAX_VALUE) < 64 * 16);
+    }
+}
@@ -0,0 +1,94 @@
+package org.example.userservice.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+    @Test
+    void record_shouldCountCallsErrorsAndLatency() {
+        OperationMetrics metrics = new MetricsRegistry().operation("dao", "findById");
+
+        assertEquals("ok", metrics.record(() -> "ok"));
+        assertThrows(IllegalStateException.class, () -> metrics.record((Runnable) () -> {
+            throw new IllegalStateException("boom");
+        }));
+
+        OperationStats stats = metrics.snapshot();
+        assertEquals("dao.findById", stats.name());
+        assertEquals(2, stats.calls());
+        assertEquals(1, stats.errors());
+        assertEquals(0, stats.inFlight());
+        assertEquals(2, stats.latency().count());
+    }
+
+    @Test
+    void start_shouldTrackInFlightUntilStop() {
+        OperationMetrics metrics = new OperationMetrics("service.streamAllUsers");
+
+        long start = metrics.start();
+        assertEquals(1, metrics.snapshot().inFlight());
+        assertEquals(0, metrics.snapshot().calls());
+
+        metrics.stop(start, true);
+        assertEquals(0, metrics.snapshot().inFlight());
+        assertEquals(1, metrics.snapshot().calls());
+    }
+
+    @Test
+    void operation_shouldReuseMetricsAndSortSnapshotByName() {
+        MetricsRegistry registry = new MetricsRegistry();
+        OperationMetrics first = registry.operation("service", "getUserById");
+
+        assertSame(first, registry.operation("service", "getUserById"));
+        registry.operation("dao", "save");
+
+        List<String> names = registry.snapshot().stream().map(OperationStats::name).toList();
+        assertEquals(List.of("dao.save", "service.getUserById"), names);
+    }
+
+    @Test
+    void jmxEnabledRegistry_shouldExposeOperationAsMBean() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry(true);
+        OperationMetrics metrics = registry.operation("test", "jmxProbe");
+        metrics.record(() -> 42);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MetricsRegistry.JMX_DOMAIN
+                + ":type=Operations,layer=\"test\",name=\"jmxProbe\"");
+
+        assertTrue(server.isRegistered(name));
+        assertEquals(1L, server.getAttribute(name, "Calls"));
+        assertEquals(0L, server.getAttribute(name, "Errors"));
+    }
+
+    @Test
+    void mbean_shouldReadCountersLiveAndLatencyFromOneSnapshotPerPoll() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry(true);
+        OperationMetrics metrics = registry.operation("test", "jmxPoll");
+        metrics.record(() -> 1);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MetricsRegistry.JMX_DOMAIN
+                + ":type=Operations,layer=\"test\",name=\"jmxPoll\"");
+        double max = (Double) server.getAttribute(name, "MaxMillis");
+
+        // Вызов дольше всех прежних: счетчик виден сразу, задержки - из снимка начала опроса
+        metrics.record(() -> {
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(5);
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+            return 2;
+        });
+
+        assertEquals(2L, server.getAttribute(name, "Calls"));
+        assertEquals(max, server.getAttribute(name, "MaxMillis"));
+    }
+}
@@ -0,0 +1,164 @@
+package org.example.userservice.service;
+
+import org.example.userservice.entity.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AsyncUserServiceImplTest {
+
+    @Mock
+    private UserService userService;
+
+    private UserServiceExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    private static User user(Long id, String name) {
+        User user = new User(name, name.toLowerCase() + "@example.com", 30);
+        user.setId(id);
+        return user;
+    }
+
+    @Test
+    void getUserById_shouldRunOnExecutorAndCompleteWithResult() throws Exception {
+        executor = UserServiceExecutor.create(2, 10, false);
+        AsyncUserService asyncService = new AsyncUserServiceImpl(userService, executor);
+        when(userService.getUserById(1L)).thenReturn(Optional.of(user(1L, "Alice")));
+
+        Optional<User> result = asyncService.getUserById(1L).get(5, TimeUnit.SECONDS);
+
+        assertEquals("Alice", result.orElseThrow().getName());
+    }
+
+    @Test
+    void getUsersByIds_shouldReturnFoundUsersInRequestOrder() throws Exception {
+        executor = UserServiceExecutor.create(4, 10, false);
+        AsyncUserService asyncService = new AsyncUserServiceImpl(userService, executor);
+        when(userService.getUserById(1L)).thenReturn(Optional.of(user(1L, "Alice")));
+        when(userService.getUserById(2L)).thenReturn(Optional.empty());
+        when(userService.getUserById(3L)).thenReturn(Optional.of(user(3L, "Carol")));
+
+        List<User> users = asyncService.getUsersByIds(List.of(3L, 2L, 1L)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("Carol", "Alice"), users.stream().map(User::getName).toList());
+    }
+
+    @Test
+    void getUsersByIds_shouldNotRejectItselfWhenIdsExceedExecutorCapacity() throws Exception {
+        executor = UserServiceExecutor.create(2, 0, false);
+        AsyncUserService asyncService = new AsyncUserServiceImpl(userService, executor);
+        List<Long> ids = LongStream.rangeClosed(1, 20).boxed().toList();
+        when(userService.getUserById(anyLong()))
+                .thenAnswer(invocation -> Optional.of(user(invocation.getArgument(0), "User")));
+
+        List<User> users = asyncService.getUsersByIds(ids).get(5, TimeUnit.SECONDS);
+
+        assertEquals(ids, users.stream().map(User::getId).toList());
+    }
+
+    @Test
+    void getUsersByIds_shouldFinishEveryLookupAndReportAllFailures() {
+        executor = UserServiceExecutor.create(2, 0, false);
+        AsyncUserService asyncService = new AsyncUserServiceImpl(userService, executor);
+        IllegalStateException first = new IllegalStateException("db down");
+        IllegalStateException second = new IllegalStateException("timeout");
+        when(userService.getUserById(1L)).thenReturn(Optional.of(user(1L, "Alice")));
+        when(userService.getUserById(2L)).thenThrow(first);
+        when(userService.getUserById(3L)).thenReturn(Optional.of(user(3L, "Carol")));
+        when(userService.getUserById(4L)).thenThrow(second);
+
+        ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> asyncService.getUsersByIds(List.of(1L, 2L, 3L, 4L)).get(5, TimeUnit.SECONDS));
+
+        assertSame(first, ex.getCause());
+        assertArrayEquals(new Throwable[] {second}, first.getSuppressed());
+        verify(userService).getUserById(3L);
+        verify(userService).getUserById(4L);
+    }
+
+    @Test
+    void executor_shouldRunAtMostMaxConcurrencyTasksAndQueueTheRest() throws Exception {
+        executor = UserServiceExecutor.create(2, 2, true);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch finished = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                finished.countDown();
+            });
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+        // Две принятые задачи ждут в очереди, а не выполняются
+        Thread.sleep(100);
+        assertEquals(2, running.get());
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    void saturatedExecutor_shouldRejectWithFailedFuture() throws Exception {
+        executor = UserServiceExecutor.create(1, 0, false);
+        AsyncUserService asyncService = new AsyncUserServiceImpl(userService, executor);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userService.getUserById(1L)).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.empty();
+        });
+
+        CompletableFuture<Optional<User>> running = asyncService.getUserById(1L);
+        CompletableFuture<Optional<User>> rejected = asyncService.getUserById(2L);
+
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, ex.getCause());
+        verify(userService, never()).getUserById(2L);
+
+        release.countDown();
+        assertTrue(running.get(5, TimeUnit.SECONDS).isEmpty());
+    }
+
+    @Test
+    void failedOperation_shouldCompleteFutureExceptionally() {
+        executor = UserServiceExecutor.create(1, 1, false);
+        AsyncUserService asyncService = new AsyncUserServiceImpl(userService, executor);
+        when(userService.deleteUser(1L)).thenThrow(new IllegalStateException("db down"));
+
+        ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> asyncService.deleteUser(1L).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, ex.getCause());
+    }
+}
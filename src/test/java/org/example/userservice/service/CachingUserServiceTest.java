@@ -0,0 +1,203 @@
+package org.example.userservice.service;
+
+import org.example.userservice.dao.UpsertResult;
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.entity.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CachingUserServiceTest {
+
+    @Mock
+    private UserService delegate;
+
+    private CachingUserService cachingService(boolean cacheAbsent) {
+        return new CachingUserService(delegate, 100, Duration.ofMinutes(1), cacheAbsent);
+    }
+
+    private static User user(Long id, String name) {
+        User user = new User(name, name.toLowerCase() + "@example.com", 30);
+        user.setId(id);
+        return user;
+    }
+
+    @Test
+    void getUserById_shouldHitDelegateOnlyOnceForRepeatedLookups() {
+        CachingUserService service = cachingService(false);
+        when(delegate.getUserById(1L)).thenReturn(Optional.of(user(1L, "Alice")));
+
+        assertEquals("Alice", service.getUserById(1L).orElseThrow().getName());
+        assertEquals("Alice", service.getUserById(1L).orElseThrow().getName());
+
+        verify(delegate, times(1)).getUserById(1L);
+        assertEquals(1, service.getCacheStats().hitCount());
+        assertEquals(1, service.getCacheStats().missCount());
+    }
+
+    @Test
+    void getUserById_shouldReturnCopiesSoCallerChangesDoNotLeakIntoCache() {
+        CachingUserService service = cachingService(false);
+        when(delegate.getUserById(1L)).thenReturn(Optional.of(user(1L, "Alice")));
+
+        service.getUserById(1L).orElseThrow().setName("Changed");
+
+        assertEquals("Alice", service.getUserById(1L).orElseThrow().getName());
+    }
+
+    @Test
+    void getUserById_shouldNotCacheAbsentUsersByDefault() {
+        CachingUserService service = cachingService(false);
+        when(delegate.getUserById(2L)).thenReturn(Optional.empty());
+
+        assertTrue(service.getUserById(2L).isEmpty());
+        assertTrue(service.getUserById(2L).isEmpty());
+
+        verify(delegate, times(2)).getUserById(2L);
+    }
+
+    @Test
+    void getUserById_shouldCacheAbsentUsersWhenEnabled() {
+        CachingUserService service = cachingService(true);
+        when(delegate.getUserById(2L)).thenReturn(Optional.empty());
+
+        assertTrue(service.getUserById(2L).isEmpty());
+        assertTrue(service.getUserById(2L).isEmpty());
+
+        verify(delegate, times(1)).getUserById(2L);
+    }
+
+    @Test
+    void updateUser_shouldInvalidateCachedEntry() {
+        CachingUserService service = cachingService(false);
+        when(delegate.getUserById(1L))
+                .thenReturn(Optional.of(user(1L, "Old")))
+                .thenReturn(Optional.of(user(1L, "New")));
+        when(delegate.updateUser(1L, "New", null, null)).thenReturn(Optional.of(user(1L, "New")));
+
+        service.getUserById(1L);
+        service.updateUser(1L, "New", null, null);
+
+        assertEquals("New", service.getUserById(1L).orElseThrow().getName());
+        verify(delegate, times(2)).getUserById(1L);
+    }
+
+    @Test
+    void updateUsers_shouldInvalidateAllPatchedEntries() {
+        CachingUserService service = cachingService(false);
+        when(delegate.getUserById(1L))
+                .thenReturn(Optional.of(user(1L, "Old")))
+                .thenReturn(Optional.of(user(1L, "New")));
+        List<UserPatch> patches = List.of(new UserPatch(1L, "New", null, null), new UserPatch(2L, "Other", null, null));
+        when(delegate.updateUsers(patches)).thenReturn(List.of(Optional.of(user(1L, "New")), Optional.empty()));
+
+        service.getUserById(1L);
+        service.updateUsers(patches);
+
+        assertEquals("New", service.getUserById(1L).orElseThrow().getName());
+        verify(delegate, times(2)).getUserById(1L);
+    }
+
+    @Test
+    void deleteUser_shouldInvalidateCachedEntry() {
+        CachingUserService service = cachingService(false);
+        when(delegate.getUserById(1L))
+                .thenReturn(Optional.of(user(1L, "Alice")))
+                .thenReturn(Optional.empty());
+        when(delegate.deleteUser(1L)).thenReturn(true);
+
+        service.getUserById(1L);
+        assertTrue(service.deleteUser(1L));
+
+        assertTrue(service.getUserById(1L).isEmpty());
+    }
+
+    @Test
+    void bulkUpdateUsers_shouldInvalidatePatchedEntriesEvenWhenDelegateFails() {
+        CachingUserService service = cachingService(false);
+        when(delegate.getUserById(1L))
+                .thenReturn(Optional.of(user(1L, "Old")))
+                .thenReturn(Optional.of(user(1L, "New")));
+        List<UserPatch> patches = List.of(new UserPatch(1L, "New", null, null), new UserPatch(2L, "Other", null, null));
+        when(delegate.bulkUpdateUsers(patches)).thenThrow(new IllegalStateException("второй порции нет"));
+
+        service.getUserById(1L);
+        assertThrows(IllegalStateException.class, () -> service.bulkUpdateUsers(patches));
+
+        assertEquals("New", service.getUserById(1L).orElseThrow().getName());
+        verify(delegate, times(2)).getUserById(1L);
+    }
+
+    @Test
+    void deleteUsers_shouldInvalidateCachedEntries() {
+        CachingUserService service = cachingService(false);
+        when(delegate.getUserById(1L))
+                .thenReturn(Optional.of(user(1L, "Alice")))
+                .thenReturn(Optional.empty());
+        when(delegate.getUserById(2L))
+                .thenReturn(Optional.of(user(2L, "Bob")))
+                .thenReturn(Optional.empty());
+        when(delegate.deleteUsers(List.of(1L, 2L))).thenReturn(2);
+
+        service.getUserById(1L);
+        service.getUserById(2L);
+        assertEquals(2, service.deleteUsers(List.of(1L, 2L)));
+
+        assertTrue(service.getUserById(1L).isEmpty());
+        assertTrue(service.getUserById(2L).isEmpty());
+    }
+
+    @Test
+    void createUser_shouldServeNewUserFromCache() {
+        CachingUserService service = cachingService(true);
+        when(delegate.createUser("Alice", "alice@example.com", 30)).thenReturn(user(5L, "Alice"));
+
+        service.createUser("Alice", "alice@example.com", 30);
+
+        assertEquals("Alice", service.getUserById(5L).orElseThrow().getName());
+        verify(delegate, never()).getUserById(anyLong());
+    }
+
+    @Test
+    void createUsers_shouldDropNegativeEntriesForNewIds() {
+        CachingUserService service = cachingService(true);
+        User created = user(7L, "Bob");
+        when(delegate.getUserById(7L))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(created));
+        when(delegate.createUsers(List.of(created))).thenReturn(List.of(created));
+
+        assertTrue(service.getUserById(7L).isEmpty());
+        service.createUsers(List.of(created));
+
+        assertTrue(service.getUserById(7L).isPresent());
+    }
+
+    @Test
+    void createOrUpdateByEmail_shouldCacheInsertedAndInvalidateUpdatedUsers() {
+        CachingUserService service = cachingService(false);
+        when(delegate.createOrUpdateByEmail("Alice", "alice@example.com", 30))
+                .thenReturn(new UpsertResult(user(1L, "Alice"), UpsertResult.Outcome.INSERTED));
+        when(delegate.getUserById(2L)).thenReturn(Optional.of(user(2L, "Bob")));
+        service.getUserById(2L);
+        when(delegate.createOrUpdateByEmail("Bobby", "bob@example.com", 30))
+                .thenReturn(new UpsertResult(user(2L, "Bobby"), UpsertResult.Outcome.UPDATED));
+
+        service.createOrUpdateByEmail("Alice", "alice@example.com", 30);
+        service.createOrUpdateByEmail("Bobby", "bob@example.com", 30);
+
+        assertEquals("Alice", service.getUserById(1L).orElseThrow().getName());
+        verify(delegate, never()).getUserById(1L);
+        service.getUserById(2L);
+        verify(delegate, times(2)).getUserById(2L);
+    }
+}
@@ -0,0 +1,164 @@
+package org.example.userservice.service;
+
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.dao.UserSearchResult;
+import org.example.userservice.entity.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class EmailFilteringUserServiceTest {
+
+    @Mock
+    private UserService delegate;
+
+    private final List<User> stored = new CopyOnWriteArrayList<>();
+    private EmailFilteringUserService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    // Построение в фоне и rebuild() в тесте читают одни и те же заглушки; ждем оба,
+    // чтобы фоновое не перестроило фильтр посреди теста
+    private EmailFilteringUserService builtService(String... emails) throws InterruptedException {
+        for (String email : emails) {
+            stored.add(new User("User", email, 30));
+        }
+        when(delegate.searchUsers(any())).thenAnswer(inv -> new UserSearchResult(List.of(), stored.size()));
+        when(delegate.streamAllUsers()).thenAnswer(inv -> stored.stream());
+        service = new EmailFilteringUserService(delegate, 0.01, Duration.ofHours(1));
+        service.rebuild();
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (service.getStats().rebuilds() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, service.getStats().rebuilds());
+        return service;
+    }
+
+    @Test
+    void existsByEmail_shouldAnswerAbsentEmailWithoutDelegate() throws InterruptedException {
+        builtService("alice@example.com", "bob@example.com");
+        when(delegate.existsByEmail("alice@example.com")).thenReturn(true);
+
+        assertFalse(service.existsByEmail("nobody@example.com"));
+        assertTrue(service.existsByEmail("alice@example.com"));
+
+        verify(delegate, never()).existsByEmail("nobody@example.com");
+        EmailFilterStats stats = service.getStats();
+        assertTrue(stats.ready());
+        assertEquals(1, stats.skipped());
+        assertEquals(1, stats.passed());
+        assertEquals(0, stats.falsePositives());
+        assertTrue(stats.memoryBytes() > 0);
+    }
+
+    @Test
+    void getUserByEmail_shouldAnswerAbsentEmailWithoutDelegate() throws InterruptedException {
+        builtService("alice@example.com");
+
+        assertTrue(service.getUserByEmail("nobody@example.com").isEmpty());
+
+        verify(delegate, never()).getUserByEmail(any());
+    }
+
+    @Test
+    void getUserByEmailIgnoreCase_shouldAlwaysGoToDelegate() throws InterruptedException {
+        builtService("alice@example.com");
+        when(delegate.getUserByEmailIgnoreCase("ALICE@example.com"))
+                .thenReturn(Optional.of(new User("Alice", "alice@example.com", 30)));
+
+        assertTrue(service.getUserByEmailIgnoreCase("ALICE@example.com").isPresent());
+    }
+
+    @Test
+    void createUser_shouldMakeEmailVisibleBeforeNextRebuild() throws InterruptedException {
+        builtService("alice@example.com");
+        when(delegate.existsByEmail("carol@example.com")).thenReturn(true);
+
+        service.createUser("Carol", "carol@example.com", 25);
+
+        assertTrue(service.existsByEmail("carol@example.com"));
+    }
+
+    @Test
+    void updateAndBulkUpdate_shouldAddNewEmailsToFilter() throws InterruptedException {
+        builtService("alice@example.com");
+        when(delegate.existsByEmail(any())).thenReturn(true);
+
+        service.updateUser(1L, null, "dave@example.com", null);
+        service.bulkUpdateUsers(List.of(new UserPatch(2L, null, "erin@example.com", null)));
+
+        assertTrue(service.existsByEmail("dave@example.com"));
+        assertTrue(service.existsByEmail("erin@example.com"));
+        verify(delegate).existsByEmail("dave@example.com");
+        verify(delegate).existsByEmail("erin@example.com");
+    }
+
+    @Test
+    void existsByEmail_shouldCountDeletedEmailAsFalsePositiveUntilRebuild() throws InterruptedException {
+        builtService("alice@example.com", "bob@example.com");
+        when(delegate.existsByEmail("bob@example.com")).thenReturn(false);
+
+        stored.removeIf(user -> user.getEmail().equals("bob@example.com"));
+        assertFalse(service.existsByEmail("bob@example.com"));
+        assertEquals(1, service.getStats().falsePositives());
+
+        service.rebuild();
+        assertFalse(service.existsByEmail("bob@example.com"));
+
+        verify(delegate, times(1)).existsByEmail("bob@example.com");
+    }
+
+    @Test
+    void rebuild_shouldKeepEmailsWrittenWhileReadingUsers() {
+        stored.add(new User("Alice", "alice@example.com", 30));
+        when(delegate.searchUsers(any())).thenAnswer(inv -> new UserSearchResult(List.of(), stored.size()));
+        // Запись, зафиксированная после начала обхода, обходом не видна
+        when(delegate.streamAllUsers()).thenAnswer(inv -> stored.stream()
+                .peek(user -> service.createUser("Frank", "frank@example.com", 40)));
+        when(delegate.existsByEmail("frank@example.com")).thenReturn(true);
+        service = new EmailFilteringUserService(delegate, 0.01, Duration.ofHours(1));
+
+        service.rebuild();
+
+        assertTrue(service.existsByEmail("frank@example.com"));
+    }
+
+    @Test
+    void existsByEmail_beforeFirstBuild_shouldGoToDelegate() {
+        // Без заглушек построение в фоне падает, и фильтр остается непостроенным
+        service = new EmailFilteringUserService(delegate, 0.01, Duration.ofHours(1));
+        when(delegate.existsByEmail("alice@example.com")).thenReturn(false);
+
+        assertFalse(service.existsByEmail("alice@example.com"));
+
+        verify(delegate).existsByEmail("alice@example.com");
+        assertFalse(service.getStats().ready());
+        assertEquals(0, service.getStats().skipped());
+    }
+
+    @Test
+    void constructor_shouldRejectInvalidSettings() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new EmailFilteringUserService(delegate, 0, Duration.ofHours(1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new EmailFilteringUserService(delegate, 0.01, Duration.ZERO));
+    }
+}
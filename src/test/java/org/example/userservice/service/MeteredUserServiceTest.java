@@ -0,0 +1,75 @@
+package org.example.userservice.service;
+
+import org.example.userservice.entity.User;
+import org.example.userservice.metrics.MetricsRegistry;
+import org.example.userservice.metrics.OperationStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MeteredUserServiceTest {
+
+    @Mock
+    private UserService delegate;
+
+    private MetricsRegistry registry;
+    private MeteredUserService userService;
+
+    @BeforeEach
+    void setUp() {
+        registry = new MetricsRegistry();
+        userService = new MeteredUserService(delegate, registry);
+    }
+
+    private OperationStats stats(String name) {
+        return registry.snapshot().stream()
+                .filter(s -> s.name().equals("service." + name))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    void getUserById_shouldDelegateAndCountCall() {
+        User user = new User("Alice", "alice@example.com", 30);
+        when(delegate.getUserById(1L)).thenReturn(Optional.of(user));
+
+        assertSame(user, userService.getUserById(1L).orElseThrow());
+
+        assertEquals(1, stats("getUserById").calls());
+        assertEquals(0, stats("getUserById").errors());
+    }
+
+    @Test
+    void deleteUser_shouldCountErrorAndRethrow() {
+        when(delegate.deleteUser(1L)).thenThrow(new IllegalStateException("db down"));
+
+        assertThrows(IllegalStateException.class, () -> userService.deleteUser(1L));
+
+        assertEquals(1, stats("deleteUser").calls());
+        assertEquals(1, stats("deleteUser").errors());
+    }
+
+    @Test
+    void streamAllUsers_shouldStayInFlightUntilStreamClosed() {
+        AtomicBoolean delegateClosed = new AtomicBoolean();
+        when(delegate.streamAllUsers()).thenReturn(Stream.<User>empty().onClose(() -> delegateClosed.set(true)));
+
+        Stream<User> users = userService.streamAllUsers();
+        assertEquals(1, stats("streamAllUsers").inFlight());
+
+        users.close();
+        assertTrue(delegateClosed.get());
+        assertEquals(0, stats("streamAllUsers").inFlight());
+        assertEquals(1, stats("streamAllUsers").calls());
+    }
+}
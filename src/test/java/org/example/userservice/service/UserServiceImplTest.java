@@ -1,6 +1,14 @@
 package org.example.userservice.service;
 
+import org.example.userservice.dao.ChangeCursor;
+import org.example.userservice.dao.UpsertResult;
+import org.example.userservice.dao.UserChangePage;
 import org.example.userservice.dao.UserDao;
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.dao.UserQuery;
+import org.example.userservice.dao.UserSearchResult;
+import org.example.userservice.dao.UserSummary;
+import jakarta.persistence.OptimisticLockException;
 import org.example.userservice.entity.User;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -8,8 +16,12 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -23,6 +35,9 @@ class UserServiceImplTest {
     @Mock
     private UserDao userDao;
 
+    @Spy
+    private RetryPolicy retryPolicy = RetryPolicy.of(3, Duration.ofMillis(1), Duration.ofMillis(2));
+
     @InjectMocks
     private UserServiceImpl userService;
 
@@ -56,6 +71,45 @@ class UserServiceImplTest {
         assertEquals(age, created.getAge());
     }
 
+    @Test
+    void createUsers_shouldPersistAllUsersInOneDaoCall() {
+        List<User> users = List.of(
+                new User("A", "a@example.com", 20),
+                new User("B", "b@example.com", 21)
+        );
+
+        List<User> created = userService.createUsers(users);
+
+        assertEquals(users, created);
+        verify(userDao, times(1)).saveAll(users);
+        verify(userDao, never()).save(any());
+    }
+
+    @Test
+    void createOrUpdateByEmail_shouldUpsertThroughDao() {
+        User user = new User("Alice", "alice@example.com", 30);
+        user.setId(1L);
+        UpsertResult result = new UpsertResult(user, UpsertResult.Outcome.INSERTED);
+        when(userDao.upsertByEmail(any())).thenReturn(result);
+
+        assertSame(result, userService.createOrUpdateByEmail("Alice", "alice@example.com", 30));
+
+        ArgumentCaptor<User> captor = ArgumentCaptor.forClass(User.class);
+        verify(userDao).upsertByEmail(captor.capture());
+        assertEquals("alice@example.com", captor.getValue().getEmail());
+        verify(userDao, never()).save(any());
+    }
+
+    @Test
+    void findChangedSince_shouldRejectNonPositiveLimitAndDelegateToDao() {
+        ChangeCursor cursor = ChangeCursor.since(LocalDateTime.of(2024, 1, 1, 0, 0));
+        UserChangePage page = new UserChangePage(List.of(), cursor);
+        when(userDao.findChangedSince(cursor, 100)).thenReturn(page);
+
+        assertThrows(IllegalArgumentException.class, () -> userService.findChangedSince(cursor, 0));
+        assertSame(page, userService.findChangedSince(cursor, 100));
+    }
+
     @Test
     void getUserById_shouldReturnUserWhenExists() {
         Long id = 1L;
@@ -82,6 +136,25 @@ class UserServiceImplTest {
         verify(userDao, times(1)).findById(id);
     }
 
+    @Test
+    void getUserByEmail_shouldDelegateToNaturalIdLookup() {
+        User user = new User("Bob", "bob@example.com", 30);
+        when(userDao.findByEmail("bob@example.com")).thenReturn(Optional.of(user));
+
+        Optional<User> result = userService.getUserByEmail("bob@example.com");
+
+        assertSame(user, result.orElseThrow());
+        verify(userDao, never()).findAll();
+    }
+
+    @Test
+    void existsByEmail_shouldDelegateToDao() {
+        when(userDao.existsByEmail("bob@example.com")).thenReturn(true);
+
+        assertTrue(userService.existsByEmail("bob@example.com"));
+        verify(userDao, never()).findAll();
+    }
+
     @Test
     void getAllUsers_shouldReturnListFromDao() {
         List<User> users = Arrays.asList(
@@ -98,61 +171,190 @@ class UserServiceImplTest {
     }
 
     @Test
-    void updateUser_shouldUpdateExistingUser() {
+    void getUsersPage_shouldDelegateToDao() {
+        List<User> page = List.of(new User("A", "a@example.com", 20));
+        when(userDao.findPage(10L, 1)).thenReturn(page);
+
+        List<User> result = userService.getUsersPage(10L, 1);
+
+        assertSame(page, result);
+        verify(userDao, times(1)).findPage(10L, 1);
+    }
+
+    @Test
+    void getUsersPage_shouldRejectNonPositiveLimit() {
+        assertThrows(IllegalArgumentException.class, () -> userService.getUsersPage(null, 0));
+        verifyNoInteractions(userDao);
+    }
+
+    @Test
+    void getUserSummariesPage_shouldDelegateToDao() {
+        List<UserSummary> page = List.of(new UserSummary(11L, "A", "a@example.com"));
+        when(userDao.findSummaryPage(10L, 1)).thenReturn(page);
+
+        List<UserSummary> result = userService.getUserSummariesPage(10L, 1);
+
+        assertSame(page, result);
+        verify(userDao, times(1)).findSummaryPage(10L, 1);
+    }
+
+    @Test
+    void getUserSummariesPage_shouldRejectNonPositiveLimit() {
+        assertThrows(IllegalArgumentException.class, () -> userService.getUserSummariesPage(null, 0));
+        verifyNoInteractions(userDao);
+    }
+
+    @Test
+    void searchUsers_shouldDelegateToDao() {
+        UserQuery query = UserQuery.builder().namePrefix("A").build();
+        UserSearchResult found = new UserSearchResult(List.of(new User("A", "a@example.com", 20)), 1);
+        when(userDao.search(query)).thenReturn(found);
+
+        assertSame(found, userService.searchUsers(query));
+        verify(userDao, times(1)).search(query);
+    }
+
+    @Test
+    void updateUser_shouldPatchExistingUserInSingleDaoCall() {
         Long id = 1L;
-        User existing = new User("Old", "old@example.com", 40);
-        existing.setId(id);
+        User updated = new User("New", "new@example.com", 41);
+        updated.setId(id);
 
-        when(userDao.findById(id)).thenReturn(Optional.of(existing));
+        when(userDao.patch(new UserPatch(id, "New", "new@example.com", 41))).thenReturn(Optional.of(updated));
 
         Optional<User> result = userService.updateUser(id, "New", "new@example.com", 41);
 
         assertTrue(result.isPresent());
-        User updated = result.get();
-        assertEquals("New", updated.getName());
-        assertEquals("new@example.com", updated.getEmail());
-        assertEquals(41, updated.getAge());
+        assertEquals("New", result.get().getName());
+        assertEquals("new@example.com", result.get().getEmail());
+        assertEquals(41, result.get().getAge());
 
-        verify(userDao, times(1)).findById(id);
-        verify(userDao, times(1)).update(existing);
+        verify(userDao, times(1)).patch(new UserPatch(id, "New", "new@example.com", 41));
+        verify(userDao, never()).findById(any());
+        verify(userDao, never()).update(any());
+    }
+
+    @Test
+    void updateUser_shouldPassOnlyChangedFields() {
+        Long id = 1L;
+        when(userDao.patch(any())).thenReturn(Optional.empty());
+
+        userService.updateUser(id, null, null, 42);
+
+        ArgumentCaptor<UserPatch> patchCaptor = ArgumentCaptor.forClass(UserPatch.class);
+        verify(userDao).patch(patchCaptor.capture());
+        assertEquals(new UserPatch(id, null, null, 42), patchCaptor.getValue());
     }
 
     @Test
     void updateUser_shouldReturnEmptyWhenUserNotFound() {
         Long id = 1L;
-        when(userDao.findById(id)).thenReturn(Optional.empty());
+        when(userDao.patch(new UserPatch(id, "New", "new@example.com", 41))).thenReturn(Optional.empty());
 
         Optional<User> result = userService.updateUser(id, "New", "new@example.com", 41);
 
         assertTrue(result.isEmpty());
-        verify(userDao, times(1)).findById(id);
         verify(userDao, never()).update(any());
     }
 
     @Test
-    void deleteUser_shouldDeleteWhenUserExists() {
+    void updateUser_shouldRetryAfterOptimisticLockFailure() {
         Long id = 1L;
-        User existing = new User("Name", "name@example.com", 20);
-        existing.setId(id);
+        User updated = new User("New", "new@example.com", 41);
+        updated.setId(id);
+        when(userDao.patch(new UserPatch(id, "New", null, null)))
+                .thenThrow(new OptimisticLockException("conflict"))
+                .thenReturn(Optional.of(updated));
 
-        when(userDao.findById(id)).thenReturn(Optional.of(existing));
+        Optional<User> result = userService.updateUser(id, "New", null, null);
+
+        assertEquals("New", result.orElseThrow().getName());
+        verify(userDao, times(2)).patch(new UserPatch(id, "New", null, null));
+    }
+
+    @Test
+    void updateUser_shouldGiveUpAfterMaxAttempts() {
+        when(userDao.patch(any())).thenThrow(new OptimisticLockException("conflict"));
+
+        assertThrows(OptimisticLockException.class, () -> userService.updateUser(1L, "New", null, null));
+
+        verify(userDao, times(3)).patch(any());
+    }
+
+    @Test
+    void updateUser_shouldNotRetryNonConcurrencyErrors() {
+        when(userDao.patch(any())).thenThrow(new IllegalStateException("duplicate email"));
+
+        assertThrows(IllegalStateException.class, () -> userService.updateUser(1L, null, "dup@example.com", null));
+
+        verify(userDao, times(1)).patch(any());
+    }
+
+    @Test
+    void updateUsers_shouldPassAllPatchesToDaoInOneCall() {
+        User updated = new User("New", "new@example.com", 41);
+        updated.setId(1L);
+        List<UserPatch> patches = List.of(new UserPatch(1L, "New", null, null), new UserPatch(2L, null, null, 30));
+        when(userDao.patchAll(patches)).thenReturn(List.of(Optional.of(updated), Optional.empty()));
+
+        List<Optional<User>> result = userService.updateUsers(patches);
+
+        assertEquals(List.of(Optional.of(updated), Optional.empty()), result);
+        verify(userDao, times(1)).patchAll(patches);
+        verify(userDao, never()).patch(any());
+    }
+
+    @Test
+    void bulkUpdateUsers_shouldRetryOnlyChunkThatFailed() {
+        List<UserPatch> patches = new ArrayList<>();
+        for (long id = 1; id <= UserDao.MUTATION_CHUNK_SIZE + 1; id++) {
+            patches.add(new UserPatch(id, null, null, 30));
+        }
+        List<UserPatch> committed = patches.subList(0, UserDao.MUTATION_CHUNK_SIZE);
+        List<UserPatch> conflicting = patches.subList(UserDao.MUTATION_CHUNK_SIZE, patches.size());
+        when(userDao.updateAll(committed)).thenReturn(UserDao.MUTATION_CHUNK_SIZE);
+        when(userDao.updateAll(conflicting))
+                .thenThrow(new OptimisticLockException("conflict"))
+                .thenReturn(1);
+
+        assertEquals(UserDao.MUTATION_CHUNK_SIZE + 1, userService.bulkUpdateUsers(patches));
+
+        verify(userDao, times(1)).updateAll(committed);
+        verify(userDao, times(2)).updateAll(conflicting);
+        verify(userDao, never()).patchAll(any());
+    }
+
+    @Test
+    void deleteUsers_shouldDeleteAllIdsInOneDaoCall() {
+        List<Long> ids = List.of(1L, 2L, 3L);
+        when(userDao.deleteAllById(ids)).thenReturn(2);
+
+        assertEquals(2, userService.deleteUsers(ids));
+
+        verify(userDao, times(1)).deleteAllById(ids);
+        verify(userDao, never()).deleteById(any());
+    }
+
+    @Test
+    void deleteUser_shouldDeleteWhenUserExists() {
+        Long id = 1L;
+        when(userDao.deleteById(id)).thenReturn(true);
 
         boolean deleted = userService.deleteUser(id);
 
         assertTrue(deleted);
-        verify(userDao, times(1)).findById(id);
+        verify(userDao, never()).findById(any());
         verify(userDao, times(1)).deleteById(id);
     }
 
     @Test
     void deleteUser_shouldReturnFalseWhenUserNotFound() {
         Long id = 1L;
-        when(userDao.findById(id)).thenReturn(Optional.empty());
+        when(userDao.deleteById(id)).thenReturn(false);
 
         boolean deleted = userService.deleteUser(id);
 
         assertFalse(deleted);
-        verify(userDao, times(1)).findById(id);
-        verify(userDao, never()).deleteById(anyLong());
+        verify(userDao, times(1)).deleteById(id);
     }
 }
@@ -0,0 +1,244 @@
+package org.example.userservice.service;
+
+import org.example.userservice.dao.UserPatch;
+import org.example.userservice.entity.User;
+import org.example.userservice.util.HibernateUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WriteBehindUserServiceTest {
+
+    @Mock
+    private UserService userService;
+
+    private WriteBehindUserService writeBehind;
+
+    private final AtomicLong ids = new AtomicLong();
+
+    @AfterEach
+    void tearDown() {
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+    }
+
+    private static User user(Long id, String name) {
+        User user = new User(name, name.toLowerCase() + "@example.com", 30);
+        user.setId(id);
+        return user;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assignIdsOnCreateUsers() {
+        when(userService.createUsers(any())).thenAnswer(invocation -> {
+            List<User> users = List.copyOf((Collection<User>) invocation.getArgument(0));
+            users.forEach(user -> user.setId(ids.incrementAndGet()));
+            return users;
+        });
+    }
+
+    @Test
+    void createUser_shouldCommitQueuedCreatesInOneGroup() throws Exception {
+        assignIdsOnCreateUsers();
+        writeBehind = new WriteBehindUserService(userService, 100, 10, Duration.ofMillis(500));
+
+        CompletableFuture<User> alice = writeBehind.createUser("Alice", "alice@example.com", 30);
+        CompletableFuture<User> bob = writeBehind.createUser("Bob", "bob@example.com", 31);
+        CompletableFuture<User> carol = writeBehind.createUser("Carol", "carol@example.com", 32);
+
+        assertEquals("Alice", alice.get(5, TimeUnit.SECONDS).getName());
+        assertEquals("Bob", bob.get(5, TimeUnit.SECONDS).getName());
+        assertEquals("Carol", carol.get(5, TimeUnit.SECONDS).getName());
+        assertNotNull(carol.get().getId());
+        verify(userService, times(1)).createUsers(any());
+        verify(userService, never()).createUser(anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    void createUser_shouldStartGroupWhenBatchSizeReached() throws Exception {
+        assignIdsOnCreateUsers();
+        writeBehind = new WriteBehindUserService(userService, 100, 2, Duration.ofSeconds(30));
+
+        CompletableFuture<User> first = writeBehind.createUser("Alice", "alice@example.com", 30);
+        CompletableFuture<User> second = writeBehind.createUser("Bob", "bob@example.com", 31);
+
+        // Группа полна - запись не ждет maxDelay
+        assertNotNull(first.get(5, TimeUnit.SECONDS).getId());
+        assertNotNull(second.get(5, TimeUnit.SECONDS).getId());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void updateUser_shouldCoalesceUpdatesOfSameIdIntoOnePatch() throws Exception {
+        when(userService.updateUsers(any())).thenAnswer(invocation -> {
+            List<UserPatch> patches = invocation.getArgument(0);
+            List<Optional<User>> result = new ArrayList<>();
+            for (UserPatch patch : patches) {
+                User user = user(patch.id(), patch.name() != null ? patch.name() : "Unchanged");
+                result.add(Optional.of(user));
+            }
+            return result;
+        });
+        writeBehind = new WriteBehindUserService(userService, 100, 10, Duration.ofMillis(500));
+
+        CompletableFuture<Optional<User>> rename = writeBehind.updateUser(1L, "Renamed", null, null);
+        CompletableFuture<Optional<User>> other = writeBehind.updateUser(2L, null, null, 50);
+        CompletableFuture<Optional<User>> age = writeBehind.updateUser(1L, null, null, 40);
+
+        assertEquals("Renamed", rename.get(5, TimeUnit.SECONDS).orElseThrow().getName());
+        assertEquals("Renamed", age.get(5, TimeUnit.SECONDS).orElseThrow().getName());
+        assertEquals(2L, other.get(5, TimeUnit.SECONDS).orElseThrow().getId());
+        // Каждый вызывающий получает свой объект
+        assertNotSame(rename.get().orElseThrow(), age.get().orElseThrow());
+
+        ArgumentCaptor<List<UserPatch>> captor = ArgumentCaptor.forClass(List.class);
+        verify(userService).updateUsers(captor.capture());
+        assertEquals(List.of(new UserPatch(1L, "Renamed", null, 40), new UserPatch(2L, null, null, 50)),
+                captor.getValue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_shouldKeepQueueOrderBetweenCreatesAndUpdates() throws Exception {
+        assignIdsOnCreateUsers();
+        when(userService.updateUsers(any())).thenAnswer(invocation -> invocation.<List<UserPatch>>getArgument(0)
+                .stream().map(patch -> Optional.of(user(patch.id(), "Updated"))).toList());
+        writeBehind = new WriteBehindUserService(userService, 100, 10, Duration.ofMillis(500));
+
+        // Обновление освобождает email alice@, следующее создание его занимает: порядок менять нельзя
+        CompletableFuture<Optional<User>> freeEmail = writeBehind.updateUser(1L, null, "alice.old@example.com", null);
+        CompletableFuture<User> reuseEmail = writeBehind.createUser("Alice", "alice@example.com", 30);
+        CompletableFuture<Optional<User>> later = writeBehind.updateUser(1L, "Later", null, null);
+
+        freeEmail.get(5, TimeUnit.SECONDS);
+        reuseEmail.get(5, TimeUnit.SECONDS);
+        later.get(5, TimeUnit.SECONDS);
+
+        InOrder order = inOrder(userService);
+        order.verify(userService).updateUsers(List.of(new UserPatch(1L, null, "alice.old@example.com", null)));
+        ArgumentCaptor<Collection<User>> created = ArgumentCaptor.forClass(Collection.class);
+        order.verify(userService).createUsers(created.capture());
+        assertEquals("alice@example.com", created.getValue().iterator().next().getEmail());
+        order.verify(userService).updateUsers(List.of(new UserPatch(1L, "Later", null, null)));
+    }
+
+    @Test
+    void failedGroup_shouldRetryOneByOneAndFailOnlyOffendingCreate() throws Exception {
+        when(userService.createUsers(any())).thenThrow(new IllegalStateException("duplicate email"));
+        when(userService.createUser("Alice", "alice@example.com", 30)).thenReturn(user(1L, "Alice"));
+        when(userService.createUser("Dup", "dup@example.com", 31)).thenThrow(new IllegalStateException("duplicate email"));
+        when(userService.createUser("Carol", "carol@example.com", 32)).thenReturn(user(3L, "Carol"));
+        writeBehind = new WriteBehindUserService(userService, 100, 3, Duration.ofSeconds(5));
+
+        CompletableFuture<User> alice = writeBehind.createUser("Alice", "alice@example.com", 30);
+        CompletableFuture<User> dup = writeBehind.createUser("Dup", "dup@example.com", 31);
+        CompletableFuture<User> carol = writeBehind.createUser("Carol", "carol@example.com", 32);
+
+        assertEquals(1L, alice.get(5, TimeUnit.SECONDS).getId());
+        assertEquals(3L, carol.get(5, TimeUnit.SECONDS).getId());
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> dup.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, ex.getCause());
+    }
+
+    @Test
+    void createUser_shouldRejectWhenQueueIsFull() throws Exception {
+        CountDownLatch commitStarted = new CountDownLatch(1);
+        CountDownLatch releaseCommit = new CountDownLatch(1);
+        when(userService.createUsers(any())).thenAnswer(invocation -> {
+            commitStarted.countDown();
+            releaseCommit.await(5, TimeUnit.SECONDS);
+            return List.copyOf(invocation.<Collection<User>>getArgument(0));
+        });
+        writeBehind = new WriteBehindUserService(userService, 1, 1, Duration.ZERO);
+
+        try {
+            writeBehind.createUser("First", "first@example.com", 30);
+            assertTrue(commitStarted.await(5, TimeUnit.SECONDS));
+            writeBehind.createUser("Queued", "queued@example.com", 31);
+
+            CompletableFuture<User> rejected = writeBehind.createUser("Rejected", "rejected@example.com", 32);
+
+            ExecutionException ex = assertThrows(ExecutionException.class, () -> rejected.get(1, TimeUnit.SECONDS));
+            assertInstanceOf(RejectedExecutionException.class, ex.getCause());
+        } finally {
+            releaseCommit.countDown();
+        }
+    }
+
+    @Test
+    void flusherError_shouldFailQueuedChangesAndRejectNewOnes() throws Exception {
+        CountDownLatch commitStarted = new CountDownLatch(1);
+        CountDownLatch releaseCommit = new CountDownLatch(1);
+        Error fatal = new AssertionError("flusher died");
+        when(userService.createUsers(any())).thenAnswer(invocation -> {
+            commitStarted.countDown();
+            releaseCommit.await(5, TimeUnit.SECONDS);
+            throw fatal;
+        });
+        writeBehind = new WriteBehindUserService(userService, 10, 1, Duration.ZERO);
+
+        CompletableFuture<User> first = writeBehind.createUser("First", "first@example.com", 30);
+        assertTrue(commitStarted.await(5, TimeUnit.SECONDS));
+        CompletableFuture<User> queued = writeBehind.createUser("Queued", "queued@example.com", 31);
+        releaseCommit.countDown();
+
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        assertSame(fatal, ex.getCause());
+        assertTrue(first.isCompletedExceptionally());
+        assertEquals(0, writeBehind.getPendingCount());
+        ExecutionException late = assertThrows(ExecutionException.class,
+                () -> writeBehind.createUser("Late", "late@example.com", 32).get(1, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, late.getCause());
+        verify(userService, times(1)).createUsers(any());
+    }
+
+    @Test
+    void close_shouldCommitQueuedChangesAndRejectNewOnes() {
+        assignIdsOnCreateUsers();
+        writeBehind = new WriteBehindUserService(userService, 100, 100, Duration.ofSeconds(30));
+        CompletableFuture<User> queued = writeBehind.createUser("Alice", "alice@example.com", 30);
+
+        writeBehind.close();
+
+        assertTrue(queued.isDone());
+        assertNotNull(queued.join().getId());
+        CompletableFuture<User> late = writeBehind.createUser("Late", "late@example.com", 31);
+        assertTrue(late.isCompletedExceptionally());
+    }
+
+    @Test
+    void hibernateShutdown_shouldDrainWriteBehindQueue() {
+        assignIdsOnCreateUsers();
+        writeBehind = new WriteBehindUserService(userService, 100, 100, Duration.ofSeconds(30));
+        CompletableFuture<User> queued = writeBehind.createUser("Alice", "alice@example.com", 30);
+
+        HibernateUtil.shutdown();
+
+        assertTrue(queued.isDone());
+        assertEquals("Alice", queued.join().getName());
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.userservice.util;
+
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SqlMonitorTest {
+
+    private static final String SELECT_BY_ID = "select u1_0.id,u1_0.name from users u1_0 where u1_0.id=?";
+    private static final String INSERT = "insert into users (name,id) values (?,?)";
+
+    private final Statistics statistics = mock(Statistics.class);
+
+    @Test
+    void shape_shouldCollapseWhitespaceAndInLists() {
+        assertEquals("select u.id from users u where u.id in (?...) and u.age=?",
+                SqlMonitor.shape(" select u.id\n  from users u where u.id in (?, ?,?) and u.age=? "));
+        assertEquals(SqlMonitor.shape("delete from users where id in (?,?)"),
+                SqlMonitor.shape("delete from users where id in (?,?,?,?,?)"));
+    }
+
+    @Test
+    void record_shouldAggregateByShapeAndCountSlowExecutions() {
+        SqlMonitor monitor = new SqlMonitor(100, 0, 0, 500);
+        when(statistics.getEntityLoadCount()).thenReturn(7L);
+
+        monitor.record("select * from users where id in (?,?)", 1_000_000);
+        monitor.record("select * from users where id in (?,?,?)", 150_000_000);
+        monitor.record(INSERT, 2_000_000);
+
+        SqlStats stats = monitor.snapshot(statistics, 10);
+        assertEquals(3, stats.executions());
+        assertEquals(1, stats.slowExecutions());
+        assertEquals(7, stats.entityLoads());
+        SqlStats.Query slowest = stats.queries().get(0);
+        assertEquals("select * from users where id in (?...)", slowest.sql());
+        assertEquals(2, slowest.executions());
+        assertEquals(1, slowest.slowExecutions());
+        assertEquals(151.0, slowest.totalMillis(), 0.001);
+        assertEquals(150.0, slowest.maxMillis(), 0.001);
+        assertEquals(1, monitor.snapshot(statistics, 1).queries().size());
+    }
+
+    @Test
+    void record_shouldPutQueriesOverLimitIntoOneRow() {
+        SqlMonitor monitor = new SqlMonitor(100, 0, 0, 1);
+
+        monitor.record(SELECT_BY_ID, 1_000);
+        monitor.record(INSERT, 1_000);
+        monitor.record("delete from users where id=?", 1_000);
+
+        List<String> queries = monitor.snapshot(statistics, 10).queries().stream().map(SqlStats.Query::sql).toList();
+        assertEquals(2, queries.size());
+        assertTrue(queries.containsAll(List.of(SELECT_BY_ID, "(прочие запросы)")), queries.toString());
+    }
+
+    @Test
+    void sessionListener_shouldReportSelectRepeatedInOneSession() {
+        SqlMonitor monitor = new SqlMonitor(1_000, 3, 0, 500);
+
+        SqlMonitor.SessionListener session = new SqlMonitor.SessionListener(monitor);
+        for (int i = 0; i < 5; i++) {
+            execute(monitor, session, SELECT_BY_ID);
+            execute(monitor, session, INSERT);
+        }
+        // В другой сессии запрос повторяется реже порога
+        SqlMonitor.SessionListener other = new SqlMonitor.SessionListener(monitor);
+        execute(monitor, other, SELECT_BY_ID);
+        execute(monitor, other, SELECT_BY_ID);
+
+        SqlStats stats = monitor.snapshot(statistics, 10);
+        assertEquals(12, stats.executions());
+        assertEquals(List.of(new SqlStats.NPlusOne(SELECT_BY_ID, 1)), stats.nPlusOne());
+    }
+
+    @Test
+    void reset_shouldClearCounters() {
+        SqlMonitor monitor = new SqlMonitor(0, 1, 0, 500);
+        execute(monitor, new SqlMonitor.SessionListener(monitor), SELECT_BY_ID);
+
+        monitor.reset();
+
+        SqlStats stats = monitor.snapshot(statistics, 10);
+        assertEquals(0, stats.executions());
+        assertEquals(0, stats.slowExecutions());
+        assertTrue(stats.queries().isEmpty());
+        assertTrue(stats.nPlusOne().isEmpty());
+    }
+
+    private static void execute(SqlMonitor monitor, SqlMonitor.SessionListener session, String sql) {
+        assertEquals(sql, monitor.inspect(sql));
+        session.jdbcExecuteStatementStart();
+        session.jdbcExecuteStatementEnd();
+    }
+}